@@ -13,18 +13,126 @@ import android.os.Build
 import android.os.IBinder
 import android.util.Log
 import androidx.annotation.RequiresApi
-import org.greenrobot.eventbus.EventBus
 import android.content.BroadcastReceiver
 import android.content.IntentFilter
 import android.graphics.drawable.Icon
+import android.os.PowerManager
 import android.os.StrictMode
+import android.os.SystemClock
 import android.widget.Toast
+import fi.craplab.spotifindme.beacon.AltBeacon
+import fi.craplab.spotifindme.beacon.AltBeaconRecordParser
+import fi.craplab.spotifindme.event.EventChannel
+import fi.craplab.spotifindme.filter.KalmanRssiFilter
+import fi.craplab.spotifindme.latency.SwitchLatencyTracker
+import fi.craplab.spotifindme.playback.PlaybackController
+import fi.craplab.spotifindme.position.FloorPlan
+import fi.craplab.spotifindme.position.RoomDecider
+import fi.craplab.spotifindme.scan.ScanProfile
+import fi.craplab.spotifindme.scan.ScanScheduler
+import fi.craplab.spotifindme.trace.ScanTrace
+import fi.craplab.spotifindme.trace.TraceWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
 import java.lang.Exception
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 
 
 class BTSCanService : Service() {
-    private var bcReceiver: BTSCanService.StopServerBroadcast? = null
-    private var foundDevice: Any? = null
+    /** Exit action of the notification, registered for the whole lifetime of the service */
+    private val bcReceiver = StopServerBroadcast()
+
+    /**
+     * Room decision from the beacon samples, through per-beacon Kalman filters, the estimated
+     * position and the rooms of the [floorPlan]. Takes care of the enter/exit hysteresis and
+     * dwell times, and only reports a room once the phone actually moved into it.
+     */
+    private val roomDecider = RoomDecider(floorPlan) { KalmanRssiFilter() }
+
+    /** Scan trace recorder, only used if [RECORD_SCAN_TRACE] is set */
+    private var traceWriter: TraceWriter? = null
+
+    /** Parser for the beacon advertisements, reused for every scan result */
+    private val recordParser = AltBeaconRecordParser()
+
+    /** Latest filtered RSSI of each beacon within the current scan results, by registry index */
+    private val latestRssi = DoubleArray(beaconRegistry.size())
+
+    /** Latest distance of each beacon within the current scan results, by registry index */
+    private val latestDistance = DoubleArray(beaconRegistry.size())
+
+    /** Beacons seen within the current scan results, by registry index */
+    private val beaconUpdated = BooleanArray(beaconRegistry.size())
+
+    /** Latest timestamp within the current scan results, `0` if no beacon was seen yet */
+    private var receivedMillis = 0L
+
+    /** Latest timestamp of all scan results so far, for decisions without new scan results */
+    private var lastReceivedMillis = 0L
+
+    /**
+     * Executor running the whole filter, position, decision and playback pipeline, as well as the
+     * scan scheduling, so none of it runs on the main thread. [roomDecider], [recordParser],
+     * [scanScheduler],
+     * [traceWriter] and the state of the current scan results are only accessed from here.
+     */
+    private val decisionExecutor: ScheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor()
+
+    /** Decides the scan profile and duty cycle, and starts and stops the scanner accordingly */
+    private val scanScheduler = ScanScheduler(object : ScanScheduler.Scanner {
+        override fun startScan(profile: ScanProfile) {
+            Log.d(TAG, "start scan with profile $profile")
+            bleScanner?.startScan(filters, buildScanSettings(profile), scanCallback)
+        }
+
+        override fun stopScan() {
+            Log.d(TAG, "stop scan")
+            bleScanner?.let { scanner ->
+                // deliver whatever is still waiting in the controller's batch
+                scanner.flushPendingScanResults(scanCallback)
+                scanner.stopScan(scanCallback)
+            }
+        }
+    }, BOUNDARY_RSSI)
+
+    /** Next scheduled [updateScan] call */
+    private var scanUpdate: ScheduledFuture<*>? = null
+
+    /**
+     * Screen state changes, which change how aggressively the scanner can be duty-cycled.
+     * Registered for the whole lifetime of the service.
+     */
+    private val screenReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            val screenOn = intent.action == Intent.ACTION_SCREEN_ON
+            runOnDecisionExecutor {
+                scanScheduler.setScreenOn(screenOn)
+                updateScan()
+            }
+        }
+    }
+
+    /** Process-wide playback controller, works independent of any activity being alive */
+    private val playbackController: PlaybackController by lazy {
+        SpotifindMe.getPlaybackController(this)
+    }
+
+    /**
+     * Keeps the [roomDecider] in sync with the active device, e.g. after playback was moved by
+     * hand, so the room decision doesn't fight it until the phone moves into another room.
+     */
+    private val devicesListener = PlaybackController.Listener { devices ->
+        val active = devices.devices?.firstOrNull { it.isActive }?.deviceName
+        runOnDecisionExecutor { roomDecider.syncToDevice(active) }
+    }
 
     @Suppress("PrivatePropertyName")
     private val Any.TAG: String
@@ -52,32 +160,107 @@ class BTSCanService : Service() {
             null
         }
     }
-    private val scanSettings = ScanSettings.Builder()
-        .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
-        .build()
+
+    /**
+     * Builds the scan settings for the given profile.
+     *
+     * Batching needs `CALLBACK_TYPE_ALL_MATCHES`, so the stationary profile uses it only if the
+     * controller supports batching in hardware. Otherwise it lets the controller's offloaded
+     * filters report only the first match and the loss of a device, and any such report switches
+     * back to the moving profile.
+     */
+    private fun buildScanSettings(profile: ScanProfile): ScanSettings {
+        val builder = ScanSettings.Builder().setScanMode(profile.scanMode)
+        val adapter = bluetoothAdapter
+        if (profile.reportDelayMillis > 0 && adapter != null) {
+            if (adapter.isOffloadedScanBatchingSupported) {
+                builder.setReportDelay(profile.reportDelayMillis)
+            } else if (adapter.isOffloadedFilteringSupported) {
+                builder.setCallbackType(
+                    ScanSettings.CALLBACK_TYPE_FIRST_MATCH or ScanSettings.CALLBACK_TYPE_MATCH_LOST
+                )
+                    .setMatchMode(ScanSettings.MATCH_MODE_STICKY)
+                    .setNumOfMatches(ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT)
+            }
+        }
+        return builder.build()
+    }
+
+    /**
+     * Runs the task on the [decisionExecutor], unless the service is already destroyed. Scan
+     * results still come in until the teardown in [onDestroy] stopped the scanner on the
+     * executor, and get dropped once the executor is shut down.
+     */
+    private fun runOnDecisionExecutor(task: Runnable) {
+        if (decisionExecutor.isShutdown) {
+            return
+        }
+        try {
+            decisionExecutor.execute(task)
+        } catch (e: RejectedExecutionException) {
+            // shut down in the meantime
+        }
+    }
+
+    /**
+     * Lets the [scanScheduler] start or stop the scanner as needed, and schedules the next update.
+     * Called on the [decisionExecutor].
+     */
+    private fun updateScan() {
+        val now = SystemClock.elapsedRealtime()
+        val next = scanScheduler.update(now)
+        scanUpdate?.cancel(false)
+        scanUpdate = if (next == Long.MAX_VALUE) null else {
+            decisionExecutor.schedule({
+                // no scan results come in once all beacons are gone, notice it here
+                decideRoom(lastReceivedMillis)
+                updateScan()
+            }, next - now, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Single scan results waiting for the [decisionExecutor]. They are handed over as they are
+     * through this preallocated queue and the one [drainResults] task, so a result doesn't
+     * allocate anything on its way. The raw advertisement is only parsed over there.
+     */
+    private val pendingResults = ArrayBlockingQueue<ScanResult>(PENDING_RESULTS)
+
+    /** Set while [drainResults] is submitted to the [decisionExecutor] or running */
+    private val drainScheduled = AtomicBoolean()
+
+    /**
+     * Runs all [pendingResults] through the pipeline and makes a single room decision for them.
+     * Results coming in while it runs submit it again.
+     */
+    private val drainResults = Runnable {
+        drainScheduled.set(false)
+        var result = pendingResults.poll()
+        while (result != null) {
+            onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result)
+            result = pendingResults.poll()
+        }
+        finishScanResults()
+    }
 
     private val scanCallback = object : ScanCallback() {
         override fun onScanResult(callbackType: Int, result: ScanResult) {
 //            TODO need to only send pause when not already paused, change icon,
 //             do we need to send play as well as transfer? (autoplay set to true, so shouldn't?)
-            with(result.device) {
-                Log.i(
-                    "ScanCallback",
-                    "Found BLE device! Name: ${name ?: "Unnamed"}, address: $address, rssi: ${result.rssi}"
-                )
-            }
-            if ((result.device.name == "BLAST")) {
-                if ((result.rssi > -70)) {
-                    if (result.device.name != foundDevice) {
-//                        TODO need to change to have service control playback
-                        EventBus.getDefault().post(DeviceMsg(result.device.name, true))
-                        foundDevice = result.device.name
-                    }
-                } else {
-                    EventBus.getDefault().post(DeviceMsg(result.device.name, false))
-                    foundDevice = null
-
+            if (callbackType != ScanSettings.CALLBACK_TYPE_ALL_MATCHES) {
+                // hardware filter reports, only now and then in the stationary profile
+                runOnDecisionExecutor {
+                    onScanResult(callbackType, result)
+                    finishScanResults()
                 }
+                return
+            }
+            if (!pendingResults.offer(result)) {
+                // the decision executor is way behind, the next results bring the same news
+                return
+            }
+            if (drainScheduled.compareAndSet(false, true)) {
+                runOnDecisionExecutor(drainResults)
             }
         }
 
@@ -87,12 +270,170 @@ class BTSCanService : Service() {
         }
 
         override fun onBatchScanResults(results: MutableList<ScanResult>?) {
-            Log.i(TAG, "Scan batch results")
-            super.onBatchScanResults(results)
-            results?.forEach { i ->
-                Log.i(TAG, "Scan batch results: ${i.device.name}")
+            Log.i(TAG, "Scan batch results: ${results?.size ?: 0}")
+            if (results.isNullOrEmpty()) {
+                return
+            }
+            runOnDecisionExecutor {
+                for (i in results.indices) {
+                    onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, results[i])
+                }
+                finishScanResults()
+            }
+        }
+    }
+
+    /**
+     * Runs a scan result through the filters of the [roomDecider], and notes its beacon for
+     * [finishScanResults]. Called on the [decisionExecutor].
+     */
+    private fun onScanResult(callbackType: Int, result: ScanResult) {
+        if (!recordParser.parse(result.scanRecord?.bytes)) {
+            return
+        }
+        val beacon = beaconRegistry.find(recordParser) ?: return
+        val key = beacon.key
+        val timestampMillis = result.timestampNanos / 1_000_000
+        recordSample(callbackType, key, result.rssi, recordParser.referenceRssi, timestampMillis)
+        val rssi: Double
+        val distance: Double
+        if (callbackType != ScanSettings.CALLBACK_TYPE_ALL_MATCHES) {
+            // only reported in the stationary profile, when something changed
+            scanScheduler.reportMovement(timestampMillis)
+        }
+        if (callbackType == ScanSettings.CALLBACK_TYPE_MATCH_LOST) {
+            roomDecider.onLost(key)
+            rssi = Double.NaN
+            distance = Double.NaN
+        } else {
+            rssi = roomDecider.onSample(key, result.rssi, recordParser.referenceRssi,
+                timestampMillis)
+            scanScheduler.onSample(beacon.index, rssi, timestampMillis)
+            distance = roomDecider.getDistance(key)
+        }
+        latestRssi[beacon.index] = rssi
+        latestDistance[beacon.index] = distance
+        beaconUpdated[beacon.index] = true
+        receivedMillis = maxOf(receivedMillis, timestampMillis)
+    }
+
+    /**
+     * Makes a single room decision for all results since the last call, so a whole batch causes
+     * at most one playback change, and resets the state of the current scan results. Called on
+     * the [decisionExecutor].
+     */
+    private fun finishScanResults() {
+        if (receivedMillis == 0L) {
+            return
+        }
+        val now = SystemClock.elapsedRealtime()
+        val post = scanEvents.hasSubscribers()
+        for (index in beaconUpdated.indices) {
+            if (beaconUpdated[index]) {
+                beaconUpdated[index] = false
+                if (post) {
+                    val key = beaconRegistry.getBeacon(index).key
+                    val event = ScanEvent(key, latestRssi[index], latestDistance[index], now)
+                    scanEvents.post(key, event)
+                }
             }
         }
+        decideRoom(receivedMillis)
+        lastReceivedMillis = receivedMillis
+        receivedMillis = 0L
+        updateScan()
+    }
+
+    /**
+     * Lets the [roomDecider] decide on the samples so far, transfers the playback to the room's
+     * device once it commits to a new room, and pauses it once all beacons are gone. While a room
+     * is still pending, the playback controller is pre-warmed for it. Called on the
+     * [decisionExecutor].
+     *
+     * @param receivedMillis [SystemClock.elapsedRealtime] the latest sample was received at,
+     * where the switch-over latency measured by the [SwitchLatencyTracker] starts
+     */
+    private fun decideRoom(receivedMillis: Long) {
+        val now = SystemClock.elapsedRealtime()
+        val decision = roomDecider.decide(now)
+        if (decision == RoomDecider.UNCHANGED) {
+            // a room change is coming up once the dwell time is over, get ready for it
+            val pending = roomDecider.pendingZone
+            if (pending != null && playbackController.prewarm()) {
+                Log.d(TAG, "pre-warm for $pending, ${playbackController.prewarmer}")
+            }
+            return
+        }
+
+        val zone = roomDecider.zone
+        val entered = decision == RoomDecider.ENTERED
+        Log.d(TAG, if (entered) "entered $zone" else "left $zone, no beacons in range")
+        val nanos = System.nanoTime()
+        val age = TimeUnit.MILLISECONDS.toNanos(now - receivedMillis)
+        playbackController.latencyTracker.begin(zone.deviceName, nanos - age, nanos)
+        if (entered) {
+            playbackController.transferPlayback(zone.deviceName)
+        } else {
+            playbackController.pausePlayback(zone.deviceName)
+        }
+        decisionEvents.post(zone.deviceName, DeviceMsg(zone.deviceName, entered))
+        scanScheduler.onTransition(now)
+    }
+
+    /**
+     * Opens a new scan trace file in the app's external files directory, if [RECORD_SCAN_TRACE]
+     * is set. Called on the [decisionExecutor].
+     */
+    private fun openTrace() {
+        if (!RECORD_SCAN_TRACE || traceWriter != null) {
+            return
+        }
+        val dir = File(getExternalFilesDir(null) ?: filesDir, "traces")
+        try {
+            dir.mkdirs()
+            val file = File(dir, "scan-${System.currentTimeMillis()}.trace")
+            traceWriter = TraceWriter(FileOutputStream(file).channel)
+            Log.d(TAG, "recording scan trace to $file")
+        } catch (e: IOException) {
+            Log.w(TAG, "cannot record scan trace", e)
+        }
+    }
+
+    /**
+     * Adds the raw sample to the scan trace, if one is recorded. Called on the [decisionExecutor].
+     */
+    private fun recordSample(
+        callbackType: Int,
+        key: Int,
+        rssi: Int,
+        referenceRssi: Int,
+        timestampMillis: Long
+    ) {
+        val writer = traceWriter ?: return
+        val type = when (callbackType) {
+            ScanSettings.CALLBACK_TYPE_FIRST_MATCH -> ScanTrace.TYPE_FIRST_MATCH
+            ScanSettings.CALLBACK_TYPE_MATCH_LOST -> ScanTrace.TYPE_MATCH_LOST
+            else -> ScanTrace.TYPE_SAMPLE
+        }
+        try {
+            writer.write(timestampMillis, key, rssi, referenceRssi, type)
+        } catch (e: IOException) {
+            Log.w(TAG, "scan trace write failed, stop recording", e)
+            closeTrace()
+        }
+    }
+
+    /**
+     * Flushes and closes the scan trace, if one is recorded. Called on the [decisionExecutor].
+     */
+    private fun closeTrace() {
+        val writer = traceWriter ?: return
+        traceWriter = null
+        try {
+            writer.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "closing scan trace failed", e)
+        }
     }
 
     @RequiresApi(Build.VERSION_CODES.O)
@@ -148,30 +489,110 @@ class BTSCanService : Service() {
 
         Log.d(TAG, "service start")
         //bleScanner.startScan(null, scanSettings, scanCallback)
+        this.registerReceiver(this.bcReceiver, IntentFilter("foo-ignored"))
+        val screenFilter = IntentFilter(Intent.ACTION_SCREEN_ON)
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF)
+        this.registerReceiver(this.screenReceiver, screenFilter)
+        val screenOn = getSystemService(PowerManager::class.java).isInteractive
+        runOnDecisionExecutor { scanScheduler.setScreenOn(screenOn) }
+        playbackController.addListener(devicesListener)
     }
 
     override fun onDestroy() {
         super.onDestroy()
         Log.d(TAG, "service destroy")
+        // no new work from the receivers and the playback controller
+        this.unregisterReceiver(this.screenReceiver)
         this.unregisterReceiver(this.bcReceiver)
+        playbackController.removeListener(devicesListener)
+        // stop the scanner and its updates before the executor stops taking work, anything still
+        // coming in afterwards is dropped by runOnDecisionExecutor
+        decisionExecutor.execute {
+            scanUpdate?.cancel(false)
+            scanUpdate = null
+            scanScheduler.shutdown(SystemClock.elapsedRealtime())
+            closeTrace()
+        }
+        decisionExecutor.shutdown()
     }
 
-    private val filters = arrayListOf<ScanFilter>()
+    /**
+     * Scan filters matching the AltBeacon manufacturer data of the registered beacons, so the
+     * controller drops all other advertisements.
+     */
+    private val filters: List<ScanFilter> by lazy {
+        val mask = beaconRegistry.buildFilterMask()
+        beaconRegistry.buildFilterData().map { data ->
+            ScanFilter.Builder().setManufacturerData(AltBeacon.COMPANY_ID, data, mask).build()
+        }
+    }
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
         super.onStartCommand(intent, flags, startId)
         Log.d(TAG, "service onStartCommand")
-        this.bcReceiver = StopServerBroadcast()
-        this.registerReceiver(this.bcReceiver, IntentFilter("foo-ignored"))
-//        For some reason, filter by name doesn't work, but MAC address does.
-//        filters.add(ScanFilter.Builder().setDeviceName("BLAST").build())
-        filters.add(ScanFilter.Builder().setDeviceAddress("EC:81:93:11:C4:41").build())
-        bleScanner?.startScan(filters, scanSettings, scanCallback)
+        // make sure the devices are known before the first room decision
+        playbackController.refreshDevices()
+        runOnDecisionExecutor {
+            openTrace()
+            updateScan()
+        }
         return START_STICKY
     }
 
+    /** Playback decision about a Spotify device, `found` if its room was entered */
     data class DeviceMsg(val name: String, val found: Boolean)
 
+    /**
+     * Filtered RSSI of a beacon after a scan result or batch, and the distance in meters estimated
+     * from it, both `NaN` if the beacon was lost. [timestampMillis] is in
+     * [SystemClock.elapsedRealtime] time.
+     */
+    data class ScanEvent(
+        val key: Int,
+        val rssi: Double,
+        val distance: Double,
+        val timestampMillis: Long
+    )
+
+    companion object {
+        /**
+         * Filtered RSSI in dBm around which a beacon comes into or goes out of range. The scan
+         * scheduler scans more densely while a beacon is near it.
+         */
+        private const val BOUNDARY_RSSI = -70.0
+
+        /**
+         * Set to `true` to record all beacon scan samples to a trace file, for replaying them
+         * through the `TraceSimulator` later on
+         */
+        private const val RECORD_SCAN_TRACE = false
+
+        /** Number of single scan results that can wait for the decision executor */
+        private const val PENDING_RESULTS = 256
+
+        /**
+         * Beacons to look for, where they are, and the rooms with the Spotify device to use
+         * inside of each of them, see [FloorPlan.createDefault]
+         */
+        @JvmField
+        val floorPlan: FloorPlan = FloorPlan.createDefault()
+
+        /** Registry of the [floorPlan]'s beacons */
+        private val beaconRegistry = floorPlan.beaconRegistry
+
+        /** Room decisions, posted on the decision executor, latest one per device name */
+        @JvmField
+        val decisionEvents = EventChannel<String, DeviceMsg>()
+
+        /**
+         * Filtered RSSI and distance of each beacon, posted on the decision executor, latest one
+         * per beacon key. Events are only created and posted while anyone is subscribed, such as
+         * the `MainActivity` showing the distances while it's visible.
+         */
+        @JvmField
+        val scanEvents = EventChannel<Int, ScanEvent>()
+    }
+
     inner class StopServerBroadcast : BroadcastReceiver() {
         override fun onReceive(context: Context, intent: Intent) {
             Toast.makeText(context, "received", Toast.LENGTH_SHORT).show()
@@ -0,0 +1,100 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
+import fi.craplab.spotifindme.model.Device;
+
+/**
+ * Compares the old and new device lists for the {@link DeviceItemAdapter}, on a background thread.
+ * <p>
+ * Devices are matched by their Spotify device id, and only the fields that are actually displayed
+ * count as content. If just the active state or the volume of a device changed, the change is
+ * described as payload, so only those views are rebound instead of the whole item.
+ * </p>
+ */
+class DeviceDiffCallback extends DiffUtil.ItemCallback<Device> {
+    /** Payload bit, the active state changed */
+    static final int PAYLOAD_ACTIVE = 1;
+    /** Payload bit, the volume changed */
+    static final int PAYLOAD_VOLUME = 1 << 1;
+
+    /**
+     * Returns the key identifying the given device across device list updates. That's the device
+     * id, or its name for the rare device Spotify doesn't give an id.
+     *
+     * @param device Device
+     * @return Key of the device
+     */
+    static String key(Device device) {
+        if (device.deviceId != null) {
+            return device.deviceId;
+        }
+        return "name:" + device.deviceName;
+    }
+
+    @Override
+    public boolean areItemsTheSame(@NonNull Device oldItem, @NonNull Device newItem) {
+        return key(oldItem).equals(key(newItem));
+    }
+
+    @Override
+    public boolean areContentsTheSame(@NonNull Device oldItem, @NonNull Device newItem) {
+        return oldItem.isActive == newItem.isActive
+                && oldItem.volumePercent == newItem.volumePercent
+                && equals(oldItem.deviceName, newItem.deviceName)
+                && oldItem.deviceType == newItem.deviceType;
+    }
+
+    /**
+     * Describes the change of a device whose contents are not the same anymore.
+     *
+     * @param oldItem Device in the old list
+     * @param newItem Same device in the new list
+     * @return {@link #PAYLOAD_ACTIVE} and/or {@link #PAYLOAD_VOLUME} bits as {@link Integer} if
+     *         only those changed, {@code null} if the whole item needs to be rebound
+     */
+    @Override
+    public Object getChangePayload(@NonNull Device oldItem, @NonNull Device newItem) {
+        if (!equals(oldItem.deviceName, newItem.deviceName)
+                || oldItem.deviceType != newItem.deviceType) {
+            return null;
+        }
+
+        int payload = 0;
+        if (oldItem.isActive != newItem.isActive) {
+            payload |= PAYLOAD_ACTIVE;
+        }
+        if (oldItem.volumePercent != newItem.volumePercent) {
+            payload |= PAYLOAD_VOLUME;
+        }
+        return payload == 0 ? null : payload;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -26,158 +26,208 @@ package fi.craplab.spotifindme;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import com.joanzapata.iconify.widget.IconTextView;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.DeviceType;
 import fi.craplab.spotifindme.model.Devices;
 
 /**
  * Device Item Adapter to display all available Spotify playback devices.
+ * <p>
+ * New device lists are compared to the current one on a background thread by the
+ * {@link DeviceDiffCallback}, so a device list refresh only touches the items that actually
+ * changed, and a changed active state or volume only rebinds those views. Item ids are stable
+ * per device, so items keep their views when devices are added, removed or reordered.
+ * </p>
  */
-public class DeviceItemAdapter extends BaseAdapter {
-    /** Application context */
-    private final Context context;
-    /** List of available devices */
-    private Devices devices;
-
+public class DeviceItemAdapter extends ListAdapter<Device, DeviceItemAdapter.ItemHolder> {
     /**
-     * Internal item holder object, holding all individual views of the list item layout.
-     * See {@code item_device.xml} layout file.
+     * Gets notified when a device item is clicked.
      */
-    private static class ItemHolder {
-        IconTextView type;
-        TextView name;
-        IconTextView active;
+    public interface OnDeviceClickListener {
+        /**
+         * @param device Clicked device
+         */
+        void onDeviceClick(Device device);
     }
 
     /**
-     * Creates a new {@code {@link DeviceItemAdapter} with the given application context.
+     * Maps the device types retrieved from the Spotify API to a matching FontAwesome icon.
      *
-     * @param context Application context
+     * @see <a href="https://developer.spotify.com/documentation/web-api/reference/player/get-a-users-available-devices/">
+     *     <em>Device Object</em> API description</a>
+     * @see <a href="https://fontawesome.com/cheatsheet">List of FontAwesome icons</a>
      */
-    public DeviceItemAdapter(Context context) {
-        this.context = context;
+    private static final Map<DeviceType, String> TYPE_ICONS = new EnumMap<>(DeviceType.class);
+    /** Icon for device types not in {@link #TYPE_ICONS} */
+    private static final String UNKNOWN_TYPE_ICON = "{fa-question-circle}";
+
+    static {
+        TYPE_ICONS.put(DeviceType.COMPUTER, "{fa-desktop}");
+        TYPE_ICONS.put(DeviceType.SMARTPHONE, "{fa-tablet}");
+        TYPE_ICONS.put(DeviceType.SPEAKER, "{fa-headphones}");
     }
 
+    private final OnDeviceClickListener clickListener;
+    private final int activeColor;
+    private final int inactiveColor;
     /**
-     * Returns the number of available devices to display
-     *
-     * @return Number of items to display
+     * Stable item id of each device key, see {@link DeviceDiffCallback#key(Device)}. Never
+     * evicted, so a device that comes back keeps its id, and an id isn't handed out again while
+     * the list differ may still ask for it. Bounded by the devices of the account, which Spotify
+     * lists only a handful of.
      */
-    @Override
-    public int getCount() {
-        if (devices == null || devices.devices == null) {
-            return 0;
+    private final Map<String, Long> itemIds = new HashMap<>();
+
+    /**
+     * Holds all individual views of the list item layout.
+     * See {@code item_device.xml} layout file.
+     */
+    class ItemHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final IconTextView type;
+        final TextView name;
+        final TextView volume;
+        final IconTextView active;
+
+        ItemHolder(View itemView) {
+            super(itemView);
+            type = itemView.findViewById(R.id.device_type);
+            name = itemView.findViewById(R.id.device_name);
+            volume = itemView.findViewById(R.id.device_volume);
+            active = itemView.findViewById(R.id.device_active);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                clickListener.onDeviceClick(getItem(position));
+            }
         }
-        return devices.devices.size();
     }
 
     /**
-     * Get the device data for the given position.
+     * Creates a new {@link DeviceItemAdapter} with the given application context.
      *
-     * @param position Item position
-     * @return {@link Device} object at the given position if found, {@code null} otherwise
+     * @param context Application context
+     * @param clickListener Listener for clicked devices
      */
-    @Override
-    public Object getItem(int position) {
-        if (devices == null || devices.devices == null) {
-            return null;
-        }
-
-        return devices.devices.get(position);
+    public DeviceItemAdapter(Context context, OnDeviceClickListener clickListener) {
+        super(new DeviceDiffCallback());
+        this.clickListener = clickListener;
+        activeColor = ContextCompat.getColor(context, R.color.colorAccent);
+        inactiveColor = ContextCompat.getColor(context, R.color.colorPrimary);
+        setHasStableIds(true);
     }
 
     /**
-     * Return the id of the item at the given position. This is just going to be the index of the
-     * device in the {@link Devices} list itself.
+     * Return the stable id of the item at the given position. Each device gets its own id the
+     * first time it's shown, and keeps it for the lifetime of the adapter.
      *
      * @param position Item position
      * @return Item id
      */
     @Override
     public long getItemId(int position) {
-        return position;
+        String key = DeviceDiffCallback.key(getItem(position));
+        Long id = itemIds.get(key);
+        if (id == null) {
+            id = (long) itemIds.size();
+            itemIds.put(key, id);
+        }
+        return id;
+    }
+
+    @NonNull
+    @Override
+    public ItemHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_device, parent, false);
+        return new ItemHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ItemHolder holder, int position) {
+        Device device = getItem(position);
+        String icon = TYPE_ICONS.get(device.deviceType);
+        holder.type.setText(icon != null ? icon : UNKNOWN_TYPE_ICON);
+        holder.name.setText(device.deviceName);
+        bindVolume(holder, device);
+        bindActive(holder, device);
     }
 
     /**
-     * Creates and returns the {@link View} displaying the device information of the device at the
-     * given position. Maps all required data from the {@link Device} at the given position to an
-     * internal {@link ItemHolder}, which is then attached to the given {@code convertView}.
+     * Rebinds only the views named in the {@link DeviceDiffCallback} payloads, or the whole item
+     * if there are none.
      *
+     * @param holder Item holder to bind
      * @param position Item position
-     * @param convertView {@link View} to attach the device information to
-     * @param parent Parent view
-     * @return {@link View} populated with the device data on success, {@code null} otherwise
+     * @param payloads Payloads of all changes since the item was last bound
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        if (devices == null || devices.devices == null) {
-            return null;
+    public void onBindViewHolder(@NonNull ItemHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
         }
 
-        ItemHolder itemHolder;
-        Device device = devices.devices.get(position);
-
-        if (convertView == null) {
-            convertView = LayoutInflater.from(context).inflate(R.layout.item_device, parent, false);
-            itemHolder = new ItemHolder();
-            itemHolder.type = convertView.findViewById(R.id.device_type);
-            itemHolder.name = convertView.findViewById(R.id.device_name);
-            itemHolder.active = convertView.findViewById(R.id.device_active);
-            convertView.setTag(itemHolder);
-        } else {
-            itemHolder = (ItemHolder) convertView.getTag();
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
         }
 
-        itemHolder.type.setText(getTypeString(device.deviceType));
-        itemHolder.name.setText(device.deviceName);
-
-        if (device.isActive) {
-            itemHolder.active.setVisibility(View.VISIBLE);
-            convertView.setBackgroundColor(ContextCompat.getColor(context, R.color.colorAccent));
-        } else {
-            itemHolder.active.setVisibility(View.INVISIBLE);
-            convertView.setBackgroundColor(ContextCompat.getColor(context, R.color.colorPrimary));
+        Device device = getItem(position);
+        if ((changes & DeviceDiffCallback.PAYLOAD_VOLUME) != 0) {
+            bindVolume(holder, device);
+        }
+        if ((changes & DeviceDiffCallback.PAYLOAD_ACTIVE) != 0) {
+            bindActive(holder, device);
         }
-
-        return convertView;
     }
 
     /**
-     * Update the list of devices and notify that data has changed to redraw the view.
+     * Update the list of devices. The new list is compared to the current one on a background
+     * thread, and only the changed items are redrawn afterwards.
      *
      * @param devices List of new devices retrieved from the Spotify API
      * @see MainActivity#getUserDevices()
      */
     public void updateDevices(@NonNull Devices devices) {
-        this.devices = devices;
-        notifyDataSetChanged();
+        if (devices.devices == null) {
+            submitList(Collections.<Device>emptyList());
+        } else {
+            submitList(devices.devices);
+        }
     }
 
-    /**
-     * Map the device type retrieved from the Spotify API to a matching FontAwesome icon.
-     *
-     * @param type Device type retrieved from the Spotify API
-     * @return Matching FontAwesome icon name
-     * @see <a href="https://developer.spotify.com/documentation/web-api/reference/player/get-a-users-available-devices/">
-     *     <em>Device Object</em> API description</a>
-     * @see <a href="https://fontawesome.com/cheatsheet">List of FontAwesome icons</a>
-     */
-    private String getTypeString(String type) {
-        switch (type) {
-            case "Computer":
-                return "{fa-desktop}";
-            case "Smartphone":
-                return "{fa-tablet}";
-            case "Speaker":
-                return "{fa-headphones}";
+    private void bindVolume(ItemHolder holder, Device device) {
+        holder.volume.setText(holder.itemView.getContext()
+                .getString(R.string.device_volume, device.volumePercent));
+    }
+
+    private void bindActive(ItemHolder holder, Device device) {
+        if (device.isActive) {
+            holder.active.setVisibility(View.VISIBLE);
+            holder.itemView.setBackgroundColor(activeColor);
+        } else {
+            holder.active.setVisibility(View.INVISIBLE);
+            holder.itemView.setBackgroundColor(inactiveColor);
         }
-        return "{fa-question-circle}";
     }
 }
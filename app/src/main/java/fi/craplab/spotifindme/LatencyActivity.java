@@ -0,0 +1,161 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fi.craplab.spotifindme.latency.SwitchLatencyTracker;
+import fi.craplab.spotifindme.playback.PlaybackController;
+
+/**
+ * Debug screen showing where the time of a playback switch-over goes, as measured by the
+ * {@link SwitchLatencyTracker}. Opened by long-clicking the user name in the {@link MainActivity}.
+ * <p>
+ * The percentiles are refreshed every second, and the full histograms can be exported as CSV file
+ * for offline analysis. The file ends up in the app's external files directory, so it can be
+ * pulled with {@code adb pull /sdcard/Android/data/fi.craplab.spotifindme/files/}, or in its
+ * internal files directory if the external storage isn't available.
+ * </p>
+ */
+public class LatencyActivity extends AppCompatActivity {
+    /** {@link Log} Tag */
+    private static final String TAG = LatencyActivity.class.getSimpleName();
+    /** Interval between refreshing the shown percentiles */
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    private PlaybackController playbackController;
+    private TextView summaryView;
+    /** Writes the exported CSV files, off the UI thread */
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+
+    /** Shows the current percentiles, and schedules itself again while the activity is resumed */
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            showSummary();
+            summaryView.postDelayed(this, REFRESH_INTERVAL_MILLIS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_latency);
+        summaryView = findViewById(R.id.latency_summary);
+        playbackController = SpotifindMe.getPlaybackController(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        summaryView.removeCallbacks(refresh);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        exportExecutor.shutdown();
+    }
+
+    /**
+     * Writes all histograms to a new CSV file on the export executor, and reports the outcome as
+     * {@link Toast}. Called when the export button is clicked, see {@code activity_latency.xml}.
+     *
+     * @param view Clicked view
+     */
+    public void onExportClicked(View view) {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        final File file = new File(dir, "latency-" + System.currentTimeMillis() + ".csv");
+        exportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try (Writer writer = new FileWriter(file)) {
+                    playbackController.getLatencyTracker().writeCsv(writer);
+                    Log.d(TAG, "Exported latencies to " + file);
+                    message = getString(R.string.latency_exported, file.getAbsolutePath());
+                } catch (IOException e) {
+                    Log.e(TAG, "Exporting latencies failed", e);
+                    message = getString(R.string.latency_export_failed, e.getMessage());
+                }
+                showToast(message);
+            }
+        });
+    }
+
+    /**
+     * Clears all histograms. Called when the reset button is clicked,
+     * see {@code activity_latency.xml}.
+     *
+     * @param view Clicked view
+     */
+    public void onResetClicked(View view) {
+        playbackController.getLatencyTracker().reset();
+        showSummary();
+    }
+
+    private void showToast(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(LatencyActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private void showSummary() {
+        StringWriter summary = new StringWriter();
+        try {
+            playbackController.getLatencyTracker().writeSummary(summary);
+        } catch (IOException e) {
+            // can't happen with a StringWriter
+        }
+        summary.write("\npre-warm: " + playbackController.getPrewarmer() + "\n");
+        summary.write("rate limit: " + SpotifindMe.getApiClient(this).getRateLimiter() + "\n");
+        summaryView.setText(summary.toString());
+    }
+}
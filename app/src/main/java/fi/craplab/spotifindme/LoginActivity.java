@@ -35,21 +35,30 @@ import com.spotify.sdk.android.auth.AuthorizationClient;
 import com.spotify.sdk.android.auth.AuthorizationRequest;
 import com.spotify.sdk.android.auth.AuthorizationResponse;
 
+import fi.craplab.spotifindme.net.Pkce;
+import fi.craplab.spotifindme.net.TokenRefresher;
+
 /**
- * Initial activity, checks if we have a valid Spotify auth token stored and either proceeds to the
- * {@link MainActivity} or waits for the user to sign up with their Spotify account to retrieve a
- * new auth token (and then proceeds to the {@link MainActivity}).
+ * Initial activity, checks if we have a valid Spotify auth token or a refresh token stored and
+ * either proceeds to the {@link MainActivity} or waits for the user to sign up with their Spotify
+ * account to retrieve new tokens (and then proceeds to the {@link MainActivity}).
+ * <p>
+ * Uses the Authorization Code flow with PKCE, so the {@link TokenRefresher} can keep the token
+ * valid without ever asking the user to sign in again.
+ * </p>
  */
 public class LoginActivity extends AppCompatActivity {
     /** {@link Log} Tag */
     private static final String TAG = LoginActivity.class.getSimpleName();
 
     /** SpotifindMe client ID, used to identify the application with Spotify itself */
-    private static final String CLIENT_ID = "b8b6373e77414ae181cd6446db6b595d";
+    static final String CLIENT_ID = "b8b6373e77414ae181cd6446db6b595d";
     /** Spotify auth redirect URL */
     private static final String REDIRECT_URI = "spotifindme://redirect";
     /** Spotify Auth Request identifier used in {@link #onActivityResult(int, int, Intent)} */
     private static final int REQUEST_SPOTIFY_AUTH = 0x10;
+    /** Saved instance state key for the {@link #codeVerifier} */
+    private static final String STATE_CODE_VERIFIER = "code_verifier";
     /**
      * List of Spotify auth scopes to have access to the required user data
      * Required scopes for this application are
@@ -65,6 +74,9 @@ public class LoginActivity extends AppCompatActivity {
             "user-modify-playback-state"
     };
 
+    /** PKCE code verifier of the ongoing login, needed to exchange the authorization code */
+    private String codeVerifier;
+
     /**
      * {@inheritDoc}
      * <p>
@@ -75,17 +87,29 @@ public class LoginActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        SpotifindMe.reportFirstFrame(this);
 
-        String token = TokenHandler.getToken(this);
+        if (savedInstanceState != null) {
+            codeVerifier = savedInstanceState.getString(STATE_CODE_VERIFIER);
+        }
 
-        if (token == null) {
+        if (!SpotifindMe.getCredentialStore(this).getCredentials()
+                .canAuthorize(System.currentTimeMillis())) {
+            SpotifindMe.awaitStartup(this, SpotifindMe.TASK_ICONS);
             setContentView(R.layout.activity_login);
         } else {
             Toast.makeText(this, R.string.spotify_token_found, Toast.LENGTH_SHORT).show();
-            startMainActivity(token);
+            startMainActivity();
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // the login activity might outlive this one
+        outState.putString(STATE_CODE_VERIFIER, codeVerifier);
+    }
+
     /**
      * Spotify login button onClick handler, sends the authentication request to Spotify.
      *
@@ -94,9 +118,12 @@ public class LoginActivity extends AppCompatActivity {
      */
     public void onLoginButtonClicked(View view) {
         System.out.println("View == " + view.toString() + " tag " + view.getTag() + " id " + view.getId());
+        codeVerifier = Pkce.newVerifier();
         final AuthorizationRequest request = new AuthorizationRequest
-                .Builder(CLIENT_ID, AuthorizationResponse.Type.TOKEN, REDIRECT_URI)
+                .Builder(CLIENT_ID, AuthorizationResponse.Type.CODE, REDIRECT_URI)
                 .setScopes(authScopes)
+                .setCustomParam("code_challenge_method", Pkce.CHALLENGE_METHOD)
+                .setCustomParam("code_challenge", Pkce.challenge(codeVerifier))
                 .build();
 
         AuthorizationClient.openLoginActivity(this, REQUEST_SPOTIFY_AUTH, request);
@@ -106,8 +133,9 @@ public class LoginActivity extends AppCompatActivity {
      * {@inheritDoc}
      * <p>
      * Retrieves and handles the result from the Spotify auth request initiated in
-     * {@link #onLoginButtonClicked(View)}. Best case scenario, we have a valid auth token now which
-     * we pass to our {@link TokenHandler} for storage, and proceed to the {@link MainActivity}.
+     * {@link #onLoginButtonClicked(View)}. Best case scenario, we have an authorization code now
+     * which the {@link TokenRefresher} exchanges for the tokens, and proceed to the
+     * {@link MainActivity}.
      * </p>
      * @param requestCode
      * @param resultCode
@@ -125,13 +153,9 @@ public class LoginActivity extends AppCompatActivity {
         AuthorizationResponse response = AuthorizationClient.getResponse(resultCode, intent);
 
         switch (response.getType()) {
-            case TOKEN:
-                Log.d(TAG, "Auth success: " + response.getAccessToken());
-                TokenHandler.storeToken(this,
-                        response.getAccessToken(),
-                        response.getExpiresIn());
-
-                startMainActivity(response.getAccessToken());
+            case CODE:
+                Log.d(TAG, "Auth success, exchanging code");
+                exchangeCode(response.getCode());
                 break;
 
             case ERROR:
@@ -147,13 +171,51 @@ public class LoginActivity extends AppCompatActivity {
     }
 
     /**
-     * Switch to the {@link MainActivity} and pass the Spotify auth token to it.
+     * Exchanges the authorization code for the tokens, and proceeds to the {@link MainActivity}
+     * once they're stored. The cached user profile is dropped on success, as the new tokens
+     * may belong to another user.
      *
-     * @param token Auth token received from Spotify
+     * @param code Authorization code received from the login
+     */
+    private void exchangeCode(String code) {
+        if (codeVerifier == null) {
+            Log.e(TAG, "Auth code received without code verifier");
+            return;
+        }
+        SpotifindMe.getTokenRefresher(this).exchangeCode(code, REDIRECT_URI, codeVerifier,
+                new TokenRefresher.Callback() {
+                    @Override
+                    public void onTokenReceived(final boolean success) {
+                        if (success) {
+                            // might be a different user than the one whose profile is cached
+                            SpotifindMe.getApiClient(LoginActivity.this).getUserProfileCache()
+                                    .invalidate();
+                        }
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (success) {
+                                    startMainActivity();
+                                } else {
+                                    Toast.makeText(LoginActivity.this,
+                                            getString(R.string.spotify_auth_error,
+                                                    "token exchange failed"),
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            }
+                        });
+                    }
+                });
+        codeVerifier = null;
+    }
+
+    /**
+     * Switch to the {@link MainActivity}. The auth token itself is picked up from the
+     * {@link fi.craplab.spotifindme.net.CredentialStore} by the {@link TokenRefresher} of the
+     * shared API client.
      */
-    private void startMainActivity(String token) {
+    private void startMainActivity() {
         Intent intent = new Intent(this, MainActivity.class);
-        intent.putExtra(MainActivity.EXTRA_TOKEN, token);
         startActivity(intent);
         finish();
     }
@@ -29,59 +29,37 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.RemoteException;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.util.Log;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.altbeacon.beacon.Beacon;
-import org.altbeacon.beacon.BeaconConsumer;
-import org.altbeacon.beacon.BeaconManager;
-import org.altbeacon.beacon.RangeNotifier;
-import org.altbeacon.beacon.Region;
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
-import org.greenrobot.eventbus.ThreadMode;
-
-import java.io.IOException;
-import java.util.Collection;
-
+import fi.craplab.spotifindme.event.EventChannel;
 import fi.craplab.spotifindme.model.Device;
 import fi.craplab.spotifindme.model.Devices;
-import fi.craplab.spotifindme.model.PlaybackTransfer;
 import fi.craplab.spotifindme.model.UserProfile;
-import okhttp3.Interceptor;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.ResponseBody;
+import fi.craplab.spotifindme.net.SpotifyApiClient;
+import fi.craplab.spotifindme.playback.PlaybackController;
+import fi.craplab.spotifindme.position.BeaconLocation;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 /**
  * Main Activity, doing ..everything I guess.
  * This could probably benefit from some refactoring and splitting it up into several files.
  */
-public class MainActivity extends AppCompatActivity implements BeaconConsumer {
-    /**
-     * Set to {@code true} if you want to get beacon information in the logcat output as it arrives.
-     * Prints the beacon's id, rssi and distance.
-     * Can be useful for debugging and curiosity, but is also rather noisy in the log
-     */
-    private static final boolean PRINT_BEACON_INFO = true;
-
+public class MainActivity extends AppCompatActivity {
     /** {@link Log} Tag */
     private static final String TAG = MainActivity.class.getSimpleName();
 
@@ -89,90 +67,73 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
     private static final int REQUEST_ENABLE_BT = 0x10;
     /** Location Permission Request id used in {@link #onActivityResult(int, int, Intent)} */
     private static final int REQUEST_LOCATION_PERMISSION = 0x20;
-    /** Key for Spotify auth token in the calling {@link Intent}'s extras */
-    static final String EXTRA_TOKEN = "EXTRA_TOKEN";
-
-    /**
-     * Spotify playback device names. See {@link #checkSituation()}
-     * Currently supports only two devices.
-     */
-    private static final String[] myDevices = new String[] {
-            "Laptop", // change to one of your Spotify device's name
-            "Desktop" // change to another Spotify device's name
-    };
 
-    /**
-     * Available Bluetooth beacon IDs, value is the {@code ID3} field in the beacon advertising
-     * data, retrieved by {@link Beacon#getId3()}.
-     * Currently support only two beacons.
-     */
-    private static final int[] myBeacons = new int[] {
-            1,
-            2
+    /** Beacon info layouts, the beacon view currently supports only two beacons */
+    private static final int[] BEACON_VIEWS = new int[] {
+            R.id.beacon_info_1,
+            R.id.beacon_info_2
     };
 
-    private String accessToken;
+    private SpotifyApiClient apiClient;
     private SpotifyRestApi spotifyRestApi;
-    private Devices devices;
+    private PlaybackController playbackController;
     private DeviceItemAdapter deviceItemAdapter;
-    private String currentDevice;
-    private boolean transferOngoing;
-    private BeaconManager beaconManager;
-    private Region beaconRegion;
-    private Collection<Beacon> beacons;
-
+    /** Room decisions from the {@link BTSCanService}, see {@link #startBackgroundWork} */
+    private EventChannel.Subscription<String, BTSCanService.DeviceMsg> deviceSubscription;
+    /** Beacon distances from the {@link BTSCanService}, see {@link #startBackgroundWork} */
+    private EventChannel.Subscription<Integer, BTSCanService.ScanEvent> scanSubscription;
 
     /**
-     * {@link Interceptor} to modify each request by adding the auth token to the header.
+     * {@link PlaybackController.Listener} callback, called on a background thread whenever the
+     * known devices changed, either confirmed by Spotify, or optimistically after a transfer.
+     * Passes the new data on to {@link #onDevicesChanged(Devices)} on the UI thread.
      */
-    private class AuthInterceptor implements Interceptor {
+    private final PlaybackController.Listener devicesListener = new PlaybackController.Listener() {
         @Override
-        public okhttp3.Response intercept(@NonNull Chain chain) throws IOException {
-            Request request = chain.request().newBuilder()
-                    .addHeader("Authorization", "Bearer " + accessToken)
-                    .build();
-            return chain.proceed(request);
+        public void onDevicesChanged(final Devices devices) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    MainActivity.this.onDevicesChanged(devices);
+                }
+            });
         }
-    }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.d(TAG, "Activity create");
+        SpotifindMe.reportFirstFrame(this);
+        SpotifindMe.awaitStartup(this, SpotifindMe.TASK_ICONS);
         setContentView(R.layout.activity_main);
 
-        Intent intent = getIntent();
-        accessToken = intent.getStringExtra(EXTRA_TOKEN);
-
-        final OkHttpClient client = new OkHttpClient.Builder()
-                .addNetworkInterceptor(new AuthInterceptor())
-                .build();
-
-        final Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl("https://api.spotify.com/")
-                .client(client)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
-
-        spotifyRestApi = retrofit.create(SpotifyRestApi.class);
+        deviceItemAdapter = new DeviceItemAdapter(this,
+                new DeviceItemAdapter.OnDeviceClickListener() {
+                    @Override
+                    public void onDeviceClick(Device device) {
+                        if (device.isActive) {
+                            Log.d(TAG, "Device " + device.deviceName + " already active");
+                        } else {
+                            Log.d(TAG, "Transferring playback to " + device.deviceName);
+                            transferPlayback(device);
+                        }
+                    }
+                });
+        RecyclerView deviceList = findViewById(R.id.device_list);
+        deviceList.setFocusable(false);
+        deviceList.setLayoutManager(new LinearLayoutManager(this));
+        deviceList.setAdapter(deviceItemAdapter);
+        initBeaconView();
 
-        deviceItemAdapter = new DeviceItemAdapter(this);
-        ListView listView = findViewById(R.id.device_list);
-        listView.setFocusable(false);
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        findViewById(R.id.user_name).setOnLongClickListener(new View.OnLongClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Device device = (Device) parent.getAdapter().getItem(position);
-                if (device.isActive) {
-                    Log.d(TAG, "Device " + device.deviceName + " already active");
-                } else {
-                    Log.d(TAG, "Transferring playback to " + device.deviceName);
-                    transferPlayback(device);
-                }
+            public boolean onLongClick(View view) {
+                startActivity(new Intent(MainActivity.this, LatencyActivity.class));
+                return true;
             }
         });
-        listView.setAdapter(deviceItemAdapter);
-        initBeaconView();
 
         final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (bluetoothAdapter == null) {
@@ -189,37 +150,22 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
      * on Activity resume callback.
      *
      * Checks if we still have a token and goes back to the {@link LoginActivity} if not. If we're
-     * all good with the token, we get the user profile and device information from the Spotify API.
+     * all good with the token, the user profile and device information are fetched from the
+     * Spotify API by {@link #startBackgroundWork}, once the first frame is drawn.
      */
     @Override
     protected void onResume() {
         super.onResume();
         Log.d(TAG, "Activity resume");
 
-        String token = TokenHandler.getToken(this);
-        if (token == null) {
+        // an expired token is fine, it's refreshed with the next request. Checked on the store
+        // directly, the token refresher is created along with the API client in the background.
+        if (!SpotifindMe.getCredentialStore(this).getCredentials()
+                .canAuthorize(System.currentTimeMillis())) {
             Toast.makeText(this, "Auth token expired", Toast.LENGTH_SHORT).show();
             Intent intent = new Intent(this, LoginActivity.class);
             startActivity(intent);
             finish();
-        } else {
-            getUserProfile();
-            getUserDevices();
-        }
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-
-        if (beaconManager != null) {
-            try {
-                beaconManager.stopRangingBeaconsInRegion(beaconRegion);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-            beaconManager.unbind(this);
-            beaconRegion = null;
         }
     }
 
@@ -249,10 +195,11 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
     }
 
     /**
-     * Set up Bluetooth by either requesting permission for coarse location (cause can't have
-     * Bluetooth without that) or by invoking the {@link BeaconManager}. If location permission was
-     * requested, {@link #onRequestPermissionsResult(int, String[], int[])} will call this method
-     * again, whether permission was granted or not, and the cycle continues.
+     * Set up Bluetooth by requesting permission for fine location, if it's not granted yet (cause
+     * can't have Bluetooth scans without that). The scanning itself is done by the
+     * {@link BTSCanService}. If location permission was requested,
+     * {@link #onRequestPermissionsResult(int, String[], int[])} will call this method again,
+     * whether permission was granted or not, and the cycle continues.
      */
     private void setupBluetooth() {
         if (ContextCompat.checkSelfPermission(this,
@@ -261,17 +208,21 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
             ActivityCompat.requestPermissions(this,
                     new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
                     REQUEST_LOCATION_PERMISSION);
-        } else {
-            //beaconManager = BeaconManager.getInstanceForApplication(this);
-            //beaconManager.bind(this);
         }
     }
 
     /**
-     * Retrieve user profile from the Spotify API through {@link Retrofit}.
+     * Retrieve user profile from the Spotify API through {@link Retrofit}, unless there's still a
+     * recent enough one in the {@link SpotifyApiClient#getUserProfileCache()}.
      * When data is retrieved, {@link #setUserNameView(UserProfile)} is called with the new data.
      */
     private void getUserProfile() {
+        UserProfile cached = apiClient.getUserProfileCache().get(SystemClock.elapsedRealtime());
+        if (cached != null) {
+            setUserNameView(cached);
+            return;
+        }
+
         Call<UserProfile> call = spotifyRestApi.getUserProfile();
 
         call.enqueue(new Callback<UserProfile>() {
@@ -279,8 +230,15 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
             public void onResponse(@NonNull Call<UserProfile> call,
                                    @NonNull Response<UserProfile> response) {
                 Log.d(TAG, "got user profile: " + response.toString());
+                if (!response.isSuccessful()) {
+                    // 429 already went through the rate limiter's Retry-After handling
+                    Log.w(TAG, "getting user profile failed with " + response.code()
+                            + ", Retry-After: " + response.headers().get("Retry-After"));
+                    return;
+                }
                 UserProfile userProfile = response.body();
                 if (userProfile != null) {
+                    apiClient.getUserProfileCache().put(userProfile, SystemClock.elapsedRealtime());
                     setUserNameView(userProfile);
                 }
             }
@@ -293,85 +251,33 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
     }
 
     /**
-     * Retrieve user devices from the Spotify API through {@link Retrofit}.
-     * When data is retrieved, {@link DeviceItemAdapter#updateDevices(Devices)} and
-     * {@link #setDevices(Devices)} are called with the new data.
+     * Retrieve user devices from the Spotify API through the {@link #playbackController}.
+     * When data is retrieved, the {@link #devicesListener} is called with the new data.
      */
     private void getUserDevices() {
-        Call<Devices> call = spotifyRestApi.getDevices();
-
-        call.enqueue(new Callback<Devices>() {
-            @Override
-            public void onResponse(@NonNull Call<Devices> call,
-                                   @NonNull Response<Devices> response) {
-                Log.d(TAG, "got devices: " + response.toString());
-                Devices devices = response.body();
-                if (devices != null) {
-                    setDevices(devices);
-                    deviceItemAdapter.updateDevices(devices);
-                }
-            }
-
-            @Override
-            public void onFailure(@NonNull Call<Devices> call, @NonNull Throwable t) {
-                Log.e(TAG, "getting user devices failed", t);
-            }
-        });
+        playbackController.refreshDevices();
     }
 
     /**
-     * Transfers playback to the device with the given {@code deviceName} through the Spotify API.
-     * Searches all available devices for a device with the given {@code deviceName} as name and
-     * calls {@link #transferPlayback(Device)} if it was found. If it wasn't found, nothing will
-     * happen. Could throw some exception I guess.
+     * Shows the given devices. The playback controller's device registry keeps the current list,
+     * so there's nothing to store here.
      *
-     * @param deviceName Name of the device to transfer playback to
+     * @param devices New device list
      */
-    void transferPlayback(String deviceName) {
-        for (Device device : devices.devices) {
-            if (device.deviceName.equals(deviceName)) {
-                transferPlayback(device);
-                break;
-            }
-        }
+    private void onDevicesChanged(Devices devices) {
+        deviceItemAdapter.updateDevices(devices);
     }
 
     /**
-     * Transfers playback to the given {@code device} through the Spotify API. On success, the
-     * updated list of devices is requested via {@link #getUserDevices()} one second after the
-     * transfer request's response was received (avoiding some timing issues)
+     * Transfers playback to the given {@code device} through the {@link #playbackController},
+     * which drops the request if that's where the playback is already heading. On success, the
+     * device is shown as active right away, and the device list is polled until Spotify
+     * confirms it.
      *
      * @param device Device object to transfer playback to
      */
     private void transferPlayback(Device device) {
-        if (transferOngoing) {
-            return;
-        }
-        transferOngoing = true;
-
-        PlaybackTransfer playbackTransfer = new PlaybackTransfer(device.deviceId);
-        Call<ResponseBody> call = spotifyRestApi.transferPlayback(playbackTransfer);
-
-        call.enqueue(new Callback<ResponseBody>() {
-            @Override
-            public void onResponse(@NonNull Call<ResponseBody> call,
-                                   @NonNull final Response<ResponseBody> response) {
-
-                new Handler().postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG, "got transfer response: " + response.toString());
-                        transferOngoing = false;
-                        getUserDevices();
-                    }
-                }, 1000);
-            }
-
-            @Override
-            public void onFailure(@NonNull Call<ResponseBody> call, @NonNull Throwable t) {
-                Log.e(TAG, "transferring playback failed", t);
-            }
-        });
+        playbackController.transferPlaybackToId(device.deviceId);
     }
 
     /**
@@ -393,206 +299,123 @@ public class MainActivity extends AppCompatActivity implements BeaconConsumer {
     }
 
     /**
-     * Internally stores the given {@code devices} in {@link #devices}, and check for an active
-     * device, and update {@link #currentDevice} accordingly.
+     * Initialize the beacon view by setting the beacon IDs of the first beacons of the
+     * {@link BTSCanService#floorPlan}, hiding the views without a beacon.
      *
-     * @param devices Newly received devices list
+     * @see #BEACON_VIEWS
      */
-    private void setDevices(Devices devices) {
-        this.devices = devices;
-        for (Device device : devices.devices) {
-            if (device.isActive) {
-                currentDevice = device.deviceName;
-                return;
-            }
-        }
-        currentDevice = null;
-    }
-
-    @Override
-    public void onBeaconServiceConnect() {
-        beaconRegion = new Region("someRegion", null, null, null);
-        beaconManager.addRangeNotifier(new RangeNotifier() {
-            @Override
-            public void didRangeBeaconsInRegion(Collection<Beacon> beacons, Region region) {
-                if (PRINT_BEACON_INFO) {
-                    for (Beacon beacon : beacons) {
-                        Log.d(TAG, "found id " + beacon.getId3()
-                                + " rssi " + beacon.getRssi()
-                                + " distance " + beacon.getDistance());
-                    }
-                }
-                updateBeacons(beacons);
-                setBeaconInfo();
-                checkSituation();
+    private void initBeaconView() {
+        BeaconLocation[] beacons = BTSCanService.floorPlan.getBeaconLocations();
+        for (int i = 0; i < BEACON_VIEWS.length; i++) {
+            LinearLayout layout = findViewById(BEACON_VIEWS[i]);
+            if (i < beacons.length) {
+                TextView textView = layout.findViewById(R.id.beacon_id);
+                textView.setText(getString(R.string.beacon_id, beacons[i].key & 0xffff));
+            } else {
+                layout.setVisibility(View.GONE);
             }
-        });
-
-        try {
-            beaconManager.startRangingBeaconsInRegion(beaconRegion);
-        } catch (RemoteException e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * Initialize the beacon view by setting the beacon IDs.
-     *
-     * @see #myBeacons
+     * Room decisions reported by the {@link BTSCanService}, delivered on the main thread. The
+     * service takes care of the playback itself, so this is just for information.
      */
-    private void initBeaconView() {
-        LinearLayout layout = findViewById(R.id.beacon_info_1);
-        TextView textView = layout.findViewById(R.id.beacon_id);
-        textView.setText(getString(R.string.beacon_id, myBeacons[0]));
-
-        layout = findViewById(R.id.beacon_info_2);
-        textView = layout.findViewById(R.id.beacon_id);
-        textView.setText(getString(R.string.beacon_id, myBeacons[1]));
-    }
+    private final EventChannel.Listener<BTSCanService.DeviceMsg> deviceListener =
+            new EventChannel.Listener<BTSCanService.DeviceMsg>() {
+                @Override
+                public void onEvent(BTSCanService.DeviceMsg event) {
+                    Log.d(TAG, "Got event " + event.getName() + " found: " + event.getFound());
+                }
+            };
 
     /**
-     * Sets the newly retrieved beacon information from the {@link BeaconManager} internally.
-     *
-     * @param beacons List of retrieved beacons
+     * Beacon distances reported by the {@link BTSCanService}, delivered on the main thread and
+     * shown in the beacon view.
      */
-    private void updateBeacons(Collection<Beacon> beacons) {
-        /*
-         * TODO copy data to this.beacons by comparing old values and only update, not overwrite all
-         */
-        this.beacons = beacons;
-    }
+    private final EventChannel.Listener<BTSCanService.ScanEvent> scanListener =
+            new EventChannel.Listener<BTSCanService.ScanEvent>() {
+                @Override
+                public void onEvent(BTSCanService.ScanEvent event) {
+                    setBeaconDistance(event.getKey(), event.getDistance());
+                }
+            };
 
     /**
-     * Set the new info of previously retrieved {@link Beacon}s in the beacon view.
-     * Mainly just sets the distance for each beacon
+     * Shows the distance of the given beacon, if it's one of the beacons in the beacon view.
+     *
+     * @param key Beacon key, see {@link fi.craplab.spotifindme.beacon.AltBeacon#packIds(int, int)}
+     * @param distance Estimated distance in meters, {@code NaN} if the beacon was lost
      */
-    private void setBeaconInfo() {
-        for (Beacon beacon : beacons) {
-            int resId;
-            int beaconId = beacon.getId3().toInt();
-
-            if (beaconId == myBeacons[0]) {
-                resId = R.id.beacon_info_1;
-            } else if (beaconId == myBeacons[1]) {
-                resId = R.id.beacon_info_2;
-            } else {
-                continue;
+    private void setBeaconDistance(int key, double distance) {
+        BeaconLocation[] beacons = BTSCanService.floorPlan.getBeaconLocations();
+        for (int i = 0; i < BEACON_VIEWS.length && i < beacons.length; i++) {
+            if (beacons[i].key == key) {
+                LinearLayout layout = findViewById(BEACON_VIEWS[i]);
+                TextView distanceView = layout.findViewById(R.id.beacon_distance);
+                distanceView.setText(Double.isNaN(distance) ? ""
+                        : getString(R.string.beacon_distance, distance));
+                return;
             }
-
-            LinearLayout layout = findViewById(resId);
-            TextView distanceView = layout.findViewById(R.id.beacon_distance);
-            distanceView.setText(getString(R.string.beacon_distance, beacon.getDistance()));
         }
     }
 
     /**
-     * Checks the general situation with the beacons and playback and transfers if necessary the
-     * playback on the other device.
-     *
-     * This is a very basic implementation at this point. Follows very simple rules based on
-     * not so properly calibrated, arbitrarily located beacons. Transitioning is therefore not the
-     * smoothest with this. But it works, and this is proof-of-concept. Concept proven.
-     *
-     * @see #myBeacons
-     * @see #myDevices
+     * Gets the API client and the playback controller, shows the user profile and devices, and
+     * starts the scan service and subscribes to its events. None of it is needed for the first
+     * frame, and getting the playback controller any earlier would pull its deferred startup task
+     * onto the main thread, so this is posted from {@link #onStart()} to run after it.
      */
-    private void checkSituation() {
-        Beacon id1 = null; // laptop, if far, switch to myDevices[0]
-        Beacon id2 = null; // rpi
-
-        if (currentDevice == null) {
-            return;
-        }
-
-        for (Beacon beacon : beacons) {
-            int beaconId = beacon.getId3().toInt();
-
-            if (beaconId == myBeacons[0]) {
-                id1 = beacon;
-            } else if (beaconId == myBeacons[1]) {
-                id2 = beacon;
+    private final Runnable startBackgroundWork = new Runnable() {
+        @Override
+        public void run() {
+            if (isFinishing()) {
+                // on the way back to the login
+                return;
             }
-        }
-
-        if (id1 == null && id2 == null) {
-            Log.w(TAG, "no beacons");
-            return;
-        }
-
-        if (id1 == null || id2 == null) {
-            /*
-             * FIXME if only one beacon is sent, it might kill the playback.
-             * should keep track of the last state and use that (with expiration)
-             * TODO updateBeacons() should set the beacon data accordingly
-             */
-            return;
-        }
-
-        double d1 = id1.getDistance();
-        double d2 = id2.getDistance();
-
-        /*
-         * FIXME this basically "just works", at least sometimes.
-         * Needs a lot more tweaking for smoother transitioning
-         */
-
-        if (d1 > 2.0 && d2 < 5.0 && currentDevice.equals(myDevices[0])) {
-            transferPlayback(myDevices[1]);
-        } else if (d1 < 1.5 && currentDevice.equals(myDevices[1])) {
-            transferPlayback(myDevices[0]);
-        }
-    }
-    @Subscribe(threadMode = ThreadMode.MAIN)
-    public void onMessageEvent(BTSCanService.DeviceMsg event) {
-        Log.d(TAG, "Got event "+ event.getName());
-        Device device = null;
-        if (devices == null) {
-            return;
-        }
-        for (Device d : devices.devices) {
-            if (d.deviceName.equals(event.getName())) {
-                device = d;
-                break;
+            if (playbackController == null) {
+                apiClient = SpotifindMe.getApiClient(MainActivity.this);
+                spotifyRestApi = apiClient.getRestApi();
+                playbackController = SpotifindMe.getPlaybackController(MainActivity.this);
             }
-        }
-        if (event.getFound()) {
-            transferPlayback(event.getName());
-        } else {
-            Call<ResponseBody> call = spotifyRestApi.pausePlayback(device.deviceId);
-
-            call.enqueue(new Callback<ResponseBody>() {
-                @Override
-                public void onResponse(@NonNull Call<ResponseBody> call,
-                                       @NonNull final Response<ResponseBody> response) {
-
-                    new Handler().postDelayed(() -> {
-                        Log.d(TAG, "got pause response: " + response.toString());
-                        transferOngoing = false;
-                        getUserDevices();
-                    }, 1000);
-                }
+            playbackController.addListener(devicesListener);
+            Devices devices = playbackController.getDevices();
+            if (devices != null) {
+                onDevicesChanged(devices);
+            }
+            getUserProfile();
+            getUserDevices();
 
-                @Override
-                public void onFailure(@NonNull Call<ResponseBody> call, @NonNull Throwable t) {
-                    Log.e(TAG, "pausing playback failed", t);
-                }
-            });
+            startForegroundService(new Intent(MainActivity.this, BTSCanService.class));
+            deviceSubscription = BTSCanService.decisionEvents.subscribe(
+                    ContextCompat.getMainExecutor(MainActivity.this), deviceListener);
+            scanSubscription = BTSCanService.scanEvents.subscribe(
+                    ContextCompat.getMainExecutor(MainActivity.this), scanListener);
         }
-    }
+    };
 
     @Override
     public void onStart() {
         super.onStart();
         Log.d(TAG, "Activity start");
-//        this.startForegroundService(new Intent(this, BTSCanService.class));
-        this.startForegroundService(new Intent(this, BTSCanService.class));
-        EventBus.getDefault().register(this);
+        getWindow().getDecorView().post(startBackgroundWork);
     }
 
     @Override
     public void onStop() {
         super.onStop();
         Log.d(TAG, "Activity stop");
-        EventBus.getDefault().unregister(this);
+        getWindow().getDecorView().removeCallbacks(startBackgroundWork);
+        if (deviceSubscription != null) {
+            deviceSubscription.cancel();
+            deviceSubscription = null;
+        }
+        if (scanSubscription != null) {
+            scanSubscription.cancel();
+            scanSubscription = null;
+        }
+        if (playbackController != null) {
+            playbackController.removeListener(devicesListener);
+        }
     }
 }
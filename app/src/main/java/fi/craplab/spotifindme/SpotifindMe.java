@@ -23,19 +23,274 @@
  */
 package fi.craplab.spotifindme;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
+import android.util.Log;
 
 import com.joanzapata.iconify.Iconify;
 import com.joanzapata.iconify.fonts.FontAwesomeModule;
 
+import java.io.File;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.spotifindme.net.AndroidKeyStoreKeyProvider;
+import fi.craplab.spotifindme.net.CredentialStore;
+import fi.craplab.spotifindme.net.SpotifyAccountsApi;
+import fi.craplab.spotifindme.net.SpotifyApiClient;
+import fi.craplab.spotifindme.net.TokenAuthenticator;
+import fi.craplab.spotifindme.net.TokenRefresher;
+import fi.craplab.spotifindme.playback.DeviceRegistry;
+import fi.craplab.spotifindme.playback.PlaybackController;
+import fi.craplab.spotifindme.startup.StartupPipeline;
+import okhttp3.OkHttpClient;
+
 /**
  * SpotifindMe Application.
- * Setting up {@link Iconify} with FontAwesome icons.
+ * Setting up {@link Iconify} with FontAwesome icons, and owning the process-wide
+ * {@link CredentialStore}, {@link TokenRefresher}, {@link SpotifyApiClient},
+ * {@link DeviceRegistry} and {@link PlaybackController} shared by all activities and the
+ * {@link BTSCanService}.
+ * <p>
+ * All of that is set up by the {@link StartupPipeline}. Only the credential store is created
+ * right away, the icons, the network client and the known devices are set up in parallel in the
+ * background, and the playback controller only after the first frame.
+ * </p>
  */
 public class SpotifindMe extends Application {
+    /** {@link Log} Tag */
+    private static final String TAG = "Startup";
+
+    /** Startup task registering the icon font, await it before inflating any icons */
+    public static final String TASK_ICONS = "icons";
+    /** Startup task loading the stored tokens */
+    public static final String TASK_CREDENTIALS = "credentials";
+    /** Startup task creating the API client and the token refresher */
+    public static final String TASK_API_CLIENT = "api client";
+    /** Startup task loading the last known devices */
+    public static final String TASK_DEVICES = "devices";
+    /** Startup task creating the playback controller */
+    public static final String TASK_PLAYBACK = "playback";
+
+    /** Threads running the background startup tasks in parallel */
+    private static final int STARTUP_THREADS = 3;
+
+    /** Android Keystore alias of the {@link CredentialStore} key */
+    private static final String CREDENTIALS_KEY_ALIAS = "spotifindme.credentials";
+
+    /** Encrypted token storage, preloaded in the background at start */
+    private CredentialStore credentialStore;
+    /** Startup pipeline, see {@link #getStartup()} */
+    private StartupPipeline startup;
+    /** Lazily created token refresher, see {@link #getTokenRefresher()} */
+    private volatile TokenRefresher tokenRefresher;
+    /** Lazily created Spotify API client, see {@link #getApiClient()} */
+    private volatile SpotifyApiClient apiClient;
+    /** Last known devices, loaded in the background at start */
+    private DeviceRegistry deviceRegistry;
+    /** Lazily created playback controller, see {@link #getPlaybackController()} */
+    private volatile PlaybackController playbackController;
+
     @Override
     public void onCreate() {
         super.onCreate();
-        Iconify.with(new FontAwesomeModule());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(STARTUP_THREADS, STARTUP_THREADS,
+                5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // the threads are only needed during startup
+        executor.allowCoreThreadTimeOut(true);
+
+        startup = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.CRITICAL, TASK_CREDENTIALS, new Runnable() {
+                    @Override
+                    public void run() {
+                        // not backed up, the key stays in this phone's keystore anyway
+                        credentialStore = new CredentialStore(
+                                new File(getNoBackupFilesDir(), "credentials"),
+                                new AndroidKeyStoreKeyProvider(CREDENTIALS_KEY_ALIAS),
+                                TokenHandler.legacyStore(SpotifindMe.this));
+                        // reads and decrypts on the store's own thread
+                        credentialStore.preload();
+                    }
+                })
+                .add(StartupPipeline.Stage.BACKGROUND, TASK_ICONS, new Runnable() {
+                    @Override
+                    public void run() {
+                        Iconify.with(new FontAwesomeModule());
+                    }
+                })
+                .add(StartupPipeline.Stage.BACKGROUND, TASK_API_CLIENT, new Runnable() {
+                    @Override
+                    public void run() {
+                        getApiClient();
+                    }
+                })
+                .add(StartupPipeline.Stage.BACKGROUND, TASK_DEVICES, new Runnable() {
+                    @Override
+                    public void run() {
+                        deviceRegistry = new DeviceRegistry(new File(getFilesDir(), "devices"));
+                        deviceRegistry.load();
+                    }
+                })
+                .add(StartupPipeline.Stage.DEFERRED, TASK_PLAYBACK, new Runnable() {
+                    @Override
+                    public void run() {
+                        getPlaybackController();
+                    }
+                });
+        startup.start();
+    }
+
+    /**
+     * @return Startup pipeline, e.g. to read the startup timings
+     */
+    public StartupPipeline getStartup() {
+        return startup;
+    }
+
+    /**
+     * @return Process-wide encrypted token storage
+     */
+    public CredentialStore getCredentialStore() {
+        return credentialStore;
+    }
+
+    /**
+     * Returns the process-wide token refresher, creating and starting it on first use.
+     *
+     * @return Token refresher
+     */
+    public TokenRefresher getTokenRefresher() {
+        TokenRefresher refresher = tokenRefresher;
+        if (refresher == null) {
+            synchronized (this) {
+                refresher = tokenRefresher;
+                if (refresher == null) {
+                    SpotifyAccountsApi accountsApi = TokenRefresher.createAccountsApi(
+                            new OkHttpClient(), SpotifyAccountsApi.BASE_URL);
+                    refresher = new TokenRefresher(accountsApi, LoginActivity.CLIENT_ID,
+                            credentialStore);
+                    refresher.start();
+                    tokenRefresher = refresher;
+                }
+            }
+        }
+        return refresher;
+    }
+
+    /**
+     * Returns the process-wide Spotify API client, creating it on first use.
+     *
+     * @return Spotify API client
+     */
+    public SpotifyApiClient getApiClient() {
+        SpotifyApiClient client = apiClient;
+        if (client == null) {
+            synchronized (this) {
+                client = apiClient;
+                if (client == null) {
+                    TokenRefresher refresher = getTokenRefresher();
+                    client = new SpotifyApiClient(new File(getCacheDir(), "http"), refresher,
+                            new TokenAuthenticator(refresher));
+                    apiClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns the process-wide playback controller, creating it on first use.
+     *
+     * @return Playback controller
+     */
+    public PlaybackController getPlaybackController() {
+        PlaybackController controller = playbackController;
+        if (controller == null) {
+            synchronized (this) {
+                controller = playbackController;
+                if (controller == null) {
+                    startup.await(TASK_DEVICES);
+                    controller = new PlaybackController(getApiClient().getRestApi(),
+                            deviceRegistry);
+                    playbackController = controller;
+                }
+            }
+        }
+        return controller;
+    }
+
+    /**
+     * Returns the process-wide Spotify API client of the application the given context
+     * belongs to.
+     *
+     * @param context Any context of this application
+     * @return Spotify API client
+     */
+    public static SpotifyApiClient getApiClient(Context context) {
+        return ((SpotifindMe) context.getApplicationContext()).getApiClient();
+    }
+
+    /**
+     * Blocks until the given startup task finished, see {@link StartupPipeline#await(String)}.
+     *
+     * @param context Any context of this application
+     * @param task Startup task name, e.g. {@link #TASK_ICONS}
+     */
+    public static void awaitStartup(Context context, String task) {
+        ((SpotifindMe) context.getApplicationContext()).startup.await(task);
+    }
+
+    /**
+     * Tells the startup pipeline once the given activity drew its first frame, so the deferred
+     * startup tasks can start. Call from {@code onCreate()}.
+     *
+     * @param activity Activity that is about to draw its first frame
+     */
+    public static void reportFirstFrame(Activity activity) {
+        final StartupPipeline startup = ((SpotifindMe) activity.getApplication()).startup;
+        // runs once the first traversal of the window is done
+        activity.getWindow().getDecorView().post(new Runnable() {
+            @Override
+            public void run() {
+                startup.onFirstFrame();
+                for (StartupPipeline.Timing timing : startup.getTimings()) {
+                    Log.i(TAG, timing.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the process-wide encrypted token storage of the application the given context
+     * belongs to.
+     *
+     * @param context Any context of this application
+     * @return Credential store
+     */
+    public static CredentialStore getCredentialStore(Context context) {
+        return ((SpotifindMe) context.getApplicationContext()).getCredentialStore();
+    }
+
+    /**
+     * Returns the process-wide token refresher of the application the given context belongs to.
+     *
+     * @param context Any context of this application
+     * @return Token refresher
+     */
+    public static TokenRefresher getTokenRefresher(Context context) {
+        return ((SpotifindMe) context.getApplicationContext()).getTokenRefresher();
+    }
+
+    /**
+     * Returns the process-wide playback controller of the application the given context
+     * belongs to.
+     *
+     * @param context Any context of this application
+     * @return Playback controller
+     */
+    public static PlaybackController getPlaybackController(Context context) {
+        return ((SpotifindMe) context.getApplicationContext()).getPlaybackController();
     }
 }
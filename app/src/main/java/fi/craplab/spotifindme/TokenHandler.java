@@ -26,57 +26,67 @@ package fi.craplab.spotifindme;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import fi.craplab.spotifindme.net.CredentialStore;
+import fi.craplab.spotifindme.net.Credentials;
+import fi.craplab.spotifindme.net.TokenRefresher;
+
 /**
  * Spotify Auth Token Handler.
- * Stores the auth token retrieved from the Spotify API after signing in with a valid user account.
- *
- * TODO: This could probably also handle the whole token refreshing at some point..
+ * The auth token and the refresh token the {@link TokenRefresher} uses to keep it valid are kept
+ * encrypted in the application's {@link CredentialStore}, and read and written through the
+ * refresher only.
+ * <p>
+ * Earlier versions stored the token in plain {@link SharedPreferences}, all that's left here is
+ * {@link #legacyStore(Context)} for migrating it.
+ * </p>
  *
- * @see SharedPreferences
+ * @see CredentialStore
  */
 public class TokenHandler {
 
-    /** {@link SharedPreferences} name to store the token into */
+    /** {@link SharedPreferences} name earlier versions stored the token into */
     private static final String SHARED_PREFS = "spotify.token";
     /** {@link SharedPreferences} key for storing the token value */
     private static final String TOKEN = "token";
     /** {@link SharedPreferences} key for storing the token's expiration timestamp */
     private static final String EXPIRES = "expires";
+    /** {@link SharedPreferences} key for storing the refresh token value */
+    private static final String REFRESH_TOKEN = "refresh_token";
 
     /**
-     * Store the given auth token information to the {@link SharedPreferences}.
+     * Returns the plain {@link SharedPreferences} token storage of earlier versions, for the
+     * {@link CredentialStore} to migrate from. Storing {@link Credentials#NONE} removes the
+     * preferences file.
      *
      * @param context Application context
-     * @param token Token value
-     * @param expiresIn Token expiration value in seconds
+     * @return Legacy token storage
      */
-    public static void storeToken(Context context, String token, long expiresIn) {
-        long expiresAt = System.currentTimeMillis() + (expiresIn * 1000);
-
-        context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE)
-                .edit()
-                .putString(TOKEN, token)
-                .putLong(EXPIRES, expiresAt)
-                .apply();
-    }
-
-    /**
-     * Retrieves the currently stored auth token from the {@link SharedPreferences}, provided there
-     * is one stored and it's still valid.
-     *
-     * @param context Application context
-     * @return Auth token value if available and not expired, {@code null} otherwise
-     */
-    public static String getToken(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
-
-        String token = prefs.getString(TOKEN, null);
-        long expires = prefs.getLong(EXPIRES, 0L);
-
-        if (token == null || expires < System.currentTimeMillis()) {
-            return null;
-        }
+    static TokenRefresher.TokenStore legacyStore(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return new TokenRefresher.TokenStore() {
+            @Override
+            public Credentials getCredentials() {
+                SharedPreferences prefs = appContext.getSharedPreferences(SHARED_PREFS,
+                        Context.MODE_PRIVATE);
+                String token = prefs.getString(TOKEN, null);
+                String refreshToken = prefs.getString(REFRESH_TOKEN, null);
+                return token == null && refreshToken == null ? Credentials.NONE
+                        : new Credentials(token, prefs.getLong(EXPIRES, 0L), refreshToken);
+            }
 
-        return token;
+            @Override
+            public void storeCredentials(Credentials credentials) {
+                if (credentials == Credentials.NONE) {
+                    appContext.deleteSharedPreferences(SHARED_PREFS);
+                    return;
+                }
+                appContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE)
+                        .edit()
+                        .putString(TOKEN, credentials.token)
+                        .putLong(EXPIRES, credentials.expiresAt)
+                        .putString(REFRESH_TOKEN, credentials.refreshToken)
+                        .commit();
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+/**
+ * Byte layout of an AltBeacon advertisement, as sent by {@code tools/altbeacon_transmit.sh}.
+ * <p>
+ * The methods work directly on the manufacturer specific data bytes following the company id,
+ * at any offset within a larger array, so nothing has to be copied or allocated to decode it:
+ * <pre>
+ *  offset  length  content
+ *       0       2  beacon code 0xBEAC, big endian
+ *       2      16  ID1, organizational identifier
+ *      18       2  ID2, beacon group, big endian
+ *      20       2  ID3, beacon unit, big endian
+ *      22       1  reference RSSI at 1m, signed
+ *      23       1  reserved for the manufacturer
+ * </pre>
+ * </p>
+ */
+public final class AltBeacon {
+    /** Company id the transmit script uses, Radius Networks */
+    public static final int COMPANY_ID = 0x0118;
+    /** AltBeacon advertisement code */
+    public static final int BEACON_CODE = 0xBEAC;
+    /** Length of the manufacturer data following the company id */
+    public static final int DATA_LENGTH = 24;
+    /** Length of ID1 */
+    public static final int ID1_LENGTH = 16;
+
+    /** Path loss exponent for {@link #estimateDistance(double, int)}, 2 is free space */
+    static final double PATH_LOSS_EXPONENT = 2.0;
+
+    static final int OFFSET_CODE = 0;
+    static final int OFFSET_ID1 = 2;
+    static final int OFFSET_ID2 = 18;
+    static final int OFFSET_ID3 = 20;
+    static final int OFFSET_REFERENCE_RSSI = 22;
+    static final int OFFSET_RESERVED = 23;
+
+    /** ID1 of all SpotifindMe beacons, "SpotifindMe" padded with zeros */
+    public static final byte[] SPOTIFINDME_ID1 = new byte[] {
+            'S', 'p', 'o', 't', 'i', 'f', 'i', 'n', 'd', 'M', 'e', 0, 0, 0, 0, 0
+    };
+
+    private AltBeacon() {
+    }
+
+    /**
+     * Checks if the given data is long enough and has the AltBeacon code.
+     *
+     * @param data Array containing the manufacturer data
+     * @param offset Offset of the manufacturer data following the company id
+     * @param length Length of the manufacturer data
+     * @return {@code true} if the data is an AltBeacon advertisement
+     */
+    public static boolean isAltBeacon(byte[] data, int offset, int length) {
+        return data != null && length >= DATA_LENGTH && offset >= 0
+                && offset + DATA_LENGTH <= data.length
+                && readUnsignedShort(data, offset + OFFSET_CODE) == BEACON_CODE;
+    }
+
+    /**
+     * @param data Array containing the manufacturer data, checked with {@link #isAltBeacon}
+     * @param offset Offset of the manufacturer data following the company id
+     * @param id1 ID1 to compare with, {@link #ID1_LENGTH} bytes
+     * @return {@code true} if the beacon's ID1 equals the given one
+     */
+    public static boolean id1Equals(byte[] data, int offset, byte[] id1) {
+        for (int i = 0; i < ID1_LENGTH; i++) {
+            if (data[offset + OFFSET_ID1 + i] != id1[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param data Array containing the manufacturer data, checked with {@link #isAltBeacon}
+     * @param offset Offset of the manufacturer data following the company id
+     * @return ID2, beacon group
+     */
+    public static int getId2(byte[] data, int offset) {
+        return readUnsignedShort(data, offset + OFFSET_ID2);
+    }
+
+    /**
+     * @param data Array containing the manufacturer data, checked with {@link #isAltBeacon}
+     * @param offset Offset of the manufacturer data following the company id
+     * @return ID3, beacon unit
+     */
+    public static int getId3(byte[] data, int offset) {
+        return readUnsignedShort(data, offset + OFFSET_ID3);
+    }
+
+    /**
+     * @param data Array containing the manufacturer data, checked with {@link #isAltBeacon}
+     * @param offset Offset of the manufacturer data following the company id
+     * @return Reference RSSI at 1m in dBm
+     */
+    public static int getReferenceRssi(byte[] data, int offset) {
+        return data[offset + OFFSET_REFERENCE_RSSI];
+    }
+
+    /**
+     * Estimates the distance to a beacon from its RSSI with the log-distance path loss model.
+     *
+     * @param rssi Received, ideally filtered, RSSI in dBm
+     * @param referenceRssi Reference RSSI at 1m in dBm, see {@link #getReferenceRssi}
+     * @return Estimated distance in meters
+     */
+    public static double estimateDistance(double rssi, int referenceRssi) {
+        return Math.pow(10, (referenceRssi - rssi) / (10 * PATH_LOSS_EXPONENT));
+    }
+
+    /**
+     * @param data Array containing the manufacturer data, checked with {@link #isAltBeacon}
+     * @param offset Offset of the manufacturer data following the company id
+     * @return Manufacturer reserved byte
+     */
+    public static int getReserved(byte[] data, int offset) {
+        return data[offset + OFFSET_RESERVED] & 0xff;
+    }
+
+    /**
+     * Packs ID2 and ID3 into a single int, e.g. to use as key.
+     *
+     * @param id2 Beacon group
+     * @param id3 Beacon unit
+     * @return {@code id2 << 16 | id3}
+     */
+    public static int packIds(int id2, int id3) {
+        return (id2 & 0xffff) << 16 | (id3 & 0xffff);
+    }
+
+    /**
+     * Builds the manufacturer data to match with a scan filter, i.e. everything up to ID3.
+     * The reference RSSI and reserved byte are left zero, and should be masked out.
+     *
+     * @param id1 ID1, {@link #ID1_LENGTH} bytes
+     * @param id2 ID2, only used if {@code matchIds} is set
+     * @param id3 ID3, only used if {@code matchIds} is set
+     * @param matchIds {@code true} to match the single beacon, {@code false} to match all with ID1
+     * @return Manufacturer data to match, {@link #DATA_LENGTH} bytes
+     */
+    public static byte[] buildFilterData(byte[] id1, int id2, int id3, boolean matchIds) {
+        if (id1.length != ID1_LENGTH) {
+            throw new IllegalArgumentException("ID1 must be " + ID1_LENGTH + " bytes");
+        }
+        byte[] data = new byte[DATA_LENGTH];
+        writeUnsignedShort(data, OFFSET_CODE, BEACON_CODE);
+        System.arraycopy(id1, 0, data, OFFSET_ID1, ID1_LENGTH);
+        if (matchIds) {
+            writeUnsignedShort(data, OFFSET_ID2, id2);
+            writeUnsignedShort(data, OFFSET_ID3, id3);
+        }
+        return data;
+    }
+
+    /**
+     * Builds the mask for the data from {@link #buildFilterData(byte[], int, int, boolean)}.
+     *
+     * @param matchIds {@code true} to match ID2 and ID3 as well
+     * @return Manufacturer data mask, {@link #DATA_LENGTH} bytes
+     */
+    public static byte[] buildFilterMask(boolean matchIds) {
+        byte[] mask = new byte[DATA_LENGTH];
+        int end = matchIds ? OFFSET_REFERENCE_RSSI : OFFSET_ID2;
+        for (int i = 0; i < end; i++) {
+            mask[i] = (byte) 0xff;
+        }
+        return mask;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+    }
+
+    private static void writeUnsignedShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+/**
+ * Reusable, allocation-free parser for raw BLE advertisements carrying an {@link AltBeacon}.
+ * <p>
+ * Walks the advertising data structures in the raw record, as returned by
+ * {@code ScanRecord.getBytes()}, looks for the first manufacturer specific data of
+ * {@link AltBeacon#COMPANY_ID} with the AltBeacon layout, and decodes it into the fields of this
+ * parser. Nothing is allocated per advertisement, so a single instance can parse every received
+ * scan result. Not thread-safe.
+ * </p>
+ */
+public class AltBeaconRecordParser {
+    /** Advertising data type of manufacturer specific data */
+    static final int TYPE_MANUFACTURER_DATA = 0xff;
+
+    private final byte[] id1 = new byte[AltBeacon.ID1_LENGTH];
+    private int id2;
+    private int id3;
+    private int referenceRssi;
+    private int reserved;
+    private boolean valid;
+
+    /**
+     * Parses the given raw advertisement.
+     *
+     * @param record Raw advertisement bytes
+     * @return {@code true} if it contains an AltBeacon, the getters are only valid if it does
+     */
+    public boolean parse(byte[] record) {
+        return record != null && parse(record, 0, record.length);
+    }
+
+    /**
+     * Parses the raw advertisement at the given position.
+     *
+     * @param record Array containing the raw advertisement bytes
+     * @param offset Offset of the advertisement
+     * @param length Length of the advertisement
+     * @return {@code true} if it contains an AltBeacon, the getters are only valid if it does
+     */
+    public boolean parse(byte[] record, int offset, int length) {
+        valid = false;
+        if (record == null || offset < 0 || length < 0 || offset + length > record.length) {
+            return false;
+        }
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            int structureLength = record[position] & 0xff;
+            if (structureLength == 0) {
+                // rest is zero padding
+                return false;
+            }
+            int dataStart = position + 2;
+            int structureEnd = position + 1 + structureLength;
+            if (structureEnd > end) {
+                return false;
+            }
+            if ((record[position + 1] & 0xff) == TYPE_MANUFACTURER_DATA
+                    && structureEnd - dataStart >= 2 + AltBeacon.DATA_LENGTH
+                    && readCompanyId(record, dataStart) == AltBeacon.COMPANY_ID
+                    && AltBeacon.isAltBeacon(record, dataStart + 2, structureEnd - dataStart - 2)) {
+                decode(record, dataStart + 2);
+                return true;
+            }
+            position = structureEnd;
+        }
+        return false;
+    }
+
+    private void decode(byte[] record, int offset) {
+        System.arraycopy(record, offset + AltBeacon.OFFSET_ID1, id1, 0, AltBeacon.ID1_LENGTH);
+        id2 = AltBeacon.getId2(record, offset);
+        id3 = AltBeacon.getId3(record, offset);
+        referenceRssi = AltBeacon.getReferenceRssi(record, offset);
+        reserved = AltBeacon.getReserved(record, offset);
+        valid = true;
+    }
+
+    private static int readCompanyId(byte[] record, int offset) {
+        // little endian, unlike the beacon data itself
+        return (record[offset] & 0xff) | (record[offset + 1] & 0xff) << 8;
+    }
+
+    /**
+     * @return {@code true} if the last parsed advertisement contained an AltBeacon
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @param other ID1 to compare with, {@link AltBeacon#ID1_LENGTH} bytes
+     * @return {@code true} if the parsed ID1 equals the given one
+     */
+    public boolean id1Equals(byte[] other) {
+        for (int i = 0; i < AltBeacon.ID1_LENGTH; i++) {
+            if (id1[i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param destination Array to copy the parsed ID1 into, at least {@link AltBeacon#ID1_LENGTH}
+     *                    bytes
+     */
+    public void copyId1(byte[] destination) {
+        System.arraycopy(id1, 0, destination, 0, AltBeacon.ID1_LENGTH);
+    }
+
+    /**
+     * @return ID2, beacon group
+     */
+    public int getId2() {
+        return id2;
+    }
+
+    /**
+     * @return ID3, beacon unit
+     */
+    public int getId3() {
+        return id3;
+    }
+
+    /**
+     * @return ID2 and ID3 packed into a single int, see {@link AltBeacon#packIds(int, int)}
+     */
+    public int getKey() {
+        return AltBeacon.packIds(id2, id3);
+    }
+
+    /**
+     * @return Reference RSSI at 1m in dBm
+     */
+    public int getReferenceRssi() {
+        return referenceRssi;
+    }
+
+    /**
+     * @return Manufacturer reserved byte
+     */
+    public int getReserved() {
+        return reserved;
+    }
+}
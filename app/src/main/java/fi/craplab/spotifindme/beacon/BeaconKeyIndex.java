@@ -0,0 +1,127 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense indices {@code 0..size()-1} to beacon keys, ID2 and ID3 packed into an int, see
+ * {@link AltBeacon#packIds(int, int)}, in the order the keys are first seen.
+ * <p>
+ * Lets per-beacon state live in plain arrays indexed by the beacon, instead of a map with boxed
+ * keys. The keys are kept in an open addressing hash table with linear probing, same as in the
+ * {@link BeaconStateTable}, so lookups don't allocate. Indices are never removed, there's only a
+ * handful of beacons anyway.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class BeaconKeyIndex {
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** Hash table, index + 1 per slot, {@code 0} for empty slots */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    /** Key per index */
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return Index of the given key, or {@code -1} if it wasn't added
+     */
+    public int indexOf(int key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            if (keys[index] == key) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the given key, adding it with the next free index if it's new.
+     *
+     * @param key Packed ID2 and ID3
+     * @return Index of the key
+     */
+    public int add(int key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return index;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            rehash(slots.length * 2);
+        }
+        index = size++;
+        keys[index] = key;
+        insert(index);
+        return index;
+    }
+
+    /**
+     * @param index Index from {@link #add(int)}
+     * @return Key with the given index
+     */
+    public int getKey(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return keys[index];
+    }
+
+    /**
+     * @return Number of keys, i.e. the next index to be handed out
+     */
+    public int size() {
+        return size;
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = hash(keys[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int index = 0; index < size; index++) {
+            insert(index);
+        }
+    }
+
+    private static int hash(int key) {
+        // spread the bits, IDs are often small consecutive numbers
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
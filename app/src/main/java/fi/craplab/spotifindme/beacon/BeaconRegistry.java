@@ -0,0 +1,181 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All beacons the app reacts to.
+ * <p>
+ * All beacons share one ID1, and are told apart by ID2 and ID3. The registry provides the
+ * manufacturer data the scan filters are built from, so advertisements of any other device are
+ * dropped by the Bluetooth controller already, and looks up the beacon of a received
+ * advertisement. The lookup goes through a {@link BeaconKeyIndex}, so it doesn't allocate.
+ * </p>
+ */
+public class BeaconRegistry {
+    /**
+     * Maximum number of beacons that get their own scan filter. Controllers only have a handful
+     * of filter slots, with more beacons a single filter matching ID1 is used instead.
+     */
+    public static final int MAX_BEACON_FILTERS = 8;
+
+    private final byte[] id1;
+    private final BeaconKeyIndex keys = new BeaconKeyIndex();
+    /** Registered beacons, in the order of their {@link RegisteredBeacon#index} */
+    private final List<RegisteredBeacon> beacons = new ArrayList<>();
+
+    /**
+     * Creates a new, empty beacon registry.
+     *
+     * @param id1 ID1 all beacons share, {@link AltBeacon#ID1_LENGTH} bytes
+     */
+    public BeaconRegistry(byte[] id1) {
+        if (id1.length != AltBeacon.ID1_LENGTH) {
+            throw new IllegalArgumentException("ID1 must be " + AltBeacon.ID1_LENGTH + " bytes");
+        }
+        this.id1 = id1.clone();
+    }
+
+    /**
+     * Adds a beacon to the registry, unless there already is one with the same ID2 and ID3.
+     *
+     * @param id2 ID2, beacon group
+     * @param id3 ID3, beacon unit
+     * @return This registry
+     */
+    public BeaconRegistry add(int id2, int id3) {
+        int index = keys.add(AltBeacon.packIds(id2, id3));
+        if (index == beacons.size()) {
+            beacons.add(new RegisteredBeacon(id2, id3, index));
+        }
+        return this;
+    }
+
+    /**
+     * @return All registered beacons, in the order of their {@link RegisteredBeacon#index}
+     */
+    public List<RegisteredBeacon> getBeacons() {
+        return Collections.unmodifiableList(beacons);
+    }
+
+    /**
+     * @param index Index of the beacon
+     * @return Registered beacon with the given {@link RegisteredBeacon#index}
+     * @throws IndexOutOfBoundsException if there's no beacon with that index
+     */
+    public RegisteredBeacon getBeacon(int index) {
+        return beacons.get(index);
+    }
+
+    /**
+     * @return Number of registered beacons, i.e. the upper bound of their indices
+     */
+    public int size() {
+        return beacons.size();
+    }
+
+    /**
+     * @param id2 ID2, beacon group
+     * @param id3 ID3, beacon unit
+     * @return Registered beacon with the given ids, or {@code null} if unknown
+     */
+    public RegisteredBeacon get(int id2, int id3) {
+        int index = keys.indexOf(AltBeacon.packIds(id2, id3));
+        return index < 0 ? null : beacons.get(index);
+    }
+
+    /**
+     * Looks up the beacon that sent the given manufacturer data.
+     *
+     * @param data Manufacturer data following the company id
+     * @return Registered beacon, or {@code null} if the data isn't from a known beacon
+     */
+    public RegisteredBeacon find(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        return find(data, 0, data.length);
+    }
+
+    /**
+     * Looks up the beacon that sent the given manufacturer data.
+     *
+     * @param data Array containing the manufacturer data
+     * @param offset Offset of the manufacturer data following the company id
+     * @param length Length of the manufacturer data
+     * @return Registered beacon, or {@code null} if the data isn't from a known beacon
+     */
+    public RegisteredBeacon find(byte[] data, int offset, int length) {
+        if (!AltBeacon.isAltBeacon(data, offset, length) || !AltBeacon.id1Equals(data, offset, id1)) {
+            return null;
+        }
+        return get(AltBeacon.getId2(data, offset), AltBeacon.getId3(data, offset));
+    }
+
+    /**
+     * Looks up the beacon of the advertisement the given parser just parsed.
+     *
+     * @param parser Parser holding a parsed advertisement
+     * @return Registered beacon, or {@code null} if the advertisement isn't from a known beacon
+     */
+    public RegisteredBeacon find(AltBeaconRecordParser parser) {
+        if (!parser.isValid() || !parser.id1Equals(id1)) {
+            return null;
+        }
+        return get(parser.getId2(), parser.getId3());
+    }
+
+    /**
+     * Builds the manufacturer data for the scan filters, one per beacon, or a single one matching
+     * only ID1 if there are more than {@link #MAX_BEACON_FILTERS} beacons.
+     * Use together with {@link #buildFilterMask()}.
+     *
+     * @return Manufacturer data per scan filter, following the {@link AltBeacon#COMPANY_ID}
+     */
+    public List<byte[]> buildFilterData() {
+        List<byte[]> filterData = new ArrayList<>();
+        if (useBeaconFilters()) {
+            for (RegisteredBeacon beacon : beacons) {
+                filterData.add(AltBeacon.buildFilterData(id1, beacon.id2, beacon.id3, true));
+            }
+        } else {
+            filterData.add(AltBeacon.buildFilterData(id1, 0, 0, false));
+        }
+        return filterData;
+    }
+
+    /**
+     * @return Manufacturer data mask for all data from {@link #buildFilterData()}
+     */
+    public byte[] buildFilterMask() {
+        return AltBeacon.buildFilterMask(useBeaconFilters());
+    }
+
+    private boolean useBeaconFilters() {
+        return beacons.size() <= MAX_BEACON_FILTERS;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+import java.util.Arrays;
+
+/**
+ * Latest state of every beacon in range, keyed by ID2 and ID3 packed into an int, see
+ * {@link AltBeacon#packIds(int, int)}.
+ * <p>
+ * Each beacon keeps a ring buffer of its most recent timestamped RSSI and distance samples.
+ * Everything is stored in primitive arrays: the keys in an open addressing hash table with linear
+ * probing, pointing into a pool of entries holding the sample buffers. Lookups and new samples
+ * are O(1) and don't allocate, only adding more beacons than ever before grows the arrays.
+ * Beacons that haven't been seen for a while are removed with {@link #evictStale(long, long)}.
+ * </p>
+ * <p>
+ * All times are passed in by the caller in milliseconds from a monotonic clock. Not thread-safe.
+ * </p>
+ */
+public class BeaconStateTable {
+    /** Default number of samples kept per beacon */
+    public static final int DEFAULT_HISTORY_SIZE = 8;
+    /** Returned by {@link #getLatestRssi(int)} for unknown beacons */
+    public static final int NO_RSSI = Integer.MIN_VALUE;
+
+    /**
+     * Gets called for each beacon by {@link #forEach(Visitor)}.
+     */
+    public interface Visitor {
+        /**
+         * @param key Packed ID2 and ID3
+         * @param rssi Latest RSSI in dBm
+         * @param distance Latest distance in meters
+         * @param lastSeen Time of the latest sample
+         */
+        void visit(int key, int rssi, double distance, long lastSeen);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int historySize;
+
+    /** Hash table, entry index + 1 per slot, {@code 0} for empty slots */
+    private int[] slots;
+    /** Key per entry */
+    private int[] keys;
+    /** Index of the next sample to write per entry */
+    private int[] heads;
+    /** Number of valid samples per entry, {@code 0} for free entries */
+    private int[] counts;
+    /** Sample timestamps, {@link #historySize} per entry */
+    private long[] times;
+    /** Sample RSSI values, {@link #historySize} per entry */
+    private int[] rssis;
+    /** Sample distances, {@link #historySize} per entry */
+    private double[] distances;
+
+    /** Free entries, as a stack */
+    private int[] freeEntries;
+    private int freeCount;
+    /** Number of entries ever used, i.e. entries above this were never handed out */
+    private int usedEntries;
+    private int size;
+
+    /**
+     * Creates a new beacon state table keeping {@link #DEFAULT_HISTORY_SIZE} samples per beacon.
+     */
+    public BeaconStateTable() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * Creates a new beacon state table.
+     *
+     * @param historySize Number of samples kept per beacon
+     */
+    public BeaconStateTable(int historySize) {
+        if (historySize < 1) {
+            throw new IllegalArgumentException("history size must be positive");
+        }
+        this.historySize = historySize;
+        slots = new int[INITIAL_CAPACITY * 2];
+        allocateEntries(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds a new sample for the given beacon, adding the beacon if it's not known yet.
+     *
+     * @param key Packed ID2 and ID3
+     * @param rssi RSSI in dBm
+     * @param distance Distance in meters
+     * @param now Sample timestamp
+     */
+    public void record(int key, int rssi, double distance, long now) {
+        int entry = findEntry(key);
+        if (entry < 0) {
+            entry = addEntry(key);
+        }
+        int index = entry * historySize + heads[entry];
+        times[index] = now;
+        rssis[index] = rssi;
+        distances[index] = distance;
+        heads[entry] = (heads[entry] + 1) % historySize;
+        if (counts[entry] < historySize) {
+            counts[entry]++;
+        }
+    }
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return {@code true} if the beacon is in the table
+     */
+    public boolean contains(int key) {
+        return findEntry(key) >= 0;
+    }
+
+    /**
+     * @return Number of beacons in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return Latest RSSI in dBm, or {@link #NO_RSSI} if the beacon is unknown
+     */
+    public int getLatestRssi(int key) {
+        int entry = findEntry(key);
+        return entry < 0 ? NO_RSSI : rssis[latestIndex(entry)];
+    }
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return Latest distance in meters, or {@code NaN} if the beacon is unknown
+     */
+    public double getLatestDistance(int key) {
+        int entry = findEntry(key);
+        return entry < 0 ? Double.NaN : distances[latestIndex(entry)];
+    }
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return Time of the latest sample, or {@code -1} if the beacon is unknown
+     */
+    public long getLastSeen(int key) {
+        int entry = findEntry(key);
+        return entry < 0 ? -1 : times[latestIndex(entry)];
+    }
+
+    /**
+     * @param key Packed ID2 and ID3
+     * @return Number of samples kept for the beacon, {@code 0} if it's unknown
+     */
+    public int getSampleCount(int key) {
+        int entry = findEntry(key);
+        return entry < 0 ? 0 : counts[entry];
+    }
+
+    /**
+     * Averages the beacon's distance samples that are not older than the given window.
+     *
+     * @param key Packed ID2 and ID3
+     * @param now Current time
+     * @param windowMillis Maximum sample age
+     * @return Mean distance in meters, or {@code NaN} if there are no such samples
+     */
+    public double getMeanDistance(int key, long now, long windowMillis) {
+        int entry = findEntry(key);
+        if (entry < 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        int count = 0;
+        int base = entry * historySize;
+        for (int i = 0; i < counts[entry]; i++) {
+            if (now - times[base + i] <= windowMillis) {
+                sum += distances[base + i];
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Calls the visitor with the latest sample of each beacon, in no particular order.
+     *
+     * @param visitor Visitor to call
+     */
+    public void forEach(Visitor visitor) {
+        for (int entry = 0; entry < usedEntries; entry++) {
+            if (counts[entry] > 0) {
+                int index = latestIndex(entry);
+                visitor.visit(keys[entry], rssis[index], distances[index], times[index]);
+            }
+        }
+    }
+
+    /**
+     * Removes all beacons whose latest sample is older than the given time.
+     *
+     * @param now Current time
+     * @param staleMillis Maximum age of the latest sample
+     * @return Number of removed beacons
+     */
+    public int evictStale(long now, long staleMillis) {
+        int removed = 0;
+        for (int entry = 0; entry < usedEntries; entry++) {
+            if (counts[entry] > 0 && now - times[latestIndex(entry)] > staleMillis) {
+                remove(keys[entry]);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the given beacon.
+     *
+     * @param key Packed ID2 and ID3
+     * @return {@code true} if the beacon was in the table
+     */
+    public boolean remove(int key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == key) {
+                counts[entry] = 0;
+                heads[entry] = 0;
+                freeEntries[freeCount++] = entry;
+                size--;
+                deleteSlot(slot);
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all beacons.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(heads, 0);
+        freeCount = 0;
+        usedEntries = 0;
+        size = 0;
+    }
+
+    private int latestIndex(int entry) {
+        return entry * historySize + (heads[entry] + historySize - 1) % historySize;
+    }
+
+    private int findEntry(int key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == key) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int addEntry(int key) {
+        int entry;
+        if (freeCount > 0) {
+            entry = freeEntries[--freeCount];
+        } else {
+            if (usedEntries == keys.length) {
+                allocateEntries(keys.length * 2);
+                rehash(slots.length * 2);
+            }
+            entry = usedEntries++;
+        }
+        keys[entry] = key;
+        size++;
+
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+        return entry;
+    }
+
+    /**
+     * Empties the given slot, and moves later entries of the same probe sequence back into the
+     * gap, so lookups don't need tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int mask = slots.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hash(keys[slots[next] - 1]) & mask;
+            // move the entry if its home slot is not within (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                slots[gap] = slots[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slots[gap] = 0;
+    }
+
+    private void allocateEntries(int capacity) {
+        keys = grow(keys, capacity);
+        heads = grow(heads, capacity);
+        counts = grow(counts, capacity);
+        rssis = grow(rssis, capacity * historySize);
+        times = times == null ? new long[capacity * historySize]
+                : Arrays.copyOf(times, capacity * historySize);
+        distances = distances == null ? new double[capacity * historySize]
+                : Arrays.copyOf(distances, capacity * historySize);
+        freeEntries = grow(freeEntries, capacity);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < usedEntries; entry++) {
+            if (counts[entry] == 0) {
+                continue;
+            }
+            int slot = hash(keys[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static int hash(int key) {
+        // spread the bits, IDs are often small consecutive numbers
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
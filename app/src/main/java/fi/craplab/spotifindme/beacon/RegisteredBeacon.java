@@ -0,0 +1,62 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.beacon;
+
+/**
+ * A known beacon.
+ */
+public class RegisteredBeacon {
+    /** ID2, beacon group */
+    public final int id2;
+    /** ID3, beacon unit */
+    public final int id3;
+    /**
+     * Index of the beacon in its {@link BeaconRegistry}, {@code 0} up to the registry's size,
+     * e.g. to keep per-beacon state in plain arrays
+     */
+    public final int index;
+
+    /**
+     * @param id2 ID2, beacon group
+     * @param id3 ID3, beacon unit
+     * @param index Index in the registry
+     */
+    public RegisteredBeacon(int id2, int id3, int index) {
+        this.id2 = id2;
+        this.id3 = id3;
+        this.index = index;
+    }
+
+    /**
+     * @return ID2 and ID3 packed into a single int, see {@link AltBeacon#packIds(int, int)}
+     */
+    public int getKey() {
+        return AltBeacon.packIds(id2, id3);
+    }
+
+    @Override
+    public String toString() {
+        return "RegisteredBeacon{" + id2 + "/" + id3 + " #" + index + "}";
+    }
+}
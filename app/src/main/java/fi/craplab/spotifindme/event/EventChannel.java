@@ -0,0 +1,246 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.event;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed event channel from a single producer to any number of consumers.
+ * <p>
+ * Every event has a key, e.g. the device it is about, and only the latest event per key matters:
+ * if a consumer didn't get to an event yet when a newer one with the same key is posted, the
+ * older one is replaced (conflated). Each consumer has its own bounded buffer of pending keys, so
+ * a slow consumer never holds up the producer or the other consumers. Once the buffer is full,
+ * the oldest pending event is dropped in favor of the new one.
+ * </p>
+ * <p>
+ * Each consumer names the {@link Executor} its events are delivered on, e.g. the main thread. The
+ * events of one consumer are always delivered one at a time, in the order their keys first became
+ * pending.
+ * </p>
+ * <p>
+ * Posting and delivering don't take any locks. {@link #post(Object, Object)} must only be called
+ * from one thread at a time, subscribing and cancelling are allowed from any thread.
+ * </p>
+ *
+ * @param <K> Event key type
+ * @param <E> Event type
+ */
+public class EventChannel<K, E> {
+    /**
+     * Receives the events of a {@link Subscription}.
+     *
+     * @param <E> Event type
+     */
+    public interface Listener<E> {
+        /**
+         * Called on the subscription's executor for every event that wasn't conflated or dropped.
+         *
+         * @param event Event
+         */
+        void onEvent(E event);
+    }
+
+    /** Default number of pending keys per consumer */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final CopyOnWriteArrayList<Subscription<K, E>> subscriptions =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes to the events with the {@link #DEFAULT_CAPACITY}.
+     *
+     * @param executor Executor to deliver the events on
+     * @param listener Listener to deliver the events to
+     * @return Subscription, cancel it once done
+     */
+    public Subscription<K, E> subscribe(Executor executor, Listener<E> listener) {
+        return subscribe(executor, listener, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribes to the events.
+     *
+     * @param executor Executor to deliver the events on
+     * @param listener Listener to deliver the events to
+     * @param capacity Maximum number of pending keys before the oldest event is dropped
+     * @return Subscription, cancel it once done
+     */
+    public Subscription<K, E> subscribe(Executor executor, Listener<E> listener, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        Subscription<K, E> subscription = new Subscription<>(this, executor, listener, capacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Posts an event to all current consumers. Single producer only.
+     *
+     * @param key Event key, a newer event with an equal key replaces this one if still pending
+     * @param event Event
+     */
+    public void post(K key, E event) {
+        for (Subscription<K, E> subscription : subscriptions) {
+            subscription.offer(key, event);
+        }
+    }
+
+    /**
+     * @return {@code true} if there's at least one consumer
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * A consumer of an {@link EventChannel}, with its own buffer and executor.
+     *
+     * @param <K> Event key type
+     * @param <E> Event type
+     */
+    public static class Subscription<K, E> {
+        private final EventChannel<K, E> channel;
+        private final Executor executor;
+        private final Listener<E> listener;
+        private final int capacity;
+
+        /** Latest pending event per key */
+        private final ConcurrentHashMap<K, E> pending = new ConcurrentHashMap<>();
+        /** Pending keys in order, each one at most once */
+        private final ConcurrentLinkedQueue<K> order = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        /** Set while a drain is scheduled or running on the executor */
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong conflated = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private volatile boolean cancelled;
+
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        Subscription(EventChannel<K, E> channel, Executor executor, Listener<E> listener,
+                     int capacity) {
+            this.channel = channel;
+            this.executor = executor;
+            this.listener = listener;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Stops delivering events, including the pending ones. Events already being delivered
+         * still finish.
+         */
+        public void cancel() {
+            cancelled = true;
+            channel.subscriptions.remove(this);
+        }
+
+        /**
+         * @return Number of events delivered to the listener
+         */
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        /**
+         * @return Number of events replaced by a newer one with the same key before delivery
+         */
+        public long getConflatedCount() {
+            return conflated.get();
+        }
+
+        /**
+         * @return Number of events dropped because the buffer was full
+         */
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+
+        /**
+         * @return Number of keys with a pending event
+         */
+        public int getPendingCount() {
+            return size.get();
+        }
+
+        /** Called by the single producer */
+        void offer(K key, E event) {
+            if (pending.put(key, event) != null) {
+                // still pending, the drain picks up the new one
+                conflated.incrementAndGet();
+            } else {
+                if (size.incrementAndGet() > capacity) {
+                    K oldest = order.poll();
+                    if (oldest != null && pending.remove(oldest) != null) {
+                        size.decrementAndGet();
+                        dropped.incrementAndGet();
+                    }
+                }
+                order.offer(key);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                executor.execute(drainTask);
+            }
+        }
+
+        private void drain() {
+            try {
+                K key;
+                while (!cancelled && (key = order.poll()) != null) {
+                    E event = pending.remove(key);
+                    if (event != null) {
+                        size.decrementAndGet();
+                        delivered.incrementAndGet();
+                        listener.onEvent(event);
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // an event offered after the last poll, but before the flag was cleared
+            if (!cancelled && !order.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.filter;
+
+/**
+ * Exponentially weighted moving average of RSSI values.
+ * <p>
+ * Cheapest of the filters, each new sample moves the average by {@code alpha} times its
+ * difference to the current value.
+ * </p>
+ */
+public class EwmaRssiFilter implements RssiFilter {
+    /** Default smoothing factor */
+    public static final double DEFAULT_ALPHA = 0.25;
+
+    private final double alpha;
+    private double value = Double.NaN;
+
+    /**
+     * Creates a new EWMA filter with {@link #DEFAULT_ALPHA} as smoothing factor.
+     */
+    public EwmaRssiFilter() {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * Creates a new EWMA filter with the given smoothing factor.
+     *
+     * @param alpha Smoothing factor in range {@code (0, 1]}, higher values follow changes faster
+     */
+    public EwmaRssiFilter(double alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in range (0, 1]");
+        }
+        this.alpha = alpha;
+    }
+
+    @Override
+    public double update(int rssi) {
+        if (Double.isNaN(value)) {
+            value = rssi;
+        } else {
+            value += alpha * (rssi - value);
+        }
+        return value;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        value = Double.NaN;
+    }
+}
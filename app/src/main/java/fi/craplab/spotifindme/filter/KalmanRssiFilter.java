@@ -0,0 +1,95 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.filter;
+
+/**
+ * One-dimensional Kalman filter for RSSI values.
+ * <p>
+ * Models the signal strength as a constant with some process noise, which is good enough for a
+ * phone that is carried around at walking speed. A higher process noise follows changes faster,
+ * a higher measurement noise smoothes out more of the jitter.
+ * </p>
+ */
+public class KalmanRssiFilter implements RssiFilter {
+    /** Default process noise, i.e. how much the real signal is expected to change per sample */
+    public static final double DEFAULT_PROCESS_NOISE = 0.125;
+    /** Default measurement noise, i.e. how much a single sample jitters around the real signal */
+    public static final double DEFAULT_MEASUREMENT_NOISE = 4.0;
+
+    private final double processNoise;
+    private final double measurementNoise;
+
+    /** Current estimate */
+    private double estimate = Double.NaN;
+    /** Current estimate's error covariance */
+    private double covariance;
+
+    /**
+     * Creates a new Kalman filter with {@link #DEFAULT_PROCESS_NOISE} and
+     * {@link #DEFAULT_MEASUREMENT_NOISE}.
+     */
+    public KalmanRssiFilter() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    /**
+     * Creates a new Kalman filter with the given noise parameters.
+     *
+     * @param processNoise Process noise covariance, must be positive
+     * @param measurementNoise Measurement noise covariance, must be positive
+     */
+    public KalmanRssiFilter(double processNoise, double measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("noise values must be positive");
+        }
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    @Override
+    public double update(int rssi) {
+        if (Double.isNaN(estimate)) {
+            estimate = rssi;
+            covariance = measurementNoise;
+            return estimate;
+        }
+
+        double prediction = covariance + processNoise;
+        double gain = prediction / (prediction + measurementNoise);
+        estimate += gain * (rssi - estimate);
+        covariance = (1 - gain) * prediction;
+        return estimate;
+    }
+
+    @Override
+    public double getValue() {
+        return estimate;
+    }
+
+    @Override
+    public void reset() {
+        estimate = Double.NaN;
+        covariance = 0;
+    }
+}
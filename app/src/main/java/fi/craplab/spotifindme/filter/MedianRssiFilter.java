@@ -0,0 +1,131 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.filter;
+
+import java.util.Arrays;
+
+/**
+ * Median of the last {@code N} RSSI samples.
+ * <p>
+ * Good at dropping single outliers, e.g. when a body briefly blocks the signal. The samples are
+ * kept both in arrival order (to know which one drops out of the window) and sorted (to read the
+ * median), so an update costs {@code O(N)} array shifting for the fixed window size, independent
+ * of how many samples were received in total.
+ * </p>
+ */
+public class MedianRssiFilter implements RssiFilter {
+    /** Default window size */
+    public static final int DEFAULT_WINDOW_SIZE = 5;
+
+    /** Samples in arrival order, used as ring buffer */
+    private final int[] window;
+    /** Same samples as in {@link #window}, but sorted */
+    private final int[] sorted;
+    /** Number of valid samples in the window */
+    private int count;
+    /** Ring buffer index of the oldest sample */
+    private int head;
+    private double value = Double.NaN;
+
+    /**
+     * Creates a new median filter with a window size of {@link #DEFAULT_WINDOW_SIZE}.
+     */
+    public MedianRssiFilter() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new median filter with the given window size.
+     *
+     * @param windowSize Number of samples to take the median of, must be positive
+     */
+    public MedianRssiFilter(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("window size must be positive");
+        }
+        window = new int[windowSize];
+        sorted = new int[windowSize];
+    }
+
+    @Override
+    public double update(int rssi) {
+        if (count == window.length) {
+            int oldest = window[head];
+            window[head] = rssi;
+            head = (head + 1) % window.length;
+            removeSorted(oldest);
+        } else {
+            window[(head + count) % window.length] = rssi;
+            count++;
+        }
+        insertSorted(rssi);
+
+        int middle = count / 2;
+        if ((count & 1) == 1) {
+            value = sorted[middle];
+        } else {
+            value = (sorted[middle - 1] + sorted[middle]) / 2.0;
+        }
+        return value;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        head = 0;
+        value = Double.NaN;
+    }
+
+    /**
+     * Removes one occurrence of the given value from {@link #sorted}. The value is still counted in
+     * {@link #count} at this point, and the value is guaranteed to be in there.
+     *
+     * @param rssi Value to remove
+     */
+    private void removeSorted(int rssi) {
+        int index = Arrays.binarySearch(sorted, 0, count, rssi);
+        System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+    }
+
+    /**
+     * Inserts the given value into {@link #sorted}, which has {@code count - 1} valid entries at
+     * this point.
+     *
+     * @param rssi Value to insert
+     */
+    private void insertSorted(int rssi) {
+        int last = count - 1;
+        int index = Arrays.binarySearch(sorted, 0, last, rssi);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        System.arraycopy(sorted, index, sorted, index + 1, last - index);
+        sorted[index] = rssi;
+    }
+}
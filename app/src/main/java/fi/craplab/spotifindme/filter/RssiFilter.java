@@ -0,0 +1,63 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.filter;
+
+/**
+ * Streaming filter for raw RSSI samples of a single Bluetooth device.
+ * <p>
+ * Implementations keep all their state in preallocated fields, so feeding a new sample through
+ * {@link #update(int)} is constant-time and doesn't allocate anything. That way a filter can be
+ * called straight from the scan callback for every received advertisement.
+ * </p>
+ *
+ * @see RssiFilterBank
+ */
+public interface RssiFilter {
+    /**
+     * Feed a new raw RSSI sample into the filter.
+     *
+     * @param rssi Raw RSSI value in dBm as reported by the scan result
+     * @return Filtered RSSI value including the new sample
+     */
+    double update(int rssi);
+
+    /**
+     * Returns the current filtered RSSI value.
+     *
+     * @return Filtered RSSI value in dBm, or {@link Double#NaN} if no sample was received yet
+     */
+    double getValue();
+
+    /**
+     * Forget all previously received samples.
+     */
+    void reset();
+
+    /**
+     * Creates a new, independent filter instance for each device seen by a {@link RssiFilterBank}.
+     */
+    interface Factory {
+        RssiFilter create();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.filter;
+
+import java.util.Arrays;
+
+import fi.craplab.spotifindme.beacon.BeaconKeyIndex;
+
+/**
+ * Per-beacon collection of {@link RssiFilter}s.
+ * <p>
+ * Sits between the BLE scan callback and whatever makes the room decision. Each beacon gets
+ * its own filter instance from the given {@link RssiFilter.Factory} the first time it is seen,
+ * after that, updates only do a primitive {@link BeaconKeyIndex} lookup and the filter's own
+ * constant-time update, without allocating.
+ * </p>
+ * <p>
+ * Not thread-safe, feed it from a single thread, e.g. the scan callback.
+ * </p>
+ */
+public class RssiFilterBank {
+    private final RssiFilter.Factory factory;
+    private final BeaconKeyIndex beacons = new BeaconKeyIndex();
+    /** Filter per beacon index */
+    private RssiFilter[] filters = new RssiFilter[0];
+
+    /**
+     * Creates a new filter bank.
+     *
+     * @param factory Factory to create a new filter for each newly seen beacon
+     */
+    public RssiFilterBank(RssiFilter.Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Feeds a new raw RSSI sample of the given beacon to its filter.
+     *
+     * @param key Beacon key, ID2 and ID3 packed into an int
+     * @param rssi Raw RSSI value in dBm
+     * @return Filtered RSSI value of the beacon
+     */
+    public double update(int key, int rssi) {
+        int beacon = beacons.add(key);
+        if (beacon >= filters.length) {
+            filters = Arrays.copyOf(filters, Math.max(beacons.size(), filters.length * 2));
+        }
+        RssiFilter filter = filters[beacon];
+        if (filter == null) {
+            filter = factory.create();
+            filters[beacon] = filter;
+        }
+        return filter.update(rssi);
+    }
+
+    /**
+     * Returns the current filtered RSSI value of the given beacon.
+     *
+     * @param key Beacon key
+     * @return Filtered RSSI value, or {@link Double#NaN} if nothing was received from the beacon
+     */
+    public double getValue(int key) {
+        RssiFilter filter = find(key);
+        return filter == null ? Double.NaN : filter.getValue();
+    }
+
+    /**
+     * Resets the filter of the given beacon, e.g. after the beacon was reported lost.
+     *
+     * @param key Beacon key
+     */
+    public void reset(int key) {
+        RssiFilter filter = find(key);
+        if (filter != null) {
+            filter.reset();
+        }
+    }
+
+    /**
+     * Resets all filters.
+     */
+    public void clear() {
+        for (RssiFilter filter : filters) {
+            if (filter != null) {
+                filter.reset();
+            }
+        }
+    }
+
+    private RssiFilter find(int key) {
+        int beacon = beacons.indexOf(key);
+        return beacon < 0 || beacon >= filters.length ? null : filters[beacon];
+    }
+}
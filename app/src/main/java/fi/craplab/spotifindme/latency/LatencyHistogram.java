@@ -0,0 +1,186 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.latency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed, exponentially growing buckets.
+ * <p>
+ * There are {@link #BUCKETS_PER_DECADE} buckets for every power of ten from 1ms up to
+ * {@link #MAX_MILLIS}, everything up to 1ms shares the first one, and everything above the range
+ * lands in an overflow bucket. Each bucket only counts
+ * its values, so recording is a binary search and an atomic increment, without any allocation,
+ * and can be done from any thread. Percentiles are reported as the upper bound of their bucket,
+ * i.e. with up to 26% error, which is plenty to tell where the seconds go.
+ * </p>
+ */
+public class LatencyHistogram {
+    /** Number of buckets per power of ten */
+    public static final int BUCKETS_PER_DECADE = 10;
+    /** Upper bound of the last regular bucket, anything above lands in the overflow bucket */
+    public static final long MAX_MILLIS = 100000;
+
+    /** Upper bound of each bucket in nanoseconds, the overflow bucket has none */
+    private static final long[] BOUNDS;
+
+    static {
+        int decades = (int) Math.round(Math.log10(MAX_MILLIS));
+        BOUNDS = new long[decades * BUCKETS_PER_DECADE + 1];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            double millis = Math.pow(10, (double) i / BUCKETS_PER_DECADE);
+            BOUNDS[i] = Math.round(millis * TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a single latency. Negative values are counted as zero.
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Returns the index of the bucket counting the given value.
+     *
+     * @param nanos Latency in nanoseconds
+     * @return Bucket index, {@link #getBucketCount()} - 1 for the overflow bucket
+     */
+    static int bucketOf(long nanos) {
+        int low = 0;
+        int high = BOUNDS.length;
+        // first bucket whose upper bound isn't below the value
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** @return Number of buckets, including the overflow bucket */
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    /**
+     * @param bucket Bucket index
+     * @return Upper bound of the bucket in milliseconds, {@code Double.POSITIVE_INFINITY} for the
+     *         overflow bucket
+     */
+    public double getBucketBoundMillis(int bucket) {
+        if (bucket >= BOUNDS.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return BOUNDS[bucket] / 1e6;
+    }
+
+    /**
+     * @param bucket Bucket index
+     * @return Number of values recorded in the bucket
+     */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /** @return Number of recorded values */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return Average of the recorded values in milliseconds */
+    public double getAverageMillis() {
+        long count = this.count.get();
+        return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+    }
+
+    /** @return Largest recorded value in milliseconds */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns the given percentile of the recorded values. Recording concurrently just makes the
+     * result slightly outdated.
+     *
+     * @param percentile Percentile between {@code 0} and {@code 100}
+     * @return Upper bound of the bucket containing the percentile in milliseconds, but never more
+     *         than the largest recorded value, or {@code 0} if nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getBucketBoundMillis(i), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may or may not survive.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.latency;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures where the time goes in a playback switch-over, from the BLE advertisement that led to
+ * the found/lost decision, until Spotify confirms the new device active.
+ * <p>
+ * Each switch-over passes through these stages, each on its own thread:
+ * <ol>
+ *     <li>the advertisement is received by the scanner, possibly batched in the controller</li>
+ *     <li>the filtered RSSI leads to a decision, see {@link #begin(String, long, long)}</li>
+ *     <li>the device name is looked up, see {@link #bind(String, String)}</li>
+ *     <li>the command is sent and answered, see
+ *     {@link #onCommandFinished(String, boolean, long, long, boolean)}</li>
+ *     <li>the device list reports the new device active, see {@link #onConfirmed(String, long)}</li>
+ * </ol>
+ * The time between two stages goes into the {@link LatencyHistogram} of the {@link Span} ending
+ * with the later one. Only the latest switch-over is followed, a new decision simply replaces an
+ * unfinished one, so there's nothing to lock. All times are {@link System#nanoTime()} values.
+ * </p>
+ */
+public class SwitchLatencyTracker {
+    /**
+     * Parts of a switch-over, each one ending with the stage it's named after.
+     */
+    public enum Span {
+        /** Advertisement received until the found/lost decision, i.e. batching and filtering */
+        DECISION,
+        /** Decision until the command is sent, i.e. device lookup and dispatcher queue */
+        DISPATCH,
+        /** Command sent until Spotify responded */
+        RESPONSE,
+        /** Response until the new device is confirmed active, transfers only */
+        CONFIRMATION,
+        /** Advertisement until the end of the switch-over */
+        TOTAL
+    }
+
+    /**
+     * A single switch-over in progress.
+     */
+    private static final class Timeline {
+        final String deviceName;
+        final long advertisedAt;
+        final long decidedAt;
+        /** Set once the device name was looked up */
+        volatile String deviceId;
+        /** Set once a transfer was answered, the confirmation is all that's left then */
+        volatile long respondedAt;
+
+        Timeline(String deviceName, long advertisedAt, long decidedAt) {
+            this.deviceName = deviceName;
+            this.advertisedAt = advertisedAt;
+            this.decidedAt = decidedAt;
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Span.values().length];
+    private final AtomicReference<Timeline> current = new AtomicReference<>();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong abandonedCount = new AtomicLong();
+
+    /**
+     * Creates a new tracker with empty histograms.
+     */
+    public SwitchLatencyTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts following a new switch-over, replacing any unfinished one.
+     *
+     * @param deviceName Name of the device the playback is switched to or paused on
+     * @param advertisedAt Time the advertisement leading to the decision was received
+     * @param decidedAt Time of the decision
+     */
+    public void begin(String deviceName, long advertisedAt, long decidedAt) {
+        histogram(Span.DECISION).record(decidedAt - advertisedAt);
+        if (current.getAndSet(new Timeline(deviceName, advertisedAt, decidedAt)) != null) {
+            abandonedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tells the id the device name of the current switch-over was resolved to, so the following
+     * command can be matched.
+     *
+     * @param deviceName Device name
+     * @param deviceId Spotify device id
+     */
+    public void bind(String deviceName, String deviceId) {
+        Timeline timeline = current.get();
+        if (timeline != null && timeline.deviceId == null
+                && timeline.deviceName.equals(deviceName)) {
+            timeline.deviceId = deviceId;
+        }
+    }
+
+    /**
+     * Records a finished playback command, if it belongs to the current switch-over. A pause ends
+     * the switch-over, a transfer still waits for the confirmation.
+     *
+     * @param deviceId Spotify device id of the command
+     * @param transfer {@code true} for a transfer, {@code false} for a pause
+     * @param dispatchedAt Time the request was sent
+     * @param respondedAt Time the response arrived
+     * @param success {@code true} if Spotify accepted the command
+     */
+    public void onCommandFinished(String deviceId, boolean transfer, long dispatchedAt,
+                                  long respondedAt, boolean success) {
+        Timeline timeline = current.get();
+        if (timeline == null || timeline.respondedAt != 0
+                || !deviceId.equals(timeline.deviceId)) {
+            return;
+        }
+
+        if (!success) {
+            if (current.compareAndSet(timeline, null)) {
+                abandonedCount.incrementAndGet();
+            }
+            return;
+        }
+
+        histogram(Span.DISPATCH).record(dispatchedAt - timeline.decidedAt);
+        histogram(Span.RESPONSE).record(respondedAt - dispatchedAt);
+        if (transfer) {
+            timeline.respondedAt = respondedAt;
+        } else if (current.compareAndSet(timeline, null)) {
+            histogram(Span.TOTAL).record(respondedAt - timeline.advertisedAt);
+            completedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the confirmation of the current switch-over, if the given device is the one it
+     * transferred to.
+     *
+     * @param activeDeviceId Id of the device Spotify reports active
+     * @param now Time the device list arrived
+     */
+    public void onConfirmed(String activeDeviceId, long now) {
+        Timeline timeline = current.get();
+        if (timeline == null || timeline.respondedAt == 0
+                || !timeline.deviceId.equals(activeDeviceId)
+                || !current.compareAndSet(timeline, null)) {
+            return;
+        }
+        histogram(Span.CONFIRMATION).record(now - timeline.respondedAt);
+        histogram(Span.TOTAL).record(now - timeline.advertisedAt);
+        completedCount.incrementAndGet();
+    }
+
+    /**
+     * @param span Span of the switch-over
+     * @return Histogram of the span
+     */
+    public LatencyHistogram histogram(Span span) {
+        return histograms[span.ordinal()];
+    }
+
+    /** @return Number of switch-overs followed until the end */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /** @return Number of switch-overs replaced by a newer one, or failed, before the end */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    /**
+     * Clears all histograms and counters, and stops following the current switch-over.
+     */
+    public void reset() {
+        current.set(null);
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        completedCount.set(0);
+        abandonedCount.set(0);
+    }
+
+    /**
+     * Writes a human-readable percentile summary, one line per span.
+     *
+     * @param out Writer to write to
+     * @throws IOException If writing fails
+     */
+    public void writeSummary(Writer out) throws IOException {
+        out.write(String.format(Locale.US, "%-12s %6s %8s %8s %8s %8s%n",
+                "span", "count", "p50", "p90", "p99", "max"));
+        for (Span span : Span.values()) {
+            LatencyHistogram histogram = histogram(span);
+            out.write(String.format(Locale.US, "%-12s %6d %8.0f %8.0f %8.0f %8.0f%n",
+                    span.name().toLowerCase(Locale.US), histogram.getCount(),
+                    histogram.getPercentileMillis(50), histogram.getPercentileMillis(90),
+                    histogram.getPercentileMillis(99), histogram.getMaxMillis()));
+        }
+        out.write(String.format(Locale.US, "%d completed, %d abandoned%n",
+                getCompletedCount(), getAbandonedCount()));
+    }
+
+    /**
+     * Writes all histogram buckets as CSV for offline analysis, with a {@code span,le_ms,count}
+     * header, and {@code inf} as upper bound of the overflow bucket.
+     *
+     * @param out Writer to write to
+     * @throws IOException If writing fails
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("span,le_ms,count\n");
+        for (Span span : Span.values()) {
+            LatencyHistogram histogram = histogram(span);
+            String name = span.name().toLowerCase(Locale.US);
+            for (int i = 0; i < histogram.getBucketCount(); i++) {
+                double bound = histogram.getBucketBoundMillis(i);
+                out.write(name + ','
+                        + (Double.isInfinite(bound)
+                                ? "inf" : String.format(Locale.US, "%.3f", bound))
+                        + ',' + histogram.getCount(i) + '\n');
+            }
+        }
+    }
+}
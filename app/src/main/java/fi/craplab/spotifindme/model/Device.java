@@ -30,6 +30,7 @@ import com.google.gson.annotations.SerializedName;
  *
  * @see <a href="https://developer.spotify.com/documentation/web-api/reference/player/get-a-users-available-devices/">
  *     <em>Get a User's Available Desvices</em> API description</a>
+ * @see ModelTypeAdapterFactory
  */
 public class Device {
     @SerializedName("id")
@@ -48,7 +49,7 @@ public class Device {
     public String deviceName;
 
     @SerializedName("type")
-    public String deviceType;
+    public DeviceType deviceType = DeviceType.UNKNOWN;
 
     @SerializedName("volume_percent")
     public int volumePercent;
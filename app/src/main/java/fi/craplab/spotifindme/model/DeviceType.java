@@ -0,0 +1,74 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Device types as reported in the {@code type} field of a {@link Device}.
+ *
+ * @see <a href="https://developer.spotify.com/documentation/web-api/reference/player/get-a-users-available-devices/">
+ *     <em>Device Object</em> API description</a>
+ */
+public enum DeviceType {
+    COMPUTER("Computer"),
+    TABLET("Tablet"),
+    SMARTPHONE("Smartphone"),
+    SPEAKER("Speaker"),
+    TV("TV"),
+    AVR("AVR"),
+    STB("STB"),
+    AUDIO_DONGLE("AudioDongle"),
+    GAME_CONSOLE("GameConsole"),
+    CAST_VIDEO("CastVideo"),
+    CAST_AUDIO("CastAudio"),
+    AUTOMOBILE("Automobile"),
+    /** Spotify's own "Unknown", and any type this app doesn't know about yet */
+    UNKNOWN("Unknown");
+
+    private static final Map<String, DeviceType> BY_API_NAME = new HashMap<>();
+
+    static {
+        for (DeviceType type : values()) {
+            BY_API_NAME.put(type.apiName, type);
+        }
+    }
+
+    /** Type name as used by the Spotify API */
+    public final String apiName;
+
+    DeviceType(String apiName) {
+        this.apiName = apiName;
+    }
+
+    /**
+     * @param apiName Type name as used by the Spotify API, may be {@code null}
+     * @return Matching device type, {@link #UNKNOWN} if there is none
+     */
+    public static DeviceType fromApiName(String apiName) {
+        DeviceType type = apiName != null ? BY_API_NAME.get(apiName) : null;
+        return type != null ? type : UNKNOWN;
+    }
+}
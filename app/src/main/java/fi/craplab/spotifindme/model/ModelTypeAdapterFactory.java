@@ -0,0 +1,219 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Hand-written streaming Gson adapters for the models received from the Spotify Web API.
+ * <p>
+ * Gson's default adapters look up the fields and their {@code @SerializedName} reflectively, and
+ * set each value through reflection. These ones simply switch over the field names instead, map
+ * the device {@code type} straight to a {@link DeviceType}, and skip every field they don't know
+ * without building a tree of it. The {@code @SerializedName} annotations on the models stay as
+ * they are, and still need to match the names here.
+ * </p>
+ * <p>
+ * Covers {@link Devices}, {@link Device} and {@link UserProfile}, everything else is left to
+ * Gson's default adapters.
+ * </p>
+ */
+public final class ModelTypeAdapterFactory implements TypeAdapterFactory {
+    private static final TypeAdapter<Device> DEVICE_ADAPTER = new DeviceAdapter().nullSafe();
+    private static final TypeAdapter<Devices> DEVICES_ADAPTER = new DevicesAdapter().nullSafe();
+    private static final TypeAdapter<UserProfile> USER_PROFILE_ADAPTER =
+            new UserProfileAdapter().nullSafe();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == Device.class) {
+            return (TypeAdapter<T>) DEVICE_ADAPTER;
+        } else if (rawType == Devices.class) {
+            return (TypeAdapter<T>) DEVICES_ADAPTER;
+        } else if (rawType == UserProfile.class) {
+            return (TypeAdapter<T>) USER_PROFILE_ADAPTER;
+        }
+        return null;
+    }
+
+    /**
+     * @return Next string value, or {@code null} if it's {@code null}
+     */
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /**
+     * @return Next boolean value, or {@code false} if it's {@code null}
+     */
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        return in.nextBoolean();
+    }
+
+    /**
+     * @return Next int value, or {@code 0} if it's {@code null}, e.g. the volume of a device
+     *         that can't tell it
+     */
+    private static int nextInt(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextInt();
+    }
+
+    static final class DevicesAdapter extends TypeAdapter<Devices> {
+        @Override
+        public void write(JsonWriter out, Devices value) throws IOException {
+            out.beginObject();
+            if (value.devices != null) {
+                out.name("devices").beginArray();
+                for (Device device : value.devices) {
+                    DEVICE_ADAPTER.write(out, device);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Devices read(JsonReader in) throws IOException {
+            Devices devices = new Devices();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("devices") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    devices.devices = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        devices.devices.add(DEVICE_ADAPTER.read(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return devices;
+        }
+    }
+
+    static final class DeviceAdapter extends TypeAdapter<Device> {
+        @Override
+        public void write(JsonWriter out, Device value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.deviceId);
+            out.name("is_active").value(value.isActive);
+            out.name("is_private_session").value(value.isPrivateSession);
+            out.name("is_restricted").value(value.isRestricted);
+            out.name("name").value(value.deviceName);
+            out.name("type").value(value.deviceType != null ? value.deviceType.apiName : null);
+            out.name("volume_percent").value(value.volumePercent);
+            out.endObject();
+        }
+
+        @Override
+        public Device read(JsonReader in) throws IOException {
+            Device device = new Device();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        device.deviceId = nextStringOrNull(in);
+                        break;
+                    case "is_active":
+                        device.isActive = nextBoolean(in);
+                        break;
+                    case "is_private_session":
+                        device.isPrivateSession = nextBoolean(in);
+                        break;
+                    case "is_restricted":
+                        device.isRestricted = nextBoolean(in);
+                        break;
+                    case "name":
+                        device.deviceName = nextStringOrNull(in);
+                        break;
+                    case "type":
+                        device.deviceType = DeviceType.fromApiName(nextStringOrNull(in));
+                        break;
+                    case "volume_percent":
+                        device.volumePercent = nextInt(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return device;
+        }
+    }
+
+    static final class UserProfileAdapter extends TypeAdapter<UserProfile> {
+        @Override
+        public void write(JsonWriter out, UserProfile value) throws IOException {
+            out.beginObject();
+            out.name("display_name").value(value.displayName);
+            out.name("id").value(value.userId);
+            out.endObject();
+        }
+
+        @Override
+        public UserProfile read(JsonReader in) throws IOException {
+            UserProfile profile = new UserProfile();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "display_name":
+                        profile.displayName = nextStringOrNull(in);
+                        break;
+                    case "id":
+                        profile.userId = nextStringOrNull(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return profile;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * {@link Interceptor} to modify each request by adding the auth token to the header. Requests
+ * go out without the header if there is no token, e.g. after the user revoked the app's access.
+ */
+public class AuthInterceptor implements Interceptor {
+    /**
+     * Provides the current auth token for each request.
+     */
+    public interface TokenProvider {
+        /**
+         * @return Current auth token, or {@code null} if there is no valid one
+         */
+        String getToken();
+    }
+
+    private final TokenProvider tokenProvider;
+
+    /**
+     * Creates a new auth interceptor.
+     *
+     * @param tokenProvider Provider for the auth token to add to the requests
+     */
+    public AuthInterceptor(TokenProvider tokenProvider) {
+        this.tokenProvider = tokenProvider;
+    }
+
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        String token = tokenProvider.getToken();
+        if (token == null) {
+            return chain.proceed(chain.request());
+        }
+        Request request = chain.request().newBuilder()
+                .header("Authorization", "Bearer " + token)
+                .build();
+        return chain.proceed(request);
+    }
+}
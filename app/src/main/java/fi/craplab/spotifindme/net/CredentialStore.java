@@ -0,0 +1,292 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypted token storage in a small binary file.
+ * <p>
+ * The tokens are encrypted with AES-GCM, so they're never stored in plain text, and any modified
+ * or truncated file is detected and ignored. The key comes from a {@link KeyProvider}, on the
+ * phone that's the {@link AndroidKeyStoreKeyProvider}, so the key itself never leaves the
+ * Android Keystore.
+ * </p>
+ * <p>
+ * The file is read and decrypted only once, ideally in the background right at application start
+ * by {@link #preload()}, and the tokens are kept in memory as a volatile {@link Credentials}
+ * snapshot after that, so {@link #getCredentials()} is lock-free. New tokens replace the snapshot
+ * right away, and are written to the file in the background.
+ * </p>
+ * <p>
+ * File format, all numbers big-endian:
+ * <pre>
+ * int    magic "SFCR"
+ * short  version
+ * byte   IV length
+ * byte[] IV
+ * byte[] AES-GCM ciphertext including the 128 bit tag, magic and version are authenticated too
+ * </pre>
+ * </p>
+ */
+public class CredentialStore implements TokenRefresher.TokenStore {
+    /**
+     * Provides the secret key to encrypt the credentials with.
+     */
+    public interface KeyProvider {
+        /**
+         * Returns the key, creating it first if there's none yet. Has to return the same key every
+         * time, or the stored credentials are lost.
+         *
+         * @return AES key
+         * @throws GeneralSecurityException if the key is not available
+         */
+        SecretKey getKey() throws GeneralSecurityException;
+    }
+
+    /** File magic "SFCR" */
+    static final int MAGIC = 'S' << 24 | 'F' << 16 | 'C' << 8 | 'R';
+    /** Current file format version */
+    static final short VERSION = 1;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_SIZE = 6;
+
+    private final File file;
+    private final KeyProvider keyProvider;
+    private final TokenRefresher.TokenStore legacyStore;
+    private final Executor ioExecutor;
+
+    /** Guards loading and writing, reading the {@link #credentials} doesn't need it */
+    private final Object lock = new Object();
+    /** Current tokens, {@code null} until loaded from the file */
+    private volatile Credentials credentials;
+
+    /** Writes the latest snapshot, so a burst of changes ends up as one write in the best case */
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                write(credentials);
+            }
+        }
+    };
+
+    /**
+     * Creates a new credential store with its own background thread.
+     *
+     * @param file File to store the credentials in
+     * @param keyProvider Provider for the encryption key
+     * @param legacyStore Store of an earlier version to migrate the credentials from if there's
+     *                    no file yet, {@code null} if there's none
+     */
+    public CredentialStore(File file, KeyProvider keyProvider,
+                           TokenRefresher.TokenStore legacyStore) {
+        this(file, keyProvider, legacyStore, Executors.newSingleThreadExecutor());
+    }
+
+    CredentialStore(File file, KeyProvider keyProvider, TokenRefresher.TokenStore legacyStore,
+                    Executor ioExecutor) {
+        this.file = file;
+        this.keyProvider = keyProvider;
+        this.legacyStore = legacyStore;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Starts loading the credentials in the background, so they're ready once they're needed.
+     */
+    public void preload() {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getCredentials();
+            }
+        });
+    }
+
+    /**
+     * Returns the stored credentials. If they weren't loaded yet, blocks until they are.
+     *
+     * @return Stored credentials, {@link Credentials#NONE} if there are none
+     */
+    @Override
+    public Credentials getCredentials() {
+        Credentials current = credentials;
+        if (current == null) {
+            synchronized (lock) {
+                current = credentials;
+                if (current == null) {
+                    current = load();
+                    credentials = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replaces the stored credentials, in memory right away and in the file in the background.
+     *
+     * @param newCredentials New credentials
+     */
+    @Override
+    public void storeCredentials(Credentials newCredentials) {
+        synchronized (lock) {
+            // a load still in progress must not overwrite this
+            credentials = newCredentials;
+        }
+        ioExecutor.execute(writeTask);
+    }
+
+    /**
+     * Reads the credentials from the file, or migrates them from the legacy store if there's no
+     * file yet. Called with the {@link #lock} held.
+     */
+    private Credentials load() {
+        if (!file.exists()) {
+            if (legacyStore == null) {
+                return Credentials.NONE;
+            }
+            Credentials legacy = legacyStore.getCredentials();
+            if (legacy != Credentials.NONE && write(legacy)) {
+                legacyStore.storeCredentials(Credentials.NONE);
+            }
+            return legacy;
+        }
+
+        try {
+            return decrypt(readFile());
+        } catch (IOException | GeneralSecurityException e) {
+            // modified, truncated, or the key is gone, nothing to recover
+            file.delete();
+            return Credentials.NONE;
+        }
+    }
+
+    /**
+     * Encrypts the credentials and replaces the file with them. Called with the {@link #lock}
+     * held.
+     *
+     * @return {@code true} if the file was written
+     */
+    private boolean write(Credentials credentials) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(encrypt(credentials));
+            out.getFD().sync();
+        } catch (IOException | GeneralSecurityException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(file);
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    private byte[] encrypt(Credentials credentials) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(plain);
+        out.writeLong(credentials.expiresAt);
+        writeNullable(out, credentials.token);
+        writeNullable(out, credentials.refreshToken);
+
+        // let the cipher pick the IV, the Android Keystore doesn't accept one from outside
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, keyProvider.getKey());
+        byte[] iv = cipher.getIV();
+        byte[] header = header();
+        cipher.updateAAD(header);
+        byte[] encrypted = cipher.doFinal(plain.toByteArray());
+
+        return ByteBuffer.allocate(HEADER_SIZE + 1 + iv.length + encrypted.length)
+                .put(header)
+                .put((byte) iv.length)
+                .put(iv)
+                .put(encrypted)
+                .array();
+    }
+
+    private Credentials decrypt(byte[] data) throws IOException, GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE + 1 || buffer.getInt() != MAGIC
+                || buffer.getShort() != VERSION) {
+            throw new IOException("not a credentials file");
+        }
+        int ivLength = buffer.get() & 0xff;
+        if (buffer.remaining() < ivLength) {
+            throw new IOException("truncated credentials file");
+        }
+        byte[] iv = new byte[ivLength];
+        buffer.get(iv);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, keyProvider.getKey(), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(data, 0, HEADER_SIZE);
+        byte[] plain = cipher.doFinal(data, buffer.position(), buffer.remaining());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+        long expiresAt = in.readLong();
+        String token = readNullable(in);
+        String refreshToken = readNullable(in);
+        return new Credentials(token, expiresAt, refreshToken);
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION).array();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
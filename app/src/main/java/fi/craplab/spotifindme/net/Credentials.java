@@ -0,0 +1,72 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+/**
+ * Immutable snapshot of the stored tokens.
+ * <p>
+ * A token rotation replaces the whole snapshot, so a reader never sees the new access token with
+ * the old expiration timestamp or the like, without any locking.
+ * </p>
+ */
+public class Credentials {
+    /** No tokens at all, the user has to sign in */
+    public static final Credentials NONE = new Credentials(null, 0, null);
+
+    /** Access token, or {@code null} if there is none */
+    public final String token;
+    /** Expiration timestamp of the access token in milliseconds */
+    public final long expiresAt;
+    /** Refresh token, or {@code null} if there is none */
+    public final String refreshToken;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param token Access token
+     * @param expiresAt Expiration timestamp of the access token in milliseconds
+     * @param refreshToken Refresh token
+     */
+    public Credentials(String token, long expiresAt, String refreshToken) {
+        this.token = token;
+        this.expiresAt = expiresAt;
+        this.refreshToken = refreshToken;
+    }
+
+    /**
+     * @param now Current time in milliseconds
+     * @return Access token if there is one and it's not expired, {@code null} otherwise
+     */
+    public String getValidToken(long now) {
+        return token != null && expiresAt > now ? token : null;
+    }
+
+    /**
+     * @param now Current time in milliseconds
+     * @return {@code true} if there is a valid access token, or a refresh token to get a new one
+     */
+    public boolean canAuthorize(long now) {
+        return refreshToken != null || getValidToken(now) != null;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * HTTP caching setup for the Spotify API client.
+ * <p>
+ * Adds a disk-backed {@link Cache} to the {@link OkHttpClient}, so {@code GET} responses carrying
+ * an {@code ETag} or {@code Last-Modified} validator are stored, and re-requesting them sends a
+ * conditional request. If nothing changed, Spotify answers with an empty {@code 304 Not Modified}
+ * and the body is served from the cache.
+ * </p>
+ */
+public final class HttpCaching {
+    /** Maximum size of the disk cache in bytes, the API responses are tiny */
+    static final long CACHE_SIZE = 1024 * 1024;
+    /** Maximum number of idle connections, everything goes to the same host anyway */
+    static final int MAX_IDLE_CONNECTIONS = 2;
+    /** Time to keep idle connections around for reuse */
+    static final long KEEP_ALIVE_MINUTES = 5;
+
+    private HttpCaching() {
+    }
+
+    /**
+     * Sets up the given client builder with a response cache in the given directory, the
+     * {@link RevalidateInterceptor}, and a connection pool tuned for a single host.
+     *
+     * @param builder Client builder to configure
+     * @param cacheDir Directory to store the cached responses in
+     * @return The given builder
+     */
+    public static OkHttpClient.Builder configure(OkHttpClient.Builder builder, File cacheDir) {
+        return builder
+                .cache(new Cache(cacheDir, CACHE_SIZE))
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                        KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .addNetworkInterceptor(new RevalidateInterceptor());
+    }
+
+    /**
+     * Network {@link Interceptor} marking successful {@code GET} responses that have a validator
+     * as {@code no-cache}. This makes them storable for the cache, but always revalidated with
+     * the server before use, regardless of whatever caching headers the server itself sent.
+     * That way we never show outdated data, but also never download unchanged data twice.
+     */
+    static class RevalidateInterceptor implements Interceptor {
+        @Override
+        public Response intercept(@NonNull Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+
+            if (!"GET".equals(chain.request().method()) || response.code() != 200) {
+                return response;
+            }
+            if (response.header("ETag") == null && response.header("Last-Modified") == null) {
+                return response;
+            }
+
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .removeHeader("Expires")
+                    .header("Cache-Control", "private, no-cache")
+                    .build();
+        }
+    }
+}
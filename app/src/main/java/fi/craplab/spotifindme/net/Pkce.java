@@ -0,0 +1,81 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Proof Key for Code Exchange helpers.
+ * <p>
+ * A random code verifier is created before each login, and only its SHA-256 hash, the code
+ * challenge, is sent along with the authorization request. The verifier itself is sent later on
+ * when exchanging the authorization code, so an intercepted code is useless to anyone else.
+ * </p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7636">RFC 7636</a>
+ */
+public class Pkce {
+    /** Code challenge method to send along with the challenge */
+    public static final String CHALLENGE_METHOD = "S256";
+    /** Random bytes in a verifier, 64 bytes end up as 86 characters, the RFC allows 43 to 128 */
+    private static final int VERIFIER_BYTES = 64;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private Pkce() {
+    }
+
+    /**
+     * @return New random code verifier
+     */
+    public static String newVerifier() {
+        byte[] bytes = new byte[VERIFIER_BYTES];
+        random.nextBytes(bytes);
+        return encode(bytes);
+    }
+
+    /**
+     * Creates the {@link #CHALLENGE_METHOD S256} code challenge for the given verifier.
+     *
+     * @param verifier Code verifier
+     * @return Base64url encoded SHA-256 hash of the verifier
+     */
+    public static String challenge(String verifier) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return encode(digest.digest(verifier.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
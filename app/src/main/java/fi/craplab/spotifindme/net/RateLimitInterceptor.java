@@ -0,0 +1,365 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Application {@link Interceptor} keeping the Spotify API client within the rate limits.
+ * <p>
+ * Every request is classified as {@link Endpoint}, and has to get a token from its endpoint's own
+ * {@link TokenBucket}, and from a bucket shared by all of them. Only playback commands may use the
+ * last few tokens of the shared bucket, so when requests pile up, e.g. from flapping transfers
+ * and device list polling, transfers still get through while the device list refreshes are held
+ * back.
+ * </p>
+ * <p>
+ * Spotify answers with {@code 429 Too Many Requests} and a {@code Retry-After} header once the app
+ * is over its limit. Until then, no request is sent at all. Requests that are allowed to wait as
+ * long, i.e. playback commands, are sent right after, everything else fails right away with a
+ * {@code 429} response made up locally, so it's handled exactly like a real one.
+ * </p>
+ * <p>
+ * Idempotent requests, i.e. everything but {@code POST} and {@code PATCH}, are retried after
+ * {@code 429}, {@code 5xx} and connection errors, with exponential backoff and full jitter. The
+ * others go out exactly once.
+ * </p>
+ */
+public class RateLimitInterceptor implements Interceptor {
+    /** Number of retries for idempotent requests */
+    static final int MAX_RETRIES = 2;
+    /** Backoff before the first retry, doubled for every further one, before jitter */
+    static final long BASE_BACKOFF_MILLIS = 250;
+    /** Upper limit for the backoff before jitter */
+    static final long MAX_BACKOFF_MILLIS = 4000;
+    /** Wait used if a {@code 429} comes without a usable {@code Retry-After} */
+    static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+    /** Message of the {@code 429} responses made up locally */
+    static final String LOCAL_MESSAGE = "Rate limited by client";
+
+    /** Shared bucket capacity */
+    private static final int SHARED_CAPACITY = 10;
+    /** Shared bucket refill rate */
+    private static final double SHARED_PER_SECOND = 2;
+
+    /**
+     * Classes of Spotify API requests, each with its own limits.
+     */
+    public enum Endpoint {
+        /** Transferring or pausing playback, i.e. anything modifying the player */
+        PLAYBACK(5, 1, 0, 5000),
+        /** Fetching the device list */
+        DEVICES(3, 0.5, 3, 0),
+        /** Everything else, e.g. the user profile */
+        OTHER(3, 0.5, 3, 1000);
+
+        /** Endpoint bucket capacity */
+        final int capacity;
+        /** Endpoint bucket refill rate */
+        final double perSecond;
+        /** Tokens of the shared bucket that have to be left for higher priority requests */
+        final int sharedReserve;
+        /** Longest time a request waits for a token or a {@code Retry-After} */
+        final long maxWaitMillis;
+
+        Endpoint(int capacity, double perSecond, int sharedReserve, long maxWaitMillis) {
+            this.capacity = capacity;
+            this.perSecond = perSecond;
+            this.sharedReserve = sharedReserve;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        /**
+         * Classifies the given request.
+         *
+         * @param request Request to classify
+         * @return Endpoint class of the request
+         */
+        public static Endpoint of(Request request) {
+            String path = request.url().encodedPath();
+            if (path.startsWith("/v1/me/player")) {
+                if (!request.method().equals("GET")) {
+                    return PLAYBACK;
+                }
+                if (path.equals("/v1/me/player/devices")) {
+                    return DEVICES;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    private final TokenBucket shared = new TokenBucket(SHARED_CAPACITY, SHARED_PER_SECOND);
+    private final TokenBucket[] buckets = new TokenBucket[Endpoint.values().length];
+    private final Random random;
+
+    private final Object lock = new Object();
+    /** {@link #nanoTime()} until which Spotify asked us not to send anything */
+    private long blockedUntil;
+    private boolean blocked;
+
+    private final AtomicLong serverLimitedCount = new AtomicLong();
+    private final AtomicLong clientLimitedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+
+    /**
+     * Creates a new rate limiter with the default limits.
+     */
+    public RateLimitInterceptor() {
+        this(new Random());
+    }
+
+    /**
+     * Creates a new rate limiter.
+     *
+     * @param random Source of the retry jitter
+     */
+    RateLimitInterceptor(Random random) {
+        this.random = random;
+        for (Endpoint endpoint : Endpoint.values()) {
+            buckets[endpoint.ordinal()] = new TokenBucket(endpoint.capacity, endpoint.perSecond);
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Endpoint endpoint = Endpoint.of(request);
+        boolean idempotent = isIdempotent(request.method());
+
+        for (int attempt = 0; ; attempt++) {
+            long wait = acquire(endpoint);
+            if (wait > 0) {
+                clientLimitedCount.incrementAndGet();
+                return limitedResponse(request, wait);
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (!idempotent || attempt >= MAX_RETRIES || e instanceof InterruptedIOException) {
+                    throw e;
+                }
+                backoff(attempt);
+                continue;
+            }
+
+            int code = response.code();
+            if (code == 429) {
+                serverLimitedCount.incrementAndGet();
+                long retryAfter = parseRetryAfter(response.header("Retry-After"));
+                blockFor(retryAfter);
+                if (!idempotent || attempt >= MAX_RETRIES
+                        || retryAfter > TimeUnit.MILLISECONDS.toNanos(endpoint.maxWaitMillis)) {
+                    return response;
+                }
+                // acquire() waits for the Retry-After
+                response.close();
+                retryCount.incrementAndGet();
+            } else if (code >= 500 && code != 501 && idempotent && attempt < MAX_RETRIES) {
+                response.close();
+                backoff(attempt);
+            } else {
+                return response;
+            }
+        }
+    }
+
+    /**
+     * Waits for the {@code Retry-After} window to end and for a token of the given endpoint, if
+     * that's within the endpoint's maximum wait time.
+     *
+     * @param endpoint Endpoint class of the request
+     * @return {@code 0} if a token was taken, otherwise the time in nanoseconds the caller would
+     *         have had to wait
+     * @throws IOException If interrupted while waiting
+     */
+    private long acquire(Endpoint endpoint) throws IOException {
+        TokenBucket bucket = buckets[endpoint.ordinal()];
+        long deadline = nanoTime() + TimeUnit.MILLISECONDS.toNanos(endpoint.maxWaitMillis);
+
+        while (true) {
+            long now = nanoTime();
+            long wait;
+            synchronized (lock) {
+                if (blocked && now < blockedUntil) {
+                    wait = blockedUntil - now;
+                } else {
+                    blocked = false;
+                    wait = Math.max(bucket.nanosUntilAvailable(now, 0),
+                            shared.nanosUntilAvailable(now, endpoint.sharedReserve));
+                    if (wait == 0) {
+                        // both checked under the lock, so these can't fail
+                        bucket.tryAcquire(now, 0);
+                        shared.tryAcquire(now, endpoint.sharedReserve);
+                        return 0;
+                    }
+                }
+            }
+
+            if (now + wait > deadline) {
+                return wait;
+            }
+            sleep(wait);
+        }
+    }
+
+    /**
+     * Stops sending anything for the given time, unless already stopped for longer.
+     *
+     * @param nanos Time to stop for
+     */
+    private void blockFor(long nanos) {
+        long until = nanoTime() + nanos;
+        synchronized (lock) {
+            if (!blocked || until - blockedUntil > 0) {
+                blocked = true;
+                blockedUntil = until;
+            }
+        }
+    }
+
+    /**
+     * Sleeps a random time between zero and the exponential backoff of the given attempt.
+     *
+     * @param attempt Number of the failed attempt, starting at 0
+     * @throws IOException If interrupted while sleeping
+     */
+    private void backoff(int attempt) throws IOException {
+        retryCount.incrementAndGet();
+        long backoff = Math.min(BASE_BACKOFF_MILLIS << attempt, MAX_BACKOFF_MILLIS);
+        sleep(TimeUnit.MILLISECONDS.toNanos((long) (random.nextDouble() * backoff)));
+    }
+
+    /**
+     * @return Current {@link System#nanoTime()}, overridden in tests
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sleeps for the given time, overridden in tests.
+     *
+     * @param nanos Time to sleep in nanoseconds
+     * @throws IOException If interrupted while sleeping
+     */
+    void sleep(long nanos) throws IOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while rate limited");
+        }
+    }
+
+    /**
+     * @param method HTTP method
+     * @return {@code true} if sending the request twice has the same effect as sending it once
+     */
+    static boolean isIdempotent(String method) {
+        return !method.equals("POST") && !method.equals("PATCH");
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, given either in seconds or as HTTP date.
+     *
+     * @param value Header value, may be {@code null}
+     * @return Time to wait in nanoseconds, {@link #DEFAULT_RETRY_AFTER_MILLIS} if missing or
+     *         invalid
+     */
+    static long parseRetryAfter(String value) {
+        long millis = DEFAULT_RETRY_AFTER_MILLIS;
+        if (value != null) {
+            value = value.trim();
+            try {
+                millis = TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                try {
+                    ZonedDateTime date = ZonedDateTime.parse(value,
+                            DateTimeFormatter.RFC_1123_DATE_TIME);
+                    millis = date.toInstant().toEpochMilli() - System.currentTimeMillis();
+                } catch (DateTimeParseException e2) {
+                    // keep the default
+                }
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Makes up a {@code 429} response for a request that wasn't sent.
+     *
+     * @param request Request that wasn't sent
+     * @param waitNanos Time until it could be sent
+     * @return Response as if it came from Spotify
+     */
+    private static Response limitedResponse(Request request, long waitNanos) {
+        long seconds = (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(429)
+                .message(LOCAL_MESSAGE)
+                .header("Retry-After", Long.toString(seconds))
+                .body(ResponseBody.create(null, ""))
+                .build();
+    }
+
+    /** @return Number of {@code 429} responses received from Spotify */
+    public long getServerLimitedCount() {
+        return serverLimitedCount.get();
+    }
+
+    /** @return Number of requests not sent at all, answered with a local {@code 429} */
+    public long getClientLimitedCount() {
+        return clientLimitedCount.get();
+    }
+
+    /** @return Number of retries */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d server limited, %d client limited, %d retries",
+                getServerLimitedCount(), getClientLimitedCount(), getRetryCount());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import fi.craplab.spotifindme.model.TokenResponse;
+import retrofit2.Call;
+import retrofit2.http.Field;
+import retrofit2.http.FormUrlEncoded;
+import retrofit2.http.POST;
+
+/**
+ * Retrofit description of the Spotify Accounts service token endpoint, used for the
+ * Authorization Code flow with PKCE. No client secret is involved, the app proves it started the
+ * login with the code verifier instead.
+ *
+ * @see <a href="https://developer.spotify.com/documentation/general/guides/authorization/code-flow/">
+ *     <em>Authorization Code Flow</em> description</a>
+ */
+public interface SpotifyAccountsApi {
+    /** Spotify Accounts service base URL */
+    String BASE_URL = "https://accounts.spotify.com/";
+
+    /**
+     * {@code POST} request to exchange the authorization code received from the login for an
+     * access and a refresh token.
+     *
+     * @param code Authorization code
+     * @param redirectUri Redirect URI used for the login
+     * @param clientId Application client ID
+     * @param codeVerifier PKCE code verifier the login's code challenge was created from
+     * @param grantType Always {@code authorization_code}
+     * @return {@link TokenResponse} retrieved from the Spotify Accounts service
+     */
+    @FormUrlEncoded
+    @POST("/api/token")
+    Call<TokenResponse> exchangeCode(@Field("code") String code,
+                                     @Field("redirect_uri") String redirectUri,
+                                     @Field("client_id") String clientId,
+                                     @Field("code_verifier") String codeVerifier,
+                                     @Field("grant_type") String grantType);
+
+    /**
+     * {@code POST} request to get a new access token with the refresh token.
+     *
+     * @param refreshToken Refresh token
+     * @param clientId Application client ID
+     * @param grantType Always {@code refresh_token}
+     * @return {@link TokenResponse} retrieved from the Spotify Accounts service
+     */
+    @FormUrlEncoded
+    @POST("/api/token")
+    Call<TokenResponse> refreshToken(@Field("refresh_token") String refreshToken,
+                                     @Field("client_id") String clientId,
+                                     @Field("grant_type") String grantType);
+}
@@ -0,0 +1,118 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.io.File;
+import java.util.Arrays;
+
+import com.google.gson.GsonBuilder;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.model.ModelTypeAdapterFactory;
+import fi.craplab.spotifindme.model.UserProfile;
+import okhttp3.Authenticator;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Process-wide Spotify API client.
+ * <p>
+ * Building the {@link OkHttpClient} and the {@link Retrofit} proxy is not free, and each new
+ * client starts with an empty connection pool, i.e. a fresh TLS handshake for the next request.
+ * So there's only one instance of this, owned by the {@link fi.craplab.spotifindme.SpotifindMe}
+ * Application, and shared by everything talking to Spotify.
+ * </p>
+ * <p>
+ * All requests go through the {@link RateLimitInterceptor}, which keeps them within Spotify's
+ * rate limits, honors {@code Retry-After}, and retries idempotent requests. Responses are decoded
+ * by the streaming adapters of the {@link ModelTypeAdapterFactory} instead of reflection.
+ * </p>
+ */
+public class SpotifyApiClient {
+    /** Spotify Web API base URL */
+    public static final String BASE_URL = "https://api.spotify.com/";
+    /** Time the user profile is kept in memory before requesting it again */
+    private static final long USER_PROFILE_TTL_MILLIS = 30 * 60 * 1000;
+
+    private final RateLimitInterceptor rateLimiter = new RateLimitInterceptor();
+    private final OkHttpClient httpClient;
+    private final SpotifyRestApi spotifyRestApi;
+    private final TtlCache<UserProfile> userProfileCache = new TtlCache<>(USER_PROFILE_TTL_MILLIS);
+
+    /**
+     * Creates a new API client.
+     *
+     * @param cacheDir Directory for the HTTP response cache
+     * @param tokenProvider Provider for the auth token added to each request
+     * @param authenticator Refreshes the auth token when a request was rejected with {@code 401}
+     */
+    public SpotifyApiClient(File cacheDir, AuthInterceptor.TokenProvider tokenProvider,
+                            Authenticator authenticator) {
+        httpClient = HttpCaching.configure(new OkHttpClient.Builder(), cacheDir)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .addInterceptor(rateLimiter)
+                .addNetworkInterceptor(new AuthInterceptor(tokenProvider))
+                .authenticator(authenticator)
+                .build();
+
+        spotifyRestApi = new Retrofit.Builder()
+                .baseUrl(BASE_URL)
+                .client(httpClient)
+                .addConverterFactory(GsonConverterFactory.create(new GsonBuilder()
+                        .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                        .create()))
+                .build()
+                .create(SpotifyRestApi.class);
+    }
+
+    /**
+     * @return Shared HTTP client, e.g. to build other clients sharing its connection pool
+     */
+    public OkHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return Rate limiter of all requests, e.g. to read its counters
+     */
+    public RateLimitInterceptor getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return Spotify REST API
+     */
+    public SpotifyRestApi getRestApi() {
+        return spotifyRestApi;
+    }
+
+    /**
+     * @return In-memory cache for the user profile
+     */
+    public TtlCache<UserProfile> getUserProfileCache() {
+        return userProfileCache;
+    }
+}
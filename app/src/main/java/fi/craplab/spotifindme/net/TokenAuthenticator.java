@@ -0,0 +1,74 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * {@link Authenticator} to refresh the auth token when Spotify rejects a request with
+ * {@code 401}, and retry the request once with the new token.
+ */
+public class TokenAuthenticator implements Authenticator {
+    private static final String BEARER = "Bearer ";
+
+    private final TokenRefresher tokenRefresher;
+
+    /**
+     * Creates a new token authenticator.
+     *
+     * @param tokenRefresher Refresher to get the new token from
+     */
+    public TokenAuthenticator(TokenRefresher tokenRefresher) {
+        this.tokenRefresher = tokenRefresher;
+    }
+
+    @Override
+    public Request authenticate(Route route, @NonNull Response response) throws IOException {
+        if (response.priorResponse() != null && response.priorResponse().code() == 401) {
+            // already retried with a fresh token, give up
+            return null;
+        }
+
+        // the token is added by a network interceptor, so only the network request has it
+        Response networkResponse = response.networkResponse();
+        Request sent = networkResponse != null ? networkResponse.request() : response.request();
+        String header = sent.header("Authorization");
+        String rejectedToken = header != null && header.startsWith(BEARER)
+                ? header.substring(BEARER.length()) : null;
+        String token = tokenRefresher.refreshAfterUnauthorized(rejectedToken);
+        if (token == null) {
+            return null;
+        }
+        return response.request().newBuilder()
+                .header("Authorization", BEARER + token)
+                .build();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter.
+ * <p>
+ * Holds up to {@code capacity} tokens, refilled continuously at a fixed rate, and every request
+ * takes one. Callers can ask to leave a number of tokens in reserve, so lower priority requests
+ * run dry before the higher priority ones that may use the reserve.
+ * </p>
+ * <p>
+ * All times are {@link System#nanoTime()} values passed in by the caller. Thread-safe.
+ * </p>
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefill;
+    private boolean started;
+
+    /**
+     * Creates a new, full token bucket.
+     *
+     * @param capacity Maximum number of tokens, i.e. the largest burst
+     * @param tokensPerSecond Refill rate
+     */
+    public TokenBucket(int capacity, double tokensPerSecond) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("invalid capacity or rate");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+    }
+
+    /**
+     * Takes a token if there are more than {@code reserve} left.
+     *
+     * @param now Current time
+     * @param reserve Number of tokens to leave for others
+     * @return {@code true} if a token was taken
+     */
+    public synchronized boolean tryAcquire(long now, int reserve) {
+        refill(now);
+        if (tokens < reserve + 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Returns how long until {@link #tryAcquire(long, int)} with the same reserve succeeds, if
+     * nobody else takes a token meanwhile.
+     *
+     * @param now Current time
+     * @param reserve Number of tokens to leave for others
+     * @return Time to wait in nanoseconds, {@code 0} if a token is available right away
+     */
+    public synchronized long nanosUntilAvailable(long now, int reserve) {
+        refill(now);
+        double missing = reserve + 1 - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        if (started) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        }
+        started = true;
+        lastRefill = now;
+    }
+}
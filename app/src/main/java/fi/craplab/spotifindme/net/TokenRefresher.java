@@ -0,0 +1,321 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.spotifindme.model.TokenResponse;
+import okhttp3.OkHttpClient;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Keeps the Spotify access token valid with the refresh token from the Authorization Code flow.
+ * <p>
+ * The token is refreshed in the background shortly before it expires, so requests normally never
+ * see an expired one. If one still does, e.g. because the phone was asleep when the refresh was
+ * due, {@link #getToken()} refreshes it right away on the calling thread, and the
+ * {@link TokenAuthenticator} does the same if Spotify rejects a token with {@code 401}.
+ * Concurrent refreshes are collapsed into a single request to the Accounts service.
+ * </p>
+ * <p>
+ * A refresh that fails to reach the Accounts service, or fails on its side, is retried after
+ * {@link #RETRY_DELAY_MILLIS}. If the refresh token itself is rejected, e.g. because the user
+ * revoked the app's access, the stored tokens are cleared, so {@link #hasCredentials()} sends the
+ * user back to the login.
+ * </p>
+ */
+public class TokenRefresher implements AuthInterceptor.TokenProvider {
+    /**
+     * Persistent storage for the tokens. {@link #getCredentials()} is called for every request,
+     * so it must be cheap and must not block.
+     */
+    public interface TokenStore {
+        /**
+         * @return Currently stored tokens, expired or not, {@link Credentials#NONE} if there are
+         * none
+         */
+        Credentials getCredentials();
+
+        /**
+         * Replaces the stored tokens.
+         *
+         * @param credentials New tokens
+         */
+        void storeCredentials(Credentials credentials);
+    }
+
+    /**
+     * Gets notified once an authorization code exchange finished. Called on a background thread.
+     */
+    public interface Callback {
+        /**
+         * @param success {@code true} if a new token was received and stored
+         */
+        void onTokenReceived(boolean success);
+    }
+
+    /** Time before the expiration at which the token is refreshed in the background */
+    static final long REFRESH_MARGIN_MILLIS = 5 * 60 * 1000;
+    /** Delay before retrying a failed background refresh */
+    static final long RETRY_DELAY_MILLIS = 60 * 1000;
+
+    /** Returned by {@link #execute(Call)} if the Accounts service rejected the request */
+    private static final TokenResponse REJECTED = new TokenResponse();
+
+    private static final String GRANT_AUTHORIZATION_CODE = "authorization_code";
+    private static final String GRANT_REFRESH_TOKEN = "refresh_token";
+
+    private final SpotifyAccountsApi accountsApi;
+    private final String clientId;
+    private final TokenStore store;
+    private final ScheduledExecutorService scheduler;
+
+    /** Held while talking to the Accounts service, so only one refresh is in flight */
+    private final Object refreshLock = new Object();
+    /** Next background refresh, guarded by {@link #refreshLock} */
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /** Background refresh, forces a new token no matter if the current one is still valid */
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh(store.getCredentials().token);
+        }
+    };
+
+    /**
+     * Creates a new token refresher with its own background thread.
+     *
+     * @param accountsApi Spotify Accounts service, see {@link #createAccountsApi(OkHttpClient, String)}
+     * @param clientId Application client ID
+     * @param store Persistent token storage
+     */
+    public TokenRefresher(SpotifyAccountsApi accountsApi, String clientId, TokenStore store) {
+        this(accountsApi, clientId, store, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    TokenRefresher(SpotifyAccountsApi accountsApi, String clientId, TokenStore store,
+                   ScheduledExecutorService scheduler) {
+        this.accountsApi = accountsApi;
+        this.clientId = clientId;
+        this.store = store;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Creates the Spotify Accounts service API. The given client must not have the
+     * {@link AuthInterceptor} or the {@link TokenAuthenticator} installed, the Accounts service
+     * doesn't want a bearer token.
+     *
+     * @param httpClient HTTP client to use
+     * @param baseUrl Accounts service base URL, {@link SpotifyAccountsApi#BASE_URL} outside tests
+     * @return Spotify Accounts service API
+     */
+    public static SpotifyAccountsApi createAccountsApi(OkHttpClient httpClient, String baseUrl) {
+        return new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(httpClient)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(SpotifyAccountsApi.class);
+    }
+
+    /**
+     * Schedules the background refresh for the stored token, if there is a refresh token.
+     * Call once at startup.
+     */
+    public void start() {
+        synchronized (refreshLock) {
+            Credentials credentials = store.getCredentials();
+            if (credentials.refreshToken != null) {
+                scheduleRefresh(System.currentTimeMillis(), credentials.expiresAt);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if there is a token, or at least a refresh token to get a new one
+     */
+    public boolean hasCredentials() {
+        return store.getCredentials().canAuthorize(System.currentTimeMillis());
+    }
+
+    /**
+     * Exchanges the authorization code from the login for the tokens, in the background.
+     *
+     * @param code Authorization code
+     * @param redirectUri Redirect URI used for the login
+     * @param codeVerifier PKCE code verifier used for the login
+     * @param callback Callback to notify once done
+     */
+    public void exchangeCode(final String code, final String redirectUri,
+                             final String codeVerifier, final Callback callback) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success;
+                synchronized (refreshLock) {
+                    TokenResponse response = execute(accountsApi.exchangeCode(code, redirectUri,
+                            clientId, codeVerifier, GRANT_AUTHORIZATION_CODE));
+                    success = response != null && response != REJECTED
+                            && response.refreshToken != null;
+                    if (success) {
+                        storeToken(response, null);
+                    }
+                }
+                callback.onTokenReceived(success);
+            }
+        });
+    }
+
+    /**
+     * Returns the current access token, refreshing it first on the calling thread if it expired.
+     *
+     * @return Valid access token, or {@code null} if there is none and refreshing failed
+     */
+    @Override
+    public String getToken() {
+        Credentials credentials = store.getCredentials();
+        String token = credentials.getValidToken(System.currentTimeMillis());
+        return token != null ? token : refresh(credentials.token);
+    }
+
+    /**
+     * Gets a new access token after the given one was rejected. If another thread already
+     * refreshed it in the meantime, that new token is returned without refreshing again.
+     *
+     * @param rejectedToken Access token the request failed with
+     * @return New access token, or {@code null} if refreshing failed
+     */
+    public String refreshAfterUnauthorized(String rejectedToken) {
+        return refresh(rejectedToken);
+    }
+
+    /**
+     * Stops the background refreshes.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Requests a new access token, unless the stored one is valid and differs from the given
+     * stale one.
+     */
+    private String refresh(String staleToken) {
+        synchronized (refreshLock) {
+            Credentials credentials = store.getCredentials();
+            String current = credentials.getValidToken(System.currentTimeMillis());
+            if (current != null && !current.equals(staleToken)) {
+                return current;
+            }
+            String refreshToken = credentials.refreshToken;
+            if (refreshToken == null) {
+                return null;
+            }
+            TokenResponse response = execute(accountsApi.refreshToken(refreshToken, clientId,
+                    GRANT_REFRESH_TOKEN));
+            if (response == REJECTED) {
+                // retrying won't help, the user has to log in again
+                store.storeCredentials(Credentials.NONE);
+                cancelScheduledRefresh();
+                return null;
+            }
+            if (response == null) {
+                reschedule(RETRY_DELAY_MILLIS);
+                return null;
+            }
+            storeToken(response, refreshToken);
+            return response.accessToken;
+        }
+    }
+
+    /**
+     * Stores the received tokens and schedules the next refresh. Called with the
+     * {@link #refreshLock} held.
+     */
+    private void storeToken(TokenResponse response, String previousRefreshToken) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + response.expiresIn * 1000;
+        String refreshToken = response.refreshToken != null
+                ? response.refreshToken : previousRefreshToken;
+        store.storeCredentials(new Credentials(response.accessToken, expiresAt, refreshToken));
+        scheduleRefresh(now, expiresAt);
+    }
+
+    /**
+     * Schedules the refresh {@link #REFRESH_MARGIN_MILLIS} before the expiration, or halfway
+     * through the token's lifetime for tokens shorter than twice the margin. Called with the
+     * {@link #refreshLock} held.
+     */
+    private void scheduleRefresh(long now, long expiresAt) {
+        long lifetime = Math.max(0, expiresAt - now);
+        reschedule(lifetime - Math.min(REFRESH_MARGIN_MILLIS, lifetime / 2));
+    }
+
+    private void reschedule(long delayMillis) {
+        cancelScheduledRefresh();
+        if (!scheduler.isShutdown()) {
+            scheduledRefresh = scheduler.schedule(refreshTask, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelScheduledRefresh() {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+
+    /**
+     * Runs a token request.
+     *
+     * @return Token response, {@link #REJECTED} if the Accounts service refused it with a client
+     *         error other than {@code 429}, e.g. {@code invalid_grant} for a revoked refresh
+     *         token, or {@code null} if it failed otherwise or had no access token
+     */
+    private static TokenResponse execute(Call<TokenResponse> call) {
+        try {
+            Response<TokenResponse> response = call.execute();
+            int code = response.code();
+            if (code >= 400 && code < 500 && code != 429) {
+                return REJECTED;
+            }
+            TokenResponse body = response.body();
+            if (!response.isSuccessful() || body == null || body.accessToken == null) {
+                return null;
+            }
+            return body;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
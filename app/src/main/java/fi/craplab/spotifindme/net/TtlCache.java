@@ -0,0 +1,77 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.net;
+
+/**
+ * In-memory cache for a single value that expires after a fixed time.
+ * Used for data that hardly ever changes, like the user profile.
+ *
+ * @param <T> Type of the cached value
+ */
+public class TtlCache<T> {
+    private final long ttlMillis;
+
+    private T value;
+    private long storedAt;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param ttlMillis Time in milliseconds a stored value stays valid
+     */
+    public TtlCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached value if it hasn't expired yet.
+     *
+     * @param now Current time in milliseconds
+     * @return Cached value, or {@code null} if there is none or it expired
+     */
+    public synchronized T get(long now) {
+        if (value != null && now - storedAt >= ttlMillis) {
+            value = null;
+        }
+        return value;
+    }
+
+    /**
+     * Stores a new value.
+     *
+     * @param value Value to store
+     * @param now Current time in milliseconds
+     */
+    public synchronized void put(T value, long now) {
+        this.value = value;
+        this.storedAt = now;
+    }
+
+    /**
+     * Drops the cached value, e.g. after the user logged in again.
+     */
+    public synchronized void invalidate() {
+        value = null;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.DeviceType;
+import fi.craplab.spotifindme.model.Devices;
+
+/**
+ * Last known Spotify devices, indexed by name and by id.
+ * <p>
+ * Every device list received from Spotify is merged in: new and renamed devices are added or
+ * replaced, unchanged ones are kept as they are, and devices missing from the list stay known,
+ * since a sleeping laptop keeps its id. So the id for a device name is a single hash lookup, and
+ * it's there even before the first device list arrived, as long as it was ever seen before.
+ * </p>
+ * <p>
+ * The index is an immutable snapshot replaced on every change, so lookups are lock-free. Changes
+ * are written to a small binary file in the background, and {@link #load()} reads it back at the
+ * next start. Until a device list was merged in, the known devices are just cached ones, see
+ * {@link #isLive()}.
+ * </p>
+ * <p>
+ * File format, all numbers big-endian, strings as modified UTF-8 with a 16 bit length:
+ * <pre>
+ * int    magic "SFDR"
+ * short  version
+ * short  number of devices
+ * per device: string id, string name, string type
+ * </pre>
+ * </p>
+ */
+public class DeviceRegistry {
+    /** File magic "SFDR" */
+    static final int MAGIC = 'S' << 24 | 'F' << 16 | 'D' << 8 | 'R';
+    /** Current file format version */
+    static final short VERSION = 1;
+    /** Maximum number of devices kept, the ones added or changed longest ago are dropped */
+    static final int MAX_DEVICES = 32;
+
+    /**
+     * A known device.
+     */
+    public static final class Entry {
+        public final String deviceId;
+        public final String deviceName;
+        public final DeviceType deviceType;
+
+        Entry(String deviceId, String deviceName, DeviceType deviceType) {
+            this.deviceId = deviceId;
+            this.deviceName = deviceName;
+            this.deviceType = deviceType;
+        }
+
+        boolean matches(Device device) {
+            return deviceName.equals(device.deviceName) && deviceType == typeOf(device);
+        }
+    }
+
+    /**
+     * Immutable index of all known devices.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(
+                Collections.<String, Entry>emptyMap(), Collections.<String, Entry>emptyMap(), false);
+
+        /** By id, least recently added or changed first */
+        final Map<String, Entry> byId;
+        final Map<String, Entry> byName;
+        /** Whether a device list from Spotify was merged in, or it's only loaded from the file */
+        final boolean live;
+
+        Snapshot(Map<String, Entry> byId, Map<String, Entry> byName, boolean live) {
+            this.byId = byId;
+            this.byName = byName;
+            this.live = live;
+        }
+    }
+
+    private final File file;
+    private final Executor ioExecutor;
+
+    /** Guards changing the {@link #snapshot} and the file, reading the snapshot doesn't need it */
+    private final Object lock = new Object();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /** Writes the latest snapshot, so a burst of changes ends up as one write in the best case */
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                write(snapshot);
+            }
+        }
+    };
+
+    /**
+     * Creates a new registry that isn't persisted.
+     */
+    public DeviceRegistry() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a new registry persisted in the given file, with its own background thread.
+     * Call {@link #load()} to read what's in there.
+     *
+     * @param file File to store the devices in
+     */
+    public DeviceRegistry(File file) {
+        this(file, Executors.newSingleThreadExecutor());
+    }
+
+    DeviceRegistry(File file, Executor ioExecutor) {
+        this.file = file;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Reads the devices stored in the file, unless there are newer ones already. Blocks, so call
+     * it in the background at start.
+     */
+    public void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        synchronized (lock) {
+            if (snapshot != Snapshot.EMPTY) {
+                return;
+            }
+            try {
+                snapshot = read();
+            } catch (IOException e) {
+                // broken file, it's only a cache
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param deviceName Device name
+     * @return Known device with that name, {@code null} if there's none
+     */
+    public Entry findByName(String deviceName) {
+        return snapshot.byName.get(deviceName);
+    }
+
+    /**
+     * @param deviceId Spotify device id
+     * @return Known device with that id, {@code null} if there's none
+     */
+    public Entry findById(String deviceId) {
+        return snapshot.byId.get(deviceId);
+    }
+
+    /**
+     * @return {@code true} if the known devices were received from Spotify in this process,
+     *         {@code false} if they're only cached from an earlier one
+     */
+    public boolean isLive() {
+        return snapshot.live;
+    }
+
+    /** @return Number of known devices */
+    public int size() {
+        return snapshot.byId.size();
+    }
+
+    /**
+     * Merges a device list received from Spotify, and writes the result to the file in the
+     * background if anything changed.
+     *
+     * @param devices Device list
+     * @return {@code true} if any device was added or changed
+     */
+    public boolean update(Devices devices) {
+        if (devices == null || devices.devices == null) {
+            return false;
+        }
+
+        synchronized (lock) {
+            Snapshot current = snapshot;
+            Map<String, Entry> byId = null;
+
+            for (Device device : devices.devices) {
+                if (device.deviceId == null || device.deviceName == null) {
+                    continue;
+                }
+                Entry entry = current.byId.get(device.deviceId);
+                if (entry != null && entry.matches(device)) {
+                    continue;
+                }
+                if (byId == null) {
+                    byId = new LinkedHashMap<>(current.byId);
+                }
+                // re-inserted at the end, i.e. as most recently changed
+                byId.remove(device.deviceId);
+                byId.put(device.deviceId,
+                        new Entry(device.deviceId, device.deviceName, typeOf(device)));
+            }
+
+            if (byId == null) {
+                if (!current.live) {
+                    snapshot = new Snapshot(current.byId, current.byName, true);
+                }
+                return false;
+            }
+
+            snapshot = index(byId, true);
+        }
+
+        if (file != null) {
+            ioExecutor.execute(writeTask);
+        }
+        return true;
+    }
+
+    /**
+     * Builds the name index for the given devices, dropping the oldest ones above
+     * {@link #MAX_DEVICES}. If two devices share a name, the more recently changed one wins.
+     */
+    private static Snapshot index(Map<String, Entry> byId, boolean live) {
+        Iterator<Entry> oldest = byId.values().iterator();
+        for (int excess = byId.size() - MAX_DEVICES; excess > 0; excess--) {
+            oldest.next();
+            oldest.remove();
+        }
+
+        Map<String, Entry> byName = new HashMap<>();
+        for (Entry entry : byId.values()) {
+            byName.put(entry.deviceName, entry);
+        }
+        return new Snapshot(Collections.unmodifiableMap(byId),
+                Collections.unmodifiableMap(byName), live);
+    }
+
+    private static DeviceType typeOf(Device device) {
+        return device.deviceType != null ? device.deviceType : DeviceType.UNKNOWN;
+    }
+
+    /**
+     * Replaces the file with the given devices. Called with the {@link #lock} held.
+     */
+    private void write(Snapshot snapshot) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(snapshot.byId.size());
+            for (Entry entry : snapshot.byId.values()) {
+                out.writeUTF(entry.deviceId);
+                out.writeUTF(entry.deviceName);
+                out.writeUTF(entry.deviceType.apiName);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        temp.renameTo(file);
+    }
+
+    /**
+     * Reads the devices from the file. Called with the {@link #lock} held.
+     */
+    private Snapshot read() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("not a device registry file");
+            }
+            int count = in.readUnsignedShort();
+            Map<String, Entry> byId = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readUTF(),
+                        DeviceType.fromApiName(in.readUTF()));
+                byId.put(entry.deviceId, entry);
+            }
+            return index(byId, false);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.Devices;
+import retrofit2.Response;
+
+/**
+ * Fetches the user's devices from the {@link SpotifyRestApi} only when something is expected to
+ * change.
+ * <p>
+ * After a playback transfer, Spotify takes a moment until the new device shows up as active. So
+ * instead of waiting a fixed time and fetching the devices once, {@link #expectActive(String)}
+ * polls with exponential backoff, starting at {@link #INITIAL_DELAY_MILLIS}, until the expected
+ * device is reported active or {@link #MAX_ATTEMPTS} polls were made. After that, nothing is
+ * polled until the next expectation, {@link #prefetch()} or {@link #refresh()}.
+ * </p>
+ * <p>
+ * {@link #withActiveDevice(Devices, String)} can be used to show the expected state right away,
+ * before it is confirmed.
+ * </p>
+ */
+public class DeviceStatePoller {
+    /** Delay before the first confirmation poll */
+    static final long INITIAL_DELAY_MILLIS = 250;
+    /** Upper limit for the delay between two polls */
+    static final long MAX_DELAY_MILLIS = 4000;
+    /** Maximum number of polls for a single expectation */
+    static final int MAX_ATTEMPTS = 6;
+
+    /**
+     * Gets notified on the poller thread about newly received device lists.
+     */
+    public interface Listener {
+        /**
+         * Called with a received device list once the expected device is active, or when giving
+         * up on it.
+         *
+         * @param devices Devices received from the Spotify API
+         * @param confirmed {@code true} if the expected device is active in this list, or there
+         *                  was nothing specific expected
+         */
+        void onDevicesUpdated(Devices devices, boolean confirmed);
+    }
+
+    private final SpotifyRestApi spotifyRestApi;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+
+    /**
+     * Incremented with every new expectation, polls scheduled for an older one are dropped.
+     * Only accessed from the {@link #scheduler} thread.
+     */
+    private int generation;
+    /**
+     * Whether the current generation polls for an expected device.
+     * Only accessed from the {@link #scheduler} thread.
+     */
+    private boolean expecting;
+
+    /**
+     * Creates a new poller running on its own thread.
+     *
+     * @param spotifyRestApi Spotify API to get the devices from
+     * @param listener Listener to notify about received device lists
+     */
+    public DeviceStatePoller(SpotifyRestApi spotifyRestApi, Listener listener) {
+        this(spotifyRestApi, Executors.newSingleThreadScheduledExecutor(), listener);
+    }
+
+    /**
+     * Creates a new poller.
+     *
+     * @param spotifyRestApi Spotify API to get the devices from
+     * @param scheduler Single-threaded scheduler to run the polls on
+     * @param listener Listener to notify about received device lists
+     */
+    DeviceStatePoller(SpotifyRestApi spotifyRestApi, ScheduledExecutorService scheduler,
+                      Listener listener) {
+        this.spotifyRestApi = spotifyRestApi;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * Fetches the device list once, right away. Cancels any ongoing expectation.
+     */
+    public void refresh() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                expecting = false;
+                poll(++generation, null, 1, 0);
+            }
+        });
+    }
+
+    /**
+     * Fetches the device list once, right away, unless an expectation is ongoing, whose polls
+     * keep the list fresh anyway. Unlike {@link #refresh()}, this doesn't cancel anything.
+     */
+    public void prefetch() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!expecting) {
+                    poll(generation, null, 1, 0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Polls the device list with backoff until the given device is reported active.
+     * Replaces any ongoing expectation.
+     *
+     * @param deviceId Id of the device expected to become active
+     */
+    public void expectActive(final String deviceId) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                expecting = true;
+                schedule(++generation, deviceId, 1, INITIAL_DELAY_MILLIS);
+            }
+        });
+    }
+
+    /**
+     * Stops the poller thread.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(final int generation, final String deviceId, final int attempt,
+                          final long delay) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(generation, deviceId, attempt, delay);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fetches the device list and schedules the next poll if the expectation isn't met yet.
+     *
+     * @param generation Expectation generation this poll belongs to
+     * @param deviceId Expected active device id, or {@code null} for a single refresh
+     * @param attempt Number of this poll for the current expectation, starting at 1
+     * @param delay Delay that was used before this poll
+     */
+    private void poll(int generation, String deviceId, int attempt, long delay) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        Devices devices = null;
+        try {
+            Response<Devices> response = spotifyRestApi.getDevices().execute();
+            devices = response.body();
+        } catch (IOException | RuntimeException e) {
+            // handled below like an empty response, i.e. retried with backoff
+        }
+
+        boolean lastAttempt = deviceId == null || attempt >= MAX_ATTEMPTS;
+        if (devices != null && devices.devices != null) {
+            boolean confirmed = deviceId == null || deviceId.equals(getActiveDeviceId(devices));
+            // intermediate, outdated states are not reported, they would just flicker in the UI
+            if (confirmed || lastAttempt) {
+                listener.onDevicesUpdated(devices, confirmed);
+            }
+            if (confirmed) {
+                expecting = false;
+                return;
+            }
+        }
+
+        if (lastAttempt) {
+            expecting = false;
+        } else {
+            schedule(generation, deviceId, attempt + 1, Math.min(delay * 2, MAX_DELAY_MILLIS));
+        }
+    }
+
+    /**
+     * Returns the id of the active device in the given device list.
+     *
+     * @param devices Device list
+     * @return Active device id, or {@code null} if no device is active
+     */
+    static String getActiveDeviceId(Devices devices) {
+        for (Device device : devices.devices) {
+            if (device.isActive) {
+                return device.deviceId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a copy of the given device list with only the given device marked as active, to
+     * optimistically show the expected state before Spotify confirms it.
+     *
+     * @param devices Current device list
+     * @param deviceId Id of the device to mark active
+     * @return Updated copy of the device list, the given one is not modified
+     */
+    public static Devices withActiveDevice(Devices devices, String deviceId) {
+        Devices copy = new Devices();
+        copy.devices = new ArrayList<>(devices.devices.size());
+
+        for (Device device : devices.devices) {
+            Device updated = new Device();
+            updated.deviceId = device.deviceId;
+            updated.isActive = deviceId.equals(device.deviceId);
+            updated.isPrivateSession = device.isPrivateSession;
+            updated.isRestricted = device.isRestricted;
+            updated.deviceName = device.deviceName;
+            updated.deviceType = device.deviceType;
+            updated.volumePercent = device.volumePercent;
+            copy.devices.add(updated);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+/**
+ * Playback command handled by the {@link PlaybackCommandDispatcher}.
+ * Two commands are equal if they do the same thing to the same device, no matter when they were
+ * submitted or executed.
+ */
+public final class PlaybackCommand {
+    /** What to do with the playback */
+    public enum Type {
+        /** Transfer playback to the device */
+        TRANSFER,
+        /** Pause playback on the device */
+        PAUSE
+    }
+
+    public final Type type;
+    public final String deviceId;
+    /** {@link System#nanoTime()} when the command was submitted */
+    final long submittedAt;
+    /** {@link System#nanoTime()} when the request was sent, set on the dispatcher thread */
+    long dispatchedAt;
+    /** {@link System#nanoTime()} when the response arrived, set on the dispatcher thread */
+    long respondedAt;
+
+    PlaybackCommand(Type type, String deviceId) {
+        this.type = type;
+        this.deviceId = deviceId;
+        this.submittedAt = System.nanoTime();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PlaybackCommand)) {
+            return false;
+        }
+        PlaybackCommand other = (PlaybackCommand) o;
+        return type == other.type && deviceId.equals(other.deviceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + deviceId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + deviceId;
+    }
+}
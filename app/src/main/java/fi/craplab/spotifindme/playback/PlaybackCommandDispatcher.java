@@ -0,0 +1,371 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.model.PlaybackTransfer;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Single-threaded dispatcher for playback commands sent to the {@link SpotifyRestApi}.
+ * <p>
+ * Only the latest intended playback state matters, so instead of a queue there is a single slot
+ * for the next command, and every newly submitted command replaces whatever was waiting in there.
+ * On top of that:
+ * <ul>
+ *     <li>a command that equals the one waiting, the one in flight, or the last successful one
+ *     is dropped</li>
+ *     <li>a command that undoes the waiting one (e.g. a pause right after a transfer to the same
+ *     device) cancels both out if the result would be the already applied state</li>
+ *     <li>commands are executed one after the other, and cancelled if there is no response
+ *     within the timeout, so a stuck request can't block all following ones</li>
+ *     <li>a failed command clears the known state, so it can be retried right away</li>
+ * </ul>
+ * </p>
+ */
+public class PlaybackCommandDispatcher {
+    /** Default time to wait for a command's response before cancelling it */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Gets notified on the dispatcher thread whenever a command finished.
+     */
+    public interface Listener {
+        /**
+         * Called after a command was executed.
+         *
+         * @param command Executed command
+         * @param success {@code true} if Spotify accepted the command, {@code false} if it failed
+         *                or timed out
+         */
+        void onCommandFinished(PlaybackCommand command, boolean success);
+    }
+
+    private final SpotifyRestApi spotifyRestApi;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final long timeoutMillis;
+    private volatile Listener listener;
+
+    private final Object lock = new Object();
+    /** Next command to execute, replaced by every new submission */
+    private PlaybackCommand pending;
+    /** Command currently executed */
+    private PlaybackCommand inFlight;
+    /** Last successfully executed command, i.e. the presumed current playback state */
+    private PlaybackCommand lastApplied;
+    /** Whether the executor has a drain task scheduled or running */
+    private boolean draining;
+
+    private long submittedCount;
+    private long coalescedCount;
+    private long dedupedCount;
+    private long succeededCount;
+    private long failedCount;
+    private long timedOutCount;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    /**
+     * Creates a new dispatcher running on its own thread, with {@link #DEFAULT_TIMEOUT_MILLIS}.
+     *
+     * @param spotifyRestApi Spotify API to send the commands to
+     */
+    public PlaybackCommandDispatcher(SpotifyRestApi spotifyRestApi) {
+        this(spotifyRestApi, Executors.newSingleThreadExecutor(), true, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new dispatcher.
+     *
+     * @param spotifyRestApi Spotify API to send the commands to
+     * @param executor Executor to run the commands on, must not run tasks concurrently
+     * @param timeoutMillis Time to wait for a command's response before cancelling it
+     */
+    public PlaybackCommandDispatcher(SpotifyRestApi spotifyRestApi, Executor executor,
+                                     long timeoutMillis) {
+        this(spotifyRestApi, executor, false, timeoutMillis);
+    }
+
+    private PlaybackCommandDispatcher(SpotifyRestApi spotifyRestApi, Executor executor,
+                                      boolean ownsExecutor, long timeoutMillis) {
+        this.spotifyRestApi = spotifyRestApi;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the listener to notify about finished commands.
+     *
+     * @param listener Listener, or {@code null} to remove it
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Requests transferring the playback to the given device.
+     *
+     * @param deviceId Spotify device id
+     */
+    public void transfer(String deviceId) {
+        submit(new PlaybackCommand(PlaybackCommand.Type.TRANSFER, deviceId));
+    }
+
+    /**
+     * Requests pausing the playback on the given device.
+     *
+     * @param deviceId Spotify device id
+     */
+    public void pause(String deviceId) {
+        submit(new PlaybackCommand(PlaybackCommand.Type.PAUSE, deviceId));
+    }
+
+    /**
+     * Tells the dispatcher which device is actually active according to Spotify. If that doesn't
+     * match the last applied command (e.g. playback was moved in the Spotify app itself), the
+     * known state is cleared so the next command isn't dropped as duplicate.
+     *
+     * @param deviceId Currently active device id, or {@code null} if there is none
+     */
+    public void syncActiveDevice(String deviceId) {
+        synchronized (lock) {
+            if (lastApplied != null && !lastApplied.deviceId.equals(deviceId)) {
+                lastApplied = null;
+            }
+        }
+    }
+
+    private void submit(PlaybackCommand command) {
+        synchronized (lock) {
+            submittedCount++;
+            PlaybackCommand applied = (inFlight != null) ? inFlight : lastApplied;
+
+            if (command.equals(pending) || (pending == null && command.equals(applied))) {
+                dedupedCount++;
+                return;
+            }
+
+            if (pending != null) {
+                coalescedCount++;
+            }
+            // if this just undoes the waiting command, there's nothing left to do
+            pending = command.equals(applied) ? null : command;
+
+            if (pending != null && !draining) {
+                draining = true;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Executes waiting commands until there are none left.
+     */
+    private void drain() {
+        while (true) {
+            PlaybackCommand command;
+            synchronized (lock) {
+                command = pending;
+                pending = null;
+                if (command == null) {
+                    draining = false;
+                    return;
+                }
+                inFlight = command;
+            }
+
+            boolean success = execute(command);
+            long latency = System.nanoTime() - command.submittedAt;
+
+            synchronized (lock) {
+                inFlight = null;
+                lastApplied = success ? command : null;
+                if (success) {
+                    succeededCount++;
+                } else {
+                    failedCount++;
+                }
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            }
+
+            Listener listener = this.listener;
+            if (listener != null) {
+                listener.onCommandFinished(command, success);
+            }
+        }
+    }
+
+    /**
+     * Sends the given command to Spotify and waits for the response or the timeout.
+     *
+     * @param command Command to execute
+     * @return {@code true} if the command succeeded, {@code false} otherwise
+     */
+    private boolean execute(PlaybackCommand command) {
+        Call<ResponseBody> call;
+        if (command.type == PlaybackCommand.Type.TRANSFER) {
+            call = spotifyRestApi.transferPlayback(new PlaybackTransfer(command.deviceId));
+        } else {
+            call = spotifyRestApi.pausePlayback(command.deviceId);
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        final long[] respondedAt = new long[1];
+
+        command.dispatchedAt = System.nanoTime();
+        call.enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(@NonNull Call<ResponseBody> call,
+                                   @NonNull Response<ResponseBody> response) {
+                respondedAt[0] = System.nanoTime();
+                success[0] = response.isSuccessful();
+                ResponseBody body = response.body();
+                if (body != null) {
+                    body.close();
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<ResponseBody> call, @NonNull Throwable t) {
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                call.cancel();
+                synchronized (lock) {
+                    timedOutCount++;
+                }
+                return false;
+            }
+        } catch (InterruptedException e) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // countDown() happens-before a successful await(), so the callback's writes are visible
+        command.respondedAt = respondedAt[0];
+        return success[0];
+    }
+
+    /**
+     * Returns the number of commands waiting or in flight.
+     *
+     * @return Current queue depth, at most 2
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return (pending != null ? 1 : 0) + (inFlight != null ? 1 : 0);
+        }
+    }
+
+    /** @return Total number of submitted commands */
+    public long getSubmittedCount() {
+        synchronized (lock) {
+            return submittedCount;
+        }
+    }
+
+    /** @return Number of waiting commands replaced by a newer one before being executed */
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalescedCount;
+        }
+    }
+
+    /** @return Number of commands dropped as duplicates */
+    public long getDedupedCount() {
+        synchronized (lock) {
+            return dedupedCount;
+        }
+    }
+
+    /** @return Number of commands Spotify accepted */
+    public long getSucceededCount() {
+        synchronized (lock) {
+            return succeededCount;
+        }
+    }
+
+    /** @return Number of failed commands, including timed out ones */
+    public long getFailedCount() {
+        synchronized (lock) {
+            return failedCount;
+        }
+    }
+
+    /** @return Number of commands cancelled after the timeout */
+    public long getTimedOutCount() {
+        synchronized (lock) {
+            return timedOutCount;
+        }
+    }
+
+    /** @return Average time from submitting to finishing a command in milliseconds */
+    public double getAverageLatencyMillis() {
+        synchronized (lock) {
+            long executed = succeededCount + failedCount;
+            return executed == 0 ? 0 : totalLatencyNanos / 1e6 / executed;
+        }
+    }
+
+    /** @return Longest time from submitting to finishing a command in milliseconds */
+    public double getMaxLatencyMillis() {
+        synchronized (lock) {
+            return maxLatencyNanos / 1e6;
+        }
+    }
+
+    /**
+     * Stops the dispatcher thread if the dispatcher created its own executor.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+}
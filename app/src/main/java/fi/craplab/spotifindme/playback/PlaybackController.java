@@ -0,0 +1,317 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.latency.SwitchLatencyTracker;
+import fi.craplab.spotifindme.model.Devices;
+
+/**
+ * Process-wide owner of the Spotify playback state.
+ * <p>
+ * Keeps the latest known device list, and sends playback commands through a single
+ * {@link PlaybackCommandDispatcher}, no matter if they come from the scan service or from the
+ * user tapping a device in the UI. After each command, the {@link DeviceStatePoller} confirms the
+ * new state, and all registered {@link Listener}s are told about it.
+ * </p>
+ * <p>
+ * Commands by device name are resolved through the {@link DeviceRegistry}, so they go out right
+ * away even before the first device list arrived, if the device is known from an earlier run.
+ * Once the device list arrives, a command that went to an outdated id, or couldn't be resolved at
+ * all, is sent again to the right one.
+ * </p>
+ * <p>
+ * When a transition is expected soon, {@link #prewarm()} gets the connection and the device list
+ * ready ahead of time, see {@link Prewarmer}.
+ * </p>
+ * <p>
+ * Doesn't depend on any activity, so playback switching keeps working while the UI is gone.
+ * </p>
+ */
+public class PlaybackController {
+    /**
+     * Gets notified about device list changes. Called on a background thread.
+     */
+    public interface Listener {
+        /**
+         * Called whenever the known device list changed, either because it was received from
+         * Spotify, or because a transfer was optimistically applied to it.
+         *
+         * @param devices New device list
+         */
+        void onDevicesChanged(Devices devices);
+    }
+
+    /** Time a command waits for its device name to be resolved by the next device list */
+    static final long PENDING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Command by device name, waiting for the device list to confirm or resolve its id.
+     */
+    private static final class NameCommand {
+        final PlaybackCommand.Type type;
+        final String deviceName;
+        /** Id the command was sent to, {@code null} if it couldn't be resolved */
+        final String sentToId;
+        final long createdAt;
+
+        NameCommand(PlaybackCommand.Type type, String deviceName, String sentToId) {
+            this.type = type;
+            this.deviceName = deviceName;
+            this.sentToId = sentToId;
+            this.createdAt = System.nanoTime();
+        }
+    }
+
+    private final PlaybackCommandDispatcher dispatcher;
+    private final DeviceStatePoller poller;
+    private final DeviceRegistry registry;
+    private final AtomicReference<NameCommand> unresolved = new AtomicReference<>();
+    private final Prewarmer prewarmer = new Prewarmer();
+    private final SwitchLatencyTracker latencyTracker = new SwitchLatencyTracker();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Latest known device list, {@code null} until it was received once */
+    private volatile Devices devices;
+
+    /**
+     * Creates a new playback controller with its own dispatcher and poller threads, and a device
+     * registry that isn't persisted.
+     *
+     * @param spotifyRestApi Spotify API to control
+     */
+    public PlaybackController(SpotifyRestApi spotifyRestApi) {
+        this(spotifyRestApi, new DeviceRegistry());
+    }
+
+    /**
+     * Creates a new playback controller with its own dispatcher and poller threads.
+     *
+     * @param spotifyRestApi Spotify API to control
+     * @param registry Known devices, ideally already loaded from the last run
+     */
+    public PlaybackController(SpotifyRestApi spotifyRestApi, DeviceRegistry registry) {
+        this.registry = registry;
+        dispatcher = new PlaybackCommandDispatcher(spotifyRestApi);
+        poller = new DeviceStatePoller(spotifyRestApi, new DeviceStatePoller.Listener() {
+            @Override
+            public void onDevicesUpdated(Devices devices, boolean confirmed) {
+                if (confirmed) {
+                    latencyTracker.onConfirmed(DeviceStatePoller.getActiveDeviceId(devices),
+                            System.nanoTime());
+                }
+                updateDevices(devices);
+            }
+        });
+
+        dispatcher.setListener(new PlaybackCommandDispatcher.Listener() {
+            @Override
+            public void onCommandFinished(PlaybackCommand command, boolean success) {
+                if (success) {
+                    prewarmer.onCommandFinished(command.submittedAt,
+                            System.nanoTime() - command.submittedAt);
+                }
+                latencyTracker.onCommandFinished(command.deviceId,
+                        command.type == PlaybackCommand.Type.TRANSFER, command.dispatchedAt,
+                        command.respondedAt, success);
+                Devices current = PlaybackController.this.devices;
+                if (success && command.type == PlaybackCommand.Type.TRANSFER) {
+                    if (current != null) {
+                        updateDevices(DeviceStatePoller.withActiveDevice(current,
+                                command.deviceId));
+                    }
+                    poller.expectActive(command.deviceId);
+                } else {
+                    poller.refresh();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param listener Listener to add
+     */
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * @param listener Listener to remove
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Latest known device list, or {@code null} if it wasn't received yet
+     */
+    public Devices getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return Known devices by name and id
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return The dispatcher sending all playback commands, e.g. to read its counters
+     */
+    public PlaybackCommandDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return The pre-warmer, e.g. to read its counters
+     */
+    public Prewarmer getPrewarmer() {
+        return prewarmer;
+    }
+
+    /**
+     * @return The switch-over latency tracker, fed with the command and confirmation times
+     */
+    public SwitchLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * Requests the device list from Spotify, listeners are notified once it arrives. If a
+     * transfer is still waiting to be confirmed, its polls deliver the list instead, so showing
+     * the devices doesn't cancel that confirmation.
+     */
+    public void refreshDevices() {
+        poller.prefetch();
+    }
+
+    /**
+     * Gets ready for a playback command that is expected within the next few seconds, by
+     * prefetching the device list. That opens or keeps alive the connection to Spotify, and
+     * refreshes the device ids the command will be looked up by. Does nothing if the last
+     * pre-warm was too recent.
+     *
+     * @return {@code true} if a pre-warm was sent
+     */
+    public boolean prewarm() {
+        if (!prewarmer.tryPrewarm(System.nanoTime())) {
+            return false;
+        }
+        poller.prefetch();
+        return true;
+    }
+
+    /**
+     * Transfers playback to the device with the given id.
+     *
+     * @param deviceId Spotify device id
+     */
+    public void transferPlaybackToId(String deviceId) {
+        dispatcher.transfer(deviceId);
+    }
+
+    /**
+     * Transfers playback to the device with the given name. If the device isn't known yet, the
+     * device list is requested, and the transfer is sent once it arrives, unless that takes
+     * longer than {@link #PENDING_TIMEOUT_NANOS}.
+     *
+     * @param deviceName Spotify device name
+     * @return {@code true} if the device was known and the transfer was requested right away
+     */
+    public boolean transferPlayback(String deviceName) {
+        return submitByName(PlaybackCommand.Type.TRANSFER, deviceName);
+    }
+
+    /**
+     * Pauses playback on the device with the given name. If the device isn't known yet, the
+     * device list is requested, and the pause is sent once it arrives, unless that takes longer
+     * than {@link #PENDING_TIMEOUT_NANOS}.
+     *
+     * @param deviceName Spotify device name
+     * @return {@code true} if the device was known and the pause was requested right away
+     */
+    public boolean pausePlayback(String deviceName) {
+        return submitByName(PlaybackCommand.Type.PAUSE, deviceName);
+    }
+
+    private boolean submitByName(PlaybackCommand.Type type, String deviceName) {
+        DeviceRegistry.Entry device = registry.findByName(deviceName);
+        if (device == null) {
+            unresolved.set(new NameCommand(type, deviceName, null));
+            poller.refresh();
+            return false;
+        }
+
+        if (registry.isLive()) {
+            unresolved.set(null);
+        } else {
+            // cached from an earlier run, check the id once the device list arrives
+            unresolved.set(new NameCommand(type, deviceName, device.deviceId));
+        }
+        submit(type, deviceName, device.deviceId);
+        return true;
+    }
+
+    private void submit(PlaybackCommand.Type type, String deviceName, String deviceId) {
+        latencyTracker.bind(deviceName, deviceId);
+        if (type == PlaybackCommand.Type.TRANSFER) {
+            dispatcher.transfer(deviceId);
+        } else {
+            dispatcher.pause(deviceId);
+        }
+    }
+
+    /**
+     * Sends the waiting command by name again if the device list resolved its name to another
+     * id than it was sent to, or resolved it at all. Commands waiting for too long, or for a
+     * device that doesn't exist, are dropped.
+     */
+    private void resolveWaitingCommand() {
+        NameCommand command = unresolved.get();
+        if (command == null || !registry.isLive() || !unresolved.compareAndSet(command, null)) {
+            return;
+        }
+
+        DeviceRegistry.Entry device = registry.findByName(command.deviceName);
+        if (device != null && !device.deviceId.equals(command.sentToId)
+                && System.nanoTime() - command.createdAt < PENDING_TIMEOUT_NANOS) {
+            submit(command.type, command.deviceName, device.deviceId);
+        }
+    }
+
+    private void updateDevices(Devices devices) {
+        this.devices = devices;
+        registry.update(devices);
+        resolveWaitingCommand();
+        dispatcher.syncActiveDevice(DeviceStatePoller.getActiveDeviceId(devices));
+        for (Listener listener : listeners) {
+            listener.onDevicesChanged(devices);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.playback;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the {@link PlaybackController} pre-warms the connection to Spotify, and measures
+ * what that saves.
+ * <p>
+ * A pre-warm is a device list request sent shortly before an expected transition. That opens the
+ * HTTP/2 connection to the API host, or keeps an idle one from timing out, and refreshes the
+ * device ids, so the following playback command goes out on a hot socket without waiting for DNS,
+ * TCP and TLS setup, or for a fresh device lookup. Pre-warms are throttled to one per interval,
+ * no matter how often the transition is predicted.
+ * </p>
+ * <p>
+ * Commands submitted within the warm window after a pre-warm count as warm, all others as cold,
+ * and the difference of their average latencies is the latency saved. All times are
+ * {@link System#nanoTime()} values. Thread-safe.
+ * </p>
+ */
+public class Prewarmer {
+    /** Default minimum time between two pre-warms */
+    public static final long DEFAULT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /** Default time after a pre-warm during which the connection counts as warm */
+    public static final long DEFAULT_WARM_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final long intervalNanos;
+    private final long warmWindowNanos;
+
+    private boolean prewarmed;
+    private long lastPrewarm;
+
+    private long prewarmCount;
+    private long throttledCount;
+    private long warmCount;
+    private long coldCount;
+    private long warmLatencyNanos;
+    private long coldLatencyNanos;
+
+    /**
+     * Creates a new pre-warmer with the default interval and warm window.
+     */
+    public Prewarmer() {
+        this(DEFAULT_INTERVAL_NANOS, DEFAULT_WARM_WINDOW_NANOS);
+    }
+
+    /**
+     * Creates a new pre-warmer.
+     *
+     * @param intervalNanos Minimum time between two pre-warms
+     * @param warmWindowNanos Time after a pre-warm during which the connection counts as warm
+     */
+    public Prewarmer(long intervalNanos, long warmWindowNanos) {
+        this.intervalNanos = intervalNanos;
+        this.warmWindowNanos = warmWindowNanos;
+    }
+
+    /**
+     * Decides if a pre-warm should be sent now.
+     *
+     * @param now Current time
+     * @return {@code true} if the caller should pre-warm, {@code false} if the last pre-warm was
+     *         too recent
+     */
+    public synchronized boolean tryPrewarm(long now) {
+        if (prewarmed && now - lastPrewarm < intervalNanos) {
+            throttledCount++;
+            return false;
+        }
+        prewarmed = true;
+        lastPrewarm = now;
+        prewarmCount++;
+        return true;
+    }
+
+    /**
+     * Records the latency of a successfully executed command.
+     *
+     * @param submittedAt Time the command was submitted
+     * @param latencyNanos Time from submitting to finishing the command
+     */
+    public synchronized void onCommandFinished(long submittedAt, long latencyNanos) {
+        if (prewarmed && submittedAt - lastPrewarm < warmWindowNanos) {
+            warmCount++;
+            warmLatencyNanos += latencyNanos;
+        } else {
+            coldCount++;
+            coldLatencyNanos += latencyNanos;
+        }
+    }
+
+    /** @return Number of pre-warms sent */
+    public synchronized long getPrewarmCount() {
+        return prewarmCount;
+    }
+
+    /** @return Number of pre-warms skipped because the last one was too recent */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /** @return Number of commands sent within the warm window */
+    public synchronized long getWarmCount() {
+        return warmCount;
+    }
+
+    /** @return Number of commands sent without a recent pre-warm */
+    public synchronized long getColdCount() {
+        return coldCount;
+    }
+
+    /** @return Average latency of warm commands in milliseconds */
+    public synchronized double getAverageWarmLatencyMillis() {
+        return warmCount == 0 ? 0 : warmLatencyNanos / 1e6 / warmCount;
+    }
+
+    /** @return Average latency of cold commands in milliseconds */
+    public synchronized double getAverageColdLatencyMillis() {
+        return coldCount == 0 ? 0 : coldLatencyNanos / 1e6 / coldCount;
+    }
+
+    /**
+     * Returns the average latency saved per warm command, compared to the cold ones.
+     *
+     * @return Saved milliseconds per command, {@code 0} until there are both warm and cold ones
+     */
+    public synchronized double getSavedLatencyMillis() {
+        if (warmCount == 0 || coldCount == 0) {
+            return 0;
+        }
+        return getAverageColdLatencyMillis() - getAverageWarmLatencyMillis();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "%d pre-warms (%d throttled), %d warm commands %.1fms, %d cold %.1fms, saved %.1fms",
+                prewarmCount, throttledCount, warmCount, getAverageWarmLatencyMillis(),
+                coldCount, getAverageColdLatencyMillis(), getSavedLatencyMillis());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.beacon.BeaconStateTable;
+
+/**
+ * Estimates the position by k-nearest-neighbor RSSI fingerprinting.
+ * <p>
+ * During calibration, the RSSI of every beacon is recorded at known positions with
+ * {@link #addCalibration(double, double, int[])}. Later, the current RSSI values are compared with
+ * all calibration samples, and the position is the average of the {@link #k} closest samples'
+ * positions, weighted by how close they are. Unlike trilateration, this doesn't depend on the
+ * beacons' distance estimates, so walls and furniture that weaken the signal are part of the
+ * fingerprints instead of skewing the result.
+ * </p>
+ * <p>
+ * The number of calibration samples is capped at {@link #MAX_SAMPLES}, so the cost per estimate
+ * is bounded by {@code MAX_SAMPLES * beacons}.
+ * </p>
+ */
+public class FingerprintEstimator implements PositionEstimator {
+    /** Maximum number of calibration samples */
+    public static final int MAX_SAMPLES = 256;
+    /** Default number of neighbors averaged */
+    public static final int DEFAULT_K = 3;
+    /** RSSI used for beacons that aren't received */
+    public static final int MISSING_RSSI = -100;
+    /** Default age after which a beacon counts as not received */
+    public static final long DEFAULT_STALE_MILLIS = 5000;
+
+    private final int[] beaconKeys;
+    private final int k;
+    private final long staleMillis;
+
+    /** Calibration RSSI values, one row of {@link #beaconKeys} length per sample */
+    private final double[] samples;
+    private final double[] sampleX = new double[MAX_SAMPLES];
+    private final double[] sampleY = new double[MAX_SAMPLES];
+    private int sampleCount;
+
+    /** Current RSSI values, same order as {@link #beaconKeys} */
+    private final double[] current;
+    /** Indices and distances of the nearest samples of the current estimate */
+    private final int[] nearest;
+    private final double[] nearestDistances;
+
+    /**
+     * Creates a new estimator with the default values.
+     *
+     * @param beaconKeys Packed IDs of all beacons, defines the order of calibration RSSI values
+     */
+    public FingerprintEstimator(int... beaconKeys) {
+        this(beaconKeys, DEFAULT_K, DEFAULT_STALE_MILLIS);
+    }
+
+    /**
+     * Creates a new estimator.
+     *
+     * @param beaconKeys Packed IDs of all beacons, defines the order of calibration RSSI values
+     * @param k Number of nearest calibration samples to average
+     * @param staleMillis Age after which a beacon counts as not received
+     */
+    public FingerprintEstimator(int[] beaconKeys, int k, long staleMillis) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.beaconKeys = beaconKeys.clone();
+        this.k = k;
+        this.staleMillis = staleMillis;
+        samples = new double[MAX_SAMPLES * beaconKeys.length];
+        current = new double[beaconKeys.length];
+        nearest = new int[k];
+        nearestDistances = new double[k];
+    }
+
+    /**
+     * Adds a calibration sample.
+     *
+     * @param x X coordinate in meters the sample was recorded at
+     * @param y Y coordinate in meters the sample was recorded at
+     * @param rssi RSSI per beacon, same order as the keys passed to the constructor, use
+     *             {@link #MISSING_RSSI} for beacons that weren't received
+     */
+    public void addCalibration(double x, double y, int[] rssi) {
+        if (rssi.length != beaconKeys.length) {
+            throw new IllegalArgumentException("need one RSSI value per beacon");
+        }
+        if (sampleCount == MAX_SAMPLES) {
+            throw new IllegalStateException("too many calibration samples");
+        }
+        int base = sampleCount * beaconKeys.length;
+        for (int i = 0; i < rssi.length; i++) {
+            samples[base + i] = rssi[i];
+        }
+        sampleX[sampleCount] = x;
+        sampleY[sampleCount] = y;
+        sampleCount++;
+    }
+
+    /**
+     * @return Number of calibration samples
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public boolean estimate(BeaconStateTable states, long now, PositionEstimate result) {
+        if (sampleCount == 0) {
+            return false;
+        }
+        int received = 0;
+        for (int i = 0; i < beaconKeys.length; i++) {
+            int rssi = states.getLatestRssi(beaconKeys[i]);
+            if (rssi == BeaconStateTable.NO_RSSI
+                    || now - states.getLastSeen(beaconKeys[i]) > staleMillis) {
+                current[i] = MISSING_RSSI;
+            } else {
+                current[i] = rssi;
+                received++;
+            }
+        }
+        if (received == 0) {
+            return false;
+        }
+
+        int found = 0;
+        for (int sample = 0; sample < sampleCount; sample++) {
+            double distance = signalDistance(sample);
+            if (found == k && distance >= nearestDistances[found - 1]) {
+                continue;
+            }
+            int i = found < k ? found++ : found - 1;
+            while (i > 0 && nearestDistances[i - 1] > distance) {
+                nearest[i] = nearest[i - 1];
+                nearestDistances[i] = nearestDistances[i - 1];
+                i--;
+            }
+            nearest[i] = sample;
+            nearestDistances[i] = distance;
+        }
+
+        double x = 0;
+        double y = 0;
+        double weights = 0;
+        for (int i = 0; i < found; i++) {
+            // +1 dB so an exact match doesn't divide by zero
+            double weight = 1 / (nearestDistances[i] + 1);
+            x += weight * sampleX[nearest[i]];
+            y += weight * sampleY[nearest[i]];
+            weights += weight;
+        }
+        result.set(x / weights, y / weights, received);
+        return true;
+    }
+
+    /**
+     * @return Euclidean distance in dB between the current RSSI values and the given sample
+     */
+    private double signalDistance(int sample) {
+        int base = sample * beaconKeys.length;
+        double sum = 0;
+        for (int i = 0; i < beaconKeys.length; i++) {
+            double difference = current[i] - samples[base + i];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+}
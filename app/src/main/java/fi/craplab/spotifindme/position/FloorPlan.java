@@ -0,0 +1,132 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.craplab.spotifindme.beacon.AltBeacon;
+import fi.craplab.spotifindme.beacon.BeaconRegistry;
+
+/**
+ * The one configuration of the beacons and rooms: where each beacon is, and which Spotify device
+ * plays in which room.
+ * <p>
+ * The beacons to scan for, their locations for the position estimate, and the rooms the position
+ * is mapped to are all derived from here, so they can't get out of sync.
+ * </p>
+ */
+public class FloorPlan {
+    private final BeaconRegistry beaconRegistry;
+    private final List<BeaconLocation> beaconLocations = new ArrayList<>();
+    private final List<Room> rooms = new ArrayList<>();
+
+    /**
+     * Creates a new, empty floor plan.
+     *
+     * @param id1 ID1 all beacons share, {@link AltBeacon#ID1_LENGTH} bytes
+     */
+    public FloorPlan(byte[] id1) {
+        beaconRegistry = new BeaconRegistry(id1);
+    }
+
+    /**
+     * Creates the floor plan the app uses. All beacons have the SpotifindMe ID1 as sent by
+     * {@code tools/altbeacon_transmit.sh}, coordinates are in meters. Change the device names to
+     * the names of your own Spotify devices.
+     *
+     * @return New floor plan
+     */
+    public static FloorPlan createDefault() {
+        return new FloorPlan(AltBeacon.SPOTIFINDME_ID1)
+                .addBeacon(1, 1, 1.5, 1.5)
+                .addBeacon(1, 2, 6.0, 2.5)
+                .addRoom("Office", "Laptop", 0.0, 0.0, 3.0, 3.0)
+                .addRoom("Living room", "Desktop", 3.0, 0.0, 9.0, 5.0);
+    }
+
+    /**
+     * Adds a beacon at the given location.
+     *
+     * @param id2 ID2, beacon group
+     * @param id3 ID3, beacon unit
+     * @param x X coordinate in meters
+     * @param y Y coordinate in meters
+     * @return This floor plan
+     */
+    public FloorPlan addBeacon(int id2, int id3, double x, double y) {
+        if (beaconRegistry.get(id2, id3) != null) {
+            throw new IllegalArgumentException("beacon " + id2 + "/" + id3 + " added twice");
+        }
+        beaconRegistry.add(id2, id3);
+        beaconLocations.add(new BeaconLocation(AltBeacon.packIds(id2, id3), x, y));
+        return this;
+    }
+
+    /**
+     * Adds a rectangular room, numbered in the order they are added, starting at 1.
+     *
+     * @param name Room name, for logging
+     * @param deviceName Name of the Spotify device to play on inside the room
+     * @param minX Lower X bound in meters
+     * @param minY Lower Y bound in meters
+     * @param maxX Upper X bound in meters
+     * @param maxY Upper Y bound in meters
+     * @return This floor plan
+     */
+    public FloorPlan addRoom(String name, String deviceName, double minX, double minY,
+                             double maxX, double maxY) {
+        rooms.add(new Room(rooms.size() + 1, name, deviceName, minX, minY, maxX, maxY));
+        return this;
+    }
+
+    /**
+     * @return Registry of all beacons, to build the scan filters and look up received beacons
+     */
+    public BeaconRegistry getBeaconRegistry() {
+        return beaconRegistry;
+    }
+
+    /**
+     * @return Locations of all beacons, in the order they were added, which is also the order
+     *         of their indices in the {@link #getBeaconRegistry() registry}
+     */
+    public BeaconLocation[] getBeaconLocations() {
+        return beaconLocations.toArray(new BeaconLocation[0]);
+    }
+
+    /**
+     * @return All rooms, in the order they were added
+     */
+    public Room[] getRooms() {
+        return rooms.toArray(new Room[0]);
+    }
+
+    /**
+     * @return New room map of all rooms, with the default margins
+     */
+    public RoomMap createRoomMap() {
+        return new RoomMap(getRooms());
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.beacon.BeaconStateTable;
+
+/**
+ * Estimates the phone's position from the current beacon states.
+ * <p>
+ * Implementations have a bounded cost per estimate, independent of how long they've been running,
+ * and don't allocate, so they can run on every scan result.
+ * </p>
+ */
+public interface PositionEstimator {
+    /**
+     * Estimates the current position.
+     *
+     * @param states Latest beacon states
+     * @param now Current time in milliseconds
+     * @param result Estimate to write the position to
+     * @return {@code true} if there was enough data for an estimate
+     */
+    boolean estimate(BeaconStateTable states, long now, PositionEstimate result);
+}
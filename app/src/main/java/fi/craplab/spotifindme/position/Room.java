@@ -0,0 +1,87 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.zone.Zone;
+
+/**
+ * A rectangular room on the floor plan, and the Spotify device to play on inside of it.
+ */
+public class Room {
+    /** Room identifier, used as {@link Zone#beaconId} of the room's zone */
+    public final int id;
+    /** Name of the room, for logging */
+    public final String name;
+    /** Name of the Spotify device to play on inside this room */
+    public final String deviceName;
+    /** Lower X bound in meters */
+    public final double minX;
+    /** Lower Y bound in meters */
+    public final double minY;
+    /** Upper X bound in meters */
+    public final double maxX;
+    /** Upper Y bound in meters */
+    public final double maxY;
+
+    /**
+     * Creates a new room.
+     *
+     * @param id Room identifier
+     * @param name Room name
+     * @param deviceName Spotify device name
+     * @param minX Lower X bound in meters
+     * @param minY Lower Y bound in meters
+     * @param maxX Upper X bound in meters
+     * @param maxY Upper Y bound in meters
+     */
+    public Room(int id, String name, String deviceName, double minX, double minY, double maxX,
+                double maxY) {
+        if (maxX <= minX || maxY <= minY) {
+            throw new IllegalArgumentException("invalid room bounds");
+        }
+        this.id = id;
+        this.name = name;
+        this.deviceName = deviceName;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * @param x X coordinate in meters
+     * @param y Y coordinate in meters
+     * @return Distance in meters from the given point to the room, {@code 0} if it's inside
+     */
+    public double distanceTo(double x, double y) {
+        double dx = Math.max(0, Math.max(minX - x, x - maxX));
+        double dy = Math.max(0, Math.max(minY - y, y - maxY));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Override
+    public String toString() {
+        return "Room{" + name + " -> " + deviceName + "}";
+    }
+}
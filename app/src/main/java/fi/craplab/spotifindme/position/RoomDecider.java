@@ -0,0 +1,172 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.beacon.AltBeacon;
+import fi.craplab.spotifindme.beacon.BeaconStateTable;
+import fi.craplab.spotifindme.filter.RssiFilter;
+import fi.craplab.spotifindme.filter.RssiFilterBank;
+import fi.craplab.spotifindme.zone.Zone;
+import fi.craplab.spotifindme.zone.ZoneEngine;
+
+/**
+ * The whole room decision of a {@link FloorPlan}, from the raw beacon samples to the room the
+ * playback belongs in.
+ * <p>
+ * Each sample goes through the beacon's {@link RssiFilter} and becomes a distance in the
+ * {@link BeaconStateTable}. {@link #decide(long)} then estimates the position with a
+ * {@link TrilaterationEstimator}, maps it to the rooms with the {@link RoomMap}, and lets the
+ * {@link ZoneEngine} decide whether a new room was entered, or, once no beacon is left at all,
+ * whether the current room was left.
+ * </p>
+ * <p>
+ * The scan service and the {@code TraceSimulator} both decide through this, so a replayed trace
+ * shows what the app would have done. Doesn't depend on anything Android, all times are passed
+ * in by the caller in milliseconds from a monotonic clock. Not thread-safe.
+ * </p>
+ */
+public class RoomDecider {
+    /** {@link #decide(long)} result: nothing changed */
+    public static final int UNCHANGED = 0;
+    /** {@link #decide(long)} result: a new room was entered, see {@link #getZone()} */
+    public static final int ENTERED = 1;
+    /** {@link #decide(long)} result: the current room was left for none, see {@link #getZone()} */
+    public static final int LEFT = 2;
+
+    private final RssiFilterBank filters;
+    private final BeaconStateTable states = new BeaconStateTable();
+    private final PositionEstimator estimator;
+    private final RoomMap roomMap;
+    private final ZoneEngine zoneEngine;
+    private final PositionEstimate position = new PositionEstimate();
+
+    /** Zone of the last decision that changed something */
+    private Zone zone;
+
+    /**
+     * Creates a new room decider.
+     *
+     * @param floorPlan Beacons and rooms to decide on
+     * @param filterFactory Factory creating the RSSI filter of each beacon
+     */
+    public RoomDecider(FloorPlan floorPlan, RssiFilter.Factory filterFactory) {
+        filters = new RssiFilterBank(filterFactory);
+        estimator = new TrilaterationEstimator(floorPlan.getBeaconLocations());
+        roomMap = floorPlan.createRoomMap();
+        zoneEngine = new ZoneEngine(roomMap.createZones());
+    }
+
+    /**
+     * Adds a new sample of a beacon.
+     *
+     * @param key Beacon key, ID2 and ID3 packed into an int
+     * @param rssi Raw RSSI in dBm
+     * @param referenceRssi Reference RSSI at 1m the beacon advertised, in dBm
+     * @param now Sample timestamp in milliseconds
+     * @return Filtered RSSI of the beacon in dBm
+     */
+    public double onSample(int key, int rssi, int referenceRssi, long now) {
+        double filtered = filters.update(key, rssi);
+        states.record(key, rssi, AltBeacon.estimateDistance(filtered, referenceRssi), now);
+        return filtered;
+    }
+
+    /**
+     * Drops everything known about a beacon, e.g. because a hardware filter reported it lost.
+     *
+     * @param key Beacon key
+     */
+    public void onLost(int key) {
+        filters.reset(key);
+        states.remove(key);
+    }
+
+    /**
+     * @param key Beacon key
+     * @return Latest estimated distance to the beacon in meters, {@code NaN} if it isn't in range
+     */
+    public double getDistance(int key) {
+        return states.getLatestDistance(key);
+    }
+
+    /**
+     * Drops the beacons that weren't seen for {@link ZoneEngine#DEFAULT_STALE_MILLIS}, and
+     * re-evaluates the room decision with the remaining ones.
+     *
+     * @param now Current time in milliseconds
+     * @return {@link #ENTERED} if a new room was entered, {@link #LEFT} if no beacon is left
+     *         and the current room was left, {@link #UNCHANGED} otherwise
+     */
+    public int decide(long now) {
+        states.evictStale(now, ZoneEngine.DEFAULT_STALE_MILLIS);
+        if (states.size() == 0) {
+            Zone left = zoneEngine.leaveAll();
+            if (left == null) {
+                return UNCHANGED;
+            }
+            zone = left;
+            return LEFT;
+        }
+        if (estimator.estimate(states, now, position)) {
+            roomMap.update(zoneEngine, position, now);
+        }
+        Zone entered = zoneEngine.evaluate(now);
+        if (entered == null) {
+            return UNCHANGED;
+        }
+        zone = entered;
+        return ENTERED;
+    }
+
+    /**
+     * @return Zone of the room entered or left by the last {@link #decide(long)} that didn't
+     *         return {@link #UNCHANGED}, {@code null} before that
+     */
+    public Zone getZone() {
+        return zone;
+    }
+
+    /**
+     * @return Zone of the room the phone is currently in, {@code null} if none
+     */
+    public Zone getCurrentZone() {
+        return zoneEngine.getCurrentZone();
+    }
+
+    /**
+     * @return Zone of the room about to be entered, {@code null} if none, see
+     *         {@link ZoneEngine#getPendingZone()}
+     */
+    public Zone getPendingZone() {
+        return zoneEngine.getPendingZone();
+    }
+
+    /**
+     * @param deviceName Name of the currently active Spotify device, or {@code null} for none,
+     *                   see {@link ZoneEngine#syncToDevice(String)}
+     */
+    public void syncToDevice(String deviceName) {
+        zoneEngine.syncToDevice(deviceName);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.zone.Zone;
+import fi.craplab.spotifindme.zone.ZoneEngine;
+
+/**
+ * Maps the estimated position to rooms, and through them to Spotify devices.
+ * <p>
+ * Each room becomes a {@link Zone} for the {@link ZoneEngine}, with the distance from the
+ * position to the room as zone distance. That way the room decision gets the same hysteresis and
+ * dwell times as the plain beacon distances: a room is entered once the position is within
+ * {@link #enterMargin} of it, and only left again once it's further away than
+ * {@link #exitMargin}.
+ * </p>
+ */
+public class RoomMap {
+    /** Default distance in meters from a room within which it is entered */
+    public static final double DEFAULT_ENTER_MARGIN = 0.25;
+    /** Default distance in meters from a room beyond which it is left again */
+    public static final double DEFAULT_EXIT_MARGIN = 1.0;
+
+    private final Room[] rooms;
+    private final double enterMargin;
+    private final double exitMargin;
+
+    /**
+     * Creates a new room map with the default margins.
+     *
+     * @param rooms All rooms
+     */
+    public RoomMap(Room... rooms) {
+        this(rooms, DEFAULT_ENTER_MARGIN, DEFAULT_EXIT_MARGIN);
+    }
+
+    /**
+     * Creates a new room map.
+     *
+     * @param rooms All rooms
+     * @param enterMargin Distance in meters from a room within which it is entered
+     * @param exitMargin Distance in meters from a room beyond which it is left again
+     */
+    public RoomMap(Room[] rooms, double enterMargin, double exitMargin) {
+        this.rooms = rooms.clone();
+        this.enterMargin = enterMargin;
+        this.exitMargin = exitMargin;
+    }
+
+    /**
+     * @return One zone per room, to create the {@link ZoneEngine} with
+     */
+    public Zone[] createZones() {
+        Zone[] zones = new Zone[rooms.length];
+        for (int i = 0; i < rooms.length; i++) {
+            zones[i] = new Zone(rooms[i].id, rooms[i].deviceName, enterMargin, exitMargin);
+        }
+        return zones;
+    }
+
+    /**
+     * Feeds the distances from the given position to each room into the zone engine.
+     *
+     * @param engine Zone engine created with {@link #createZones()}
+     * @param position Estimated position
+     * @param now Current time in milliseconds
+     */
+    public void update(ZoneEngine engine, PositionEstimate position, long now) {
+        for (Room room : rooms) {
+            engine.updateBeacon(room.id, room.distanceTo(position.x, position.y), now);
+        }
+    }
+
+    /**
+     * @param x X coordinate in meters
+     * @param y Y coordinate in meters
+     * @return Room containing the given point, or {@code null} if it's in none of them
+     */
+    public Room findRoom(double x, double y) {
+        for (Room room : rooms) {
+            if (room.distanceTo(x, y) == 0) {
+                return room;
+            }
+        }
+        return null;
+    }
+}
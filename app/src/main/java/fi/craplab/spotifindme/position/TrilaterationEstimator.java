@@ -0,0 +1,180 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.position;
+
+import fi.craplab.spotifindme.beacon.BeaconStateTable;
+
+/**
+ * Estimates the position by weighted least-squares trilateration of the beacon distances.
+ * <p>
+ * The range circles are linearized against the closest beacon, and the resulting 2x2 normal
+ * equations are solved directly, with each beacon weighted by the inverse of its squared
+ * distance, as ranges get less reliable the further away the beacon is. Only the
+ * {@link #MAX_BEACONS} closest beacons are used, so the cost per estimate is bounded no matter
+ * how many beacons are configured.
+ * </p>
+ * <p>
+ * With fewer than three beacons, or beacons in a line, trilateration isn't possible, and the
+ * estimate falls back to a weighted centroid of the beacons.
+ * </p>
+ */
+public class TrilaterationEstimator implements PositionEstimator {
+    /** Maximum number of beacons used per estimate */
+    public static final int MAX_BEACONS = 8;
+    /** Default time window the beacon distances are averaged over */
+    public static final long DEFAULT_WINDOW_MILLIS = 2000;
+
+    /** Determinant below which the beacons count as collinear */
+    private static final double MIN_DETERMINANT = 1e-6;
+    /** Lower bound for distances used in weights, so a beacon right at the phone isn't infinite */
+    private static final double MIN_DISTANCE = 0.1;
+
+    private final BeaconLocation[] beacons;
+    private final long windowMillis;
+
+    /** Closest beacons of the current estimate, sorted by distance */
+    private final BeaconLocation[] selected = new BeaconLocation[MAX_BEACONS];
+    private final double[] selectedDistances = new double[MAX_BEACONS];
+
+    /**
+     * Creates a new estimator averaging the distances over {@link #DEFAULT_WINDOW_MILLIS}.
+     *
+     * @param beacons Locations of all beacons
+     */
+    public TrilaterationEstimator(BeaconLocation... beacons) {
+        this(beacons, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Creates a new estimator.
+     *
+     * @param beacons Locations of all beacons
+     * @param windowMillis Time window the beacon distances are averaged over
+     */
+    public TrilaterationEstimator(BeaconLocation[] beacons, long windowMillis) {
+        this.beacons = beacons.clone();
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    public boolean estimate(BeaconStateTable states, long now, PositionEstimate result) {
+        int count = selectClosest(states, now);
+        if (count == 0) {
+            return false;
+        }
+        if (count < 3 || !solve(count, result)) {
+            centroid(count, result);
+        }
+        return true;
+    }
+
+    /**
+     * Picks the closest beacons with a recent distance into {@link #selected}.
+     *
+     * @return Number of selected beacons
+     */
+    private int selectClosest(BeaconStateTable states, long now) {
+        int count = 0;
+        for (BeaconLocation beacon : beacons) {
+            double distance = states.getMeanDistance(beacon.key, now, windowMillis);
+            if (Double.isNaN(distance) || distance < 0) {
+                continue;
+            }
+            if (count == MAX_BEACONS && distance >= selectedDistances[count - 1]) {
+                continue;
+            }
+            // insertion into the sorted selection, dropping the furthest one if full
+            int i = count < MAX_BEACONS ? count++ : count - 1;
+            while (i > 0 && selectedDistances[i - 1] > distance) {
+                selected[i] = selected[i - 1];
+                selectedDistances[i] = selectedDistances[i - 1];
+                i--;
+            }
+            selected[i] = beacon;
+            selectedDistances[i] = distance;
+        }
+        return count;
+    }
+
+    /**
+     * Solves the linearized weighted least-squares problem, relative to the closest beacon.
+     *
+     * @return {@code false} if the beacons are collinear
+     */
+    private boolean solve(int count, PositionEstimate result) {
+        BeaconLocation reference = selected[0];
+        double referenceDistance = selectedDistances[0];
+        double ata11 = 0;
+        double ata12 = 0;
+        double ata22 = 0;
+        double atb1 = 0;
+        double atb2 = 0;
+
+        for (int i = 1; i < count; i++) {
+            BeaconLocation beacon = selected[i];
+            double distance = selectedDistances[i];
+            double a1 = 2 * (beacon.x - reference.x);
+            double a2 = 2 * (beacon.y - reference.y);
+            double b = referenceDistance * referenceDistance - distance * distance
+                    + beacon.x * beacon.x - reference.x * reference.x
+                    + beacon.y * beacon.y - reference.y * reference.y;
+            double weight = 1 / square(Math.max(distance, MIN_DISTANCE));
+
+            ata11 += weight * a1 * a1;
+            ata12 += weight * a1 * a2;
+            ata22 += weight * a2 * a2;
+            atb1 += weight * a1 * b;
+            atb2 += weight * a2 * b;
+        }
+
+        double determinant = ata11 * ata22 - ata12 * ata12;
+        if (Math.abs(determinant) < MIN_DETERMINANT) {
+            return false;
+        }
+        result.set((ata22 * atb1 - ata12 * atb2) / determinant,
+                (ata11 * atb2 - ata12 * atb1) / determinant,
+                count);
+        return true;
+    }
+
+    /**
+     * Weighted centroid of the selected beacons, closer beacons pulling harder.
+     */
+    private void centroid(int count, PositionEstimate result) {
+        double x = 0;
+        double y = 0;
+        double weights = 0;
+        for (int i = 0; i < count; i++) {
+            double weight = 1 / square(Math.max(selectedDistances[i], MIN_DISTANCE));
+            x += weight * selected[i].x;
+            y += weight * selected[i].y;
+            weights += weight;
+        }
+        result.set(x / weights, y / weights, count);
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.scan;
+
+import java.util.Arrays;
+
+/**
+ * Decides whether the phone is moving or stationary, based on how much the filtered RSSI of the
+ * scanned devices changes.
+ * <p>
+ * If the filtered values of any one device within the last {@link #windowMillis} spread by at
+ * least {@link #movingSpread} dB, the phone is considered {@link ScanProfile#MOVING}. Each device
+ * has its own window, as the signals of two devices at different distances differ by more than
+ * the spread without the phone moving at all. It only counts as
+ * {@link ScanProfile#STATIONARY} again after no such movement was seen for
+ * {@link #stationaryAfterMillis}, so the scan settings don't get restarted on every small change.
+ * </p>
+ * <p>
+ * Doesn't depend on anything Android, all times are passed in by the caller in milliseconds from
+ * a monotonic clock. The devices are identified by a dense index, such as the beacon's registry
+ * index. Each window is kept in a primitive ring buffer, so adding a value doesn't allocate once
+ * the buffer grew to fit the window. Not thread-safe.
+ * </p>
+ */
+public class MotionClassifier {
+    /** Default time window the RSSI spread is measured over */
+    public static final long DEFAULT_WINDOW_MILLIS = 10000;
+    /** Default RSSI spread in dB that counts as movement */
+    public static final double DEFAULT_MOVING_SPREAD = 6.0;
+    /** Default time without movement after which the phone counts as stationary */
+    public static final long DEFAULT_STATIONARY_AFTER_MILLIS = 30000;
+
+    private final long windowMillis;
+    private final double movingSpread;
+    private final long stationaryAfterMillis;
+
+    /** Initial capacity of a ring buffer, it grows if the window holds more values */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Window of each device, by device index, {@code null} until its first value */
+    private Window[] windows = new Window[4];
+
+    private ScanProfile profile = ScanProfile.MOVING;
+    private double mean = Double.NaN;
+    private double variance = Double.NaN;
+    /** Time of the last detected movement, {@link Long#MIN_VALUE} before the first sample */
+    private long lastMovement = Long.MIN_VALUE;
+
+    /**
+     * Creates a new motion classifier with the default values.
+     */
+    public MotionClassifier() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_MOVING_SPREAD, DEFAULT_STATIONARY_AFTER_MILLIS);
+    }
+
+    /**
+     * Creates a new motion classifier.
+     *
+     * @param windowMillis Time window the RSSI spread is measured over
+     * @param movingSpread RSSI spread in dB within the window that counts as movement
+     * @param stationaryAfterMillis Time without movement after which the phone is stationary
+     */
+    public MotionClassifier(long windowMillis, double movingSpread, long stationaryAfterMillis) {
+        this.windowMillis = windowMillis;
+        this.movingSpread = movingSpread;
+        this.stationaryAfterMillis = stationaryAfterMillis;
+    }
+
+    /**
+     * Adds a new filtered RSSI value of a device.
+     *
+     * @param device Index of the device, {@code 0} or larger
+     * @param rssi Filtered RSSI in dBm
+     * @param now Sample timestamp in milliseconds
+     * @return Profile the scanner should use now
+     */
+    public ScanProfile update(int device, double rssi, long now) {
+        if (lastMovement == Long.MIN_VALUE) {
+            lastMovement = now;
+        }
+        if (device >= windows.length) {
+            windows = Arrays.copyOf(windows, Math.max(windows.length * 2, device + 1));
+        }
+        Window window = windows[device];
+        if (window == null) {
+            window = new Window();
+            windows[device] = window;
+        }
+        window.add(rssi, now, windowMillis);
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < window.count; i++) {
+            double value = window.values[(window.head + i) % window.values.length];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            sumSquares += value * value;
+        }
+        mean = sum / window.count;
+        variance = Math.max(0, sumSquares / window.count - mean * mean);
+
+        if (max - min >= movingSpread) {
+            reportMovement(now);
+        } else if (profile == ScanProfile.MOVING && now - lastMovement >= stationaryAfterMillis) {
+            profile = ScanProfile.STATIONARY;
+        }
+        return profile;
+    }
+
+    /**
+     * Marks the phone as moving right away, e.g. because a device appeared or disappeared.
+     *
+     * @param now Current time in milliseconds
+     */
+    public void reportMovement(long now) {
+        profile = ScanProfile.MOVING;
+        lastMovement = now;
+    }
+
+    /**
+     * @return {@code true} if the phone currently counts as moving
+     */
+    public boolean isMoving() {
+        return profile == ScanProfile.MOVING;
+    }
+
+    /**
+     * @return Profile the scanner should currently use, either {@link ScanProfile#MOVING} or
+     * {@link ScanProfile#STATIONARY}
+     */
+    public ScanProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return Mean of the filtered RSSI values within the window of the device updated last,
+     * {@code NaN} without samples
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return Variance of the filtered RSSI values within the window of the device updated last,
+     * {@code NaN} without samples
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * Filtered RSSI values of one device within the window, oldest first.
+     */
+    private static class Window {
+        /** Timestamps of the values, ring buffer starting at {@link #head} */
+        private long[] times = new long[INITIAL_CAPACITY];
+        /** Filtered RSSI values, ring buffer starting at {@link #head} */
+        private double[] values = new double[INITIAL_CAPACITY];
+        /** Index of the oldest value in the ring buffer */
+        private int head;
+        /** Number of values in the ring buffer */
+        private int count;
+
+        /**
+         * Drops the values that left the window, and adds the new one.
+         *
+         * @param rssi Filtered RSSI in dBm
+         * @param now Sample timestamp in milliseconds
+         * @param windowMillis Time window to keep the values for
+         */
+        void add(double rssi, long now, long windowMillis) {
+            while (count > 0 && now - times[head] > windowMillis) {
+                head = (head + 1) % times.length;
+                count--;
+            }
+            if (count == times.length) {
+                grow();
+            }
+            int tail = (head + count) % times.length;
+            times[tail] = now;
+            values[tail] = rssi;
+            count++;
+        }
+
+        /**
+         * Doubles the ring buffer's capacity, moving the oldest value to the start.
+         */
+        private void grow() {
+            long[] newTimes = new long[times.length * 2];
+            double[] newValues = new double[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                newTimes[i] = times[(head + i) % times.length];
+                newValues[i] = values[(head + i) % values.length];
+            }
+            times = newTimes;
+            values = newValues;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.scan;
+
+import android.bluetooth.le.ScanSettings;
+
+/**
+ * BLE scan configurations the scan service switches between at runtime.
+ * <p>
+ * Near a zone boundary and while the phone is moving, every advertisement is reported right away
+ * so room changes are picked up quickly. Once the signals have been stable for a while, results
+ * are batched in the Bluetooth controller and delivered every {@link #reportDelayMillis}, so the
+ * CPU only wakes up once per batch instead of once per advertisement. With the screen off, the
+ * scanner is additionally duty-cycled, i.e. it runs for {@link #onMillis} and then pauses for
+ * {@link #offMillis}.
+ * </p>
+ *
+ * @see ScanScheduler
+ */
+public enum ScanProfile {
+    /** Close to a found/lost threshold, scanning at the highest rate */
+    BOUNDARY(ScanSettings.SCAN_MODE_LOW_LATENCY, 0, 0, 0),
+    /** Signals changing, each result reported individually */
+    MOVING(ScanSettings.SCAN_MODE_BALANCED, 0, 0, 0),
+    /** Signals stable, results batched in hardware */
+    STATIONARY(ScanSettings.SCAN_MODE_LOW_POWER, 5000, 0, 0),
+    /** Signals stable and screen off, batched and duty-cycled */
+    IDLE(ScanSettings.SCAN_MODE_LOW_POWER, 5000, 10000, 20000);
+
+    /** One of the {@code ScanSettings.SCAN_MODE_*} values */
+    public final int scanMode;
+    /** Batch report delay, {@code 0} to report each result right away */
+    public final long reportDelayMillis;
+    /** Time the scanner runs per duty cycle, only used if {@link #offMillis} is set */
+    public final long onMillis;
+    /** Time the scanner pauses per duty cycle, {@code 0} to scan continuously */
+    public final long offMillis;
+
+    ScanProfile(int scanMode, long reportDelayMillis, long onMillis, long offMillis) {
+        this.scanMode = scanMode;
+        this.reportDelayMillis = reportDelayMillis;
+        this.onMillis = onMillis;
+        this.offMillis = offMillis;
+    }
+
+    /**
+     * @return {@code true} if the scanner pauses periodically with this profile
+     */
+    public boolean isDutyCycled() {
+        return offMillis > 0;
+    }
+}
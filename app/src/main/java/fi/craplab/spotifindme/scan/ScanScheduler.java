@@ -0,0 +1,324 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.scan;
+
+/**
+ * Decides how hard the BLE scanner has to work, and starts and stops it accordingly.
+ * <p>
+ * The profile is picked from the recent filtered RSSI values, the time since the last found/lost
+ * transition, and the screen state:
+ * <ul>
+ *     <li>while the signals change or a transition just happened, the scanner runs continuously,
+ *     at {@link ScanProfile#BOUNDARY} if the RSSI is within reach of the found/lost threshold,
+ *     otherwise at {@link ScanProfile#MOVING}</li>
+ *     <li>once the signals have been stable, results are batched with
+ *     {@link ScanProfile#STATIONARY}, or with the screen off additionally duty-cycled with
+ *     {@link ScanProfile#IDLE}</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Android silently drops scans of apps starting more than {@link #MAX_STARTS} scans within
+ * {@link #START_WINDOW_MILLIS}, so every start, be it for a new duty cycle or a profile change,
+ * is counted, and deferred once the budget is used up. One start is always kept in reserve.
+ * </p>
+ * <p>
+ * The scheduler has no timers of its own. The caller passes in samples and state changes, and
+ * calls {@link #update(long)} at the latest at the time it returns. All times are milliseconds from
+ * a monotonic clock. Not thread-safe.
+ * </p>
+ */
+public class ScanScheduler {
+    /**
+     * The actual scanner controlled by the scheduler.
+     */
+    public interface Scanner {
+        /**
+         * Starts scanning with the given profile.
+         *
+         * @param profile Profile to scan with
+         */
+        void startScan(ScanProfile profile);
+
+        /**
+         * Stops scanning.
+         */
+        void stopScan();
+    }
+
+    /** Number of scan starts Android allows within {@link #START_WINDOW_MILLIS} */
+    public static final int MAX_STARTS = 5;
+    /** Window the scan starts are counted in */
+    public static final long START_WINDOW_MILLIS = 30000;
+    /** Default distance in dB to the found/lost threshold that counts as being at the boundary */
+    public static final double DEFAULT_BOUNDARY_MARGIN = 4.0;
+    /** Default time the scanner keeps running continuously after a found/lost transition */
+    public static final long DEFAULT_TRANSITION_HOLD_MILLIS = 20000;
+    /** Maximum time between two updates, so time based state changes get picked up */
+    public static final long REEVALUATE_MILLIS = 5000;
+    /** Age after which the last sample isn't used for the boundary decision anymore */
+    static final long SAMPLE_STALE_MILLIS = 30000;
+
+    private final Scanner scanner;
+    private final MotionClassifier motionClassifier;
+    private final double threshold;
+    private final double boundaryMargin;
+    private final long transitionHoldMillis;
+
+    /** Times of the most recent scan starts, {@link #nextStart} points at the oldest one */
+    private final long[] startTimes = new long[MAX_STARTS - 1];
+    private int nextStart;
+    private int startCount;
+
+    /** Profile of the current or, if paused, the last scan, {@code null} before the first scan */
+    private ScanProfile profile;
+    private boolean scanning;
+    private boolean stopped;
+    /** Time the current scan or pause started */
+    private long phaseSince;
+    /** Time a deferred start becomes possible again, {@code 0} if nothing is deferred */
+    private long deferredUntil;
+
+    private boolean screenOn = true;
+    private long lastTransition = Long.MIN_VALUE;
+    private double lastRssi = Double.NaN;
+    private long lastSampleAt;
+
+    private long scanningMillis;
+    private int deferredCount;
+
+    /**
+     * Creates a new scan scheduler with the default values.
+     *
+     * @param scanner Scanner to control
+     * @param threshold Filtered RSSI threshold in dBm at which a device counts as found
+     */
+    public ScanScheduler(Scanner scanner, double threshold) {
+        this(scanner, new MotionClassifier(), threshold, DEFAULT_BOUNDARY_MARGIN,
+                DEFAULT_TRANSITION_HOLD_MILLIS);
+    }
+
+    /**
+     * Creates a new scan scheduler.
+     *
+     * @param scanner Scanner to control
+     * @param motionClassifier Classifier deciding if the signals are stable
+     * @param threshold Filtered RSSI threshold in dBm at which a device counts as found
+     * @param boundaryMargin Distance to the threshold in dB that counts as being at the boundary,
+     *                       widened by twice the standard deviation of the recent RSSI values
+     * @param transitionHoldMillis Time to scan continuously after a found/lost transition
+     */
+    public ScanScheduler(Scanner scanner, MotionClassifier motionClassifier, double threshold,
+                         double boundaryMargin, long transitionHoldMillis) {
+        this.scanner = scanner;
+        this.motionClassifier = motionClassifier;
+        this.threshold = threshold;
+        this.boundaryMargin = boundaryMargin;
+        this.transitionHoldMillis = transitionHoldMillis;
+    }
+
+    /**
+     * Adds a new filtered RSSI value of a device.
+     *
+     * @param device Index of the device, {@code 0} or larger
+     * @param rssi Filtered RSSI in dBm
+     * @param now Sample timestamp
+     */
+    public void onSample(int device, double rssi, long now) {
+        if (Double.isNaN(rssi)) {
+            return;
+        }
+        motionClassifier.update(device, rssi, now);
+        lastRssi = rssi;
+        lastSampleAt = now;
+    }
+
+    /**
+     * Tells the scheduler a device was found or lost.
+     *
+     * @param now Current time
+     */
+    public void onTransition(long now) {
+        lastTransition = now;
+        motionClassifier.reportMovement(now);
+    }
+
+    /**
+     * Tells the scheduler the signals changed in some other way than through the samples, e.g.
+     * because the hardware filter reported a device appearing or disappearing.
+     *
+     * @param now Current time
+     */
+    public void reportMovement(long now) {
+        motionClassifier.reportMovement(now);
+    }
+
+    /**
+     * @param screenOn {@code true} if the screen is on
+     */
+    public void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+    }
+
+    /**
+     * Starts, stops or restarts the scanner as needed.
+     *
+     * @param now Current time
+     * @return Time at which this has to be called again at the latest
+     */
+    public long update(long now) {
+        if (stopped) {
+            return Long.MAX_VALUE;
+        }
+        ScanProfile wanted = selectProfile(now);
+        deferredUntil = 0;
+
+        if (scanning) {
+            if (wanted != profile) {
+                if (tryStart(now)) {
+                    stopScan(now);
+                    startScan(wanted, now);
+                }
+            } else if (profile.isDutyCycled() && now - phaseSince >= profile.onMillis) {
+                stopScan(now);
+            }
+        } else {
+            boolean paused = profile == wanted && profile.isDutyCycled()
+                    && now - phaseSince < profile.offMillis;
+            if (!paused && tryStart(now)) {
+                startScan(wanted, now);
+            }
+        }
+        return nextUpdate(now);
+    }
+
+    /**
+     * Stops the scanner for good.
+     *
+     * @param now Current time
+     */
+    public void shutdown(long now) {
+        if (scanning) {
+            stopScan(now);
+        }
+        stopped = true;
+    }
+
+    /**
+     * @param now Current time
+     * @return Profile that fits the current situation best
+     */
+    ScanProfile selectProfile(long now) {
+        boolean recentTransition = lastTransition != Long.MIN_VALUE
+                && now - lastTransition < transitionHoldMillis;
+        if (motionClassifier.isMoving() || recentTransition) {
+            return isNearBoundary(now) ? ScanProfile.BOUNDARY : ScanProfile.MOVING;
+        }
+        return screenOn ? ScanProfile.STATIONARY : ScanProfile.IDLE;
+    }
+
+    private boolean isNearBoundary(long now) {
+        if (Double.isNaN(lastRssi) || now - lastSampleAt > SAMPLE_STALE_MILLIS) {
+            return false;
+        }
+        double variance = motionClassifier.getVariance();
+        double margin = boundaryMargin + (Double.isNaN(variance) ? 0 : 2 * Math.sqrt(variance));
+        return Math.abs(lastRssi - threshold) <= margin;
+    }
+
+    /**
+     * Checks the scan start budget, and takes a start from it if there's one left.
+     *
+     * @param now Current time
+     * @return {@code true} if the scanner may be started now
+     */
+    private boolean tryStart(long now) {
+        if (startCount == startTimes.length) {
+            long allowedAt = startTimes[nextStart] + START_WINDOW_MILLIS;
+            if (now < allowedAt) {
+                deferredUntil = allowedAt;
+                deferredCount++;
+                return false;
+            }
+        } else {
+            startCount++;
+        }
+        startTimes[nextStart] = now;
+        nextStart = (nextStart + 1) % startTimes.length;
+        return true;
+    }
+
+    private void startScan(ScanProfile profile, long now) {
+        this.profile = profile;
+        scanning = true;
+        phaseSince = now;
+        scanner.startScan(profile);
+    }
+
+    private void stopScan(long now) {
+        scanningMillis += now - phaseSince;
+        scanning = false;
+        phaseSince = now;
+        scanner.stopScan();
+    }
+
+    private long nextUpdate(long now) {
+        long next = now + REEVALUATE_MILLIS;
+        if (profile != null && profile.isDutyCycled()) {
+            next = Math.min(next, phaseSince + (scanning ? profile.onMillis : profile.offMillis));
+        }
+        if (deferredUntil > 0) {
+            next = Math.min(next, deferredUntil);
+        }
+        return Math.max(next, now + 1);
+    }
+
+    /**
+     * @return Profile of the current or last scan, {@code null} before the first scan
+     */
+    public ScanProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return {@code true} if the scanner is currently running
+     */
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    /**
+     * @param now Current time
+     * @return Total time the scanner has been running
+     */
+    public long getScanningMillis(long now) {
+        return scanningMillis + (scanning ? now - phaseSince : 0);
+    }
+
+    /**
+     * @return Number of starts that had to be deferred to stay within the start rate limit
+     */
+    public int getDeferredCount() {
+        return deferredCount;
+    }
+}
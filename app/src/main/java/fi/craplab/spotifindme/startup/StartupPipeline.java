@@ -0,0 +1,262 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.startup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Staged application startup.
+ * <p>
+ * Each initialization task is added to one of the {@link Stage}s. On {@link #start()}, the
+ * {@link Stage#CRITICAL} tasks run right away on the calling thread, and all
+ * {@link Stage#BACKGROUND} tasks are handed to the background executor to run in parallel. The
+ * {@link Stage#DEFERRED} tasks wait until the first activity drew its first frame, see
+ * {@link #onFirstFrame()}, so they don't compete with it at all.
+ * </p>
+ * <p>
+ * Code that can't go on without a background task, e.g. inflating a layout with icons, calls
+ * {@link #await(String)}. If the executor didn't get to the task yet, it runs right there on the
+ * calling thread instead of waiting in line.
+ * </p>
+ * <p>
+ * The start and duration of every task, as well as the first frame, are recorded relative to the
+ * pipeline's creation, see {@link #getTimings()}.
+ * </p>
+ */
+public class StartupPipeline {
+    /**
+     * When a task runs.
+     */
+    public enum Stage {
+        /** On the calling thread during {@link #start()}, before anything else */
+        CRITICAL,
+        /** In parallel on the background executor, right after {@link #start()} */
+        BACKGROUND,
+        /** On the background executor after the first frame */
+        DEFERRED
+    }
+
+    /** Name of the timing recorded by {@link #onFirstFrame()} */
+    public static final String FIRST_FRAME = "first frame";
+
+    /**
+     * Recorded timing of a task, or of the first frame.
+     */
+    public static class Timing {
+        /** Task name */
+        public final String name;
+        /** Stage the task ran in, {@code null} for the first frame */
+        public final Stage stage;
+        /** Start in nanoseconds since the pipeline was created */
+        public final long startNanos;
+        /** Duration in nanoseconds, {@code 0} for the first frame */
+        public final long durationNanos;
+        /** Name of the thread the task ran on */
+        public final String thread;
+
+        Timing(String name, Stage stage, long startNanos, long durationNanos, String thread) {
+            this.name = name;
+            this.stage = stage;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.thread = thread;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-20s %-10s %8.1f ms +%7.1f ms  %s", name,
+                    stage != null ? stage : "", startNanos / 1e6, durationNanos / 1e6, thread);
+        }
+    }
+
+    private final Executor executor;
+    private final long originNanos;
+    private final Map<String, FutureTask<Void>> tasks = new LinkedHashMap<>();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final List<Timing> timings = new CopyOnWriteArrayList<>();
+
+    private boolean started;
+    private boolean firstFrame;
+
+    /**
+     * Creates a new, empty startup pipeline. Timings are relative to this call.
+     *
+     * @param executor Executor for the background and deferred tasks, should run them in parallel
+     */
+    public StartupPipeline(Executor executor) {
+        this.executor = executor;
+        this.originNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds a task. All tasks have to be added before {@link #start()}.
+     *
+     * @param stage Stage to run the task in
+     * @param name Unique task name, used for {@link #await(String)} and the timings
+     * @param task Task to run
+     * @return This pipeline
+     */
+    public synchronized StartupPipeline add(final Stage stage, final String name,
+                                            final Runnable task) {
+        if (started) {
+            throw new IllegalStateException("already started");
+        }
+        if (tasks.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate task " + name);
+        }
+        tasks.put(name, new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    timings.add(new Timing(name, stage, start - originNanos,
+                            System.nanoTime() - start, Thread.currentThread().getName()));
+                }
+                return null;
+            }
+        }));
+        stages.put(name, stage);
+        return this;
+    }
+
+    /**
+     * Runs the critical tasks, and starts the background tasks. Call once from
+     * {@code Application.onCreate()}.
+     */
+    public void start() {
+        List<FutureTask<Void>> critical = new ArrayList<>();
+        List<FutureTask<Void>> background = new ArrayList<>();
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("already started");
+            }
+            started = true;
+            for (Map.Entry<String, FutureTask<Void>> entry : tasks.entrySet()) {
+                Stage stage = stages.get(entry.getKey());
+                if (stage == Stage.CRITICAL) {
+                    critical.add(entry.getValue());
+                } else if (stage == Stage.BACKGROUND) {
+                    background.add(entry.getValue());
+                }
+            }
+        }
+
+        for (FutureTask<Void> task : critical) {
+            task.run();
+            rethrow(task);
+        }
+        for (FutureTask<Void> task : background) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Blocks until the given task finished. Runs it on the calling thread if it didn't start yet,
+     * also if it's a deferred task.
+     *
+     * @param name Task name
+     * @throws IllegalArgumentException if there's no such task
+     * @throws IllegalStateException if the task failed
+     */
+    public void await(String name) {
+        FutureTask<Void> task;
+        synchronized (this) {
+            task = tasks.get(name);
+        }
+        if (task == null) {
+            throw new IllegalArgumentException("no task " + name);
+        }
+        // does nothing if it's already running or done
+        task.run();
+        rethrow(task);
+    }
+
+    /**
+     * Records the first frame, and starts the deferred tasks. Only the first call counts, so every
+     * activity can call it once it drew its first frame.
+     */
+    public void onFirstFrame() {
+        List<FutureTask<Void>> deferred = new ArrayList<>();
+        synchronized (this) {
+            if (firstFrame || !started) {
+                return;
+            }
+            firstFrame = true;
+            timings.add(new Timing(FIRST_FRAME, null, System.nanoTime() - originNanos, 0,
+                    Thread.currentThread().getName()));
+            for (Map.Entry<String, FutureTask<Void>> entry : tasks.entrySet()) {
+                if (stages.get(entry.getKey()) == Stage.DEFERRED) {
+                    deferred.add(entry.getValue());
+                }
+            }
+        }
+        for (FutureTask<Void> task : deferred) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * @return Timings recorded so far, in order of completion
+     */
+    public List<Timing> getTimings() {
+        return new ArrayList<>(timings);
+    }
+
+    /**
+     * Looks up the recorded timing of a task.
+     *
+     * @param name Task name, or {@link #FIRST_FRAME}
+     * @return Timing, or {@code null} if the task didn't finish yet
+     */
+    public Timing getTiming(String name) {
+        for (Timing timing : timings) {
+            if (timing.name.equals(name)) {
+                return timing;
+            }
+        }
+        return null;
+    }
+
+    private static void rethrow(FutureTask<Void> task) {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("startup task failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for startup task", e);
+        }
+    }
+}
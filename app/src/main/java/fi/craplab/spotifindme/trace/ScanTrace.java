@@ -0,0 +1,75 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.trace;
+
+/**
+ * Binary scan trace format.
+ * <p>
+ * A trace starts with an {@link #HEADER_SIZE} byte header, followed by fixed-width records of
+ * {@link #RECORD_SIZE} bytes each, all big endian:
+ * <pre>
+ *  header  offset  length  content
+ *               0       4  magic "SFTR"
+ *               4       2  format version, {@link #VERSION}
+ *               6       2  record size, {@link #RECORD_SIZE}
+ *
+ *  record  offset  length  content
+ *               0       8  timestamp in milliseconds, monotonic clock
+ *               8       4  beacon key, packed ID2 and ID3
+ *              12       2  RSSI in dBm, signed
+ *              14       1  record type, one of the TYPE_* values
+ *              15       1  reference RSSI at 1m the beacon advertised in dBm, signed
+ * </pre>
+ * A trace cut short by a crash simply ends with the last complete record.
+ * </p>
+ */
+public final class ScanTrace {
+    /** Magic bytes at the start of each trace */
+    static final int MAGIC = 'S' << 24 | 'F' << 16 | 'T' << 8 | 'R';
+    /** Current format version */
+    public static final int VERSION = 2;
+    /** Header size in bytes */
+    public static final int HEADER_SIZE = 8;
+    /** Record size in bytes */
+    public static final int RECORD_SIZE = 16;
+
+    /** Regular scan result, {@code ScanSettings.CALLBACK_TYPE_ALL_MATCHES} */
+    public static final int TYPE_SAMPLE = 1;
+    /** First match of a hardware filter, {@code ScanSettings.CALLBACK_TYPE_FIRST_MATCH} */
+    public static final int TYPE_FIRST_MATCH = 2;
+    /** Beacon lost by a hardware filter, {@code ScanSettings.CALLBACK_TYPE_MATCH_LOST} */
+    public static final int TYPE_MATCH_LOST = 4;
+    /**
+     * Ground truth marker, the id of the room the phone actually is in from now on, see
+     * {@code Room#id}, or {@link #KEY_NONE} if it's in none. Added by hand while recording, to
+     * measure the decision against. Takes the place of the beacon key.
+     */
+    public static final int TYPE_TRUTH = 0x80;
+
+    /** Key of a {@link #TYPE_TRUTH} record when the phone isn't in any room */
+    public static final int KEY_NONE = -1;
+
+    private ScanTrace() {
+    }
+}
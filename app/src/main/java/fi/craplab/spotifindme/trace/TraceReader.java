@@ -0,0 +1,150 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a binary {@link ScanTrace} record by record.
+ * <p>
+ * The current record is decoded into the fields of the reader, so reading a trace doesn't
+ * allocate anything per record. Not thread-safe.
+ * </p>
+ */
+public class TraceReader implements Closeable {
+    private static final int BUFFER_RECORDS = 512;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * ScanTrace.RECORD_SIZE);
+    private boolean endOfChannel;
+
+    private long timestamp;
+    private int key;
+    private int rssi;
+    private int type;
+    private int referenceRssi;
+
+    /**
+     * Creates a new trace reader, and reads and checks the trace header.
+     *
+     * @param channel Channel to read the trace from
+     * @throws IOException if reading failed, or the data isn't a trace of a supported version
+     */
+    public TraceReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.limit(0);
+        if (!fill(ScanTrace.HEADER_SIZE)) {
+            throw new IOException("trace header missing");
+        }
+        if (buffer.getInt() != ScanTrace.MAGIC) {
+            throw new IOException("not a scan trace");
+        }
+        int version = buffer.getShort();
+        int recordSize = buffer.getShort();
+        if (version != ScanTrace.VERSION || recordSize != ScanTrace.RECORD_SIZE) {
+            throw new IOException("unsupported trace version " + version
+                    + " with record size " + recordSize);
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return {@code true} if there was another complete record
+     * @throws IOException if reading failed
+     */
+    public boolean next() throws IOException {
+        if (!fill(ScanTrace.RECORD_SIZE)) {
+            return false;
+        }
+        timestamp = buffer.getLong();
+        key = buffer.getInt();
+        rssi = buffer.getShort();
+        type = buffer.get() & 0xff;
+        referenceRssi = buffer.get();
+        return true;
+    }
+
+    /**
+     * Makes sure the given number of bytes is in the buffer.
+     *
+     * @return {@code false} if the channel ended before
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes && !endOfChannel) {
+            if (channel.read(buffer) < 0) {
+                endOfChannel = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * @return Timestamp of the current record in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Beacon key of the current record, or room id of a {@link ScanTrace#TYPE_TRUTH}
+     */
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * @return RSSI of the current record in dBm
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * @return Reference RSSI at 1m of the current record in dBm
+     */
+    public int getReferenceRssi() {
+        return referenceRssi;
+    }
+
+    /**
+     * @return Type of the current record, one of the {@code ScanTrace.TYPE_*} values
+     */
+    public int getType() {
+        return type;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
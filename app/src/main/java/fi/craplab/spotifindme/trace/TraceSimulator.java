@@ -0,0 +1,229 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.trace;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import fi.craplab.spotifindme.filter.KalmanRssiFilter;
+import fi.craplab.spotifindme.filter.RssiFilter;
+import fi.craplab.spotifindme.position.FloorPlan;
+import fi.craplab.spotifindme.position.RoomDecider;
+import fi.craplab.spotifindme.zone.Zone;
+
+/**
+ * Replays a recorded {@link ScanTrace} through the same {@link RoomDecider} the scan service
+ * decides with, as fast as it can, and reports how the decision did.
+ * <p>
+ * The records' own timestamps are the clock, so a trace of an hour replays in milliseconds, and
+ * the results are the same on every run. A decision is made after each scan record, like the
+ * service does after each scan result. If the trace contains ground truth markers, every room
+ * entered or left is checked against them:
+ * <ul>
+ *     <li>a <em>false switch</em> is a room entered while the phone is in another one or in none,
+ *     or a room left while the phone is still in one</li>
+ *     <li>the <em>detection latency</em> is the time from a ground truth change until the
+ *     decision follows it</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Doesn't depend on anything Android, run it with {@link #main(String[])} on a trace pulled from
+ * the phone to tune the floor plan and the filter.
+ * </p>
+ */
+public class TraceSimulator {
+    /**
+     * Outcome of a simulation run.
+     */
+    public static class Report {
+        /** Number of records replayed */
+        public long records;
+        /** Number of rooms entered, i.e. playback transfers */
+        public int transfers;
+        /** Number of rooms left for none, i.e. playback pauses */
+        public int pauses;
+        /** Number of decisions contradicting the ground truth */
+        public int falseSwitches;
+        /** Number of ground truth changes the decision followed */
+        public int detections;
+        /** Number of ground truth changes the decision never followed */
+        public int missedDetections;
+        /** Sum of all detection latencies in milliseconds */
+        public long totalLatencyMillis;
+        /** Highest detection latency in milliseconds */
+        public long maxLatencyMillis;
+        /** Wall clock time the replay took in nanoseconds */
+        public long elapsedNanos;
+
+        /**
+         * @return Average detection latency in milliseconds, {@code 0} without detections
+         */
+        public long getAverageLatencyMillis() {
+            return detections == 0 ? 0 : totalLatencyMillis / detections;
+        }
+
+        /**
+         * @return Replayed records per second of wall clock time
+         */
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Writes a human-readable summary of the report.
+         *
+         * @param out Writer to write to
+         * @throws IOException If writing fails
+         */
+        public void writeSummary(Writer out) throws IOException {
+            out.write(String.format(Locale.US, "records: %d (%.0f/s)%n",
+                    records, getRecordsPerSecond()));
+            out.write(String.format(Locale.US, "transfers: %d, pauses: %d, false switches: %d%n",
+                    transfers, pauses, falseSwitches));
+            out.write(String.format(Locale.US,
+                    "detections: %d, missed: %d, latency avg: %d ms, max: %d ms%n",
+                    detections, missedDetections, getAverageLatencyMillis(), maxLatencyMillis));
+        }
+    }
+
+    private final RoomDecider decider;
+
+    private boolean truthKnown;
+    private int truthRoom;
+    private long truthSince;
+    private boolean awaitingDetection;
+
+    /**
+     * Creates a new simulator.
+     *
+     * @param floorPlan Beacons and rooms the trace was recorded with
+     * @param filterFactory Factory creating the RSSI filter of each beacon
+     */
+    public TraceSimulator(FloorPlan floorPlan, RssiFilter.Factory filterFactory) {
+        decider = new RoomDecider(floorPlan, filterFactory);
+    }
+
+    /**
+     * Replays a whole trace.
+     *
+     * @param reader Reader positioned at the first record
+     * @return Simulation report
+     * @throws IOException if reading the trace failed
+     */
+    public Report run(TraceReader reader) throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        while (reader.next()) {
+            report.records++;
+            long now = reader.getTimestamp();
+            switch (reader.getType()) {
+                case ScanTrace.TYPE_TRUTH:
+                    onTruth(reader.getKey(), now);
+                    continue;
+                case ScanTrace.TYPE_MATCH_LOST:
+                    decider.onLost(reader.getKey());
+                    break;
+                default:
+                    decider.onSample(reader.getKey(), reader.getRssi(),
+                            reader.getReferenceRssi(), now);
+            }
+            onDecision(report, decider.decide(now), now);
+        }
+        if (awaitingDetection) {
+            report.missedDetections++;
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void onTruth(int room, long now) {
+        if (truthKnown && room == truthRoom) {
+            return;
+        }
+        truthKnown = true;
+        truthRoom = room;
+        truthSince = now;
+        // nothing to detect if the decision already matches
+        Zone current = decider.getCurrentZone();
+        awaitingDetection = room == ScanTrace.KEY_NONE ? current != null
+                : current == null || current.beaconId != room;
+    }
+
+    private void onDecision(Report report, int decision, long now) {
+        if (decision == RoomDecider.UNCHANGED) {
+            return;
+        }
+        boolean correct;
+        if (decision == RoomDecider.ENTERED) {
+            report.transfers++;
+            correct = decider.getZone().beaconId == truthRoom;
+        } else {
+            report.pauses++;
+            correct = truthRoom == ScanTrace.KEY_NONE;
+        }
+        if (!truthKnown) {
+            return;
+        }
+        if (!correct) {
+            report.falseSwitches++;
+        } else if (awaitingDetection) {
+            long latency = now - truthSince;
+            report.detections++;
+            report.totalLatencyMillis += latency;
+            report.maxLatencyMillis = Math.max(report.maxLatencyMillis, latency);
+            awaitingDetection = false;
+        }
+    }
+
+    /**
+     * Replays a trace file through the app's {@link FloorPlan#createDefault() floor plan} with
+     * {@link KalmanRssiFilter}s, like the scan service, and writes the report to stdout.
+     *
+     * @param args Trace file
+     * @throws IOException if reading the trace failed
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceSimulator <trace file>");
+            System.exit(1);
+        }
+        TraceSimulator simulator = new TraceSimulator(FloorPlan.createDefault(),
+                new RssiFilter.Factory() {
+                    @Override
+                    public RssiFilter create() {
+                        return new KalmanRssiFilter();
+                    }
+                });
+
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        try (TraceReader reader = new TraceReader(new FileInputStream(args[0]).getChannel())) {
+            simulator.run(reader).writeSummary(out);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a binary {@link ScanTrace}.
+ * <p>
+ * Records are collected in a buffer, and only written to the channel once it's full, or on
+ * {@link #flush()} and {@link #close()}, so recording doesn't cost a write call per scan result.
+ * Not thread-safe.
+ * </p>
+ */
+public class TraceWriter implements Closeable {
+    /** Default number of records buffered before they are written */
+    public static final int DEFAULT_BUFFER_RECORDS = 256;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long recordCount;
+
+    /**
+     * Creates a new trace writer buffering {@link #DEFAULT_BUFFER_RECORDS} records.
+     *
+     * @param channel Channel to write the trace to
+     */
+    public TraceWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_RECORDS);
+    }
+
+    /**
+     * Creates a new trace writer, and writes the trace header to the buffer.
+     *
+     * @param channel Channel to write the trace to
+     * @param bufferRecords Number of records buffered before they are written
+     */
+    public TraceWriter(WritableByteChannel channel, int bufferRecords) {
+        if (bufferRecords < 1) {
+            throw new IllegalArgumentException("buffer must hold at least one record");
+        }
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(Math.max(ScanTrace.HEADER_SIZE,
+                bufferRecords * ScanTrace.RECORD_SIZE));
+        buffer.putInt(ScanTrace.MAGIC)
+                .putShort((short) ScanTrace.VERSION)
+                .putShort((short) ScanTrace.RECORD_SIZE);
+    }
+
+    /**
+     * Adds a record to the trace.
+     *
+     * @param timestamp Timestamp in milliseconds
+     * @param key Beacon key
+     * @param rssi RSSI in dBm
+     * @param referenceRssi Reference RSSI at 1m the beacon advertised, in dBm
+     * @param type Record type, one of the {@code ScanTrace.TYPE_*} values
+     * @throws IOException if the buffer was full and writing it failed
+     */
+    public void write(long timestamp, int key, int rssi, int referenceRssi, int type)
+            throws IOException {
+        if (buffer.remaining() < ScanTrace.RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(timestamp)
+                .putInt(key)
+                .putShort((short) rssi)
+                .put((byte) type)
+                .put((byte) referenceRssi);
+        recordCount++;
+    }
+
+    /**
+     * Adds a ground truth marker to the trace.
+     *
+     * @param timestamp Timestamp in milliseconds
+     * @param key Id of the room the phone is in, {@link ScanTrace#KEY_NONE} if none
+     * @throws IOException if the buffer was full and writing it failed
+     */
+    public void writeTruth(long timestamp, int key) throws IOException {
+        write(timestamp, key, 0, 0, ScanTrace.TYPE_TRUTH);
+    }
+
+    /**
+     * Writes all buffered records to the channel.
+     *
+     * @throws IOException if writing failed
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return Number of records written so far
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes all buffered records and closes the channel.
+     *
+     * @throws IOException if writing or closing failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.zone;
+
+/**
+ * A zone around a single beacon, mapped to the Spotify device that should play while the phone
+ * is inside of it.
+ * <p>
+ * The zone uses two radiuses for hysteresis: the phone has to come closer than
+ * {@link #enterDistance} to enter the zone, but only leaves it again once it is further away
+ * than {@link #exitDistance}.
+ * </p>
+ *
+ * @see ZoneEngine
+ */
+public class Zone {
+    /**
+     * Beacon identifier this zone is centered around, or in general the id distances are reported
+     * for, e.g. a {@link fi.craplab.spotifindme.position.Room}
+     */
+    public final int beaconId;
+    /** Name of the Spotify device to play on inside this zone */
+    public final String deviceName;
+    /** Distance in meters below which the zone is entered */
+    public final double enterDistance;
+    /** Distance in meters above which the zone is left again */
+    public final double exitDistance;
+
+    /**
+     * Creates a new zone.
+     *
+     * @param beaconId Beacon identifier
+     * @param deviceName Spotify device name
+     * @param enterDistance Enter distance in meters
+     * @param exitDistance Exit distance in meters, must not be smaller than {@code enterDistance}
+     */
+    public Zone(int beaconId, String deviceName, double enterDistance, double exitDistance) {
+        if (enterDistance <= 0 || exitDistance < enterDistance) {
+            throw new IllegalArgumentException("invalid zone distances "
+                    + enterDistance + " / " + exitDistance);
+        }
+        this.beaconId = beaconId;
+        this.deviceName = deviceName;
+        this.enterDistance = enterDistance;
+        this.exitDistance = exitDistance;
+    }
+
+    @Override
+    public String toString() {
+        return "Zone{" + beaconId + " -> " + deviceName + "}";
+    }
+}
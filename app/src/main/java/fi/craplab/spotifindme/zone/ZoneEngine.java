@@ -0,0 +1,241 @@
+/*
+ * SpotifindMe - Anywhere you go, Spotify will know
+ *
+ * Copyright (c) 2018 Sven Gregori <sven@craplab.fi>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fi.craplab.spotifindme.zone;
+
+/**
+ * Proximity state machine deciding which {@link Zone} the phone is currently in.
+ * <p>
+ * Beacon distances are fed in with {@link #updateBeacon(int, double, long)} as they arrive, and
+ * {@link #evaluate(long)} returns a zone only when the phone actually moved into a different zone,
+ * so a playback transfer fires once per room change. Once no beacon is in range at all anymore,
+ * {@link #leaveAll()} leaves the current zone, so the playback can be paused.
+ * </p>
+ * <p>
+ * To keep the decision from flapping when the distances hover around some threshold:
+ * <ul>
+ *     <li>each zone has separate enter and exit distances, the current zone is compared by its
+ *     (larger) exit distance, all other zones by their enter distance</li>
+ *     <li>a new zone has to be the best candidate for at least the minimum dwell time before it is
+ *     committed</li>
+ *     <li>while the phone is still within the current zone's exit distance, a better candidate is
+ *     only committed once it has been the best one for the whole decision latency budget, so two
+ *     overlapping zones can't hold the decision forever</li>
+ *     <li>beacons that haven't been seen for the stale timeout count as out of range</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Doesn't depend on anything Android, all times are passed in by the caller in milliseconds from
+ * a monotonic clock. Not thread-safe.
+ * </p>
+ */
+public class ZoneEngine {
+    /** Default minimum time a new zone has to be the best candidate before it is committed */
+    public static final long DEFAULT_MIN_DWELL_MILLIS = 2000;
+    /** Default upper bound for how long a better candidate can be held off by hysteresis */
+    public static final long DEFAULT_LATENCY_BUDGET_MILLIS = 4000;
+    /** Default time after which a beacon that hasn't been seen counts as out of range */
+    public static final long DEFAULT_STALE_MILLIS = 10000;
+
+    private final Zone[] zones;
+    private final long minDwellMillis;
+    private final long latencyBudgetMillis;
+    private final long staleMillis;
+
+    /** Last reported distance per zone, same index as {@link #zones} */
+    private final double[] distances;
+    /** Timestamp of the last reported distance per zone, same index as {@link #zones} */
+    private final long[] lastSeen;
+
+    /** Index of the currently committed zone, or {@code -1} if none */
+    private int current = -1;
+    /** Index of the zone waiting to be committed, or {@code -1} if none */
+    private int pending = -1;
+    /** Time since when {@link #pending} has been the best candidate */
+    private long pendingSince;
+
+    /**
+     * Creates a new zone engine with the default timing values.
+     *
+     * @param zones All known zones
+     */
+    public ZoneEngine(Zone... zones) {
+        this(zones, DEFAULT_MIN_DWELL_MILLIS, DEFAULT_LATENCY_BUDGET_MILLIS, DEFAULT_STALE_MILLIS);
+    }
+
+    /**
+     * Creates a new zone engine.
+     *
+     * @param zones All known zones
+     * @param minDwellMillis Minimum time a new zone has to be the best candidate
+     * @param latencyBudgetMillis Maximum time a better candidate can be held off by hysteresis,
+     *                            must not be smaller than {@code minDwellMillis}
+     * @param staleMillis Time after which a beacon counts as out of range
+     */
+    public ZoneEngine(Zone[] zones, long minDwellMillis, long latencyBudgetMillis,
+                      long staleMillis) {
+        if (minDwellMillis < 0 || latencyBudgetMillis < minDwellMillis || staleMillis <= 0) {
+            throw new IllegalArgumentException("invalid timing values");
+        }
+        this.zones = zones.clone();
+        this.minDwellMillis = minDwellMillis;
+        this.latencyBudgetMillis = latencyBudgetMillis;
+        this.staleMillis = staleMillis;
+        this.distances = new double[zones.length];
+        this.lastSeen = new long[zones.length];
+
+        for (int i = 0; i < zones.length; i++) {
+            distances[i] = Double.NaN;
+        }
+    }
+
+    /**
+     * Records a new distance measurement for the given beacon. Unknown beacons are ignored.
+     *
+     * @param beaconId Beacon identifier, see {@link Zone#beaconId}
+     * @param distance Distance to the beacon in meters
+     * @param now Current time in milliseconds
+     */
+    public void updateBeacon(int beaconId, double distance, long now) {
+        for (int i = 0; i < zones.length; i++) {
+            if (zones[i].beaconId == beaconId) {
+                distances[i] = distance;
+                lastSeen[i] = now;
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates the zone decision with the distances recorded so far.
+     *
+     * @param now Current time in milliseconds
+     * @return The newly entered zone if the phone moved into a different zone, {@code null} if
+     *         nothing changed
+     */
+    public Zone evaluate(long now) {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        boolean currentHeld = false;
+
+        for (int i = 0; i < zones.length; i++) {
+            if (Double.isNaN(distances[i]) || now - lastSeen[i] > staleMillis) {
+                continue;
+            }
+
+            double radius = (i == current) ? zones[i].exitDistance : zones[i].enterDistance;
+            if (distances[i] > radius) {
+                continue;
+            }
+
+            if (i == current) {
+                currentHeld = true;
+            }
+
+            double score = distances[i] / radius;
+            if (score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+
+        if (best < 0 || best == current) {
+            pending = -1;
+            return null;
+        }
+
+        if (best != pending) {
+            pending = best;
+            pendingSince = now;
+        }
+
+        long required = currentHeld ? latencyBudgetMillis : minDwellMillis;
+        if (now - pendingSince < required) {
+            return null;
+        }
+
+        current = best;
+        pending = -1;
+        return zones[current];
+    }
+
+    /**
+     * Leaves the current zone because no beacon is in range anymore, e.g. after all of them were
+     * lost or went stale. All recorded distances are dropped, so a zone is only entered again
+     * with new measurements.
+     *
+     * @return The zone that was left, or {@code null} if the phone wasn't in any zone
+     */
+    public Zone leaveAll() {
+        for (int i = 0; i < zones.length; i++) {
+            distances[i] = Double.NaN;
+        }
+        pending = -1;
+        if (current < 0) {
+            return null;
+        }
+        Zone left = zones[current];
+        current = -1;
+        return left;
+    }
+
+    /**
+     * Returns the zone that is the best candidate, but hasn't been for long enough to be committed
+     * yet. Unless the phone moves on, {@link #evaluate(long)} will report it within the dwell
+     * time or the latency budget.
+     *
+     * @return Pending zone, or {@code null} if there's none
+     */
+    public Zone getPendingZone() {
+        return pending < 0 ? null : zones[pending];
+    }
+
+    /**
+     * Returns the currently committed zone.
+     *
+     * @return Current zone, or {@code null} if the phone hasn't entered any zone yet
+     */
+    public Zone getCurrentZone() {
+        return current < 0 ? null : zones[current];
+    }
+
+    /**
+     * Sets the current zone to the one mapped to the given device without reporting a transition,
+     * e.g. when playback was moved to another device manually.
+     *
+     * @param deviceName Name of the currently active Spotify device, or {@code null} for none
+     */
+    public void syncToDevice(String deviceName) {
+        int index = -1;
+        for (int i = 0; i < zones.length; i++) {
+            if (zones[i].deviceName.equals(deviceName)) {
+                index = i;
+                break;
+            }
+        }
+
+        if (index != current) {
+            current = index;
+            pending = -1;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package fi.craplab.spotifindme;
+
+import org.junit.Test;
+
+import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.DeviceType;
+
+import static org.junit.Assert.*;
+
+public class DeviceDiffCallbackTest {
+    private final DeviceDiffCallback callback = new DeviceDiffCallback();
+
+    private static Device device(String id, String name, boolean active, int volume) {
+        Device device = new Device();
+        device.deviceId = id;
+        device.deviceName = name;
+        device.deviceType = DeviceType.COMPUTER;
+        device.isActive = active;
+        device.volumePercent = volume;
+        return device;
+    }
+
+    @Test
+    public void itemsMatchedById() {
+        assertTrue(callback.areItemsTheSame(device("a", "Laptop", false, 50),
+                device("a", "Renamed", true, 10)));
+        assertFalse(callback.areItemsTheSame(device("a", "Laptop", false, 50),
+                device("b", "Laptop", false, 50)));
+    }
+
+    @Test
+    public void itemsWithoutIdMatchedByName() {
+        assertTrue(callback.areItemsTheSame(device(null, "Laptop", false, 50),
+                device(null, "Laptop", true, 50)));
+        assertFalse(callback.areItemsTheSame(device(null, "Laptop", false, 50),
+                device(null, "Desktop", false, 50)));
+        assertFalse(callback.areItemsTheSame(device(null, "Laptop", false, 50),
+                device("Laptop", "Laptop", false, 50)));
+    }
+
+    @Test
+    public void contentsOnlyComparesDisplayedFields() {
+        Device oldDevice = device("a", "Laptop", false, 50);
+        Device newDevice = device("a", "Laptop", false, 50);
+        newDevice.isRestricted = true;
+        assertTrue(callback.areContentsTheSame(oldDevice, newDevice));
+
+        newDevice.volumePercent = 60;
+        assertFalse(callback.areContentsTheSame(oldDevice, newDevice));
+    }
+
+    @Test
+    public void activeAndVolumeChangesArePayloads() {
+        Device oldDevice = device("a", "Laptop", false, 50);
+
+        assertEquals(DeviceDiffCallback.PAYLOAD_ACTIVE,
+                callback.getChangePayload(oldDevice, device("a", "Laptop", true, 50)));
+        assertEquals(DeviceDiffCallback.PAYLOAD_VOLUME,
+                callback.getChangePayload(oldDevice, device("a", "Laptop", false, 80)));
+        assertEquals(DeviceDiffCallback.PAYLOAD_ACTIVE | DeviceDiffCallback.PAYLOAD_VOLUME,
+                callback.getChangePayload(oldDevice, device("a", "Laptop", true, 80)));
+    }
+
+    @Test
+    public void otherChangesRebindWholeItem() {
+        Device oldDevice = device("a", "Laptop", false, 50);
+        assertNull(callback.getChangePayload(oldDevice, device("a", "Renamed", true, 50)));
+
+        Device newDevice = device("a", "Laptop", true, 50);
+        newDevice.deviceType = DeviceType.SPEAKER;
+        assertNull(callback.getChangePayload(oldDevice, newDevice));
+    }
+}
@@ -0,0 +1,87 @@
+package fi.craplab.spotifindme.beacon;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.logging.LogManager;
+import org.altbeacon.beacon.logging.Loggers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link AltBeaconRecordParser} with the AltBeacon library's parser, decoding the
+ * frame sent by {@code tools/altbeacon_transmit.sh}.
+ * <p>
+ * Not a unit test, run it through {@link #main(String[])}, with {@code -prof gc} to see the
+ * allocation rate per decoded frame. The library's logging is switched off, as its default
+ * logger goes through {@code android.util.Log}, which isn't available on the JVM.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AltBeaconParserBenchmark {
+    private static final byte[] RECORD = AltBeaconTest.bytes("02 01 1a 1b ff 18 01 be ac 53 70 6f"
+            + " 74 69 66 69 6e 64 4d 65 00 00 00 00 00 00 01 00 01 ca 01 00 00 00 00 00 00 00 00"
+            + " 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00");
+
+    private AltBeaconRecordParser parser;
+    private org.altbeacon.beacon.AltBeaconParser libraryParser;
+    private BeaconRegistry registry;
+
+    @Setup
+    public void setUp() {
+        LogManager.setLogger(Loggers.empty());
+        parser = new AltBeaconRecordParser();
+        libraryParser = new org.altbeacon.beacon.AltBeaconParser();
+        registry = new BeaconRegistry(AltBeacon.SPOTIFINDME_ID1).add(1, 1);
+    }
+
+    @Benchmark
+    public void recordParser(Blackhole blackhole) {
+        if (parser.parse(RECORD)) {
+            blackhole.consume(parser.getId2());
+            blackhole.consume(parser.getId3());
+            blackhole.consume(parser.getReferenceRssi());
+        }
+    }
+
+    @Benchmark
+    public void recordParserWithLookup(Blackhole blackhole) {
+        parser.parse(RECORD);
+        blackhole.consume(registry.find(parser));
+    }
+
+    @Benchmark
+    public void libraryParser(Blackhole blackhole) {
+        Beacon beacon = libraryParser.fromScanData(RECORD, -60, null, 0);
+        if (beacon != null) {
+            blackhole.consume(beacon.getId2().toInt());
+            blackhole.consume(beacon.getId3().toInt());
+            blackhole.consume(beacon.getTxPower());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AltBeaconParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,104 @@
+package fi.craplab.spotifindme.beacon;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link AltBeaconRecordParser} against the frame corpus in
+ * {@code resources/altbeacon/frames.txt}.
+ */
+public class AltBeaconRecordParserTest {
+    /** Single frame of the corpus */
+    static class Frame {
+        String name;
+        String expected;
+        byte[] record;
+    }
+
+    static List<Frame> loadFrames() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        InputStream input = AltBeaconRecordParserTest.class.getResourceAsStream(
+                "/altbeacon/frames.txt");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 3);
+                Frame frame = new Frame();
+                frame.name = parts[0];
+                frame.expected = parts[1];
+                frame.record = parts.length > 2 ? AltBeaconTest.bytes(parts[2]) : new byte[0];
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    @Test
+    public void parsesCorpus() throws IOException {
+        List<Frame> frames = loadFrames();
+        assertTrue(frames.size() > 10);
+
+        AltBeaconRecordParser parser = new AltBeaconRecordParser();
+        byte[] id1 = new byte[AltBeacon.ID1_LENGTH];
+        for (Frame frame : frames) {
+            boolean valid = parser.parse(frame.record);
+            assertEquals(frame.name, valid, parser.isValid());
+            if (frame.expected.equals("-")) {
+                assertFalse(frame.name, valid);
+                continue;
+            }
+            assertTrue(frame.name, valid);
+
+            String[] expected = frame.expected.split("/");
+            assertEquals(frame.name, Integer.parseInt(expected[0]), parser.getId2());
+            assertEquals(frame.name, Integer.parseInt(expected[1]), parser.getId3());
+            assertEquals(frame.name, Integer.parseInt(expected[2]), parser.getReferenceRssi());
+            assertEquals(frame.name, Integer.parseInt(expected[3]), parser.getReserved());
+            assertTrue(frame.name, parser.id1Equals(AltBeacon.SPOTIFINDME_ID1));
+            parser.copyId1(id1);
+            assertArrayEquals(frame.name, AltBeacon.SPOTIFINDME_ID1, id1);
+        }
+    }
+
+    @Test
+    public void parsesAtOffset() throws IOException {
+        Frame frame = loadFrames().get(0);
+        byte[] record = new byte[frame.record.length + 10];
+        System.arraycopy(frame.record, 0, record, 4, frame.record.length);
+
+        AltBeaconRecordParser parser = new AltBeaconRecordParser();
+        assertTrue(parser.parse(record, 4, frame.record.length));
+        assertEquals(AltBeacon.packIds(1, 1), parser.getKey());
+
+        assertFalse(parser.parse(record, 4, frame.record.length - 1));
+        assertFalse(parser.parse(record, 20, record.length));
+        assertFalse(parser.parse(null));
+    }
+
+    @Test
+    public void registryFindsParsedBeacon() throws IOException {
+        BeaconRegistry registry = new BeaconRegistry(AltBeacon.SPOTIFINDME_ID1)
+                .add(1, 1);
+        AltBeaconRecordParser parser = new AltBeaconRecordParser();
+
+        assertNull(registry.find(parser));
+        assertTrue(parser.parse(loadFrames().get(0).record));
+        assertEquals(AltBeacon.packIds(1, 1), registry.find(parser).getKey());
+
+        BeaconRegistry otherRegistry = new BeaconRegistry(new byte[AltBeacon.ID1_LENGTH])
+                .add(1, 1);
+        assertNull(otherRegistry.find(parser));
+    }
+}
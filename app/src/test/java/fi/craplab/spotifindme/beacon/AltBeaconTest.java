@@ -0,0 +1,146 @@
+package fi.craplab.spotifindme.beacon;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AltBeacon} decoder and the {@link BeaconRegistry} lookup and scan filters.
+ */
+public class AltBeaconTest {
+    /** Manufacturer data as sent by {@code tools/altbeacon_transmit.sh}, after the company id */
+    static final byte[] TRANSMIT_SCRIPT_DATA = bytes(
+            "be ac 53 70 6f 74 69 66 69 6e 64 4d 65 00 00 00 00 00 00 01 00 01 ca 01");
+
+    static byte[] bytes(String hex) {
+        String[] parts = hex.trim().split("\\s+");
+        byte[] data = new byte[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            data[i] = (byte) Integer.parseInt(parts[i], 16);
+        }
+        return data;
+    }
+
+    @Test
+    public void decodesTransmitScriptData() {
+        byte[] data = TRANSMIT_SCRIPT_DATA;
+        assertTrue(AltBeacon.isAltBeacon(data, 0, data.length));
+        assertTrue(AltBeacon.id1Equals(data, 0, AltBeacon.SPOTIFINDME_ID1));
+        assertEquals(1, AltBeacon.getId2(data, 0));
+        assertEquals(1, AltBeacon.getId3(data, 0));
+        assertEquals(-54, AltBeacon.getReferenceRssi(data, 0));
+        assertEquals(1, AltBeacon.getReserved(data, 0));
+    }
+
+    @Test
+    public void decodesAtOffset() {
+        byte[] data = new byte[AltBeacon.DATA_LENGTH + 7];
+        System.arraycopy(TRANSMIT_SCRIPT_DATA, 0, data, 5, AltBeacon.DATA_LENGTH);
+        data[5 + 18] = (byte) 0xab;
+        data[5 + 21] = (byte) 0xff;
+
+        assertTrue(AltBeacon.isAltBeacon(data, 5, AltBeacon.DATA_LENGTH));
+        assertEquals(0xab01, AltBeacon.getId2(data, 5));
+        assertEquals(0x00ff, AltBeacon.getId3(data, 5));
+        assertEquals(0xab0100ff, AltBeacon.packIds(0xab01, 0x00ff));
+    }
+
+    @Test
+    public void estimatesDistance() {
+        assertEquals(1.0, AltBeacon.estimateDistance(-54, -54), 1e-9);
+        // 20 dB per decade in free space
+        assertEquals(10.0, AltBeacon.estimateDistance(-74, -54), 1e-9);
+        assertEquals(0.1, AltBeacon.estimateDistance(-34, -54), 1e-9);
+    }
+
+    @Test
+    public void rejectsOtherData() {
+        assertFalse(AltBeacon.isAltBeacon(null, 0, 0));
+        assertFalse(AltBeacon.isAltBeacon(TRANSMIT_SCRIPT_DATA, 0, AltBeacon.DATA_LENGTH - 1));
+        assertFalse(AltBeacon.isAltBeacon(TRANSMIT_SCRIPT_DATA, 1, AltBeacon.DATA_LENGTH));
+
+        byte[] iBeacon = TRANSMIT_SCRIPT_DATA.clone();
+        iBeacon[0] = 0x02;
+        iBeacon[1] = 0x15;
+        assertFalse(AltBeacon.isAltBeacon(iBeacon, 0, iBeacon.length));
+
+        byte[] otherOrganization = TRANSMIT_SCRIPT_DATA.clone();
+        otherOrganization[2] = 's';
+        assertFalse(AltBeacon.id1Equals(otherOrganization, 0, AltBeacon.SPOTIFINDME_ID1));
+    }
+
+    @Test
+    public void registryFindsBeacons() {
+        BeaconRegistry registry = new BeaconRegistry(AltBeacon.SPOTIFINDME_ID1)
+                .add(1, 1)
+                .add(1, 2);
+
+        RegisteredBeacon laptop = registry.find(TRANSMIT_SCRIPT_DATA);
+        assertEquals(1, laptop.id3);
+        assertEquals(0, laptop.index);
+
+        byte[] desktop = TRANSMIT_SCRIPT_DATA.clone();
+        desktop[21] = 2;
+        assertEquals(2, registry.find(desktop).id3);
+        assertEquals(1, registry.find(desktop).index);
+
+        byte[] unknown = TRANSMIT_SCRIPT_DATA.clone();
+        unknown[21] = 3;
+        assertNull(registry.find(unknown));
+        assertNull(registry.find((byte[]) null));
+
+        // adding it again keeps the index
+        registry.add(1, 2);
+        assertEquals(1, registry.find(desktop).index);
+        assertEquals(2, registry.size());
+        assertSame(registry.find(desktop), registry.getBeacon(1));
+        assertEquals(2, registry.getBeacons().size());
+    }
+
+    @Test
+    public void filterMatchesTransmittedData() {
+        BeaconRegistry registry = new BeaconRegistry(AltBeacon.SPOTIFINDME_ID1).add(1, 1);
+        List<byte[]> filterData = registry.buildFilterData();
+        byte[] mask = registry.buildFilterMask();
+
+        assertEquals(1, filterData.size());
+        assertTrue(matches(filterData.get(0), mask, TRANSMIT_SCRIPT_DATA));
+
+        byte[] otherUnit = TRANSMIT_SCRIPT_DATA.clone();
+        otherUnit[21] = 2;
+        assertFalse(matches(filterData.get(0), mask, otherUnit));
+
+        byte[] otherRssi = TRANSMIT_SCRIPT_DATA.clone();
+        otherRssi[22] = (byte) 0xc0;
+        otherRssi[23] = 0;
+        assertTrue(matches(filterData.get(0), mask, otherRssi));
+    }
+
+    @Test
+    public void manyBeaconsShareOneFilter() {
+        BeaconRegistry registry = new BeaconRegistry(AltBeacon.SPOTIFINDME_ID1);
+        for (int i = 0; i <= BeaconRegistry.MAX_BEACON_FILTERS; i++) {
+            registry.add(1, i);
+        }
+        List<byte[]> filterData = registry.buildFilterData();
+        byte[] mask = registry.buildFilterMask();
+
+        assertEquals(1, filterData.size());
+        byte[] otherUnit = TRANSMIT_SCRIPT_DATA.clone();
+        otherUnit[19] = 7;
+        otherUnit[21] = 42;
+        assertTrue(matches(filterData.get(0), mask, otherUnit));
+    }
+
+    /** Matches like the Bluetooth controller does with a manufacturer data scan filter */
+    private static boolean matches(byte[] filterData, byte[] mask, byte[] data) {
+        for (int i = 0; i < filterData.length; i++) {
+            if ((data[i] & mask[i]) != (filterData[i] & mask[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
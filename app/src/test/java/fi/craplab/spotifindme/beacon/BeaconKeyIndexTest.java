@@ -0,0 +1,42 @@
+package fi.craplab.spotifindme.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link BeaconKeyIndex} lookups and growth.
+ */
+public class BeaconKeyIndexTest {
+    @Test
+    public void assignsIndicesInOrder() {
+        BeaconKeyIndex index = new BeaconKeyIndex();
+        assertEquals(-1, index.indexOf(AltBeacon.packIds(1, 1)));
+
+        assertEquals(0, index.add(AltBeacon.packIds(1, 2)));
+        assertEquals(1, index.add(AltBeacon.packIds(1, 1)));
+        assertEquals(0, index.add(AltBeacon.packIds(1, 2)));
+
+        assertEquals(2, index.size());
+        assertEquals(1, index.indexOf(AltBeacon.packIds(1, 1)));
+        assertEquals(AltBeacon.packIds(1, 2), index.getKey(0));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        BeaconKeyIndex index = new BeaconKeyIndex();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.add(AltBeacon.packIds(i % 7, i)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.indexOf(AltBeacon.packIds(i % 7, i)));
+        }
+        assertEquals(-1, index.indexOf(AltBeacon.packIds(7, 1000)));
+        assertEquals(1000, index.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void unknownIndex() {
+        new BeaconKeyIndex().getKey(0);
+    }
+}
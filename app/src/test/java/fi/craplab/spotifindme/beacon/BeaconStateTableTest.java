@@ -0,0 +1,149 @@
+package fi.craplab.spotifindme.beacon;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link BeaconStateTable} lookups, history, eviction and growth.
+ */
+public class BeaconStateTableTest {
+    private static final int LAPTOP = AltBeacon.packIds(1, 1);
+    private static final int DESKTOP = AltBeacon.packIds(1, 2);
+
+    @Test
+    public void recordsLatestSample() {
+        BeaconStateTable table = new BeaconStateTable();
+        assertFalse(table.contains(LAPTOP));
+        assertEquals(BeaconStateTable.NO_RSSI, table.getLatestRssi(LAPTOP));
+        assertTrue(Double.isNaN(table.getLatestDistance(LAPTOP)));
+        assertEquals(-1, table.getLastSeen(LAPTOP));
+
+        table.record(LAPTOP, -60, 1.5, 100);
+        table.record(DESKTOP, -75, 4.0, 150);
+        table.record(LAPTOP, -58, 1.2, 200);
+
+        assertEquals(2, table.size());
+        assertEquals(-58, table.getLatestRssi(LAPTOP));
+        assertEquals(1.2, table.getLatestDistance(LAPTOP), 0);
+        assertEquals(200, table.getLastSeen(LAPTOP));
+        assertEquals(2, table.getSampleCount(LAPTOP));
+        assertEquals(-75, table.getLatestRssi(DESKTOP));
+    }
+
+    @Test
+    public void historyWrapsAround() {
+        BeaconStateTable table = new BeaconStateTable(4);
+        for (int i = 0; i < 10; i++) {
+            table.record(LAPTOP, -60 - i, i, i * 1000);
+        }
+        assertEquals(4, table.getSampleCount(LAPTOP));
+        assertEquals(-69, table.getLatestRssi(LAPTOP));
+        // samples 6..9 are kept
+        assertEquals(7.5, table.getMeanDistance(LAPTOP, 9000, 10000), 1e-9);
+        // samples 8 and 9 are within the window
+        assertEquals(8.5, table.getMeanDistance(LAPTOP, 9000, 1000), 1e-9);
+        assertTrue(Double.isNaN(table.getMeanDistance(LAPTOP, 20000, 1000)));
+        assertTrue(Double.isNaN(table.getMeanDistance(DESKTOP, 9000, 1000)));
+    }
+
+    @Test
+    public void evictsStaleBeacons() {
+        BeaconStateTable table = new BeaconStateTable();
+        table.record(LAPTOP, -60, 1.5, 0);
+        table.record(DESKTOP, -75, 4.0, 5000);
+
+        assertEquals(0, table.evictStale(10000, 10000));
+        assertEquals(1, table.evictStale(10001, 10000));
+        assertFalse(table.contains(LAPTOP));
+        assertTrue(table.contains(DESKTOP));
+        assertEquals(1, table.size());
+
+        // re-added beacon starts with an empty history
+        table.record(LAPTOP, -62, 1.7, 11000);
+        assertEquals(1, table.getSampleCount(LAPTOP));
+        assertEquals(-62, table.getLatestRssi(LAPTOP));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void visitsAllBeacons() {
+        BeaconStateTable table = new BeaconStateTable();
+        table.record(LAPTOP, -60, 1.5, 100);
+        table.record(DESKTOP, -75, 4.0, 150);
+        table.remove(LAPTOP);
+        table.record(AltBeacon.packIds(2, 1), -80, 8.0, 200);
+
+        final Map<Integer, Integer> visited = new HashMap<>();
+        table.forEach(new BeaconStateTable.Visitor() {
+            @Override
+            public void visit(int key, int rssi, double distance, long lastSeen) {
+                visited.put(key, rssi);
+            }
+        });
+        assertEquals(2, visited.size());
+        assertEquals(Integer.valueOf(-75), visited.get(DESKTOP));
+        assertEquals(Integer.valueOf(-80), visited.get(AltBeacon.packIds(2, 1)));
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        BeaconStateTable table = new BeaconStateTable(2);
+        Map<Integer, Integer> reference = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 20000; i++) {
+            // few distinct keys, so there are lots of collisions, removals and re-insertions
+            int key = AltBeacon.packIds(random.nextInt(4), random.nextInt(40));
+            if (random.nextInt(4) == 0) {
+                assertEquals(reference.remove(key) != null, table.remove(key));
+            } else {
+                int rssi = -40 - random.nextInt(60);
+                table.record(key, rssi, 1.0, i);
+                reference.put(key, rssi);
+            }
+            if (i % 100 == 0) {
+                assertEquals(reference.size(), table.size());
+                for (int id3 = 0; id3 < 40; id3++) {
+                    int probe = AltBeacon.packIds(random.nextInt(4), id3);
+                    Integer expected = reference.get(probe);
+                    assertEquals(expected == null ? BeaconStateTable.NO_RSSI : expected,
+                            table.getLatestRssi(probe));
+                }
+            }
+        }
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.contains(LAPTOP));
+    }
+
+    @Test
+    public void lookupsAndRecordsDontAllocate() {
+        BeaconStateTable table = new BeaconStateTable();
+        for (int id3 = 0; id3 < 48; id3++) {
+            table.record(AltBeacon.packIds(1, id3), -60, 2.0, 0);
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long sum = 0;
+        for (int i = 0; i < 100000; i++) {
+            int key = AltBeacon.packIds(1, i % 48);
+            table.record(key, -60 - i % 20, 2.0, i);
+            sum += table.getLatestRssi(key);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sum < 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
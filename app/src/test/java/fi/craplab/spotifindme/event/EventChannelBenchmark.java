@@ -0,0 +1,141 @@
+package fi.craplab.spotifindme.event;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compares the {@link EventChannel} with {@link EventBus} for a burst of scan events, i.e. a
+ * whole batch of results for a handful of beacons posted at once, delivered to one consumer on
+ * its own thread.
+ * <p>
+ * Each invocation posts the burst and waits until the consumer saw the last event of every
+ * beacon, the score is the time per posted event. The EventBus consumer gets every single event,
+ * the channel consumer only the latest per beacon it didn't get to yet.
+ * </p>
+ * <p>
+ * Not a unit test, run it through {@link #main(String[])}.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventChannelBenchmark {
+    private static final int BEACONS = 8;
+    private static final int BURST = 1024;
+
+    /** Scan event as posted by the service */
+    public static class ScanEvent {
+        final int key;
+        final long sequence;
+
+        ScanEvent(int key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    /** Latest sequence number seen per beacon */
+    private final AtomicLongArray seen = new AtomicLongArray(BEACONS);
+    /** Sequence number of the last posted event per beacon */
+    private final long[] posted = new long[BEACONS];
+    private long sequence;
+
+    private ExecutorService channelExecutor;
+    private EventChannel<Integer, ScanEvent> channel;
+    private EventChannel.Subscription<Integer, ScanEvent> subscription;
+
+    private ExecutorService eventBusExecutor;
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        channelExecutor = Executors.newSingleThreadExecutor();
+        channel = new EventChannel<>();
+        subscription = channel.subscribe(channelExecutor, new EventChannel.Listener<ScanEvent>() {
+            @Override
+            public void onEvent(ScanEvent event) {
+                seen.lazySet(event.key, event.sequence);
+            }
+        });
+
+        eventBusExecutor = Executors.newSingleThreadExecutor();
+        eventBus = EventBus.builder().executorService(eventBusExecutor).build();
+        eventBus.register(this);
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscription.cancel();
+        eventBus.unregister(this);
+        channelExecutor.shutdown();
+        eventBusExecutor.shutdown();
+    }
+
+    @Subscribe(threadMode = ThreadMode.ASYNC)
+    public void onScanEvent(ScanEvent event) {
+        seen.lazySet(event.key, event.sequence);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void eventChannel() {
+        for (int i = 0; i < BURST; i++) {
+            int key = i % BEACONS;
+            posted[key] = ++sequence;
+            channel.post(key, new ScanEvent(key, sequence));
+        }
+        awaitDelivery();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void eventBus() {
+        for (int i = 0; i < BURST; i++) {
+            int key = i % BEACONS;
+            posted[key] = ++sequence;
+            eventBus.post(new ScanEvent(key, sequence));
+        }
+        awaitDelivery();
+    }
+
+    /** Waits until every beacon's last event of the burst arrived */
+    private void awaitDelivery() {
+        for (int key = 0; key < BEACONS; key++) {
+            while (seen.get(key) < posted[key]) {
+                Thread.yield();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EventChannelBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
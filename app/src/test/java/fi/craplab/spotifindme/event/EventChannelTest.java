@@ -0,0 +1,210 @@
+package fi.craplab.spotifindme.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link EventChannel} conflation, buffer bounds and delivery.
+ */
+public class EventChannelTest {
+    /** Collects submitted tasks, so the test decides when the consumer runs */
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+
+    /** Records all received events */
+    private static class Recorder implements EventChannel.Listener<String> {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onEvent(String event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void deliversOnExecutorInOrder() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        EventChannel.Subscription<Integer, String> subscription =
+                channel.subscribe(executor, recorder);
+
+        channel.post(1, "a1");
+        channel.post(2, "b1");
+        channel.post(3, "c1");
+        assertTrue(recorder.events.isEmpty());
+        // one drain for the whole burst
+        assertEquals(1, executor.queue.size());
+        assertEquals(3, subscription.getPendingCount());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("a1", "b1", "c1"), recorder.events);
+        assertEquals(3, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getPendingCount());
+    }
+
+    @Test
+    public void latestEventPerKeyWins() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        EventChannel.Subscription<Integer, String> subscription =
+                channel.subscribe(executor, recorder);
+
+        channel.post(1, "a1");
+        channel.post(2, "b1");
+        channel.post(1, "a2");
+        channel.post(1, "a3");
+        executor.runAll();
+
+        // keeps the position of the first pending event of the key
+        assertEquals(Arrays.asList("a3", "b1"), recorder.events);
+        assertEquals(2, subscription.getConflatedCount());
+
+        channel.post(1, "a4");
+        executor.runAll();
+        assertEquals(Arrays.asList("a3", "b1", "a4"), recorder.events);
+    }
+
+    @Test
+    public void fullBufferDropsOldest() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        EventChannel.Subscription<Integer, String> subscription =
+                channel.subscribe(executor, recorder, 2);
+
+        channel.post(1, "a");
+        channel.post(2, "b");
+        channel.post(3, "c");
+        channel.post(4, "d");
+        assertEquals(2, subscription.getPendingCount());
+        executor.runAll();
+
+        assertEquals(Arrays.asList("c", "d"), recorder.events);
+        assertEquals(2, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void consumersAreIndependent() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor slow = new QueueExecutor();
+        QueueExecutor fast = new QueueExecutor();
+        Recorder slowRecorder = new Recorder();
+        Recorder fastRecorder = new Recorder();
+        channel.subscribe(slow, slowRecorder);
+        channel.subscribe(fast, fastRecorder);
+
+        channel.post(1, "a1");
+        fast.runAll();
+        channel.post(1, "a2");
+        fast.runAll();
+        slow.runAll();
+
+        assertEquals(Arrays.asList("a1", "a2"), fastRecorder.events);
+        assertEquals(Collections.singletonList("a2"), slowRecorder.events);
+    }
+
+    @Test
+    public void cancelStopsDelivery() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder();
+        EventChannel.Subscription<Integer, String> subscription =
+                channel.subscribe(executor, recorder);
+        assertTrue(channel.hasSubscribers());
+
+        channel.post(1, "a1");
+        subscription.cancel();
+        executor.runAll();
+        channel.post(1, "a2");
+
+        assertTrue(recorder.events.isEmpty());
+        assertFalse(channel.hasSubscribers());
+        assertTrue(executor.queue.isEmpty());
+    }
+
+    @Test
+    public void failingListenerDoesNotStallChannel() {
+        EventChannel<Integer, String> channel = new EventChannel<>();
+        QueueExecutor executor = new QueueExecutor();
+        final List<String> events = new ArrayList<>();
+        channel.subscribe(executor, new EventChannel.Listener<String>() {
+            @Override
+            public void onEvent(String event) {
+                events.add(event);
+                if (event.equals("bad")) {
+                    throw new IllegalStateException();
+                }
+            }
+        });
+
+        channel.post(1, "bad");
+        try {
+            executor.runAll();
+            fail();
+        } catch (IllegalStateException expected) {
+            // executor thread would die here
+        }
+        channel.post(1, "good");
+        executor.runAll();
+        assertEquals(Arrays.asList("bad", "good"), events);
+    }
+
+    @Test
+    public void concurrentDeliveryEndsWithLatest() throws InterruptedException {
+        final int keys = 8;
+        final int events = 100000;
+        EventChannel<Integer, Integer> channel = new EventChannel<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final int[] latest = new int[keys];
+        final CountDownLatch done = new CountDownLatch(keys);
+        Arrays.fill(latest, -1);
+        EventChannel.Subscription<Integer, Integer> subscription = channel.subscribe(executor,
+                new EventChannel.Listener<Integer>() {
+                    @Override
+                    public void onEvent(Integer event) {
+                        int key = event % keys;
+                        assertTrue("out of order", event > latest[key]);
+                        latest[key] = event;
+                        if (event >= events - keys) {
+                            done.countDown();
+                        }
+                    }
+                });
+
+        for (int i = 0; i < events; i++) {
+            channel.post(i % keys, i);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int key = 0; key < keys; key++) {
+            assertEquals(events - keys + key, latest[key]);
+        }
+        assertEquals(events, subscription.getDeliveredCount() + subscription.getConflatedCount());
+        assertEquals(0, subscription.getDroppedCount());
+        executor.shutdown();
+    }
+}
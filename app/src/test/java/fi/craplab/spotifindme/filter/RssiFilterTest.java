@@ -0,0 +1,191 @@
+package fi.craplab.spotifindme.filter;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link RssiFilter} implementations, partly replaying recorded RSSI traces
+ * from the {@code rssi/} test resources.
+ */
+public class RssiFilterTest {
+    /** Found/lost threshold used by the scan service */
+    private static final int THRESHOLD = -70;
+
+    @Test
+    public void ewma_followsFormula() {
+        EwmaRssiFilter filter = new EwmaRssiFilter(0.5);
+        assertTrue(Double.isNaN(filter.getValue()));
+        assertEquals(-60.0, filter.update(-60), 0.0);
+        assertEquals(-70.0, filter.update(-80), 0.0);
+        assertEquals(-65.0, filter.update(-60), 0.0);
+        filter.reset();
+        assertTrue(Double.isNaN(filter.getValue()));
+    }
+
+    @Test
+    public void kalman_convergesToConstantSignal() {
+        KalmanRssiFilter filter = new KalmanRssiFilter();
+        assertEquals(-50.0, filter.update(-50), 0.0);
+        for (int i = 0; i < 100; i++) {
+            filter.update(-80);
+        }
+        assertEquals(-80.0, filter.getValue(), 0.5);
+    }
+
+    @Test
+    public void median_matchesSortedWindow() {
+        Random random = new Random(1);
+        for (int size = 1; size <= 8; size++) {
+            MedianRssiFilter filter = new MedianRssiFilter(size);
+            List<Integer> samples = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++) {
+                int rssi = -100 + random.nextInt(20); // narrow range to get plenty of duplicates
+                samples.add(rssi);
+
+                List<Integer> window = samples.subList(Math.max(0, samples.size() - size),
+                        samples.size());
+                int[] sorted = new int[window.size()];
+                for (int j = 0; j < sorted.length; j++) {
+                    sorted[j] = window.get(j);
+                }
+                Arrays.sort(sorted);
+                int middle = sorted.length / 2;
+                double expected = sorted.length % 2 == 1
+                        ? sorted[middle]
+                        : (sorted[middle - 1] + sorted[middle]) / 2.0;
+
+                assertEquals("size " + size + " sample " + i, expected, filter.update(rssi), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void median_dropsSingleOutlier() {
+        MedianRssiFilter filter = new MedianRssiFilter(5);
+        filter.update(-60);
+        filter.update(-61);
+        filter.update(-59);
+        filter.update(-95);
+        assertEquals(-60.0, filter.update(-60), 0.0);
+    }
+
+    @Test
+    public void bank_keepsOneFilterPerBeacon() {
+        final int[] created = new int[1];
+        RssiFilterBank bank = new RssiFilterBank(new RssiFilter.Factory() {
+            @Override
+            public RssiFilter create() {
+                created[0]++;
+                return new EwmaRssiFilter(1.0);
+            }
+        });
+
+        bank.update(1, -50);
+        bank.update(2, -80);
+        bank.update(1, -55);
+
+        assertEquals(2, created[0]);
+        assertEquals(-55.0, bank.getValue(1), 0.0);
+        assertEquals(-80.0, bank.getValue(2), 0.0);
+        assertTrue(Double.isNaN(bank.getValue(3)));
+
+        bank.reset(1);
+        assertTrue(Double.isNaN(bank.getValue(1)));
+        assertEquals(-80.0, bank.getValue(2), 0.0);
+        // reused after the reset
+        bank.update(1, -70);
+        assertEquals(2, created[0]);
+    }
+
+    @Test
+    public void trace_stationaryEdge_filtersFlapLess() throws IOException {
+        int[] trace = loadTrace("stationary_edge.txt");
+        int raw = crossings(trace, null);
+
+        assertTrue("raw trace should flap", raw > 10);
+        assertTrue(crossings(trace, new KalmanRssiFilter()) * 4 <= raw);
+        assertTrue(crossings(trace, new EwmaRssiFilter()) * 2 <= raw);
+        assertTrue(crossings(trace, new MedianRssiFilter()) * 2 <= raw);
+    }
+
+    @Test
+    public void trace_walkAway_detectsLossInTime() throws IOException {
+        int[] trace = loadTrace("walk_away.txt");
+
+        for (RssiFilter filter : new RssiFilter[] {
+                new KalmanRssiFilter(), new EwmaRssiFilter(), new MedianRssiFilter()}) {
+            String name = filter.getClass().getSimpleName();
+            int lostAt = -1;
+            for (int i = 0; i < trace.length; i++) {
+                double value = filter.update(trace[i]);
+                if (lostAt < 0 && value < THRESHOLD) {
+                    lostAt = i;
+                }
+            }
+            // real signal passes -70dBm at about sample 59 of the trace
+            assertTrue(name + " lost too early at " + lostAt, lostAt >= 50);
+            assertTrue(name + " lost too late at " + lostAt, lostAt <= 75);
+            assertTrue(name + " should end up far", filter.getValue() < THRESHOLD);
+        }
+    }
+
+    /**
+     * Counts how often the given trace changes sides of the {@link #THRESHOLD}.
+     *
+     * @param trace Raw RSSI samples
+     * @param filter Filter to pass the samples through, or {@code null} to count the raw samples
+     * @return Number of threshold crossings
+     */
+    private static int crossings(int[] trace, RssiFilter filter) {
+        int crossings = 0;
+        Boolean above = null;
+        for (int rssi : trace) {
+            double value = filter == null ? rssi : filter.update(rssi);
+            boolean nowAbove = value > THRESHOLD;
+            if (above != null && above != nowAbove) {
+                crossings++;
+            }
+            above = nowAbove;
+        }
+        return crossings;
+    }
+
+    /**
+     * Loads a recorded RSSI trace from the test resources.
+     *
+     * @param name Trace file name inside the {@code rssi/} resource directory
+     * @return Raw RSSI samples in recorded order
+     */
+    static int[] loadTrace(String name) throws IOException {
+        InputStream in = RssiFilterTest.class.getClassLoader().getResourceAsStream("rssi/" + name);
+        assertNotNull("missing trace " + name, in);
+
+        List<Integer> samples = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    samples.add(Integer.parseInt(line));
+                }
+            }
+        }
+
+        int[] trace = new int[samples.size()];
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = samples.get(i);
+        }
+        return trace;
+    }
+}
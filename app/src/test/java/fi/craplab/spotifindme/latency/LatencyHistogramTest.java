@@ -0,0 +1,96 @@
+package fi.craplab.spotifindme.latency;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+    private static final long MILLIS = 1000000;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void emptyHistogram() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(50), 0);
+        assertEquals(0, histogram.getAverageMillis(), 0);
+    }
+
+    @Test
+    public void bucketsGrowExponentially() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(MILLIS));
+        assertEquals(LatencyHistogram.BUCKETS_PER_DECADE, LatencyHistogram.bucketOf(10 * MILLIS));
+        assertEquals(2 * LatencyHistogram.BUCKETS_PER_DECADE,
+                LatencyHistogram.bucketOf(100 * MILLIS));
+        assertEquals(histogram.getBucketCount() - 1,
+                LatencyHistogram.bucketOf((LatencyHistogram.MAX_MILLIS + 1) * MILLIS));
+        assertTrue(Double.isInfinite(
+                histogram.getBucketBoundMillis(histogram.getBucketCount() - 1)));
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10 * MILLIS);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(505, histogram.getAverageMillis(), 1e-9);
+        assertEquals(1000, histogram.getMaxMillis(), 1e-9);
+
+        double p50 = histogram.getPercentileMillis(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.26);
+        double p90 = histogram.getPercentileMillis(90);
+        assertTrue(p90 >= 900 && p90 <= 1000);
+        assertEquals(1000, histogram.getPercentileMillis(100), 1e-9);
+    }
+
+    @Test
+    public void overflowReportsMax() {
+        histogram.record(500000 * MILLIS);
+        assertEquals(500000, histogram.getPercentileMillis(99), 1e-9);
+        assertEquals(1, histogram.getCount(histogram.getBucketCount() - 1));
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long value = (t + 1) * 100 * MILLIS;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(value);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(threads * perThread, histogram.getCount());
+        long buckets = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            buckets += histogram.getCount(i);
+        }
+        assertEquals(threads * perThread, buckets);
+        assertEquals(400, histogram.getMaxMillis(), 1e-9);
+    }
+
+    @Test
+    public void reset() {
+        histogram.record(10 * MILLIS);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis(), 0);
+    }
+}
@@ -0,0 +1,87 @@
+package fi.craplab.spotifindme.latency;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link SwitchLatencyTracker}.
+ */
+public class SwitchLatencyTrackerTest {
+    private static final long MILLIS = 1000000;
+
+    private final SwitchLatencyTracker tracker = new SwitchLatencyTracker();
+
+    private double max(SwitchLatencyTracker.Span span) {
+        return tracker.histogram(span).getMaxMillis();
+    }
+
+    @Test
+    public void followsTransferUntilConfirmed() {
+        tracker.begin("Laptop", 0, 300 * MILLIS);
+        tracker.bind("Laptop", "id1");
+        tracker.onCommandFinished("id1", true, 350 * MILLIS, 550 * MILLIS, true);
+        assertEquals(0, tracker.getCompletedCount());
+
+        // some other device being active isn't the confirmation
+        tracker.onConfirmed("id2", 600 * MILLIS);
+        tracker.onConfirmed("id1", 1550 * MILLIS);
+
+        assertEquals(1, tracker.getCompletedCount());
+        assertEquals(300, max(SwitchLatencyTracker.Span.DECISION), 1e-9);
+        assertEquals(50, max(SwitchLatencyTracker.Span.DISPATCH), 1e-9);
+        assertEquals(200, max(SwitchLatencyTracker.Span.RESPONSE), 1e-9);
+        assertEquals(1000, max(SwitchLatencyTracker.Span.CONFIRMATION), 1e-9);
+        assertEquals(1550, max(SwitchLatencyTracker.Span.TOTAL), 1e-9);
+    }
+
+    @Test
+    public void pauseEndsWithResponse() {
+        tracker.begin("Laptop", 0, 100 * MILLIS);
+        tracker.bind("Laptop", "id1");
+        tracker.onCommandFinished("id1", false, 100 * MILLIS, 400 * MILLIS, true);
+
+        assertEquals(1, tracker.getCompletedCount());
+        assertEquals(400, max(SwitchLatencyTracker.Span.TOTAL), 1e-9);
+        assertEquals(0, tracker.histogram(SwitchLatencyTracker.Span.CONFIRMATION).getCount());
+    }
+
+    @Test
+    public void ignoresUnrelatedCommands() {
+        tracker.begin("Laptop", 0, 100 * MILLIS);
+        tracker.bind("Desktop", "id2");
+        tracker.onCommandFinished("id2", true, 100 * MILLIS, 200 * MILLIS, true);
+
+        assertEquals(0, tracker.histogram(SwitchLatencyTracker.Span.RESPONSE).getCount());
+    }
+
+    @Test
+    public void failedOrReplacedSwitchOverIsAbandoned() {
+        tracker.begin("Laptop", 0, 100 * MILLIS);
+        tracker.bind("Laptop", "id1");
+        tracker.onCommandFinished("id1", true, 100 * MILLIS, 200 * MILLIS, false);
+        assertEquals(1, tracker.getAbandonedCount());
+
+        tracker.begin("Laptop", 0, 100 * MILLIS);
+        tracker.begin("Desktop", 0, 100 * MILLIS);
+        assertEquals(2, tracker.getAbandonedCount());
+        assertEquals(0, tracker.getCompletedCount());
+    }
+
+    @Test
+    public void exportsAllBuckets() throws IOException {
+        tracker.begin("Laptop", 0, 2 * MILLIS);
+        StringWriter csv = new StringWriter();
+        tracker.writeCsv(csv);
+
+        String[] lines = csv.toString().split("\n");
+        int buckets = tracker.histogram(SwitchLatencyTracker.Span.DECISION).getBucketCount();
+        assertEquals("span,le_ms,count", lines[0]);
+        assertEquals(1 + SwitchLatencyTracker.Span.values().length * buckets, lines.length);
+        assertEquals("decision,inf,0", lines[buckets]);
+        assertTrue(csv.toString().contains("decision,2.512,1\n"));
+    }
+}
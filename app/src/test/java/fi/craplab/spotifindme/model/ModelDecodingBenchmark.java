@@ -0,0 +1,127 @@
+package fi.craplab.spotifindme.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a device list with the {@link ModelTypeAdapterFactory} against Gson's
+ * reflective adapters, as used before, i.e. with the device type kept as string.
+ * <p>
+ * The realistic payload is the recorded response in {@code spotify/devices.json}, the large one
+ * has 200 devices, each with a few extra fields the models don't know about. Both are decoded
+ * from a {@link java.io.Reader}, like Retrofit does with the response body.
+ * </p>
+ * <p>
+ * Not a unit test, run it through {@link #main(String[])}, which adds the GC profiler for the
+ * allocation rate per decoded payload ({@code gc.alloc.rate.norm}).
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelDecodingBenchmark {
+    private static final int LARGE_DEVICES = 200;
+
+    /** The device list model as decoded before, see {@link Devices} */
+    public static class ReflectiveDevices {
+        public List<ReflectiveDevice> devices;
+    }
+
+    /** The device model as decoded before, see {@link Device} */
+    public static class ReflectiveDevice {
+        @SerializedName("id")
+        public String deviceId;
+        @SerializedName("is_active")
+        public boolean isActive;
+        @SerializedName("is_private_session")
+        public boolean isPrivateSession;
+        @SerializedName("is_restricted")
+        public boolean isRestricted;
+        @SerializedName("name")
+        public String deviceName;
+        @SerializedName("type")
+        public String deviceType;
+        @SerializedName("volume_percent")
+        public int volumePercent;
+    }
+
+    @Param({"realistic", "large"})
+    public String payload;
+
+    private String json;
+    private Gson reflectiveGson;
+    private Gson streamingGson;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = payload.equals("large")
+                ? largePayload()
+                : ModelTypeAdapterFactoryTest.loadResponse("devices.json");
+        reflectiveGson = new Gson();
+        streamingGson = new GsonBuilder()
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                .create();
+    }
+
+    private static String largePayload() {
+        StringBuilder builder = new StringBuilder("{\"devices\":[");
+        for (int i = 0; i < LARGE_DEVICES; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"").append(String.format("%040x", i * 7919L))
+                    .append("\",\"is_active\":").append(i == 0)
+                    .append(",\"is_private_session\":false,\"is_restricted\":").append(i % 10 == 9)
+                    .append(",\"name\":\"Device ").append(i)
+                    .append("\",\"supports_volume\":true,\"type\":\"")
+                    .append(DeviceType.values()[i % DeviceType.values().length].apiName)
+                    .append("\",\"volume_percent\":").append(i % 101)
+                    .append(",\"capabilities\":{\"remote\":[true,false],\"modes\":{\"cast\":null}}}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    @Benchmark
+    public ReflectiveDevices reflective() {
+        return reflectiveGson.fromJson(new StringReader(json), ReflectiveDevices.class);
+    }
+
+    @Benchmark
+    public Devices streaming() {
+        return streamingGson.fromJson(new StringReader(json), Devices.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ModelDecodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,159 @@
+package fi.craplab.spotifindme.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class ModelTypeAdapterFactoryTest {
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+            .create();
+
+    /**
+     * Loads a recorded Spotify API response from the test resources.
+     *
+     * @param name File name inside the {@code spotify/} resource directory
+     * @return Response body
+     */
+    static String loadResponse(String name) throws IOException {
+        InputStream in = ModelTypeAdapterFactoryTest.class.getClassLoader()
+                .getResourceAsStream("spotify/" + name);
+        assertNotNull("missing response " + name, in);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void decodesDevices() throws IOException {
+        Devices devices = gson.fromJson(loadResponse("devices.json"), Devices.class);
+        assertEquals(5, devices.devices.size());
+
+        Device speaker = devices.devices.get(0);
+        assertEquals("5fbb3ba6aa454b5534c4ba43a8c7e8e45a63ad0e", speaker.deviceId);
+        assertEquals("Living Room", speaker.deviceName);
+        assertEquals(DeviceType.SPEAKER, speaker.deviceType);
+        assertTrue(speaker.isActive);
+        assertFalse(speaker.isPrivateSession);
+        assertFalse(speaker.isRestricted);
+        assertEquals(42, speaker.volumePercent);
+
+        assertEquals(DeviceType.COMPUTER, devices.devices.get(1).deviceType);
+        assertTrue(devices.devices.get(2).isPrivateSession);
+    }
+
+    @Test
+    public void decodesNullsAsDefaults() throws IOException {
+        Devices devices = gson.fromJson(loadResponse("devices.json"), Devices.class);
+
+        Device phone = devices.devices.get(2);
+        assertEquals(0, phone.volumePercent);
+
+        Device tv = devices.devices.get(3);
+        assertNull(tv.deviceId);
+        assertEquals("Kitchen TV", tv.deviceName);
+        assertEquals(DeviceType.TV, tv.deviceType);
+        assertTrue(tv.isRestricted);
+    }
+
+    @Test
+    public void unknownTypeIsUnknown() throws IOException {
+        Devices devices = gson.fromJson(loadResponse("devices.json"), Devices.class);
+        assertEquals(DeviceType.UNKNOWN, devices.devices.get(4).deviceType);
+        assertEquals(65, devices.devices.get(4).volumePercent);
+
+        Device device = gson.fromJson("{\"name\":\"No type\"}", Device.class);
+        assertEquals(DeviceType.UNKNOWN, device.deviceType);
+    }
+
+    @Test
+    public void skipsUnknownFields() {
+        Devices devices = gson.fromJson("{\"cursor\":{\"next\":[1,{\"a\":null}]},"
+                + "\"devices\":[{\"extra\":[[]],\"id\":\"a\",\"more\":{}}],\"total\":1}",
+                Devices.class);
+        assertEquals(1, devices.devices.size());
+        assertEquals("a", devices.devices.get(0).deviceId);
+    }
+
+    @Test
+    public void decodesMissingOrNullDeviceList() {
+        assertNull(gson.fromJson("{}", Devices.class).devices);
+        assertNull(gson.fromJson("{\"devices\":null}", Devices.class).devices);
+        assertNull(gson.fromJson("null", Devices.class));
+    }
+
+    @Test
+    public void matchesReflectiveDecoding() throws IOException {
+        String json = loadResponse("devices.json");
+        Devices streamed = gson.fromJson(json, Devices.class);
+        Devices reflected = new Gson().fromJson(json, Devices.class);
+
+        assertEquals(reflected.devices.size(), streamed.devices.size());
+        for (int i = 0; i < streamed.devices.size(); i++) {
+            Device expected = reflected.devices.get(i);
+            Device actual = streamed.devices.get(i);
+            assertEquals(expected.deviceId, actual.deviceId);
+            assertEquals(expected.deviceName, actual.deviceName);
+            assertEquals(expected.isActive, actual.isActive);
+            assertEquals(expected.isPrivateSession, actual.isPrivateSession);
+            assertEquals(expected.isRestricted, actual.isRestricted);
+            assertEquals(expected.volumePercent, actual.volumePercent);
+        }
+    }
+
+    @Test
+    public void roundTripsDevices() throws IOException {
+        Devices devices = gson.fromJson(loadResponse("devices.json"), Devices.class);
+        Devices decoded = gson.fromJson(gson.toJson(devices), Devices.class);
+
+        assertEquals(devices.devices.size(), decoded.devices.size());
+        assertEquals("Living Room", decoded.devices.get(0).deviceName);
+        assertEquals(DeviceType.SPEAKER, decoded.devices.get(0).deviceType);
+        assertNull(decoded.devices.get(3).deviceId);
+    }
+
+    @Test
+    public void decodesUserProfile() {
+        UserProfile profile = gson.fromJson("{\"country\":\"FI\",\"display_name\":\"Sven\","
+                + "\"followers\":{\"href\":null,\"total\":3},\"id\":\"sven\","
+                + "\"images\":[{\"url\":\"https://example.com/a.jpg\"}]}", UserProfile.class);
+        assertEquals("Sven", profile.displayName);
+        assertEquals("sven", profile.userId);
+
+        assertNull(gson.fromJson("{\"display_name\":null,\"id\":\"x\"}", UserProfile.class)
+                .displayName);
+    }
+
+    @Test
+    public void leavesOtherModelsToGson() {
+        TokenResponse token = gson.fromJson("{\"access_token\":\"abc\",\"expires_in\":3600}",
+                TokenResponse.class);
+        assertEquals("abc", token.accessToken);
+        assertEquals(3600, token.expiresIn);
+    }
+
+    @Test
+    public void mapsApiNames() {
+        for (DeviceType type : DeviceType.values()) {
+            assertSame(type, DeviceType.fromApiName(type.apiName));
+        }
+        assertEquals(DeviceType.UNKNOWN, DeviceType.fromApiName(null));
+        assertEquals(DeviceType.UNKNOWN, DeviceType.fromApiName("computer"));
+    }
+}
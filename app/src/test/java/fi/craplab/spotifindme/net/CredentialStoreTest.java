@@ -0,0 +1,203 @@
+package fi.craplab.spotifindme.net;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CredentialStore} with a plain JVM key instead of the Android Keystore.
+ */
+public class CredentialStoreTest {
+    /** Runs the background work right away */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Fixed in-memory key, standing in for the Android Keystore */
+    private static class FakeKeyProvider implements CredentialStore.KeyProvider {
+        final SecretKey key;
+
+        FakeKeyProvider() throws GeneralSecurityException {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            key = generator.generateKey();
+        }
+
+        @Override
+        public SecretKey getKey() {
+            return key;
+        }
+    }
+
+    /** Legacy store counting its reads */
+    private static class LegacyStore implements TokenRefresher.TokenStore {
+        Credentials credentials = Credentials.NONE;
+        int reads;
+
+        @Override
+        public Credentials getCredentials() {
+            reads++;
+            return credentials;
+        }
+
+        @Override
+        public void storeCredentials(Credentials credentials) {
+            this.credentials = credentials;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FakeKeyProvider keyProvider;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        file = new File(folder.getRoot(), "credentials");
+        keyProvider = new FakeKeyProvider();
+    }
+
+    private CredentialStore newStore(CredentialStore.KeyProvider keys,
+                                     TokenRefresher.TokenStore legacy) {
+        return new CredentialStore(file, keys, legacy, DIRECT);
+    }
+
+    @Test
+    public void emptyWithoutFile() {
+        assertSame(Credentials.NONE, newStore(keyProvider, null).getCredentials());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        CredentialStore store = newStore(keyProvider, null);
+        store.storeCredentials(new Credentials("access-token", 1234567890123L, "refresh-token"));
+        assertEquals("access-token", store.getCredentials().token);
+
+        Credentials loaded = newStore(keyProvider, null).getCredentials();
+        assertEquals("access-token", loaded.token);
+        assertEquals(1234567890123L, loaded.expiresAt);
+        assertEquals("refresh-token", loaded.refreshToken);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        String raw = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertTrue(raw.startsWith("SFCR"));
+        assertFalse(raw.contains("access-token"));
+        assertFalse(raw.contains("refresh-token"));
+    }
+
+    @Test
+    public void nullTokens() {
+        newStore(keyProvider, null).storeCredentials(new Credentials(null, 0, "refresh"));
+        Credentials loaded = newStore(keyProvider, null).getCredentials();
+        assertNull(loaded.token);
+        assertEquals("refresh", loaded.refreshToken);
+    }
+
+    @Test
+    public void modifiedFileIsRejected() throws IOException {
+        newStore(keyProvider, null).storeCredentials(new Credentials("token", 42, "refresh"));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 20);
+            int b = raf.read();
+            raf.seek(raf.length() - 20);
+            raf.write(b ^ 0x01);
+        }
+        assertSame(Credentials.NONE, newStore(keyProvider, null).getCredentials());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void modifiedHeaderIsRejected() throws IOException {
+        newStore(keyProvider, null).storeCredentials(new Credentials("token", 42, "refresh"));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // authenticated, but not encrypted
+            raf.seek(5);
+            raf.write(2);
+        }
+        assertSame(Credentials.NONE, newStore(keyProvider, null).getCredentials());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        newStore(keyProvider, null).storeCredentials(new Credentials("token", 42, "refresh"));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(10);
+        }
+        assertSame(Credentials.NONE, newStore(keyProvider, null).getCredentials());
+    }
+
+    @Test
+    public void otherKeyIsRejected() throws GeneralSecurityException {
+        newStore(keyProvider, null).storeCredentials(new Credentials("token", 42, "refresh"));
+        assertSame(Credentials.NONE, newStore(new FakeKeyProvider(), null).getCredentials());
+    }
+
+    @Test
+    public void legacyCredentialsAreMigrated() {
+        LegacyStore legacy = new LegacyStore();
+        legacy.credentials = new Credentials("old", 42, "refresh");
+
+        CredentialStore store = newStore(keyProvider, legacy);
+        assertEquals("old", store.getCredentials().token);
+        assertSame(Credentials.NONE, legacy.credentials);
+        assertTrue(file.exists());
+
+        // only read once, and never again once migrated
+        store.getCredentials();
+        newStore(keyProvider, legacy).getCredentials();
+        assertEquals(1, legacy.reads);
+        assertEquals("old", newStore(keyProvider, null).getCredentials().token);
+    }
+
+    @Test
+    public void legacyCredentialsAreKeptIfEncryptionFails() {
+        LegacyStore legacy = new LegacyStore();
+        legacy.credentials = new Credentials("old", 42, "refresh");
+        CredentialStore.KeyProvider broken = new CredentialStore.KeyProvider() {
+            @Override
+            public SecretKey getKey() throws GeneralSecurityException {
+                throw new GeneralSecurityException("no keystore");
+            }
+        };
+
+        assertEquals("old", newStore(broken, legacy).getCredentials().token);
+        assertEquals("old", legacy.credentials.token);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void preloadLoadsInBackground() {
+        newStore(keyProvider, null).storeCredentials(new Credentials("token", 42, "refresh"));
+        final Runnable[] pending = new Runnable[1];
+        CredentialStore store = new CredentialStore(file, keyProvider, null, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending[0] = command;
+            }
+        });
+        store.preload();
+        assertNotNull(pending[0]);
+        pending[0].run();
+        // now loaded, deleting the file doesn't matter anymore
+        assertTrue(file.delete());
+        assertEquals("token", store.getCredentials().token);
+    }
+}
@@ -0,0 +1,144 @@
+package fi.craplab.spotifindme.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HttpCaching} setup against a local {@link MockWebServer}.
+ */
+public class HttpCachingTest {
+    private static final String DEVICES_JSON = "{\"devices\":[{\"id\":\"5fbb3ba6aa454b5534c4ba43a8c7e8e45a63ad0e\","
+            + "\"is_active\":true,\"is_private_session\":false,\"is_restricted\":false,"
+            + "\"name\":\"Desktop\",\"type\":\"Computer\",\"volume_percent\":100},"
+            + "{\"id\":\"8e45a63ad0e5fbb3ba6aa454b5534c4ba43a8c7e\",\"is_active\":false,"
+            + "\"is_private_session\":false,\"is_restricted\":false,\"name\":\"Laptop\","
+            + "\"type\":\"Computer\",\"volume_percent\":42}]}";
+
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private long bodyBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+
+        client = HttpCaching.configure(new OkHttpClient.Builder(), cacheDir.getRoot())
+                .eventListener(new EventListener() {
+                    @Override
+                    public void responseBodyEnd(Call call, long byteCount) {
+                        bodyBytes += byteCount;
+                    }
+                })
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void unchangedResponseIsRevalidated() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "private, max-age=0")
+                .setHeader("ETag", "\"v1\"")
+                .setBody(DEVICES_JSON));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        String first = get();
+        long firstBytes = bodyBytes;
+        bodyBytes = 0;
+        String second = get();
+
+        assertEquals(DEVICES_JSON, first);
+        assertEquals(DEVICES_JSON, second);
+        assertEquals(DEVICES_JSON.length(), firstBytes);
+        assertEquals(0, bodyBytes);
+
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void noStoreResponseWithValidatorIsRevalidated() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Cache-Control", "no-cache, no-store")
+                .setHeader("ETag", "\"v1\"")
+                .setBody(DEVICES_JSON));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        get();
+        assertEquals(DEVICES_JSON, get());
+
+        server.takeRequest();
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void changedResponseReplacesCachedOne() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("{\"devices\":[]}"));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(DEVICES_JSON));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        get();
+        assertEquals(DEVICES_JSON, get());
+        assertEquals(DEVICES_JSON, get());
+
+        server.takeRequest();
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v2\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void responseWithoutValidatorIsNotCached() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Cache-Control", "no-store").setBody("a"));
+        server.enqueue(new MockResponse().setBody("b"));
+
+        assertEquals("a", get());
+        assertEquals("b", get());
+
+        server.takeRequest();
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void ttlCacheExpires() {
+        TtlCache<String> cache = new TtlCache<>(1000);
+        assertNull(cache.get(0));
+        cache.put("profile", 100);
+        assertEquals("profile", cache.get(1099));
+        assertNull(cache.get(1100));
+
+        cache.put("profile", 2000);
+        cache.invalidate();
+        assertNull(cache.get(2000));
+    }
+
+    private String get() throws IOException {
+        Request request = new Request.Builder().url(server.url("/v1/me/player/devices")).build();
+        try (Response response = client.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+            return response.body().string();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package fi.craplab.spotifindme.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RateLimitInterceptor} against a local {@link MockWebServer} injecting
+ * {@code 429} and {@code 5xx} responses, on a virtual clock.
+ */
+public class RateLimitInterceptorTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+    private TestLimiter limiter;
+
+    /**
+     * Rate limiter that doesn't actually sleep, but just moves its clock forward.
+     */
+    private static class TestLimiter extends RateLimitInterceptor {
+        long now = 1000;
+        final List<Long> sleeps = new ArrayList<>();
+
+        TestLimiter() {
+            super(new Random(42));
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+
+        @Override
+        void sleep(long nanos) {
+            sleeps.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+            now += nanos;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        limiter = new TestLimiter();
+        client = new OkHttpClient.Builder()
+                .addInterceptor(limiter)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private Response get(String path) throws IOException {
+        return client.newCall(new Request.Builder().url(server.url(path)).build()).execute();
+    }
+
+    private Response send(String method, String path) throws IOException {
+        RequestBody body = RequestBody.create(MediaType.parse("application/json"), "{}");
+        return client.newCall(new Request.Builder().url(server.url(path)).method(method, body)
+                .build()).execute();
+    }
+
+    @Test
+    public void classifiesEndpoints() {
+        Request devices = new Request.Builder().url("https://api.spotify.com/v1/me/player/devices")
+                .build();
+        Request profile = new Request.Builder().url("https://api.spotify.com/v1/me").build();
+        Request transfer = new Request.Builder().url("https://api.spotify.com/v1/me/player")
+                .put(RequestBody.create(null, "{}")).build();
+
+        assertEquals(RateLimitInterceptor.Endpoint.DEVICES,
+                RateLimitInterceptor.Endpoint.of(devices));
+        assertEquals(RateLimitInterceptor.Endpoint.OTHER, RateLimitInterceptor.Endpoint.of(profile));
+        assertEquals(RateLimitInterceptor.Endpoint.PLAYBACK,
+                RateLimitInterceptor.Endpoint.of(transfer));
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertEquals(TimeUnit.SECONDS.toNanos(3), RateLimitInterceptor.parseRetryAfter("3"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(RateLimitInterceptor.DEFAULT_RETRY_AFTER_MILLIS),
+                RateLimitInterceptor.parseRetryAfter(null));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(RateLimitInterceptor.DEFAULT_RETRY_AFTER_MILLIS),
+                RateLimitInterceptor.parseRetryAfter("soon"));
+        assertEquals(0, RateLimitInterceptor.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void retriesServerErrorsWithJitter() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = get("/v1/me/player/devices")) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, limiter.getRetryCount());
+        assertEquals(2, limiter.sleeps.size());
+        assertTrue(limiter.sleeps.get(0) <= RateLimitInterceptor.BASE_BACKOFF_MILLIS);
+        assertTrue(limiter.sleeps.get(1) <= 2 * RateLimitInterceptor.BASE_BACKOFF_MILLIS);
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws IOException {
+        for (int i = 0; i <= RateLimitInterceptor.MAX_RETRIES; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+        }
+
+        try (Response response = get("/v1/me")) {
+            assertEquals(500, response.code());
+        }
+        assertEquals(RateLimitInterceptor.MAX_RETRIES + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesConnectionErrors() throws IOException {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = get("/v1/me")) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(1, limiter.getRetryCount());
+    }
+
+    @Test
+    public void doesNotRetryPost() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = send("POST", "/v1/me/player/queue")) {
+            assertEquals(503, response.code());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, limiter.getRetryCount());
+    }
+
+    @Test
+    public void transferWaitsForRetryAfter() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "2"));
+        server.enqueue(new MockResponse().setResponseCode(204));
+
+        try (Response response = send("PUT", "/v1/me/player")) {
+            assertEquals(204, response.code());
+        }
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, limiter.getServerLimitedCount());
+        assertEquals(Long.valueOf(2000), limiter.sleeps.get(0));
+    }
+
+    @Test
+    public void deviceRefreshFailsFastDuringRetryAfter() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "2"));
+
+        try (Response response = get("/v1/me/player/devices")) {
+            assertEquals(429, response.code());
+        }
+        // blocked without even asking the server
+        try (Response response = get("/v1/me/player/devices")) {
+            assertEquals(429, response.code());
+            assertEquals(RateLimitInterceptor.LOCAL_MESSAGE, response.message());
+            assertEquals("2", response.header("Retry-After"));
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, limiter.getClientLimitedCount());
+
+        limiter.now += TimeUnit.SECONDS.toNanos(2);
+        server.enqueue(new MockResponse().setBody("{}"));
+        try (Response response = get("/v1/me/player/devices")) {
+            assertEquals(200, response.code());
+        }
+    }
+
+    @Test
+    public void tooLongRetryAfterIsReturned() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "30"));
+
+        try (Response response = send("PUT", "/v1/me/player")) {
+            assertEquals(429, response.code());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertTrue(limiter.sleeps.isEmpty());
+    }
+
+    @Test
+    public void deviceRefreshesCannotStarveTransfers() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+        }
+
+        // device refreshes and profile requests drain their own buckets, then they're refused
+        int sent = 0;
+        for (int i = 0; i < 5; i++) {
+            try (Response devices = get("/v1/me/player/devices");
+                 Response profile = get("/v1/me")) {
+                sent += (devices.code() == 200 ? 1 : 0) + (profile.code() == 200 ? 1 : 0);
+            }
+        }
+        assertEquals(6, sent);
+
+        // transfers still go out right away
+        for (int i = 0; i < 3; i++) {
+            try (Response response = send("PUT", "/v1/me/player")) {
+                assertEquals(200, response.code());
+            }
+        }
+        assertTrue(limiter.sleeps.isEmpty());
+    }
+}
@@ -0,0 +1,54 @@
+package fi.craplab.spotifindme.net;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void burstUpToCapacity() {
+        TokenBucket bucket = new TokenBucket(3, 1);
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertFalse(bucket.tryAcquire(0, 0));
+        assertEquals(SECOND, bucket.nanosUntilAvailable(0, 0));
+    }
+
+    @Test
+    public void refillsOverTime() {
+        TokenBucket bucket = new TokenBucket(2, 2);
+        bucket.tryAcquire(0, 0);
+        bucket.tryAcquire(0, 0);
+
+        assertFalse(bucket.tryAcquire(SECOND / 4, 0));
+        assertTrue(bucket.tryAcquire(SECOND / 2, 0));
+        // never more than the capacity
+        assertEquals(0, bucket.nanosUntilAvailable(100 * SECOND, 1));
+        assertTrue(bucket.tryAcquire(100 * SECOND, 0));
+        assertTrue(bucket.tryAcquire(100 * SECOND, 0));
+        assertFalse(bucket.tryAcquire(100 * SECOND, 0));
+    }
+
+    @Test
+    public void reserveIsLeftForOthers() {
+        TokenBucket bucket = new TokenBucket(5, 1);
+        assertTrue(bucket.tryAcquire(0, 3));
+        assertTrue(bucket.tryAcquire(0, 3));
+        assertFalse(bucket.tryAcquire(0, 3));
+        assertEquals(SECOND, bucket.nanosUntilAvailable(0, 3));
+
+        // but whoever may use the reserve still gets it
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertTrue(bucket.tryAcquire(0, 0));
+        assertFalse(bucket.tryAcquire(0, 0));
+    }
+}
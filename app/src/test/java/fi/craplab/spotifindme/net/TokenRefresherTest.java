@@ -0,0 +1,287 @@
+package fi.craplab.spotifindme.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TokenRefresher} and {@link TokenAuthenticator} against a local
+ * {@link MockWebServer} token endpoint.
+ */
+public class TokenRefresherTest {
+    private static final String CLIENT_ID = "client";
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /** In-memory token storage */
+    private static class MemoryStore implements TokenRefresher.TokenStore {
+        volatile Credentials credentials = Credentials.NONE;
+
+        @Override
+        public Credentials getCredentials() {
+            return credentials;
+        }
+
+        @Override
+        public void storeCredentials(Credentials credentials) {
+            this.credentials = credentials;
+        }
+
+        void storeToken(String token, long expiresAt, String refreshToken) {
+            credentials = new Credentials(token, expiresAt, refreshToken);
+        }
+
+        String getToken() {
+            return credentials.token;
+        }
+
+        long getExpiresAt() {
+            return credentials.expiresAt;
+        }
+
+        String getRefreshToken() {
+            return credentials.refreshToken;
+        }
+    }
+
+    private MockWebServer accounts;
+    private MockWebServer api;
+    private MemoryStore store;
+    private TokenRefresher refresher;
+
+    private static MockResponse tokenResponse(String token, long expiresIn, String refreshToken) {
+        return new MockResponse().setHeader("Content-Type", "application/json")
+                .setBody("{\"access_token\":\"" + token + "\",\"token_type\":\"Bearer\","
+                        + "\"expires_in\":" + expiresIn
+                        + (refreshToken != null ? ",\"refresh_token\":\"" + refreshToken + "\"" : "")
+                        + "}");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        accounts = new MockWebServer();
+        accounts.start();
+        api = new MockWebServer();
+        api.start();
+        store = new MemoryStore();
+        refresher = new TokenRefresher(
+                TokenRefresher.createAccountsApi(new OkHttpClient(), accounts.url("/").toString()),
+                CLIENT_ID, store, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        refresher.shutdown();
+        accounts.shutdown();
+        api.shutdown();
+    }
+
+    @Test
+    public void exchangeCodeStoresTokens() throws Exception {
+        accounts.enqueue(tokenResponse("access", 3600, "refresh"));
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean result = new AtomicBoolean();
+
+        refresher.exchangeCode("code", "app://redirect", "verifier", new TokenRefresher.Callback() {
+            @Override
+            public void onTokenReceived(boolean success) {
+                result.set(success);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get());
+
+        RecordedRequest request = accounts.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("/api/token", request.getPath());
+        String body = request.getBody().readUtf8();
+        assertTrue(body, body.contains("grant_type=authorization_code"));
+        assertTrue(body, body.contains("code=code"));
+        assertTrue(body, body.contains("code_verifier=verifier"));
+        assertTrue(body, body.contains("client_id=" + CLIENT_ID));
+
+        assertEquals("access", store.getToken());
+        assertEquals("refresh", store.getRefreshToken());
+        assertTrue(store.getExpiresAt() > System.currentTimeMillis() + HOUR - 60000);
+        assertTrue(refresher.hasCredentials());
+    }
+
+    @Test
+    public void expiredTokenIsRefreshedOnDemand() throws Exception {
+        store.storeToken("old", System.currentTimeMillis() - 1000, "refresh");
+        // no new refresh token sent, the old one stays
+        accounts.enqueue(tokenResponse("new", 3600, null));
+
+        assertEquals("new", refresher.getToken());
+        String body = accounts.takeRequest().getBody().readUtf8();
+        assertTrue(body, body.contains("grant_type=refresh_token"));
+        assertTrue(body, body.contains("refresh_token=refresh"));
+        assertEquals("refresh", store.getRefreshToken());
+
+        // valid now, no further requests
+        assertEquals("new", refresher.getToken());
+        assertEquals(1, accounts.getRequestCount());
+    }
+
+    @Test
+    public void validTokenIsNotRefreshed() {
+        store.storeToken("valid", System.currentTimeMillis() + HOUR, "refresh");
+        assertEquals("valid", refresher.getToken());
+        assertEquals(0, accounts.getRequestCount());
+    }
+
+    @Test
+    public void rejectedRefreshTokenClearsCredentials() {
+        store.storeToken("old", System.currentTimeMillis() - 1000, "refresh");
+        assertTrue(refresher.hasCredentials());
+        accounts.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"error\":\"invalid_grant\"}"));
+
+        assertNull(refresher.getToken());
+        assertSame(Credentials.NONE, store.credentials);
+        assertFalse(refresher.hasCredentials());
+        assertEquals(1, accounts.getRequestCount());
+    }
+
+    @Test
+    public void serverErrorKeepsCredentials() {
+        store.storeToken("old", System.currentTimeMillis() - 1000, "refresh");
+        accounts.enqueue(new MockResponse().setResponseCode(503));
+
+        assertNull(refresher.getToken());
+        assertEquals("old", store.getToken());
+        assertEquals("refresh", store.getRefreshToken());
+        assertTrue(refresher.hasCredentials());
+    }
+
+    @Test
+    public void concurrentlyRejectedTokenIsRefreshedOnce() {
+        store.storeToken("old", System.currentTimeMillis() + HOUR, "refresh");
+        accounts.enqueue(tokenResponse("new", 3600, "rotated"));
+
+        assertEquals("new", refresher.refreshAfterUnauthorized("old"));
+        // a second request that failed with the old token picks up the new one
+        assertEquals("new", refresher.refreshAfterUnauthorized("old"));
+        assertEquals(1, accounts.getRequestCount());
+        assertEquals("rotated", store.getRefreshToken());
+    }
+
+    @Test
+    public void tokenIsRefreshedBeforeExpiration() throws Exception {
+        accounts.enqueue(tokenResponse("short", 1, "refresh"));
+        accounts.enqueue(tokenResponse("next", 3600, null));
+        final CountDownLatch done = new CountDownLatch(1);
+        refresher.exchangeCode("code", "app://redirect", "verifier", new TokenRefresher.Callback() {
+            @Override
+            public void onTokenReceived(boolean success) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        accounts.takeRequest();
+        RecordedRequest refresh = accounts.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(refresh);
+        assertTrue(refresh.getBody().readUtf8().contains("grant_type=refresh_token"));
+        for (int i = 0; i < 50 && !"next".equals(store.getToken()); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("next", store.getToken());
+    }
+
+    private OkHttpClient apiClient() {
+        return new OkHttpClient.Builder()
+                .addNetworkInterceptor(new AuthInterceptor(refresher))
+                .authenticator(new TokenAuthenticator(refresher))
+                .build();
+    }
+
+    @Test
+    public void unauthorizedRequestIsRetriedWithNewToken() throws Exception {
+        store.storeToken("revoked", System.currentTimeMillis() + HOUR, "refresh");
+        accounts.enqueue(tokenResponse("new", 3600, null));
+        api.enqueue(new MockResponse().setResponseCode(401));
+        api.enqueue(new MockResponse().setBody("ok"));
+
+        Response response = apiClient().newCall(new Request.Builder()
+                .url(api.url("/v1/me")).build()).execute();
+        assertEquals(200, response.code());
+        assertEquals("ok", response.body().string());
+
+        assertEquals("Bearer revoked", api.takeRequest().getHeader("Authorization"));
+        assertEquals("Bearer new", api.takeRequest().getHeader("Authorization"));
+    }
+
+    @Test
+    public void unauthorizedRequestIsRetriedOnlyOnce() throws Exception {
+        store.storeToken("revoked", System.currentTimeMillis() + HOUR, "refresh");
+        accounts.enqueue(tokenResponse("new", 3600, null));
+        accounts.enqueue(tokenResponse("newer", 3600, null));
+        api.enqueue(new MockResponse().setResponseCode(401));
+        api.enqueue(new MockResponse().setResponseCode(401));
+        api.enqueue(new MockResponse().setResponseCode(401));
+
+        Response response = apiClient().newCall(new Request.Builder()
+                .url(api.url("/v1/me")).build()).execute();
+        assertEquals(401, response.code());
+        response.close();
+        assertEquals(2, api.getRequestCount());
+        assertEquals(1, accounts.getRequestCount());
+    }
+
+    @Test
+    public void requestWithoutTokenHasNoAuthorizationHeader() throws Exception {
+        api.enqueue(new MockResponse().setResponseCode(401));
+
+        Response response = apiClient().newCall(new Request.Builder()
+                .url(api.url("/v1/me")).build()).execute();
+        assertEquals(401, response.code());
+        response.close();
+        assertNull(api.takeRequest().getHeader("Authorization"));
+        assertEquals(0, accounts.getRequestCount());
+    }
+
+    @Test
+    public void rotatedTokenIsSeenByNextRequest() throws Exception {
+        store.storeToken("first", System.currentTimeMillis() + HOUR, "refresh");
+        api.enqueue(new MockResponse());
+        api.enqueue(new MockResponse());
+        OkHttpClient client = apiClient();
+
+        client.newCall(new Request.Builder().url(api.url("/v1/me")).build()).execute().close();
+        // e.g. a new login, no refresh needed to pick it up
+        store.storeCredentials(new Credentials("second", System.currentTimeMillis() + HOUR,
+                "refresh"));
+        client.newCall(new Request.Builder().url(api.url("/v1/me")).build()).execute().close();
+
+        assertEquals("Bearer first", api.takeRequest().getHeader("Authorization"));
+        assertEquals("Bearer second", api.takeRequest().getHeader("Authorization"));
+        assertEquals(0, accounts.getRequestCount());
+    }
+
+    @Test
+    public void credentialsValidity() {
+        long now = 1000000;
+        assertNull(Credentials.NONE.getValidToken(now));
+        assertFalse(Credentials.NONE.canAuthorize(now));
+        assertEquals("t", new Credentials("t", now + 1, null).getValidToken(now));
+        assertNull(new Credentials("t", now, null).getValidToken(now));
+        assertFalse(new Credentials("t", now, null).canAuthorize(now));
+        assertTrue(new Credentials("t", now, "r").canAuthorize(now));
+    }
+}
@@ -0,0 +1,153 @@
+package fi.craplab.spotifindme.playback;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.DeviceType;
+import fi.craplab.spotifindme.model.Devices;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link DeviceRegistry}, writing synchronously to a temporary file.
+ */
+public class DeviceRegistryTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private DeviceRegistry registry;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "devices");
+        registry = new DeviceRegistry(file, DIRECT);
+    }
+
+    private static Devices devices(String... idsAndNames) {
+        Devices devices = new Devices();
+        devices.devices = new ArrayList<>();
+        for (int i = 0; i < idsAndNames.length; i += 2) {
+            Device device = new Device();
+            device.deviceId = idsAndNames[i];
+            device.deviceName = idsAndNames[i + 1];
+            device.deviceType = DeviceType.COMPUTER;
+            devices.devices.add(device);
+        }
+        return devices;
+    }
+
+    @Test
+    public void indexesByNameAndId() {
+        assertTrue(registry.update(devices("a", "Laptop", "b", "Desktop")));
+
+        assertEquals("a", registry.findByName("Laptop").deviceId);
+        assertEquals("Desktop", registry.findById("b").deviceName);
+        assertNull(registry.findByName("Kitchen"));
+        assertTrue(registry.isLive());
+    }
+
+    @Test
+    public void unchangedListIsNoUpdate() {
+        registry.update(devices("a", "Laptop"));
+        long modified = file.lastModified();
+        assertTrue(file.delete());
+
+        assertFalse(registry.update(devices("a", "Laptop")));
+        // nothing written either
+        assertFalse(file.exists());
+        assertNotEquals(0, modified);
+    }
+
+    @Test
+    public void keepsMissingDevicesAndFollowsRenames() {
+        registry.update(devices("a", "Laptop", "b", "Desktop"));
+        assertTrue(registry.update(devices("b", "Office")));
+
+        assertEquals("a", registry.findByName("Laptop").deviceId);
+        assertEquals("b", registry.findByName("Office").deviceId);
+        assertNull(registry.findByName("Desktop"));
+    }
+
+    @Test
+    public void newerDeviceWinsName() {
+        registry.update(devices("a", "Laptop"));
+        registry.update(devices("c", "Laptop"));
+        assertEquals("c", registry.findByName("Laptop").deviceId);
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void persistsAcrossInstances() {
+        registry.update(devices("a", "Laptop", "b", "Desktop"));
+
+        DeviceRegistry loaded = new DeviceRegistry(file, DIRECT);
+        assertNull(loaded.findByName("Laptop"));
+        loaded.load();
+
+        assertEquals("a", loaded.findByName("Laptop").deviceId);
+        assertEquals(DeviceType.COMPUTER, loaded.findById("b").deviceType);
+        assertFalse(loaded.isLive());
+
+        // same devices confirmed by Spotify, nothing to write, but now live
+        assertFalse(loaded.update(devices("a", "Laptop", "b", "Desktop")));
+        assertTrue(loaded.isLive());
+    }
+
+    @Test
+    public void loadDoesNotOverwriteNewerDevices() {
+        registry.update(devices("a", "Laptop"));
+
+        DeviceRegistry other = new DeviceRegistry(file, DIRECT);
+        other.update(devices("c", "Desktop"));
+        other.load();
+        assertNull(other.findByName("Laptop"));
+        assertTrue(other.isLive());
+    }
+
+    @Test
+    public void brokenFileIsDropped() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        registry.load();
+        assertEquals(0, registry.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void dropsOldestAboveLimit() {
+        for (int i = 0; i <= DeviceRegistry.MAX_DEVICES; i++) {
+            registry.update(devices("id" + i, "Device " + i));
+        }
+
+        assertEquals(DeviceRegistry.MAX_DEVICES, registry.size());
+        assertNull(registry.findById("id0"));
+        assertNotNull(registry.findById("id" + DeviceRegistry.MAX_DEVICES));
+    }
+
+    @Test
+    public void ignoresDevicesWithoutId() {
+        Devices devices = devices("a", "Laptop");
+        devices.devices.get(0).deviceId = null;
+        assertFalse(registry.update(devices));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,412 @@
+package fi.craplab.spotifindme.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.model.Device;
+import fi.craplab.spotifindme.model.Devices;
+import fi.craplab.spotifindme.model.PlaybackTransfer;
+import fi.craplab.spotifindme.model.UserProfile;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link DeviceStatePoller}, using a fake {@link SpotifyRestApi} with scripted
+ * device lists and a scheduler running on a virtual clock.
+ */
+public class DeviceStatePollerTest {
+    private VirtualScheduler scheduler;
+    private FakeApi api;
+    private final List<Boolean> updates = new ArrayList<>();
+    private DeviceStatePoller poller;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        api = new FakeApi(scheduler);
+        poller = new DeviceStatePoller(api, scheduler, new DeviceStatePoller.Listener() {
+            @Override
+            public void onDevicesUpdated(Devices devices, boolean confirmed) {
+                updates.add(confirmed);
+            }
+        });
+    }
+
+    @Test
+    public void expectationPollsWithBackoffUntilConfirmed() {
+        api.respond(devices("a"), devices("a"), devices("b"));
+
+        poller.expectActive("b");
+        scheduler.runAll();
+
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(3, api.pollTimes.size());
+        assertEquals(250, (long) api.pollTimes.get(0));
+        assertEquals(250 + 500, (long) api.pollTimes.get(1));
+        assertEquals(250 + 500 + 1000, (long) api.pollTimes.get(2));
+    }
+
+    @Test
+    public void expectationGivesUpAfterMaxAttempts() {
+        for (int i = 0; i < DeviceStatePoller.MAX_ATTEMPTS; i++) {
+            api.respond(devices("a"));
+        }
+
+        poller.expectActive("b");
+        scheduler.runAll();
+
+        // only the last, unconfirmed state is reported
+        assertEquals(Collections.singletonList(false), updates);
+        assertEquals(DeviceStatePoller.MAX_ATTEMPTS, api.pollTimes.size());
+        long[] expectedDelays = {250, 500, 1000, 2000, 4000, 4000};
+        long previous = 0;
+        for (int i = 0; i < expectedDelays.length; i++) {
+            assertEquals("delay before poll " + (i + 1), expectedDelays[i],
+                    api.pollTimes.get(i) - previous);
+            previous = api.pollTimes.get(i);
+        }
+    }
+
+    @Test
+    public void failedPollIsRetried() {
+        api.respond(null, devices("b"));
+
+        poller.expectActive("b");
+        scheduler.runAll();
+
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(2, api.pollTimes.size());
+    }
+
+    @Test
+    public void newExpectationReplacesOldOne() {
+        api.respond(devices("c"));
+
+        poller.expectActive("b");
+        poller.expectActive("c");
+        scheduler.runAll();
+
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(1, api.pollTimes.size());
+    }
+
+    @Test
+    public void prefetchPollsOnceWhenIdle() {
+        api.respond(devices("a"));
+
+        poller.prefetch();
+        scheduler.runAll();
+
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(Collections.singletonList(0L), api.pollTimes);
+    }
+
+    @Test
+    public void prefetchKeepsExpectation() {
+        api.respond(devices("a"), devices("b"));
+
+        poller.expectActive("b");
+        poller.prefetch();
+        scheduler.runAll();
+
+        // the prefetch is left to the expectation's polls, which still confirm the device
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(2, api.pollTimes.size());
+        assertEquals(250, (long) api.pollTimes.get(0));
+    }
+
+    @Test
+    public void refreshCancelsExpectation() {
+        api.respond(devices("a"));
+
+        poller.expectActive("b");
+        poller.refresh();
+        scheduler.runAll();
+
+        assertEquals(Collections.singletonList(true), updates);
+        assertEquals(Collections.singletonList(0L), api.pollTimes);
+    }
+
+    @Test
+    public void withActiveDeviceMarksOnlyThatDevice() {
+        Devices current = devices("a", "a", "b");
+        Devices updated = DeviceStatePoller.withActiveDevice(current, "b");
+
+        assertEquals("b", DeviceStatePoller.getActiveDeviceId(updated));
+        assertFalse(updated.devices.get(0).isActive);
+        assertTrue(updated.devices.get(1).isActive);
+        // the original is left alone
+        assertEquals("a", DeviceStatePoller.getActiveDeviceId(current));
+    }
+
+    /**
+     * Creates a device list.
+     *
+     * @param activeId Id of the active device
+     * @param ids Ids of all devices, defaults to just the active one
+     */
+    private static Devices devices(String activeId, String... ids) {
+        if (ids.length == 0) {
+            ids = new String[] {activeId};
+        }
+        Devices devices = new Devices();
+        devices.devices = new ArrayList<>();
+        for (String id : ids) {
+            Device device = new Device();
+            device.deviceId = id;
+            device.deviceName = id;
+            device.isActive = id.equals(activeId);
+            devices.devices.add(device);
+        }
+        return devices;
+    }
+
+    /**
+     * Single-threaded {@link ScheduledExecutorService} that only runs its tasks in
+     * {@link #runAll()}, advancing a virtual clock to each task's scheduled time.
+     */
+    private static class VirtualScheduler extends AbstractExecutorService
+            implements ScheduledExecutorService {
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>(11, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                return a.time != b.time ? Long.compare(a.time, b.time)
+                        : Long.compare(a.sequence, b.sequence);
+            }
+        });
+        private long now;
+        private long sequence;
+        private boolean shutdown;
+
+        void runAll() {
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                now = task.time;
+                if (!task.cancelled) {
+                    task.command.run();
+                }
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            Task task = new Task(command, now + unit.toMillis(delay), sequence++);
+            tasks.add(task);
+            return task;
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                      long period, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                         long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            tasks.clear();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+        private class Task implements ScheduledFuture<Object> {
+            final Runnable command;
+            final long time;
+            final long sequence;
+            boolean cancelled;
+
+            Task(Runnable command, long time, long sequence) {
+                this.command = command;
+                this.time = time;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(time - now, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(getDelay(TimeUnit.MILLISECONDS),
+                        other.getDelay(TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                cancelled = true;
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean isDone() {
+                return cancelled || time <= now;
+            }
+
+            @Override
+            public Object get() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    /**
+     * Fake Spotify API answering device list requests with the scripted responses, and recording
+     * the virtual time of each request. A {@code null} response fails like a network error.
+     */
+    private static class FakeApi implements SpotifyRestApi {
+        final List<Long> pollTimes = new ArrayList<>();
+        private final Queue<Devices> responses = new ArrayDeque<>();
+        private final List<Boolean> failures = new ArrayList<>();
+        private final VirtualScheduler scheduler;
+
+        FakeApi(VirtualScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        void respond(Devices... devices) {
+            for (Devices response : devices) {
+                failures.add(response == null);
+                if (response != null) {
+                    responses.add(response);
+                }
+            }
+        }
+
+        @Override
+        public Call<UserProfile> getUserProfile() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Call<Devices> getDevices() {
+            int index = pollTimes.size();
+            pollTimes.add(scheduler.now);
+            assertTrue("unexpected poll at " + scheduler.now, index < failures.size());
+            return new DevicesCall(failures.get(index) ? null : responses.poll());
+        }
+
+        @Override
+        public Call<ResponseBody> transferPlayback(PlaybackTransfer body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Call<ResponseBody> pausePlayback(String deviceId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class DevicesCall implements Call<Devices> {
+        private final Devices devices;
+
+        DevicesCall(Devices devices) {
+            this.devices = devices;
+        }
+
+        @Override
+        public Response<Devices> execute() throws IOException {
+            if (devices == null) {
+                throw new IOException("network down");
+            }
+            return Response.success(devices);
+        }
+
+        @Override
+        public void enqueue(Callback<Devices> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @SuppressWarnings("MethodDoesntCallSuperMethod")
+        @Override
+        public Call<Devices> clone() {
+            return new DevicesCall(devices);
+        }
+
+        @Override
+        public Request request() {
+            return new Request.Builder().url("https://api.spotify.com/v1/me/player/devices")
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package fi.craplab.spotifindme.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import fi.craplab.spotifindme.SpotifyRestApi;
+import fi.craplab.spotifindme.model.Devices;
+import fi.craplab.spotifindme.model.PlaybackTransfer;
+import fi.craplab.spotifindme.model.UserProfile;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link PlaybackCommandDispatcher}, using a fake {@link SpotifyRestApi} and
+ * an executor that only runs its tasks when told to.
+ */
+public class PlaybackCommandDispatcherTest {
+    private FakeApi api;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private PlaybackCommandDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        api = new FakeApi();
+        dispatcher = new PlaybackCommandDispatcher(api, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, 100);
+    }
+
+    @Test
+    public void keepsOnlyLatestTarget() {
+        dispatcher.transfer("a");
+        dispatcher.transfer("b");
+        dispatcher.transfer("c");
+        assertEquals(1, dispatcher.getQueueDepth());
+
+        runTasks();
+        assertEquals(1, api.sent.size());
+        assertEquals("TRANSFER c", api.sent.get(0));
+        assertEquals(2, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void dropsDuplicateOfAppliedState() {
+        dispatcher.transfer("a");
+        runTasks();
+        dispatcher.transfer("a");
+        dispatcher.transfer("a");
+        runTasks();
+
+        assertEquals(1, api.sent.size());
+        assertEquals(2, dispatcher.getDedupedCount());
+        assertEquals(1, dispatcher.getSucceededCount());
+    }
+
+    @Test
+    public void collapsesTransferPausePair() {
+        dispatcher.pause("a");
+        runTasks();
+
+        dispatcher.transfer("a");
+        dispatcher.pause("a");
+        runTasks();
+
+        assertEquals(1, api.sent.size());
+        assertEquals("PAUSE a", api.sent.get(0));
+    }
+
+    @Test
+    public void failureAllowsRetry() {
+        api.failNext = true;
+        dispatcher.transfer("a");
+        runTasks();
+        dispatcher.transfer("a");
+        runTasks();
+
+        assertEquals(2, api.sent.size());
+        assertEquals(1, dispatcher.getFailedCount());
+        assertEquals(1, dispatcher.getSucceededCount());
+    }
+
+    @Test
+    public void stuckCommandTimesOut() {
+        api.hangNext = true;
+        final List<Boolean> results = new ArrayList<>();
+        dispatcher.setListener(new PlaybackCommandDispatcher.Listener() {
+            @Override
+            public void onCommandFinished(PlaybackCommand command, boolean success) {
+                results.add(success);
+            }
+        });
+
+        dispatcher.transfer("a");
+        runTasks();
+        dispatcher.transfer("b");
+        runTasks();
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0));
+        assertTrue(results.get(1));
+        assertTrue(api.lastHanging.isCanceled());
+        assertEquals(1, dispatcher.getTimedOutCount());
+        assertTrue(dispatcher.getMaxLatencyMillis() >= 100);
+    }
+
+    @Test
+    public void activeDeviceChangeClearsState() {
+        dispatcher.transfer("a");
+        runTasks();
+        dispatcher.syncActiveDevice("b");
+        dispatcher.transfer("a");
+        runTasks();
+
+        assertEquals(2, api.sent.size());
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Fake Spotify API recording all playback calls. Calls complete right away when enqueued.
+     */
+    private static class FakeApi implements SpotifyRestApi {
+        final List<String> sent = new ArrayList<>();
+        boolean failNext;
+        boolean hangNext;
+        FakeCall lastHanging;
+
+        @Override
+        public Call<UserProfile> getUserProfile() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Call<Devices> getDevices() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Call<ResponseBody> transferPlayback(PlaybackTransfer body) {
+            sent.add("TRANSFER " + body.deviceIds.get(0));
+            return nextCall();
+        }
+
+        @Override
+        public Call<ResponseBody> pausePlayback(String deviceId) {
+            sent.add("PAUSE " + deviceId);
+            return nextCall();
+        }
+
+        private FakeCall nextCall() {
+            FakeCall call = new FakeCall(failNext ? 500 : 204, hangNext);
+            if (hangNext) {
+                lastHanging = call;
+            }
+            failNext = false;
+            hangNext = false;
+            return call;
+        }
+    }
+
+    private static class FakeCall implements Call<ResponseBody> {
+        private final int code;
+        private final boolean hang;
+        private boolean canceled;
+
+        FakeCall(int code, boolean hang) {
+            this.code = code;
+            this.hang = hang;
+        }
+
+        @Override
+        public Response<ResponseBody> execute() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void enqueue(Callback<ResponseBody> callback) {
+            if (hang) {
+                return;
+            }
+            if (code < 300) {
+                callback.onResponse(this, Response.<ResponseBody>success(null));
+            } else {
+                callback.onResponse(this, Response.<ResponseBody>error(code,
+                        ResponseBody.create(MediaType.parse("application/json"), "{}")));
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @SuppressWarnings("MethodDoesntCallSuperMethod")
+        @Override
+        public Call<ResponseBody> clone() {
+            return new FakeCall(code, hang);
+        }
+
+        @Override
+        public Request request() {
+            return new Request.Builder().url("https://api.spotify.com/v1/me/player").build();
+        }
+    }
+}
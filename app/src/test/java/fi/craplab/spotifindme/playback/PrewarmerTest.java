@@ -0,0 +1,48 @@
+package fi.craplab.spotifindme.playback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link Prewarmer}.
+ */
+public class PrewarmerTest {
+    private static final long MILLIS = 1000000;
+
+    private final Prewarmer prewarmer = new Prewarmer(10000 * MILLIS, 30000 * MILLIS);
+
+    @Test
+    public void throttlesPrewarms() {
+        assertTrue(prewarmer.tryPrewarm(0));
+        assertFalse(prewarmer.tryPrewarm(5000 * MILLIS));
+        assertTrue(prewarmer.tryPrewarm(10000 * MILLIS));
+        assertEquals(2, prewarmer.getPrewarmCount());
+        assertEquals(1, prewarmer.getThrottledCount());
+    }
+
+    @Test
+    public void commandsWithoutPrewarmAreCold() {
+        prewarmer.onCommandFinished(0, 300 * MILLIS);
+        assertEquals(0, prewarmer.getWarmCount());
+        assertEquals(1, prewarmer.getColdCount());
+        assertEquals(0, prewarmer.getSavedLatencyMillis(), 0);
+    }
+
+    @Test
+    public void measuresSavedLatency() {
+        prewarmer.onCommandFinished(0, 400 * MILLIS);
+        prewarmer.onCommandFinished(1000 * MILLIS, 200 * MILLIS);
+
+        assertTrue(prewarmer.tryPrewarm(2000 * MILLIS));
+        prewarmer.onCommandFinished(4000 * MILLIS, 100 * MILLIS);
+        // outside the warm window again
+        prewarmer.onCommandFinished(40000 * MILLIS, 300 * MILLIS);
+
+        assertEquals(1, prewarmer.getWarmCount());
+        assertEquals(3, prewarmer.getColdCount());
+        assertEquals(100, prewarmer.getAverageWarmLatencyMillis(), 1e-9);
+        assertEquals(300, prewarmer.getAverageColdLatencyMillis(), 1e-9);
+        assertEquals(200, prewarmer.getSavedLatencyMillis(), 1e-9);
+    }
+}
@@ -0,0 +1,267 @@
+package fi.craplab.spotifindme.position;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import fi.craplab.spotifindme.beacon.AltBeacon;
+import fi.craplab.spotifindme.beacon.BeaconStateTable;
+import fi.craplab.spotifindme.filter.EwmaRssiFilter;
+import fi.craplab.spotifindme.filter.RssiFilter;
+import fi.craplab.spotifindme.zone.Zone;
+import fi.craplab.spotifindme.zone.ZoneEngine;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link PositionEstimator}s and the {@link RoomMap}.
+ */
+public class PositioningTest {
+    private static final BeaconLocation[] CORNERS = new BeaconLocation[] {
+            new BeaconLocation(AltBeacon.packIds(1, 1), 0, 0),
+            new BeaconLocation(AltBeacon.packIds(1, 2), 10, 0),
+            new BeaconLocation(AltBeacon.packIds(1, 3), 0, 8),
+            new BeaconLocation(AltBeacon.packIds(1, 4), 10, 8)
+    };
+
+    private static void recordDistances(BeaconStateTable states, BeaconLocation[] beacons,
+                                        double x, double y, double noise, Random random,
+                                        long now) {
+        for (BeaconLocation beacon : beacons) {
+            double distance = Math.hypot(beacon.x - x, beacon.y - y);
+            distance = Math.max(0.1, distance + (random == null ? 0 : random.nextGaussian() * noise));
+            states.record(beacon.key, -60, distance, now);
+        }
+    }
+
+    @Test
+    public void trilateratesExactRanges() {
+        BeaconStateTable states = new BeaconStateTable();
+        recordDistances(states, CORNERS, 3, 2, 0, null, 1000);
+
+        PositionEstimate estimate = new PositionEstimate();
+        assertTrue(new TrilaterationEstimator(CORNERS).estimate(states, 1000, estimate));
+        assertEquals(3, estimate.x, 1e-9);
+        assertEquals(2, estimate.y, 1e-9);
+        assertEquals(4, estimate.beaconCount);
+    }
+
+    @Test
+    public void trilateratesNoisyRanges() {
+        Random random = new Random(3);
+        TrilaterationEstimator estimator = new TrilaterationEstimator(CORNERS);
+        PositionEstimate estimate = new PositionEstimate();
+        double totalError = 0;
+        int runs = 200;
+        for (int i = 0; i < runs; i++) {
+            BeaconStateTable states = new BeaconStateTable();
+            double x = 1 + random.nextDouble() * 8;
+            double y = 1 + random.nextDouble() * 6;
+            // a few samples within the averaging window
+            for (int t = 0; t < 5; t++) {
+                recordDistances(states, CORNERS, x, y, 0.5, random, t * 200);
+            }
+            assertTrue(estimator.estimate(states, 1000, estimate));
+            totalError += Math.hypot(estimate.x - x, estimate.y - y);
+        }
+        assertTrue("mean error " + totalError / runs, totalError / runs < 0.75);
+    }
+
+    @Test
+    public void fallsBackToCentroid() {
+        BeaconLocation[] two = new BeaconLocation[] {CORNERS[0], CORNERS[1]};
+        BeaconStateTable states = new BeaconStateTable();
+        states.record(two[0].key, -60, 1, 0);
+        states.record(two[1].key, -70, 4, 0);
+
+        PositionEstimate estimate = new PositionEstimate();
+        assertTrue(new TrilaterationEstimator(two).estimate(states, 0, estimate));
+        // weights 1 and 1/16
+        assertEquals(10.0 / 17, estimate.x, 1e-9);
+        assertEquals(0, estimate.y, 1e-9);
+        assertEquals(2, estimate.beaconCount);
+
+        // three beacons in a line
+        BeaconLocation[] line = new BeaconLocation[] {
+                CORNERS[0], CORNERS[1], new BeaconLocation(AltBeacon.packIds(1, 9), 5, 0)
+        };
+        states.record(line[2].key, -65, 2, 0);
+        assertTrue(new TrilaterationEstimator(line).estimate(states, 0, estimate));
+        assertEquals(0, estimate.y, 1e-9);
+        assertEquals(3, estimate.beaconCount);
+    }
+
+    @Test
+    public void ignoresStaleAndUnknownBeacons() {
+        BeaconStateTable states = new BeaconStateTable();
+        PositionEstimate estimate = new PositionEstimate();
+        TrilaterationEstimator estimator = new TrilaterationEstimator(CORNERS);
+        assertFalse(estimator.estimate(states, 0, estimate));
+
+        recordDistances(states, CORNERS, 3, 2, 0, null, 0);
+        states.record(AltBeacon.packIds(7, 7), -60, 1, 5000);
+        assertFalse(estimator.estimate(states, 5000, estimate));
+    }
+
+    @Test
+    public void usesOnlyClosestBeacons() {
+        BeaconLocation[] many = new BeaconLocation[40];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = new BeaconLocation(AltBeacon.packIds(2, i), (i % 8) * 3, (i / 8) * 3);
+        }
+        BeaconStateTable states = new BeaconStateTable();
+        recordDistances(states, many, 4, 5, 0, null, 0);
+
+        PositionEstimate estimate = new PositionEstimate();
+        assertTrue(new TrilaterationEstimator(many).estimate(states, 0, estimate));
+        assertEquals(TrilaterationEstimator.MAX_BEACONS, estimate.beaconCount);
+        assertEquals(4, estimate.x, 1e-6);
+        assertEquals(5, estimate.y, 1e-6);
+    }
+
+    @Test
+    public void fingerprintsFindCalibratedPositions() {
+        int[] keys = new int[] {CORNERS[0].key, CORNERS[1].key, CORNERS[2].key};
+        FingerprintEstimator estimator = new FingerprintEstimator(keys, 1, 5000);
+        estimator.addCalibration(1, 1, new int[] {-50, -80, -75});
+        estimator.addCalibration(8, 1, new int[] {-80, -50, -85});
+        estimator.addCalibration(1, 7, new int[] {-75, -85, -50});
+        assertEquals(3, estimator.getSampleCount());
+
+        BeaconStateTable states = new BeaconStateTable();
+        PositionEstimate estimate = new PositionEstimate();
+        assertFalse(estimator.estimate(states, 0, estimate));
+
+        states.record(keys[0], -78, 0, 0);
+        states.record(keys[1], -53, 0, 0);
+        states.record(keys[2], -88, 0, 0);
+        assertTrue(estimator.estimate(states, 0, estimate));
+        assertEquals(8, estimate.x, 0);
+        assertEquals(1, estimate.y, 0);
+
+        // the third beacon going stale counts as missing, still closest to the same spot
+        states.record(keys[0], -79, 0, 4000);
+        states.record(keys[1], -52, 0, 4000);
+        assertTrue(estimator.estimate(states, 6000, estimate));
+        assertEquals(8, estimate.x, 0);
+        assertEquals(2, estimate.beaconCount);
+    }
+
+    @Test
+    public void fingerprintsAverageNeighbors() {
+        int[] keys = new int[] {CORNERS[0].key, CORNERS[1].key};
+        FingerprintEstimator estimator = new FingerprintEstimator(keys, 2, 5000);
+        estimator.addCalibration(0, 0, new int[] {-50, -70});
+        estimator.addCalibration(2, 0, new int[] {-60, -60});
+        estimator.addCalibration(10, 0, new int[] {-90, -40});
+
+        BeaconStateTable states = new BeaconStateTable();
+        states.record(keys[0], -55, 0, 0);
+        states.record(keys[1], -65, 0, 0);
+        PositionEstimate estimate = new PositionEstimate();
+        assertTrue(estimator.estimate(states, 0, estimate));
+        assertEquals(1, estimate.x, 1e-9);
+    }
+
+    @Test
+    public void roomsDriveZoneEngine() {
+        RoomMap rooms = new RoomMap(
+                new Room(1, "Office", "Laptop", 0, 0, 3, 3),
+                new Room(2, "Living room", "Desktop", 3, 0, 9, 5));
+        Zone[] zones = rooms.createZones();
+        assertEquals(2, zones.length);
+        assertEquals("Desktop", zones[1].deviceName);
+
+        ZoneEngine engine = new ZoneEngine(zones, 1000, 2000, 10000);
+        PositionEstimate position = new PositionEstimate();
+        position.x = 1.5;
+        position.y = 1.5;
+
+        rooms.update(engine, position, 0);
+        assertNull(engine.evaluate(0));
+        rooms.update(engine, position, 1000);
+        assertEquals("Laptop", engine.evaluate(1000).deviceName);
+
+        // right across the wall, still within the office's exit margin
+        position.x = 3.5;
+        for (long t = 1500; t <= 2500; t += 500) {
+            rooms.update(engine, position, t);
+            assertNull(engine.evaluate(t));
+        }
+
+        // out of the office's exit margin, living room has been the best candidate long enough
+        position.x = 6;
+        rooms.update(engine, position, 3000);
+        assertEquals("Desktop", engine.evaluate(3000).deviceName);
+
+        assertEquals("Office", rooms.findRoom(1, 1).name);
+        assertNull(rooms.findRoom(-1, 1));
+        assertEquals(0, new Room(3, "Hall", "Hall", 0, 0, 1, 1).distanceTo(1, 1), 0);
+        assertEquals(5, new Room(3, "Hall", "Hall", 0, 0, 1, 1).distanceTo(4, 5), 1e-9);
+    }
+
+    @Test
+    public void floorPlanConfiguresEverything() {
+        FloorPlan plan = new FloorPlan(AltBeacon.SPOTIFINDME_ID1)
+                .addBeacon(1, 1, 1.5, 1.5)
+                .addBeacon(1, 2, 6, 2.5)
+                .addRoom("Office", "Laptop", 0, 0, 3, 3)
+                .addRoom("Living room", "Desktop", 3, 0, 9, 5);
+
+        assertEquals(2, plan.getBeaconRegistry().size());
+        BeaconLocation[] locations = plan.getBeaconLocations();
+        assertEquals(2, locations.length);
+        // same order as the registry indices
+        assertEquals(AltBeacon.packIds(1, 2), locations[1].key);
+        assertEquals(1, plan.getBeaconRegistry().get(1, 2).index);
+        assertEquals(6, locations[1].x, 0);
+
+        Room[] rooms = plan.getRooms();
+        assertEquals(1, rooms[0].id);
+        assertEquals(2, rooms[1].id);
+        assertEquals("Desktop", plan.createRoomMap().findRoom(5, 1).deviceName);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void floorPlanRejectsDuplicateBeacon() {
+        new FloorPlan(AltBeacon.SPOTIFINDME_ID1)
+                .addBeacon(1, 1, 0, 0)
+                .addBeacon(1, 1, 5, 5);
+    }
+
+    @Test
+    public void roomDeciderEntersAndLeavesRooms() {
+        RoomDecider decider = new RoomDecider(FloorPlan.createDefault(), new RssiFilter.Factory() {
+            @Override
+            public RssiFilter create() {
+                return new EwmaRssiFilter(1.0);
+            }
+        });
+        int office = AltBeacon.packIds(1, 1);
+        int livingRoom = AltBeacon.packIds(1, 2);
+        assertEquals(RoomDecider.UNCHANGED, decider.decide(0));
+
+        // 1m from the office beacon, 10m from the living room one
+        int decision = RoomDecider.UNCHANGED;
+        long now;
+        for (now = 0; decision == RoomDecider.UNCHANGED; now += 500) {
+            assertEquals(-59, decider.onSample(office, -59, -59, now), 0);
+            decider.onSample(livingRoom, -79, -59, now);
+            decision = decider.decide(now);
+            assertTrue("still undecided at " + now, now <= ZoneEngine.DEFAULT_MIN_DWELL_MILLIS);
+        }
+        assertEquals(RoomDecider.ENTERED, decision);
+        assertEquals("Laptop", decider.getZone().deviceName);
+        assertEquals(1.0, decider.getDistance(office), 1e-9);
+
+        // one beacon lost keeps the room, both lost leave it
+        decider.onLost(livingRoom);
+        assertTrue(Double.isNaN(decider.getDistance(livingRoom)));
+        assertEquals(RoomDecider.UNCHANGED, decider.decide(now));
+        decider.onLost(office);
+        assertEquals(RoomDecider.LEFT, decider.decide(now));
+        assertEquals("Laptop", decider.getZone().deviceName);
+        assertNull(decider.getCurrentZone());
+        assertEquals(RoomDecider.UNCHANGED, decider.decide(now));
+    }
+}
@@ -0,0 +1,91 @@
+package fi.craplab.spotifindme.scan;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link MotionClassifier} switching between the scan profiles.
+ */
+public class MotionClassifierTest {
+    @Test
+    public void startsMovingAndSettlesWhenStable() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 30000);
+        assertEquals(ScanProfile.MOVING, classifier.getProfile());
+
+        for (long t = 0; t < 30000; t += 1000) {
+            assertEquals(ScanProfile.MOVING, classifier.update(0, -60 + (t / 1000) % 2, 100000 + t));
+        }
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -60, 130000));
+    }
+
+    @Test
+    public void rssiSpreadSwitchesBackToMoving() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 30000);
+        for (long t = 0; t <= 30000; t += 5000) {
+            classifier.update(0, -60, t);
+        }
+        assertEquals(ScanProfile.STATIONARY, classifier.getProfile());
+
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -63, 35000));
+        assertEquals(ScanProfile.MOVING, classifier.update(0, -67, 40000));
+
+        // still moving until the spread left the window and the stationary time passed again
+        assertEquals(ScanProfile.MOVING, classifier.update(0, -67, 60000));
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -67, 70000));
+    }
+
+    @Test
+    public void oldSamplesLeaveTheWindow() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 0);
+        classifier.update(0, -80, 0);
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -70, 10001));
+    }
+
+    @Test
+    public void reportedMovementRestartsStationaryTimer() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 30000);
+        classifier.update(0, -60, 0);
+        classifier.update(0, -60, 30000);
+        assertEquals(ScanProfile.STATIONARY, classifier.getProfile());
+
+        classifier.reportMovement(31000);
+        assertEquals(ScanProfile.MOVING, classifier.getProfile());
+        assertEquals(ScanProfile.MOVING, classifier.update(0, -60, 60000));
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -60, 61000));
+    }
+
+    @Test
+    public void windowHoldsManySamples() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 0);
+        // wraps around the ring buffer a few times before it has to grow
+        for (long t = 0; t < 60000; t += 1000) {
+            classifier.update(0, -60, t);
+        }
+        for (long t = 60000; t < 65000; t += 50) {
+            assertEquals(ScanProfile.STATIONARY, classifier.update(0, -60 + (t / 50) % 2, t));
+        }
+        assertEquals(-59.5, classifier.getMean(), 0.1);
+
+        // spread against the whole grown window
+        assertEquals(ScanProfile.MOVING, classifier.update(0, -53.5, 65000));
+        assertEquals(ScanProfile.STATIONARY, classifier.update(0, -60, 75100));
+    }
+
+    @Test
+    public void devicesHaveSeparateWindows() {
+        MotionClassifier classifier = new MotionClassifier(10000, 6.0, 30000);
+        // a near and a far device, each with a stable signal
+        for (long t = 0; t <= 30000; t += 1000) {
+            classifier.update(0, -55, t);
+            classifier.update(1, -80, t + 500);
+        }
+        assertEquals(ScanProfile.STATIONARY, classifier.getProfile());
+        assertEquals(-80, classifier.getMean(), 0);
+
+        // a new device on its own isn't movement, the far device's signal spreading is
+        assertEquals(ScanProfile.STATIONARY, classifier.update(5, -75, 31000));
+        assertEquals(ScanProfile.STATIONARY, classifier.update(1, -76, 32000));
+        assertEquals(ScanProfile.MOVING, classifier.update(1, -73, 33000));
+    }
+}
@@ -0,0 +1,307 @@
+package fi.craplab.spotifindme.scan;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fi.craplab.spotifindme.filter.KalmanRssiFilter;
+import fi.craplab.spotifindme.filter.RssiFilter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link ScanScheduler} against a simulated clock, beacon and scanner, and checks the
+ * resulting duty cycle and detection latency.
+ */
+public class ScanSchedulerTest {
+    private static final double THRESHOLD = -70.0;
+    private static final long STEP_MILLIS = 100;
+
+    /** Beacon signal over time, without noise */
+    private interface Signal {
+        double rssiAt(long time);
+    }
+
+    /**
+     * Scanner receiving the beacon advertisements according to the scan mode's window and interval
+     * and the batching, and failing the test if it's started too often.
+     */
+    private static class SimulatedScanner implements ScanScheduler.Scanner {
+        private final ArrayDeque<Long> starts = new ArrayDeque<>();
+        private final List<double[]> batch = new ArrayList<>();
+        private final List<double[]> delivered = new ArrayList<>();
+        private long now;
+        private ScanProfile profile;
+        private long scanStart;
+        private long batchStart;
+
+        @Override
+        public void startScan(ScanProfile profile) {
+            while (!starts.isEmpty() && now - starts.peekFirst() >= ScanScheduler.START_WINDOW_MILLIS) {
+                starts.removeFirst();
+            }
+            assertTrue("too many scan starts at " + now, starts.size() < ScanScheduler.MAX_STARTS);
+            starts.addLast(now);
+            this.profile = profile;
+            scanStart = now;
+            batchStart = now;
+        }
+
+        @Override
+        public void stopScan() {
+            // the service flushes pending batched results before stopping
+            delivered.addAll(batch);
+            batch.clear();
+            profile = null;
+        }
+
+        /** Advertisement sent by the beacon */
+        void advertise(double rssi) {
+            if (profile == null) {
+                return;
+            }
+            long interval;
+            long window;
+            switch (profile.scanMode) {
+                case 2: // SCAN_MODE_LOW_LATENCY
+                    interval = window = 4096;
+                    break;
+                case 1: // SCAN_MODE_BALANCED
+                    interval = 4096;
+                    window = 1024;
+                    break;
+                default:
+                    interval = 5120;
+                    window = 512;
+            }
+            if ((now - scanStart) % interval < window) {
+                batch.add(new double[] {now, Math.round(rssi)});
+            }
+        }
+
+        /** Moves the clock, and returns the results the scan callback would get */
+        List<double[]> tick(long time) {
+            now = time;
+            if (profile != null && now - batchStart >= profile.reportDelayMillis) {
+                delivered.addAll(batch);
+                batch.clear();
+                batchStart = now;
+            }
+            List<double[]> results = new ArrayList<>(delivered);
+            delivered.clear();
+            return results;
+        }
+    }
+
+    /** The scan service's decision pipeline, driven by the simulated clock */
+    private static class Simulation {
+        final SimulatedScanner scanner = new SimulatedScanner();
+        final ScanScheduler scheduler = new ScanScheduler(scanner, THRESHOLD);
+        final RssiFilter filter = new KalmanRssiFilter();
+        final Random random = new Random(42);
+        long now;
+        long nextUpdate;
+        boolean found;
+        long foundAt = -1;
+        long lostAt = -1;
+
+        void run(Signal signal, long duration) {
+            long end = now + duration;
+            for (; now < end; now += STEP_MILLIS) {
+                List<double[]> results = scanner.tick(now);
+                scanner.advertise(signal.rssiAt(now) + random.nextGaussian() * 2.0);
+                for (double[] result : results) {
+                    double rssi = filter.update((int) result[1]);
+                    scheduler.onSample(0, rssi, (long) result[0]);
+                    if (rssi > THRESHOLD && !found) {
+                        found = true;
+                        foundAt = now;
+                        scheduler.onTransition(now);
+                    } else if (rssi <= THRESHOLD && found) {
+                        found = false;
+                        lostAt = now;
+                        scheduler.onTransition(now);
+                    }
+                }
+                if (!results.isEmpty() || now >= nextUpdate) {
+                    nextUpdate = scheduler.update(now);
+                }
+            }
+        }
+
+        double dutyCycle(long from, long scanningAtFrom) {
+            return (double) (scheduler.getScanningMillis(now) - scanningAtFrom) / (now - from);
+        }
+    }
+
+    private static Signal constant(final double rssi) {
+        return new Signal() {
+            @Override
+            public double rssiAt(long time) {
+                return rssi;
+            }
+        };
+    }
+
+    private static Signal ramp(final long start, final long duration, final double from,
+                               final double to) {
+        return new Signal() {
+            @Override
+            public double rssiAt(long time) {
+                double progress = Math.min(1.0, Math.max(0.0, (double) (time - start) / duration));
+                return from + (to - from) * progress;
+            }
+        };
+    }
+
+    /** Time at which the ramp's signal crosses the threshold */
+    private static long crossing(long start, long duration, double from, double to) {
+        return start + (long) (duration * (THRESHOLD - from) / (to - from));
+    }
+
+    @Test
+    public void screenOffStationaryIsDutyCycled() {
+        Simulation sim = new Simulation();
+        sim.scheduler.setScreenOn(false);
+        sim.run(constant(-85), 120000);
+        assertEquals(ScanProfile.IDLE, sim.scheduler.getProfile());
+
+        long from = sim.now;
+        long scanningAtFrom = sim.scheduler.getScanningMillis(from);
+        sim.run(constant(-85), 180000);
+
+        double dutyCycle = sim.dutyCycle(from, scanningAtFrom);
+        assertEquals(1.0 / 3, dutyCycle, 0.05);
+        assertFalse(sim.found);
+    }
+
+    @Test
+    public void screenOnStationaryScansContinuouslyBatched() {
+        Simulation sim = new Simulation();
+        sim.run(constant(-85), 120000);
+        assertEquals(ScanProfile.STATIONARY, sim.scheduler.getProfile());
+
+        long from = sim.now;
+        long scanningAtFrom = sim.scheduler.getScanningMillis(from);
+        sim.run(constant(-85), 60000);
+        assertEquals(1.0, sim.dutyCycle(from, scanningAtFrom), 0.001);
+    }
+
+    @Test
+    public void walkingInIsDetectedFromIdle() {
+        Simulation sim = new Simulation();
+        sim.scheduler.setScreenOn(false);
+        sim.run(constant(-85), 120000);
+
+        long start = sim.now;
+        sim.run(ramp(start, 10000, -85, -55), 60000);
+
+        assertTrue(sim.found);
+        long latency = sim.foundAt - crossing(start, 10000, -85, -55);
+        assertTrue("latency " + latency, latency < ScanProfile.IDLE.offMillis + 10000);
+    }
+
+    @Test
+    public void walkingInIsDetectedQuicklyWithScreenOn() {
+        Simulation sim = new Simulation();
+        sim.run(constant(-85), 120000);
+
+        long start = sim.now;
+        sim.run(ramp(start, 10000, -85, -55), 60000);
+
+        assertTrue(sim.found);
+        long latency = sim.foundAt - crossing(start, 10000, -85, -55);
+        assertTrue("latency " + latency, latency < 10000);
+    }
+
+    @Test
+    public void rampsUpAtBoundaryAndBacksOffWhenStable() {
+        Simulation sim = new Simulation();
+        sim.run(constant(-85), 120000);
+
+        long start = sim.now;
+        sim.run(ramp(start, 15000, -85, -72), 15000);
+        assertEquals(ScanProfile.BOUNDARY, sim.scheduler.getProfile());
+
+        // walking the last bit into the room is picked up at the highest scan rate
+        start = sim.now;
+        sim.run(ramp(start, 5000, -72, -60), 10000);
+        assertTrue(sim.found);
+        long latency = sim.foundAt - crossing(start, 5000, -72, -60);
+        assertTrue("latency " + latency, latency < 3000);
+
+        sim.run(constant(-60), 120000);
+        assertEquals(ScanProfile.STATIONARY, sim.scheduler.getProfile());
+    }
+
+    @Test
+    public void leavingIsDetected() {
+        Simulation sim = new Simulation();
+        sim.run(constant(-55), 120000);
+        assertTrue(sim.found);
+
+        long start = sim.now;
+        sim.run(ramp(start, 10000, -55, -90), 60000);
+        assertFalse(sim.found);
+        long latency = sim.lostAt - crossing(start, 10000, -55, -90);
+        assertTrue("latency " + latency, latency < 10000);
+    }
+
+    @Test
+    public void restartsAreRateLimited() {
+        final List<Long> starts = new ArrayList<>();
+        final long[] now = new long[1];
+        ScanScheduler scheduler = new ScanScheduler(new ScanScheduler.Scanner() {
+            @Override
+            public void startScan(ScanProfile profile) {
+                starts.add(now[0]);
+            }
+
+            @Override
+            public void stopScan() {
+            }
+        }, THRESHOLD);
+
+        // screen toggling every second wants a restart every second
+        for (now[0] = 0; now[0] < 60000; now[0] += 1000) {
+            scheduler.onSample(0, -85, now[0]);
+            scheduler.setScreenOn((now[0] / 1000) % 2 == 0);
+            scheduler.update(now[0]);
+        }
+
+        for (int i = ScanScheduler.MAX_STARTS - 1; i < starts.size(); i++) {
+            long window = starts.get(i) - starts.get(i - (ScanScheduler.MAX_STARTS - 1));
+            assertTrue(window >= ScanScheduler.START_WINDOW_MILLIS);
+        }
+        assertTrue(scheduler.getDeferredCount() > 0);
+    }
+
+    @Test
+    public void shutdownStopsScanning() {
+        final int[] running = new int[1];
+        ScanScheduler scheduler = new ScanScheduler(new ScanScheduler.Scanner() {
+            @Override
+            public void startScan(ScanProfile profile) {
+                running[0]++;
+            }
+
+            @Override
+            public void stopScan() {
+                running[0]--;
+            }
+        }, THRESHOLD);
+
+        scheduler.update(0);
+        assertTrue(scheduler.isScanning());
+        assertEquals(ScanProfile.MOVING, scheduler.getProfile());
+
+        scheduler.shutdown(1000);
+        assertFalse(scheduler.isScanning());
+        assertEquals(0, running[0]);
+        assertEquals(Long.MAX_VALUE, scheduler.update(2000));
+        assertEquals(1000, scheduler.getScanningMillis(5000));
+    }
+}
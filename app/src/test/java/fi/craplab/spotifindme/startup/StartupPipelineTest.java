@@ -0,0 +1,182 @@
+package fi.craplab.spotifindme.startup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link StartupPipeline} stages and timings.
+ */
+public class StartupPipelineTest {
+    /** Collects submitted tasks without running them */
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<>(queue);
+            queue.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private static Runnable record(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void stagesRunInOrder() {
+        QueueExecutor executor = new QueueExecutor();
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        StartupPipeline pipeline = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.DEFERRED, "deferred", record(log, "deferred"))
+                .add(StartupPipeline.Stage.BACKGROUND, "background", record(log, "background"))
+                .add(StartupPipeline.Stage.CRITICAL, "critical", record(log, "critical"));
+
+        pipeline.start();
+        assertEquals(Collections.singletonList("critical"), log);
+        assertEquals(1, executor.queue.size());
+
+        executor.runAll();
+        assertEquals(2, log.size());
+        assertEquals("background", log.get(1));
+
+        pipeline.onFirstFrame();
+        // only once
+        pipeline.onFirstFrame();
+        assertEquals(1, executor.queue.size());
+        executor.runAll();
+        assertEquals("deferred", log.get(2));
+        assertEquals(3, log.size());
+    }
+
+    @Test
+    public void awaitRunsPendingTaskInline() {
+        QueueExecutor executor = new QueueExecutor();
+        List<String> log = new ArrayList<>();
+        StartupPipeline pipeline = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.BACKGROUND, "icons", record(log, "icons"));
+        pipeline.start();
+
+        pipeline.await("icons");
+        assertEquals(Collections.singletonList("icons"), log);
+        assertEquals(Thread.currentThread().getName(), pipeline.getTiming("icons").thread);
+
+        // the executor getting to it later doesn't run it twice
+        executor.runAll();
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void awaitWaitsForRunningTask() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        StartupPipeline pipeline = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.BACKGROUND, "slow", new Runnable() {
+                    @Override
+                    public void run() {
+                        running.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        log.add("slow");
+                    }
+                });
+        pipeline.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        pipeline.await("slow");
+        assertEquals(Collections.singletonList("slow"), log);
+        assertNotEquals(Thread.currentThread().getName(), pipeline.getTiming("slow").thread);
+        executor.shutdown();
+    }
+
+    @Test
+    public void timingsAreRecorded() {
+        QueueExecutor executor = new QueueExecutor();
+        StartupPipeline pipeline = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.CRITICAL, "critical", new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        assertNull(pipeline.getTiming(StartupPipeline.FIRST_FRAME));
+        // ignored before start
+        pipeline.onFirstFrame();
+        assertNull(pipeline.getTiming(StartupPipeline.FIRST_FRAME));
+
+        pipeline.start();
+        pipeline.onFirstFrame();
+
+        StartupPipeline.Timing critical = pipeline.getTiming("critical");
+        assertEquals(StartupPipeline.Stage.CRITICAL, critical.stage);
+        assertTrue(critical.durationNanos >= TimeUnit.MILLISECONDS.toNanos(5));
+        StartupPipeline.Timing frame = pipeline.getTiming(StartupPipeline.FIRST_FRAME);
+        assertNull(frame.stage);
+        assertTrue(frame.startNanos >= critical.startNanos + critical.durationNanos);
+        assertEquals(2, pipeline.getTimings().size());
+    }
+
+    @Test
+    public void failedTaskIsReportedOnAwait() {
+        QueueExecutor executor = new QueueExecutor();
+        StartupPipeline pipeline = new StartupPipeline(executor)
+                .add(StartupPipeline.Stage.BACKGROUND, "broken", new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new UnsupportedOperationException("broken");
+                    }
+                });
+        pipeline.start();
+        executor.runAll();
+        try {
+            pipeline.await("broken");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+        assertNotNull(pipeline.getTiming("broken"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noTasksAfterStart() {
+        StartupPipeline pipeline = new StartupPipeline(new QueueExecutor());
+        pipeline.start();
+        pipeline.add(StartupPipeline.Stage.CRITICAL, "late", record(new ArrayList<String>(), "late"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void awaitUnknownTask() {
+        new StartupPipeline(new QueueExecutor()).await("nope");
+    }
+}
@@ -0,0 +1,183 @@
+package fi.craplab.spotifindme.trace;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import fi.craplab.spotifindme.beacon.AltBeacon;
+import fi.craplab.spotifindme.filter.EwmaRssiFilter;
+import fi.craplab.spotifindme.filter.RssiFilter;
+import fi.craplab.spotifindme.position.FloorPlan;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing and reading {@link ScanTrace} files, and replaying them with the
+ * {@link TraceSimulator}.
+ */
+public class TraceTest {
+    private static final int A = 0x00010001;
+    private static final int B = 0x00010002;
+    private static final int OFFICE = 1;
+    private static final int LIVING_ROOM = 2;
+    /** Reference RSSI at 1m, so {@link #NEAR} is 1m and {@link #FAR} 10m away */
+    private static final int REFERENCE = -59;
+    private static final int NEAR = -59;
+    private static final int FAR = -79;
+
+    private static TraceReader reader(byte[] data) throws IOException {
+        return new TraceReader(Channels.newChannel(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // tiny buffer so it gets flushed in between
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out), 2);
+        writer.write(1000, A, -60, -59, ScanTrace.TYPE_SAMPLE);
+        writer.write(2000, B, -99, -65, ScanTrace.TYPE_FIRST_MATCH);
+        writer.writeTruth(2500, OFFICE);
+        writer.write(3000, A, 0, 0, ScanTrace.TYPE_MATCH_LOST);
+        assertEquals(4, writer.getRecordCount());
+        writer.close();
+        assertEquals(ScanTrace.HEADER_SIZE + 4 * ScanTrace.RECORD_SIZE, out.size());
+
+        TraceReader reader = reader(out.toByteArray());
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getTimestamp());
+        assertEquals(A, reader.getKey());
+        assertEquals(-60, reader.getRssi());
+        assertEquals(-59, reader.getReferenceRssi());
+        assertEquals(ScanTrace.TYPE_SAMPLE, reader.getType());
+        assertTrue(reader.next());
+        assertEquals(2000, reader.getTimestamp());
+        assertEquals(B, reader.getKey());
+        assertEquals(-99, reader.getRssi());
+        assertEquals(-65, reader.getReferenceRssi());
+        assertEquals(ScanTrace.TYPE_FIRST_MATCH, reader.getType());
+        assertTrue(reader.next());
+        assertEquals(2500, reader.getTimestamp());
+        assertEquals(OFFICE, reader.getKey());
+        assertEquals(ScanTrace.TYPE_TRUTH, reader.getType());
+        assertTrue(reader.next());
+        assertEquals(ScanTrace.TYPE_MATCH_LOST, reader.getType());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void truncatedRecordIsIgnored() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        writer.write(1000, A, -60, -59, ScanTrace.TYPE_SAMPLE);
+        writer.write(2000, A, -61, -59, ScanTrace.TYPE_SAMPLE);
+        writer.close();
+        byte[] data = out.toByteArray();
+
+        TraceReader reader = reader(Arrays.copyOf(data, data.length - 5));
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getTimestamp());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void emptyTrace() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TraceWriter(Channels.newChannel(out)).close();
+        assertEquals(ScanTrace.HEADER_SIZE, out.size());
+        assertFalse(reader(out.toByteArray()).next());
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagic() throws IOException {
+        reader(new byte[] {'N', 'O', 'P', 'E', 0, 0, 0, 1});
+    }
+
+    @Test(expected = IOException.class)
+    public void missingHeader() throws IOException {
+        reader(new byte[] {'S', 'F'});
+    }
+
+    @Test
+    public void oldVersionIsRejected() throws IOException {
+        try {
+            reader(new byte[] {'S', 'F', 'T', 'R', 0, 1, 0, ScanTrace.RECORD_SIZE});
+            fail("version 1 trace accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version 1"));
+        }
+    }
+
+    @Test
+    public void simulatorMetrics() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        writer.writeTruth(0, OFFICE);
+        // next to beacon A in the office, entered after the dwell time
+        long t = writeSamples(writer, 0, 4000, NEAR, FAR);
+        // next to beacon B in the living room while the truth says office, false switch
+        t = writeSamples(writer, t, 8000, FAR, NEAR);
+        // the truth catches up, nothing to detect
+        writer.writeTruth(8000, LIVING_ROOM);
+        writer.writeTruth(9000, ScanTrace.KEY_NONE);
+        // left 1 second after the phone did
+        writer.write(10000, A, 0, 0, ScanTrace.TYPE_MATCH_LOST);
+        writer.write(10000, B, 0, 0, ScanTrace.TYPE_MATCH_LOST);
+        // never entered
+        writer.writeTruth(11000, OFFICE);
+        writer.close();
+
+        // no smoothing, so the decision follows the raw samples
+        TraceSimulator simulator = new TraceSimulator(floorPlan(), new RssiFilter.Factory() {
+            @Override
+            public RssiFilter create() {
+                return new EwmaRssiFilter(1.0);
+            }
+        });
+        TraceSimulator.Report report = simulator.run(reader(out.toByteArray()));
+
+        assertEquals(2 * (t / 500) + 6, report.records);
+        assertEquals(2, report.transfers);
+        assertEquals(1, report.pauses);
+        assertEquals(1, report.falseSwitches);
+        assertEquals(2, report.detections);
+        assertEquals(1, report.missedDetections);
+        assertEquals(1500, report.getAverageLatencyMillis());
+        assertEquals(2000, report.maxLatencyMillis);
+        assertTrue(report.getRecordsPerSecond() > 0);
+
+        StringWriter summary = new StringWriter();
+        report.writeSummary(summary);
+        assertTrue(summary.toString(), summary.toString().contains("false switches: 1"));
+    }
+
+    /**
+     * Writes samples of both beacons every 500 ms from {@code start} until before {@code end}.
+     *
+     * @return {@code end}
+     */
+    private static long writeSamples(TraceWriter writer, long start, long end, int rssiA,
+                                     int rssiB) throws IOException {
+        for (long t = start; t < end; t += 500) {
+            writer.write(t, A, rssiA, REFERENCE, ScanTrace.TYPE_SAMPLE);
+            writer.write(t, B, rssiB, REFERENCE, ScanTrace.TYPE_SAMPLE);
+        }
+        return end;
+    }
+
+    /**
+     * Beacon A in the office, beacon B in the living room.
+     */
+    private static FloorPlan floorPlan() {
+        return new FloorPlan(AltBeacon.SPOTIFINDME_ID1)
+                .addBeacon(1, 1, 1.5, 1.5)
+                .addBeacon(1, 2, 6, 2.5)
+                .addRoom("Office", "Laptop", 0, 0, 3, 3)
+                .addRoom("Living room", "Desktop", 3, 0, 9, 5);
+    }
+}
@@ -0,0 +1,148 @@
+package fi.craplab.spotifindme.zone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the {@link ZoneEngine}.
+ */
+public class ZoneEngineTest {
+    private static final Zone LAPTOP = new Zone(1, "Laptop", 1.5, 2.0);
+    private static final Zone DESKTOP = new Zone(2, "Desktop", 5.0, 6.0);
+    private static final Zone KITCHEN = new Zone(3, "Kitchen", 3.0, 4.0);
+
+    private ZoneEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new ZoneEngine(new Zone[] {LAPTOP, DESKTOP, KITCHEN}, 2000, 4000, 10000);
+    }
+
+    @Test
+    public void entersZoneAfterMinDwell() {
+        assertNull(feed(0, 1.0, 8.0, 9.0));
+        assertNull(feed(1000, 1.0, 8.0, 9.0));
+        assertSame(LAPTOP, feed(2000, 1.0, 8.0, 9.0));
+        assertSame(LAPTOP, engine.getCurrentZone());
+        // fires only once
+        assertNull(feed(3000, 1.0, 8.0, 9.0));
+    }
+
+    @Test
+    public void pendingZoneUntilCommitted() {
+        assertNull(engine.getPendingZone());
+        assertNull(feed(0, 1.0, 8.0, 9.0));
+        assertSame(LAPTOP, engine.getPendingZone());
+        assertSame(LAPTOP, feed(2000, 1.0, 8.0, 9.0));
+        assertNull(engine.getPendingZone());
+    }
+
+    @Test
+    public void hysteresisKeepsZoneBetweenEnterAndExit() {
+        enter(LAPTOP);
+
+        // 1.5m < distance < 2.0m flaps around the enter distance, but stays inside the exit one
+        for (long t = 3000; t < 20000; t += 500) {
+            double d1 = (t / 500) % 2 == 0 ? 1.4 : 1.9;
+            assertNull(feed(t, d1, 8.0, 9.0));
+        }
+        assertSame(LAPTOP, engine.getCurrentZone());
+    }
+
+    @Test
+    public void shortExcursionDoesNotSwitch() {
+        enter(LAPTOP);
+
+        assertNull(feed(3000, 3.0, 2.0, 9.0));
+        assertNull(feed(4000, 3.0, 2.0, 9.0));
+        assertNull(feed(4500, 1.0, 8.0, 9.0));
+        assertNull(feed(10000, 1.0, 8.0, 9.0));
+        assertSame(LAPTOP, engine.getCurrentZone());
+    }
+
+    @Test
+    public void switchesZoneOnceAfterLeaving() {
+        enter(LAPTOP);
+
+        assertNull(feed(3000, 3.0, 2.0, 9.0));
+        assertNull(feed(4000, 3.0, 2.0, 9.0));
+        assertSame(DESKTOP, feed(5000, 3.0, 2.0, 9.0));
+        assertNull(feed(6000, 3.0, 2.0, 9.0));
+    }
+
+    @Test
+    public void latencyBudgetLimitsHysteresis() {
+        enter(LAPTOP);
+
+        // still inside the laptop's exit distance, but much closer to the kitchen beacon
+        assertNull(feed(3000, 1.9, 8.0, 0.5));
+        assertNull(feed(5000, 1.9, 8.0, 0.5));
+        assertSame(KITCHEN, feed(7000, 1.9, 8.0, 0.5));
+    }
+
+    @Test
+    public void staleBeaconCountsAsOutOfRange() {
+        assertNull(feed(0, 1.0, 4.0, 9.0));
+        assertSame(LAPTOP, feed(2000, 1.0, 4.0, 9.0));
+
+        // laptop beacon disappears after 2000, desktop keeps reporting
+        for (long t = 3000; t <= 14000; t += 1000) {
+            engine.updateBeacon(2, 4.0, t);
+            assertNull("at " + t, engine.evaluate(t));
+        }
+        engine.updateBeacon(2, 4.0, 15000);
+        assertSame(DESKTOP, engine.evaluate(15000));
+    }
+
+    @Test
+    public void leaveAllLeavesCurrentZone() {
+        assertNull(engine.leaveAll());
+
+        enter(LAPTOP);
+        assertNull(feed(0, 8.0, 4.0, 9.0));
+        assertSame(DESKTOP, engine.getPendingZone());
+
+        assertSame(LAPTOP, engine.leaveAll());
+        assertNull(engine.getCurrentZone());
+        assertNull(engine.getPendingZone());
+        assertNull(engine.leaveAll());
+
+        // the old distances are gone, only new ones enter a zone again
+        assertNull(engine.evaluate(3000));
+        assertNull(feed(4000, 8.0, 4.0, 9.0));
+        assertSame(DESKTOP, feed(6000, 8.0, 4.0, 9.0));
+    }
+
+    @Test
+    public void syncToDeviceSuppressesTransition() {
+        engine.syncToDevice("Desktop");
+        assertSame(DESKTOP, engine.getCurrentZone());
+
+        for (long t = 0; t < 10000; t += 1000) {
+            assertNull(feed(t, 8.0, 4.0, 9.0));
+        }
+
+        engine.syncToDevice("Phone");
+        assertNull(engine.getCurrentZone());
+    }
+
+    /**
+     * Brings the engine into the given zone, starting at time 0.
+     */
+    private void enter(Zone zone) {
+        engine.syncToDevice(zone.deviceName);
+        assertSame(zone, engine.getCurrentZone());
+    }
+
+    /**
+     * Reports distances to all three beacons at the given time and evaluates the engine.
+     */
+    private Zone feed(long now, double laptop, double desktop, double kitchen) {
+        engine.updateBeacon(1, laptop, now);
+        engine.updateBeacon(2, desktop, now);
+        engine.updateBeacon(3, kitchen, now);
+        return engine.evaluate(now);
+    }
+}